@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of GenericAsyncCoalescingStatisticsAppender.append, which runs on the application threads, with 1 to 64
+ * threads logging concurrently. The appender's draining thread runs for real and its statistics are discarded, so
+ * the results include contention on the queue; when the producers outpace the draining thread messages are
+ * discarded, which makes the append cheaper, so results with a small queue are an upper bound.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncCoalescingAppenderBenchmark {
+    @Param({"1024", "65536"})
+    public int queueSize;
+
+    private GenericAsyncCoalescingStatisticsAppender appender;
+
+    @Setup(Level.Trial)
+    public void startAppender() {
+        appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setName("benchmark");
+        appender.setTimeSlice(1000L);
+        appender.setQueueSize(queueSize);
+        appender.start(new GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) { }
+
+            public void error(String errorMessage) { }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void stopAppender() {
+        appender.stop();
+    }
+
+    /**
+     * The messages each producer thread appends, pre-rendered so only the append is measured.
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private String[] messages;
+        private int nextMessage;
+
+        @Setup
+        public void setUp() {
+            messages = new String[64];
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = new StopWatch(System.currentTimeMillis(), i, "benchmark.async." + (i % 8), null)
+                        .toString();
+            }
+        }
+
+        String nextMessage() {
+            String retVal = messages[nextMessage];
+            nextMessage = (nextMessage + 1) & (messages.length - 1);
+            return retVal;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append1Thread(Producer producer) {
+        appender.append(producer.nextMessage());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void append4Threads(Producer producer) {
+        appender.append(producer.nextMessage());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void append16Threads(Producer producer) {
+        appender.append(producer.nextMessage());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void append64Threads(Producer producer) {
+        appender.append(producer.nextMessage());
+    }
+}
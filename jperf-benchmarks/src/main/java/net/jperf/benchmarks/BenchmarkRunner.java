@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The main class of the benchmarks jar. It takes the standard JMH command line options (run with -h to list them),
+ * and in addition always enables the GC profiler, so the results include the allocation rate of each benchmark
+ * (the gc.alloc.rate.norm secondary result is the number of bytes allocated per operation). Unless a result file is
+ * specified with -rff, the results are also written to jmh-result.json so runs of different releases can be compared.
+ * <p>
+ * Examples:
+ * <pre>
+ * java -jar target/benchmarks.jar                              # run all benchmarks
+ * java -jar target/benchmarks.jar StopWatchParser              # run the benchmarks matching a regular expression
+ * java -jar target/benchmarks.jar -f 1 -wi 3 -i 5 -rff out.csv # a quicker run, with the results written as CSV
+ * </pre>
+ */
+public class BenchmarkRunner {
+    /**
+     * The options that only list things, which are left to JMH's own main method.
+     */
+    private static final List<String> LISTING_OPTIONS = Arrays.asList("-h", "-l", "-lp", "-lprof", "-lrf");
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (LISTING_OPTIONS.contains(arg)) {
+                Main.main(args);
+                return;
+            }
+        }
+
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class);
+        if (!commandLineOptions.getResult().hasValue() && !commandLineOptions.getResultFormat().hasValue()) {
+            options.result("jmh-result.json").resultFormat(ResultFormatType.JSON);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.LoggingStopWatch;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A LoggingStopWatch that passes its log messages to a JMH Blackhole instead of writing them to System.err, so the
+ * benchmarks measure the StopWatch itself, including the creation of the log message, but not the output.
+ */
+public class BlackholeLoggingStopWatch extends LoggingStopWatch {
+    private static final long serialVersionUID = 1L;
+
+    private transient Blackhole blackhole;
+
+    public BlackholeLoggingStopWatch(String tag, Blackhole blackhole) {
+        super(tag);
+        this.blackhole = blackhole;
+    }
+
+    protected void log(String stopWatchAsString, Throwable exception) {
+        blackhole.consume(stopWatchAsString);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of GroupedTimingStatistics.addStopWatch, with and without rollup statistics. The StopWatches cycle
+ * through a fixed set of tags with 3 levels each, so with rollups every StopWatch updates 3 TimingStatistics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GroupedTimingStatisticsBenchmark {
+    private static final String[] TAGS = {
+            "orders.create.db", "orders.create.cache", "orders.find.db", "orders.find.cache",
+            "users.login.db", "users.login.ldap", "users.find.db", "users.find.cache"
+    };
+
+    @Param({"false", "true"})
+    public boolean createRollupStatistics;
+
+    /**
+     * The number of distinct tags used, at most TAGS.length.
+     */
+    @Param({"1", "8"})
+    public int numTags;
+
+    private StopWatch[] stopWatches;
+    private int nextStopWatch;
+    private GroupedTimingStatistics statistics;
+
+    @Setup
+    public void setUpStopWatches() {
+        stopWatches = new StopWatch[1024];
+        for (int i = 0; i < stopWatches.length; i++) {
+            stopWatches[i] = new StopWatch(1400000000000L + i, i % 500, TAGS[i % numTags], null);
+        }
+    }
+
+    /**
+     * A new time slice for each iteration, so the statistics don't grow across iterations.
+     */
+    @Setup(Level.Iteration)
+    public void setUpStatistics() {
+        statistics = new GroupedTimingStatistics();
+        statistics.setCreateRollupStatistics(createRollupStatistics);
+    }
+
+    @Benchmark
+    public GroupedTimingStatistics addStopWatch() {
+        StopWatch stopWatch = stopWatches[nextStopWatch];
+        nextStopWatch = (nextStopWatch + 1) & (stopWatches.length - 1);
+        return statistics.addStopWatch(stopWatch);
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.jperf.StopWatch;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures what jperf costs a real request path. A multi-threaded workload calls {@link OverheadWorkload} requests in
+ * a closed loop, once uninstrumented and once through each of the {@link Log4JProfiledWorkload} and
+ * {@link Slf4JProfiledWorkload}, whose {@link net.jperf.aop.Profiled} methods are woven with the log4j and slf4j
+ * TimingAspects. The TimingLogger of each framework feeds an AsyncCoalescingStatisticsAppender with a
+ * JmxAttributeStatisticsAppender and a GraphingStatisticsAppender attached, as in a typical production configuration.
+ * <p>
+ * For each thread count the harness reports the throughput and the p50, p99 and p99.9 request latencies of each mode,
+ * the throughput and p99 deltas relative to the baseline, and the mean overhead per profiled call, which is the
+ * reference number for the cost of jperf. Results are printed and written to a JSON file. Run it with:
+ * <pre>
+ * java -javaagent:target/aspectjweaver.jar -cp target/benchmarks.jar net.jperf.benchmarks.InstrumentationOverheadHarness
+ * </pre>
+ * On Java 16 and later the AspectJ weaver also needs <tt>--add-opens java.base/java.lang=ALL-UNNAMED</tt> to define
+ * the classes it generates. The numbers depend heavily on the number of cores, since the appenders' draining threads
+ * compete with the application threads. Run it with -h to list the options.
+ */
+public class InstrumentationOverheadHarness {
+    /**
+     * The number of profiled calls made by each request.
+     */
+    private static final int CALLS_PER_REQUEST = 3;
+    private static final String TAG_NAMES = "request,request.lookup,request.compute";
+
+    private int workIterations = 2000;
+    private long warmupMillis = 5000L;
+    private long measurementMillis = 10000L;
+
+    // --- options ---
+
+    public int getWorkIterations() {
+        return workIterations;
+    }
+
+    public void setWorkIterations(int workIterations) {
+        this.workIterations = workIterations;
+    }
+
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    public void setWarmupMillis(long warmupMillis) {
+        this.warmupMillis = warmupMillis;
+    }
+
+    public long getMeasurementMillis() {
+        return measurementMillis;
+    }
+
+    public void setMeasurementMillis(long measurementMillis) {
+        this.measurementMillis = measurementMillis;
+    }
+
+    // --- Main ---
+
+    public static void main(String[] args) throws Exception {
+        List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+        if (argsList.contains("-h") || argsList.contains("--help")) {
+            System.out.println("Usage: InstrumentationOverheadHarness [--threads 1,2,4,...] " +
+                               "[--modes baseline,log4j,slf4j] [--work iterations] [--warmup seconds] " +
+                               "[--duration seconds] [-t|--timeslice timeslice] [--label label] " +
+                               "[-o|--output resultFile]");
+            System.out.println("  --threads - The numbers of application threads. Defaults to 1,2,4,8,16,32,64,128.");
+            System.out.println("  --modes - The modes to measure. Defaults to baseline,log4j,slf4j.");
+            System.out.println("  --work iterations - The CPU work done by each request. Defaults to 2000.");
+            System.out.println("  --warmup seconds - The unmeasured time of each run. Defaults to 5.");
+            System.out.println("  --duration seconds - The measured time of each run. Defaults to 10.");
+            System.out.println("  -t|--timeslice timeslice - The TimeSlice of the AsyncCoalescingStatisticsAppenders," +
+                               " in ms. Defaults to 1000.");
+            System.out.println("  --label label - A label for the results, such as the jperf version being measured.");
+            System.out.println("  -o|--output resultFile - The JSON result file. Defaults to overhead-result.json.");
+            return;
+        }
+
+        String[] threadCounts =
+                SyntheticLogGenerator.removeArg(argsList, "1,2,4,8,16,32,64,128", "--threads").split(",");
+        String[] modes = SyntheticLogGenerator.removeArg(argsList, "baseline,log4j,slf4j", "--modes").split(",");
+        InstrumentationOverheadHarness harness = new InstrumentationOverheadHarness();
+        harness.setWorkIterations(Integer.parseInt(SyntheticLogGenerator.removeArg(argsList, "2000", "--work")));
+        harness.setWarmupMillis(1000L * Long.parseLong(SyntheticLogGenerator.removeArg(argsList, "5", "--warmup")));
+        harness.setMeasurementMillis(
+                1000L * Long.parseLong(SyntheticLogGenerator.removeArg(argsList, "10", "--duration")));
+        long timeSlice = Long.parseLong(SyntheticLogGenerator.removeArg(argsList, "1000", "-t", "--timeslice"));
+        String label = SyntheticLogGenerator.removeArg(argsList, StopWatch.class.getPackage().getImplementationVersion(),
+                                                       "--label");
+        String output = SyntheticLogGenerator.removeArg(argsList, "overhead-result.json", "-o", "--output");
+        if (!argsList.isEmpty()) {
+            System.err.println("Unknown arguments: " + argsList);
+            System.exit(1);
+        }
+
+        if (!isWoven(Log4JProfiledWorkload.class) || !isWoven(Slf4JProfiledWorkload.class)) {
+            System.err.println("The profiled workloads were not woven, run with -javaagent:target/aspectjweaver.jar");
+            System.exit(1);
+        }
+        net.jperf.log4j.AsyncCoalescingStatisticsAppender log4jAppender = configureLog4j(timeSlice);
+        net.jperf.logback.AsyncCoalescingStatisticsAppender logbackAppender = configureLogback(timeSlice);
+
+        List<Result> results = new ArrayList<Result>();
+        for (String threadCount : threadCounts) {
+            Result baseline = null;
+            for (String mode : modes) {
+                Result result = harness.run(mode, Integer.parseInt(threadCount));
+                if ("baseline".equals(mode)) {
+                    baseline = result;
+                } else {
+                    result.baseline = baseline;
+                }
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+
+        log4jAppender.close();
+        logbackAppender.stop();
+        System.out.println("Discarded StopWatches: log4j " + log4jAppender.getNumDiscardedMessages() +
+                           ", slf4j " + logbackAppender.getNumDiscardedMessages());
+        writeResults(new File(output), label, harness, timeSlice, results);
+        System.out.println("Results written to " + output);
+    }
+
+    // --- harness methods ---
+
+    /**
+     * Runs the workload in one mode with the specified number of threads.
+     *
+     * @param mode       baseline, log4j or slf4j.
+     * @param numThreads The number of application threads.
+     * @return The measurements.
+     * @throws InterruptedException Thrown if interrupted while waiting for the threads.
+     */
+    public Result run(String mode, int numThreads) throws InterruptedException {
+        final OverheadWorkload workload = newWorkload(mode);
+        final CountDownLatch started = new CountDownLatch(numThreads);
+        final LatencyHistogram[] histograms = new LatencyHistogram[numThreads];
+        final long[] checksums = new long[numThreads];
+        final RunState state = new RunState();
+
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int threadIndex = i;
+            histograms[i] = new LatencyHistogram();
+            threads[i] = new Thread("jperf-overhead-" + mode + "-" + i) {
+                public void run() {
+                    LatencyHistogram histogram = histograms[threadIndex];
+                    long checksum = 0L;
+                    int requestId = threadIndex;
+                    started.countDown();
+                    while (!state.stopped) {
+                        boolean measuring = state.measuring;
+                        long startNanos = System.nanoTime();
+                        checksum += workload.handleRequest(requestId++);
+                        long nanos = System.nanoTime() - startNanos;
+                        if (measuring && state.measuring) {
+                            histogram.record(nanos);
+                        }
+                    }
+                    checksums[threadIndex] = checksum;
+                }
+            };
+            threads[i].start();
+        }
+
+        started.await();
+        Thread.sleep(warmupMillis);
+        long startNanos = System.nanoTime();
+        state.measuring = true;
+        Thread.sleep(measurementMillis);
+        state.measuring = false;
+        long elapsedNanos = System.nanoTime() - startNanos;
+        state.stopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (LatencyHistogram threadHistogram : histograms) {
+            histogram.add(threadHistogram);
+        }
+        return new Result(mode, numThreads, histogram, elapsedNanos);
+    }
+
+    private OverheadWorkload newWorkload(String mode) {
+        if ("baseline".equals(mode)) {
+            return new OverheadWorkload(workIterations);
+        } else if ("log4j".equals(mode)) {
+            return new Log4JProfiledWorkload(workIterations);
+        } else if ("slf4j".equals(mode)) {
+            return new Slf4JProfiledWorkload(workIterations);
+        } else {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Checks whether AspectJ has woven the class, in which case it has synthetic ajc$ fields.
+     */
+    private static boolean isWoven(Class<?> workloadClass) {
+        for (Field field : workloadClass.getDeclaredFields()) {
+            if (field.getName().startsWith("ajc$")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static net.jperf.log4j.AsyncCoalescingStatisticsAppender configureLog4j(long timeSlice) {
+        net.jperf.log4j.JmxAttributeStatisticsAppender jmxAppender =
+                new net.jperf.log4j.JmxAttributeStatisticsAppender();
+        jmxAppender.setName("jmx");
+        jmxAppender.setMBeanName("net.jperf.benchmarks:type=StatisticsExposingMBean,name=log4j");
+        jmxAppender.setTagNamesToExpose(TAG_NAMES);
+        jmxAppender.activateOptions();
+
+        net.jperf.log4j.GraphingStatisticsAppender graphingAppender = new net.jperf.log4j.GraphingStatisticsAppender();
+        graphingAppender.setName("graph");
+        graphingAppender.setTagNamesToGraph(TAG_NAMES);
+        graphingAppender.activateOptions();
+
+        net.jperf.log4j.AsyncCoalescingStatisticsAppender asyncAppender =
+                new net.jperf.log4j.AsyncCoalescingStatisticsAppender();
+        asyncAppender.setName("coalescing");
+        asyncAppender.setTimeSlice(timeSlice);
+        asyncAppender.addAppender(jmxAppender);
+        asyncAppender.addAppender(graphingAppender);
+        asyncAppender.activateOptions();
+
+        Logger logger = Logger.getLogger(StopWatch.DEFAULT_LOGGER_NAME);
+        logger.removeAllAppenders();
+        logger.setAdditivity(false);
+        logger.setLevel(Level.INFO);
+        logger.addAppender(asyncAppender);
+        return asyncAppender;
+    }
+
+    private static net.jperf.logback.AsyncCoalescingStatisticsAppender configureLogback(long timeSlice) {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+        net.jperf.logback.JmxAttributeStatisticsAppender jmxAppender =
+                new net.jperf.logback.JmxAttributeStatisticsAppender();
+        jmxAppender.setContext(loggerContext);
+        jmxAppender.setName("jmx");
+        jmxAppender.setMBeanName("net.jperf.benchmarks:type=StatisticsExposingMBean,name=slf4j");
+        jmxAppender.setTagNamesToExpose(TAG_NAMES);
+        jmxAppender.start();
+
+        net.jperf.logback.GraphingStatisticsAppender graphingAppender =
+                new net.jperf.logback.GraphingStatisticsAppender();
+        graphingAppender.setContext(loggerContext);
+        graphingAppender.setName("graph");
+        graphingAppender.setTagNamesToGraph(TAG_NAMES);
+        graphingAppender.start();
+
+        net.jperf.logback.AsyncCoalescingStatisticsAppender asyncAppender =
+                new net.jperf.logback.AsyncCoalescingStatisticsAppender();
+        asyncAppender.setContext(loggerContext);
+        asyncAppender.setName("coalescing");
+        asyncAppender.setTimeSlice(timeSlice);
+        asyncAppender.addAppender(jmxAppender);
+        asyncAppender.addAppender(graphingAppender);
+        asyncAppender.start();
+
+        ch.qos.logback.classic.Logger logger = loggerContext.getLogger(StopWatch.DEFAULT_LOGGER_NAME);
+        logger.detachAndStopAllAppenders();
+        logger.setAdditive(false);
+        logger.setLevel(ch.qos.logback.classic.Level.INFO);
+        logger.addAppender(asyncAppender);
+        return asyncAppender;
+    }
+
+    private static void writeResults(File file,
+                                     String label,
+                                     InstrumentationOverheadHarness harness,
+                                     long timeSlice,
+                                     List<Result> results) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("{\n");
+            out.write("  \"benchmark\": \"InstrumentationOverhead\",\n");
+            out.write("  \"label\": " + ((label == null) ? "null" : "\"" + label.replace("\"", "\\\"") + "\"") + ",\n");
+            out.write("  \"javaVersion\": \"" + System.getProperty("java.version") + "\",\n");
+            out.write("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            out.write("  \"workIterations\": " + harness.workIterations + ",\n");
+            out.write("  \"callsPerRequest\": " + CALLS_PER_REQUEST + ",\n");
+            out.write("  \"warmupMillis\": " + harness.warmupMillis + ",\n");
+            out.write("  \"measurementMillis\": " + harness.measurementMillis + ",\n");
+            out.write("  \"timeSlice\": " + timeSlice + ",\n");
+            out.write("  \"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                out.write("    " + results.get(i).toJson() + ((i < results.size() - 1) ? ",\n" : "\n"));
+            }
+            out.write("  ]\n");
+            out.write("}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    // --- Support Classes ---
+
+    private static class RunState {
+        volatile boolean measuring = false;
+        volatile boolean stopped = false;
+    }
+
+    /**
+     * The measurements of one mode at one thread count.
+     */
+    public static class Result {
+        private String mode;
+        private int numThreads;
+        private LatencyHistogram histogram;
+        private long elapsedNanos;
+        /**
+         * The baseline result at the same thread count, if measured.
+         */
+        private Result baseline;
+
+        Result(String mode, int numThreads, LatencyHistogram histogram, long elapsedNanos) {
+            this.mode = mode;
+            this.numThreads = numThreads;
+            this.histogram = histogram;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getRequestsPerSecond() {
+            return histogram.getTotalCount() / (elapsedNanos / 1e9);
+        }
+
+        public long getP99Nanos() {
+            return histogram.getPercentileNanos(0.99);
+        }
+
+        /**
+         * Gets the change in throughput relative to the baseline.
+         *
+         * @return The change as a percentage, negative if slower, or NaN if there is no baseline.
+         */
+        public double getThroughputDeltaPercent() {
+            return (baseline == null) ? Double.NaN
+                                      : 100.0 * (getRequestsPerSecond() / baseline.getRequestsPerSecond() - 1.0);
+        }
+
+        /**
+         * Gets the change in p99 latency relative to the baseline.
+         *
+         * @return The change as a percentage, positive if slower, or NaN if there is no baseline.
+         */
+        public double getP99DeltaPercent() {
+            return (baseline == null) ? Double.NaN : 100.0 * ((double) getP99Nanos() / baseline.getP99Nanos() - 1.0);
+        }
+
+        /**
+         * Gets the mean overhead of each profiled call: the difference between the mean request latencies of this
+         * mode and the baseline, divided by the number of profiled calls per request.
+         *
+         * @return The overhead per call in nanoseconds, or NaN if there is no baseline.
+         */
+        public double getOverheadPerCallNanos() {
+            return (baseline == null) ? Double.NaN
+                                      : (histogram.getMeanNanos() - baseline.histogram.getMeanNanos()) /
+                                        CALLS_PER_REQUEST;
+        }
+
+        String toJson() {
+            return String.format(Locale.US,
+                                 "{\"mode\": \"%s\", \"threads\": %d, \"requestsPerSecond\": %.1f, " +
+                                 "\"meanNanos\": %.1f, \"p50Nanos\": %d, \"p99Nanos\": %d, \"p999Nanos\": %d, " +
+                                 "\"maxNanos\": %d, \"throughputDeltaPercent\": %s, \"p99DeltaPercent\": %s, " +
+                                 "\"overheadPerCallNanos\": %s}",
+                                 mode, numThreads, getRequestsPerSecond(), histogram.getMeanNanos(),
+                                 histogram.getPercentileNanos(0.5), getP99Nanos(), histogram.getPercentileNanos(0.999),
+                                 histogram.getMaxNanos(), toJsonNumber(getThroughputDeltaPercent()),
+                                 toJsonNumber(getP99DeltaPercent()), toJsonNumber(getOverheadPerCallNanos()));
+        }
+
+        public String toString() {
+            String retVal = String.format(Locale.US,
+                                          "threads=%-3d mode=%-8s %12.0f req/s  p50 %8.2f us  p99 %8.2f us  " +
+                                          "p99.9 %9.2f us",
+                                          numThreads, mode, getRequestsPerSecond(),
+                                          histogram.getPercentileNanos(0.5) / 1000.0, getP99Nanos() / 1000.0,
+                                          histogram.getPercentileNanos(0.999) / 1000.0);
+            if (baseline != null) {
+                retVal += String.format(Locale.US, "  throughput %+6.1f%%  p99 %+6.1f%%  %7.0f ns/call",
+                                        getThroughputDeltaPercent(), getP99DeltaPercent(), getOverheadPerCallNanos());
+            }
+            return retVal;
+        }
+
+        private static String toJsonNumber(double value) {
+            return Double.isNaN(value) ? "null" : String.format(Locale.US, "%.2f", value);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+/**
+ * A fixed size, log-linear histogram of latencies in nanoseconds with a relative precision of 1/64 (about 1.6%), so
+ * that every request can be recorded cheaply without storing the samples. Instances are not thread safe: each thread
+ * records into its own histogram and they are merged afterwards.
+ */
+public class LatencyHistogram {
+    /**
+     * The number of buckets per power of 2, above the first 2 * SUB_BUCKETS values which have a bucket each.
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private long[] counts = new long[NUM_BUCKETS];
+    private long totalCount = 0L;
+    private long totalNanos = 0L;
+    private long maxNanos = 0L;
+
+    public void record(long nanos) {
+        if (nanos < 0L) {
+            nanos = 0L;
+        }
+        counts[getBucket(nanos)]++;
+        totalCount++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public double getMeanNanos() {
+        return (totalCount == 0L) ? 0.0 : (double) totalNanos / totalCount;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Gets the latency below which the specified fraction of the recorded latencies fall.
+     *
+     * @param fraction The fraction, e.g. 0.99 for the 99th percentile.
+     * @return The upper bound of the bucket holding the percentile, in nanoseconds.
+     */
+    public long getPercentileNanos(double fraction) {
+        long threshold = (long) Math.ceil(fraction * totalCount);
+        long count = 0L;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += counts[i];
+            if (count >= threshold && count > 0L) {
+                return Math.min(getBucketUpperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    private static int getBucket(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long getBucketUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long mantissa = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.LogParser;
+import net.jperf.helpers.DefaultStatisticsFormatter;
+import net.jperf.helpers.GroupedTimingStatisticsCsvFormatter;
+import net.jperf.helpers.GroupedTimingStatisticsJsonFormatter;
+import net.jperf.helpers.GroupedTimingStatisticsTextFormatter;
+import net.jperf.helpers.StatisticsFormatter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the throughput of the {@link LogParser} on a synthetic log from the {@link SyntheticLogGenerator}, for
+ * each combination of output format (text, csv and json) and rollup statistics on and off. For every combination the
+ * log is parsed WarmupRuns times, then Runs times while measuring MB/s and lines/s, the peak heap usage, and the
+ * number and duration of garbage collections. The statistics output is discarded, so the cost of formatting is
+ * measured but not the cost of writing. The results are printed and written to a JSON file so they can be compared
+ * across versions.
+ * <p>
+ * Run it with:
+ * <pre>
+ * java -Xmx512m -cp target/benchmarks.jar net.jperf.benchmarks.LogParserThroughputBenchmark [options]
+ * </pre>
+ * Since all the combinations run in the same JVM the heap size should be fixed with -Xmx, so the peak heap and GC
+ * figures are comparable between runs. Run it with -h to list the options.
+ */
+public class LogParserThroughputBenchmark {
+    private static final double MB = 1024.0 * 1024.0;
+
+    private File log;
+    private long numLines;
+    private long timeSlice = 30000L;
+    private int warmupRuns = 1;
+    private int runs = 3;
+
+    public LogParserThroughputBenchmark(File log, long numLines) {
+        this.log = log;
+        this.numLines = numLines;
+    }
+
+    // --- options ---
+
+    public long getTimeSlice() {
+        return timeSlice;
+    }
+
+    public void setTimeSlice(long timeSlice) {
+        this.timeSlice = timeSlice;
+    }
+
+    public int getWarmupRuns() {
+        return warmupRuns;
+    }
+
+    public void setWarmupRuns(int warmupRuns) {
+        this.warmupRuns = warmupRuns;
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+
+    public void setRuns(int runs) {
+        this.runs = runs;
+    }
+
+    // --- Main ---
+
+    public static void main(String[] args) throws Exception {
+        List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+        if (argsList.contains("-h") || argsList.contains("--help")) {
+            System.out.println("Usage: LogParserThroughputBenchmark [-i|--input logFile] [-s|--size size] " +
+                               SyntheticLogGenerator.getOptionsUsage() + " [-t|--timeslice timeslice] " +
+                               "[--formats text,csv,json] [--rollup true,false] [--warmup runs] [--runs runs] " +
+                               "[--label label] [-o|--output resultFile]");
+            System.out.println("  -i|--input logFile - An existing log to parse. If not specified, a synthetic log" +
+                               " is generated in the temp directory and deleted afterwards.");
+            System.out.println("  -s|--size size - The size of the generated log, e.g. 500m or 4g. Defaults to 1g.");
+            SyntheticLogGenerator.printOptionsHelp();
+            System.out.println("  -t|--timeslice timeslice - The LogParser time slice in ms. Defaults to 30000.");
+            System.out.println("  --formats - The output formats to measure. Defaults to text,csv,json.");
+            System.out.println("  --rollup - The rollup settings to measure. Defaults to false,true.");
+            System.out.println("  --warmup runs - The number of unmeasured runs of each combination. Defaults to 1.");
+            System.out.println("  --runs runs - The number of measured runs of each combination. Defaults to 3.");
+            System.out.println("  --label label - A label for the results, such as the jperf version being measured." +
+                               " Defaults to the version of the jperf jar, if known.");
+            System.out.println("  -o|--output resultFile - The JSON result file. Defaults to logparser-result.json.");
+            return;
+        }
+
+        String input = SyntheticLogGenerator.removeArg(argsList, null, "-i", "--input");
+        long size = SyntheticLogGenerator.parseSize(SyntheticLogGenerator.removeArg(argsList, "1g", "-s", "--size"));
+        SyntheticLogGenerator generator = SyntheticLogGenerator.newGenerator(argsList);
+        long timeSlice = Long.parseLong(SyntheticLogGenerator.removeArg(argsList, "30000", "-t", "--timeslice"));
+        String[] formats = SyntheticLogGenerator.removeArg(argsList, "text,csv,json", "--formats").split(",");
+        String[] rollups = SyntheticLogGenerator.removeArg(argsList, "false,true", "--rollup").split(",");
+        int warmupRuns = Integer.parseInt(SyntheticLogGenerator.removeArg(argsList, "1", "--warmup"));
+        int runs = Integer.parseInt(SyntheticLogGenerator.removeArg(argsList, "3", "--runs"));
+        String label = SyntheticLogGenerator.removeArg(argsList, LogParser.class.getPackage().getImplementationVersion(),
+                                                       "--label");
+        String output = SyntheticLogGenerator.removeArg(argsList, "logparser-result.json", "-o", "--output");
+        if (!argsList.isEmpty()) {
+            System.err.println("Unknown arguments: " + argsList);
+            System.exit(1);
+        }
+
+        File log;
+        long numLines;
+        if (input == null) {
+            log = File.createTempFile("jperf-synthetic", ".log");
+            log.deleteOnExit();
+            System.out.println("Generating " + size + " byte log " + log);
+            numLines = generator.generate(log, size);
+        } else {
+            log = new File(input);
+            numLines = countLines(log);
+        }
+
+        try {
+            LogParserThroughputBenchmark benchmark = new LogParserThroughputBenchmark(log, numLines);
+            benchmark.setTimeSlice(timeSlice);
+            benchmark.setWarmupRuns(warmupRuns);
+            benchmark.setRuns(runs);
+
+            List<Result> results = new ArrayList<Result>();
+            for (String format : formats) {
+                for (String rollup : rollups) {
+                    Result result = benchmark.run(format, Boolean.parseBoolean(rollup));
+                    System.out.println(result);
+                    results.add(result);
+                }
+            }
+
+            writeResults(new File(output), label, (input == null) ? generator : null, benchmark, results);
+            System.out.println("Results written to " + output);
+        } finally {
+            if (input == null) {
+                log.delete();
+            }
+        }
+    }
+
+    // --- benchmark methods ---
+
+    /**
+     * Runs the warmup and measured runs for one combination.
+     *
+     * @param format                 The output format, text, csv or json.
+     * @param createRollupStatistics Whether rollup statistics are created.
+     * @return The measurements of the measured runs.
+     * @throws IOException Thrown if the log could not be read.
+     */
+    public Result run(String format, boolean createRollupStatistics) throws IOException {
+        for (int i = 0; i < warmupRuns; i++) {
+            runOnce(format, createRollupStatistics);
+        }
+
+        Result result = new Result(format, createRollupStatistics);
+        for (int i = 0; i < runs; i++) {
+            System.gc();
+            List<MemoryPoolMXBean> heapPools = getHeapPools();
+            for (MemoryPoolMXBean pool : heapPools) {
+                pool.resetPeakUsage();
+            }
+            long gcCount = getGcCount();
+            long gcTime = getGcTime();
+
+            long nanos = runOnce(format, createRollupStatistics);
+
+            long peakHeap = 0L;
+            for (MemoryPoolMXBean pool : heapPools) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+            result.addRun(nanos, peakHeap, getGcCount() - gcCount, getGcTime() - gcTime);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the log once.
+     *
+     * @return The time it took, in nanoseconds.
+     */
+    private long runOnce(String format, boolean createRollupStatistics) throws IOException {
+        Reader input = new BufferedReader(new InputStreamReader(new FileInputStream(log), "UTF-8"), 1 << 16);
+        PrintStream statisticsOutput = new PrintStream(new NullOutputStream());
+        try {
+            long startNanos = System.nanoTime();
+            new LogParser(input, statisticsOutput, null, timeSlice, createRollupStatistics, newFormatter(format))
+                    .parseLog();
+            return System.nanoTime() - startNanos;
+        } finally {
+            input.close();
+        }
+    }
+
+    // --- helper methods ---
+
+    private static StatisticsFormatter newFormatter(String format) {
+        if ("text".equalsIgnoreCase(format)) {
+            return new DefaultStatisticsFormatter(new GroupedTimingStatisticsTextFormatter());
+        } else if ("csv".equalsIgnoreCase(format)) {
+            return new DefaultStatisticsFormatter(new GroupedTimingStatisticsCsvFormatter());
+        } else if (format.startsWith("json")) {
+            return new GroupedTimingStatisticsJsonFormatter(format);
+        } else {
+            throw new IllegalArgumentException("Unknown format type: " + format);
+        }
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        List<MemoryPoolMXBean> retVal = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                retVal.add(pool);
+            }
+        }
+        return retVal;
+    }
+
+    private static long getGcCount() {
+        long retVal = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            retVal += Math.max(0L, gc.getCollectionCount());
+        }
+        return retVal;
+    }
+
+    private static long getGcTime() {
+        long retVal = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            retVal += Math.max(0L, gc.getCollectionTime());
+        }
+        return retVal;
+    }
+
+    private static long countLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+        try {
+            long retVal = 0L;
+            while (reader.readLine() != null) {
+                retVal++;
+            }
+            return retVal;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void writeResults(File file,
+                                     String label,
+                                     SyntheticLogGenerator generator,
+                                     LogParserThroughputBenchmark benchmark,
+                                     List<Result> results) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("{\n");
+            out.write("  \"benchmark\": \"LogParser\",\n");
+            out.write("  \"label\": " + ((label == null) ? "null" : "\"" + label.replace("\"", "\\\"") + "\"") + ",\n");
+            out.write("  \"javaVersion\": \"" + System.getProperty("java.version") + "\",\n");
+            out.write("  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + ",\n");
+            out.write("  \"logBytes\": " + benchmark.log.length() + ",\n");
+            out.write("  \"logLines\": " + benchmark.numLines + ",\n");
+            out.write("  \"timeSlice\": " + benchmark.timeSlice + ",\n");
+            out.write("  \"warmupRuns\": " + benchmark.warmupRuns + ",\n");
+            out.write("  \"runs\": " + benchmark.runs + ",\n");
+            if (generator != null) {
+                out.write("  \"generator\": {\"numTags\": " + generator.getNumTags() +
+                          ", \"rate\": " + generator.getRate() +
+                          ", \"messageSize\": " + generator.getMessageSize() +
+                          ", \"noiseRatio\": " + generator.getNoiseRatio() +
+                          ", \"outOfOrderRatio\": " + generator.getOutOfOrderRatio() +
+                          ", \"seed\": " + generator.getSeed() + "},\n");
+            }
+            out.write("  \"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                out.write("    " + results.get(i).toJson() + ((i < results.size() - 1) ? ",\n" : "\n"));
+            }
+            out.write("  ]\n");
+            out.write("}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * The measurements of one format and rollup combination.
+     */
+    public class Result {
+        private String format;
+        private boolean createRollupStatistics;
+        private List<Long> runNanos = new ArrayList<Long>();
+        private long maxPeakHeap = 0L;
+        private long totalGcCount = 0L;
+        private long totalGcTime = 0L;
+
+        Result(String format, boolean createRollupStatistics) {
+            this.format = format;
+            this.createRollupStatistics = createRollupStatistics;
+        }
+
+        void addRun(long nanos, long peakHeap, long gcCount, long gcTime) {
+            runNanos.add(nanos);
+            maxPeakHeap = Math.max(maxPeakHeap, peakHeap);
+            totalGcCount += gcCount;
+            totalGcTime += gcTime;
+        }
+
+        /**
+         * Gets the mean number of MB (2^20 bytes) parsed per second over the measured runs.
+         *
+         * @return The mean throughput in MB/s.
+         */
+        public double getMegabytesPerSecond() {
+            return log.length() / MB / getMeanSeconds();
+        }
+
+        /**
+         * Gets the mean number of lines parsed per second over the measured runs.
+         *
+         * @return The mean throughput in lines/s.
+         */
+        public double getLinesPerSecond() {
+            return numLines / getMeanSeconds();
+        }
+
+        /**
+         * Gets the lowest throughput of the measured runs.
+         *
+         * @return The minimum throughput in MB/s.
+         */
+        public double getMinMegabytesPerSecond() {
+            long maxNanos = 0L;
+            for (long nanos : runNanos) {
+                maxNanos = Math.max(maxNanos, nanos);
+            }
+            return log.length() / MB / (maxNanos / 1e9);
+        }
+
+        private double getMeanSeconds() {
+            long totalNanos = 0L;
+            for (long nanos : runNanos) {
+                totalNanos += nanos;
+            }
+            return totalNanos / 1e9 / runNanos.size();
+        }
+
+        String toJson() {
+            return String.format(Locale.US,
+                                 "{\"format\": \"%s\", \"rollup\": %b, \"mbPerSecond\": %.3f, " +
+                                 "\"minMbPerSecond\": %.3f, \"linesPerSecond\": %.1f, \"peakHeapBytes\": %d, " +
+                                 "\"gcCountPerRun\": %.2f, \"gcTimeMillisPerRun\": %.2f, \"runNanos\": %s}",
+                                 format, createRollupStatistics, getMegabytesPerSecond(), getMinMegabytesPerSecond(),
+                                 getLinesPerSecond(), maxPeakHeap, (double) totalGcCount / runNanos.size(),
+                                 (double) totalGcTime / runNanos.size(), runNanos);
+        }
+
+        public String toString() {
+            return String.format(Locale.US,
+                                 "format=%-4s rollup=%-5b %9.2f MB/s %12.0f lines/s  peak heap %6.1f MB  " +
+                                 "%5.1f GCs/run %8.1f ms GC/run",
+                                 format, createRollupStatistics, getMegabytesPerSecond(), getLinesPerSecond(),
+                                 maxPeakHeap / MB, (double) totalGcCount / runNanos.size(),
+                                 (double) totalGcTime / runNanos.size());
+        }
+    }
+
+    /**
+     * Discards everything written to it.
+     */
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) { }
+
+        public void write(byte[] b, int off, int len) { }
+    }
+}
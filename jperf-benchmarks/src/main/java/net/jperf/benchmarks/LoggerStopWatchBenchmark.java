@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import net.jperf.StopWatch;
+import net.jperf.log4j.Log4JStopWatch;
+import net.jperf.slf4j.Slf4JStopWatch;
+import org.apache.log4j.Level;
+import org.apache.log4j.varia.NullAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Log4JStopWatch and Slf4JStopWatch (with the logback binding) logging to an appender that discards
+ * the events, so the cost of the logging framework's dispatch is included but no output is written. The disabled
+ * variants measure a stop when the TimingLogger is turned off, which is how jperf is often left in production.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerStopWatchBenchmark {
+    private static final String DISABLED_LOGGER_NAME = StopWatch.DEFAULT_LOGGER_NAME + ".disabled";
+
+    private org.apache.log4j.Logger log4jLogger;
+    private org.apache.log4j.Logger disabledLog4jLogger;
+    private org.slf4j.Logger slf4jLogger;
+    private org.slf4j.Logger disabledSlf4jLogger;
+
+    @Setup
+    public void setUp() {
+        log4jLogger = org.apache.log4j.Logger.getLogger(StopWatch.DEFAULT_LOGGER_NAME);
+        log4jLogger.removeAllAppenders();
+        log4jLogger.setAdditivity(false);
+        log4jLogger.setLevel(Level.INFO);
+        log4jLogger.addAppender(new NullAppender());
+        disabledLog4jLogger = org.apache.log4j.Logger.getLogger(DISABLED_LOGGER_NAME);
+        disabledLog4jLogger.setLevel(Level.OFF);
+
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        ch.qos.logback.classic.Logger logbackLogger = loggerContext.getLogger(StopWatch.DEFAULT_LOGGER_NAME);
+        logbackLogger.detachAndStopAllAppenders();
+        logbackLogger.setAdditive(false);
+        logbackLogger.setLevel(ch.qos.logback.classic.Level.INFO);
+        NoOpAppender appender = new NoOpAppender();
+        appender.setContext(loggerContext);
+        appender.start();
+        logbackLogger.addAppender(appender);
+        slf4jLogger = logbackLogger;
+        ch.qos.logback.classic.Logger disabledLogbackLogger = loggerContext.getLogger(DISABLED_LOGGER_NAME);
+        disabledLogbackLogger.setLevel(ch.qos.logback.classic.Level.OFF);
+        disabledSlf4jLogger = disabledLogbackLogger;
+    }
+
+    @Benchmark
+    public String log4jStopWatch() {
+        StopWatch stopWatch = new Log4JStopWatch("benchmark.log4j", log4jLogger);
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String log4jStopWatchDisabled() {
+        StopWatch stopWatch = new Log4JStopWatch("benchmark.log4j", disabledLog4jLogger);
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String slf4jStopWatch() {
+        StopWatch stopWatch = new Slf4JStopWatch("benchmark.slf4j", slf4jLogger);
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String slf4jStopWatchDisabled() {
+        StopWatch stopWatch = new Slf4JStopWatch("benchmark.slf4j", disabledSlf4jLogger);
+        return stopWatch.stop();
+    }
+
+    /**
+     * A logback appender that discards every event.
+     */
+    public static class NoOpAppender extends AppenderBase<LoggingEvent> {
+        protected void append(LoggingEvent event) { }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.LoggingStopWatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of LoggingStopWatch.stop, without a time threshold, with a threshold the StopWatch stays below (so
+ * nothing is logged) and with a threshold and the normal and slow suffixes enabled (so every stop is logged with a
+ * suffixed tag). The log output goes to a Blackhole, see {@link BlackholeLoggingStopWatch}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoggingStopWatchBenchmark {
+    @Benchmark
+    public String stopWithoutThreshold(Blackhole blackhole) {
+        LoggingStopWatch stopWatch = new BlackholeLoggingStopWatch("benchmark.noThreshold", blackhole);
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String stopBelowThreshold(Blackhole blackhole) {
+        LoggingStopWatch stopWatch = new BlackholeLoggingStopWatch("benchmark.belowThreshold", blackhole);
+        stopWatch.setTimeThreshold(60000L);
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String stopWithSlowSuffixes(Blackhole blackhole) {
+        LoggingStopWatch stopWatch = new BlackholeLoggingStopWatch("benchmark.suffixes", blackhole);
+        stopWatch.setTimeThreshold(60000L);
+        stopWatch.setNormalAndSlowSuffixesEnabled(true);
+        return stopWatch.stop();
+    }
+}
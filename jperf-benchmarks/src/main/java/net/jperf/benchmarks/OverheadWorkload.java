@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The synthetic request path run by the {@link InstrumentationOverheadHarness}. Each request looks up a value in a
+ * shared map and then does WorkIterations of CPU work. This class itself is never woven, so it is the uninstrumented
+ * baseline; the {@link Log4JProfiledWorkload} and {@link Slf4JProfiledWorkload} subclasses annotate the same methods
+ * with {@link net.jperf.aop.Profiled} and are woven with the log4j and slf4j TimingAspects respectively.
+ */
+public class OverheadWorkload {
+    private static final int NUM_KEYS = 1024;
+
+    private ConcurrentMap<Integer, Long> values = new ConcurrentHashMap<Integer, Long>();
+    private int workIterations;
+
+    public OverheadWorkload(int workIterations) {
+        this.workIterations = workIterations;
+        for (int i = 0; i < NUM_KEYS; i++) {
+            values.put(i, (long) i * 31);
+        }
+    }
+
+    /**
+     * Handles one request, which makes 3 profiled calls in the instrumented subclasses.
+     *
+     * @param requestId The request id, which selects the key looked up.
+     * @return A value computed from the request, so the work can't be optimized away.
+     */
+    public long handleRequest(int requestId) {
+        return compute(lookup(requestId));
+    }
+
+    public long lookup(int requestId) {
+        Long retVal = values.get(requestId & (NUM_KEYS - 1));
+        values.put(requestId & (NUM_KEYS - 1), retVal + 1);
+        return retVal;
+    }
+
+    public long compute(long seed) {
+        long retVal = seed;
+        for (int i = 0; i < workIterations; i++) {
+            retVal = retVal * 6364136223846793005L + 1442695040888963407L;
+            retVal ^= retVal >>> 29;
+        }
+        return retVal;
+    }
+}
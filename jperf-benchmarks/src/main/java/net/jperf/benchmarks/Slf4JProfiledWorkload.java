@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.aop.Profiled;
+
+/**
+ * The {@link OverheadWorkload} with profiled methods, woven only with the slf4j TimingAspect, see META-INF/aop.xml.
+ */
+public class Slf4JProfiledWorkload extends OverheadWorkload {
+    public Slf4JProfiledWorkload(int workIterations) {
+        super(workIterations);
+    }
+
+    @Profiled(tag = "request")
+    public long handleRequest(int requestId) {
+        return super.handleRequest(requestId);
+    }
+
+    @Profiled(tag = "request.lookup")
+    public long lookup(int requestId) {
+        return super.lookup(requestId);
+    }
+
+    @Profiled(tag = "request.compute")
+    public long compute(long seed) {
+        return super.compute(seed);
+    }
+}
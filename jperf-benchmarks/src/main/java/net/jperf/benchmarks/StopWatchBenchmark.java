@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.StopWatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the plain StopWatch, which is the baseline cost of all the other StopWatch types.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StopWatchBenchmark {
+    private StopWatch reused = new StopWatch("benchmark.reused");
+
+    /**
+     * Creating, starting and stopping a new StopWatch, as is done for each timed block of code.
+     */
+    @Benchmark
+    public String newStartStop() {
+        StopWatch stopWatch = new StopWatch("benchmark.new");
+        return stopWatch.stop();
+    }
+
+    /**
+     * Restarting and stopping an existing StopWatch.
+     */
+    @Benchmark
+    public String startStop() {
+        reused.start();
+        return reused.stop();
+    }
+
+    /**
+     * Stopping a StopWatch with a tag and message, which are then part of the returned string.
+     */
+    @Benchmark
+    public String startStopWithTagAndMessage() {
+        reused.start();
+        return reused.stop("benchmark.tagged", "a message");
+    }
+}
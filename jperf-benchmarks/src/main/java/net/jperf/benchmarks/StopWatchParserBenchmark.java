@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.StopWatch;
+import net.jperf.helpers.StopWatchParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of StopWatchParser, which the AsyncCoalescingStatisticsAppenders and the LogParser call for every
+ * logged StopWatch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StopWatchParserBenchmark {
+    private StopWatchParser parser = new StopWatchParser();
+    private String message = new StopWatch(1400000000000L, 123L, "benchmark.parser", "a message").toString();
+    private String messageWithoutMessage = new StopWatch(1400000000000L, 123L, "benchmark.parser", null).toString();
+    private String otherLogMessage = "2015-01-01 12:00:00,000 INFO  [main] Server started in 1234 ms";
+
+    @Benchmark
+    public StopWatch parseStopWatch() {
+        return parser.parseStopWatch(message);
+    }
+
+    @Benchmark
+    public StopWatch parseStopWatchWithoutMessage() {
+        return parser.parseStopWatch(messageWithoutMessage);
+    }
+
+    /**
+     * Parsing a log line that is not a StopWatch, as the LogParser does for every other line of the log.
+     */
+    @Benchmark
+    public StopWatch parseOtherLogMessage() {
+        return parser.parseStopWatch(otherLogMessage);
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.StopWatch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generates synthetic jperf logs for the {@link LogParserThroughputBenchmark}. Each line looks like it was written by a
+ * typical log4j or logback pattern layout, and is either a StopWatch or, for the NoiseRatio fraction of lines, an
+ * unrelated application log message. The output only depends on the options, including the Seed, so the same log can
+ * be regenerated to compare versions.
+ * <p>
+ * The generator can be run standalone with the {@link #main} method; run it without arguments for the options.
+ */
+public class SyntheticLogGenerator {
+    /**
+     * The simulated time of the first StopWatch, a multiple of every usual time slice.
+     */
+    public static final long BASE_TIME = 1400000040000L;
+
+    private int numTags = 100;
+    private int rate = 1000;
+    private int messageSize = 0;
+    private double noiseRatio = 0.1;
+    private double outOfOrderRatio = 0.0;
+    private long outOfOrderMaxMillis = 5000L;
+    private long seed = 42L;
+
+    // --- options ---
+
+    public int getNumTags() {
+        return numTags;
+    }
+
+    /**
+     * Sets the number of distinct tags, i.e. the tag cardinality. Tags have 3 levels so rollup statistics create about
+     * 50% more tags. Defaults to 100.
+     *
+     * @param numTags The number of distinct tags.
+     */
+    public void setNumTags(int numTags) {
+        this.numTags = numTags;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the number of StopWatches per second of simulated time, which determines how many StopWatches are in each
+     * time slice. Defaults to 1000.
+     *
+     * @param rate The number of StopWatches per second.
+     */
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    /**
+     * Sets the average length of the StopWatch messages, in characters. Defaults to 0, meaning StopWatches have no
+     * message.
+     *
+     * @param messageSize The average message length.
+     */
+    public void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    public double getNoiseRatio() {
+        return noiseRatio;
+    }
+
+    /**
+     * Sets the fraction of lines that are not StopWatches. Defaults to 0.1.
+     *
+     * @param noiseRatio The fraction of noise lines, from 0 to less than 1.
+     */
+    public void setNoiseRatio(double noiseRatio) {
+        this.noiseRatio = noiseRatio;
+    }
+
+    public double getOutOfOrderRatio() {
+        return outOfOrderRatio;
+    }
+
+    /**
+     * Sets the fraction of StopWatches whose start time is earlier than that of the StopWatch before them, as happens
+     * when StopWatches are logged on stop by concurrent threads. Defaults to 0.
+     *
+     * @param outOfOrderRatio The fraction of out of order StopWatches, from 0 to 1.
+     */
+    public void setOutOfOrderRatio(double outOfOrderRatio) {
+        this.outOfOrderRatio = outOfOrderRatio;
+    }
+
+    public long getOutOfOrderMaxMillis() {
+        return outOfOrderMaxMillis;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, that an out of order StopWatch starts before the current simulated time.
+     * Defaults to 5000 ms.
+     *
+     * @param outOfOrderMaxMillis The maximum skew in milliseconds.
+     */
+    public void setOutOfOrderMaxMillis(long outOfOrderMaxMillis) {
+        this.outOfOrderMaxMillis = outOfOrderMaxMillis;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed of the random number generator. Defaults to 42.
+     *
+     * @param seed The random seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // --- generation ---
+
+    /**
+     * Writes lines to the output until at least targetBytes characters have been written.
+     *
+     * @param output      The output for the log lines, which is not closed.
+     * @param targetBytes The minimum number of characters to write.
+     * @return The number of lines written.
+     * @throws IOException Thrown if the output could not be written.
+     */
+    public long generate(Writer output, long targetBytes) throws IOException {
+        Random random = new Random(seed);
+        String[] tags = new String[numTags];
+        for (int i = 0; i < numTags; i++) {
+            tags[i] = "service" + (i % 10) + ".operation" + (i % 100) + ".step" + i;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        double millisPerStopWatch = 1000.0 / rate;
+        StringBuilder line = new StringBuilder(256 + 2 * messageSize);
+
+        long numLines = 0;
+        long numBytes = 0;
+        long numStopWatches = 0;
+        while (numBytes < targetBytes) {
+            long now = BASE_TIME + (long) (numStopWatches * millisPerStopWatch);
+            line.setLength(0);
+            line.append(dateFormat.format(new Date(now)));
+
+            if (random.nextDouble() < noiseRatio) {
+                line.append(" INFO  [http-worker-").append(random.nextInt(64)).append("] ")
+                    .append("com.example.RequestHandler - Handled request id=").append(random.nextInt(Integer.MAX_VALUE))
+                    .append(" status=200 ");
+                appendText(line, random, messageSize);
+            } else {
+                long elapsedTime = (long) (-Math.log(1.0 - random.nextDouble()) * 50.0);
+                long startTime = now - elapsedTime;
+                if (random.nextDouble() < outOfOrderRatio) {
+                    startTime -= (long) (random.nextDouble() * outOfOrderMaxMillis);
+                }
+                String message = null;
+                if (messageSize > 0) {
+                    StringBuilder messageBuilder = new StringBuilder(messageSize * 2);
+                    appendText(messageBuilder, random, messageSize);
+                    message = messageBuilder.toString();
+                }
+                StopWatch stopWatch = new StopWatch(startTime, elapsedTime, tags[random.nextInt(numTags)], message);
+                line.append(" INFO  [http-worker-").append(random.nextInt(64)).append("] ")
+                    .append(StopWatch.DEFAULT_LOGGER_NAME).append(" - ").append(stopWatch);
+                numStopWatches++;
+            }
+
+            line.append('\n');
+            output.append(line);
+            numBytes += line.length();
+            numLines++;
+        }
+        return numLines;
+    }
+
+    /**
+     * Generates a log file, overwriting any existing file.
+     *
+     * @param file        The file to write.
+     * @param targetBytes The minimum size of the file in bytes.
+     * @return The number of lines written.
+     * @throws IOException Thrown if the file could not be written.
+     */
+    public long generate(File file, long targetBytes) throws IOException {
+        Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+        try {
+            return generate(output, targetBytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Appends words of random lowercase letters, averageLength characters in total on average.
+     */
+    private static void appendText(StringBuilder builder, Random random, int averageLength) {
+        if (averageLength <= 0) {
+            return;
+        }
+        int length = averageLength / 2 + random.nextInt(averageLength + 1);
+        for (int i = 0; i < length; i++) {
+            builder.append((random.nextInt(6) == 0) ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+    }
+
+    // --- Main ---
+
+    public static void main(String[] args) throws IOException {
+        List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+        if (argsList.isEmpty() || argsList.contains("-h") || argsList.contains("--help")) {
+            System.out.println("Usage: SyntheticLogGenerator [-s|--size size] " + getOptionsUsage() + " outputFile");
+            System.out.println("  -s|--size size - The size of the generated log, e.g. 500m or 4g. Defaults to 1g.");
+            printOptionsHelp();
+            return;
+        }
+
+        long size = parseSize(removeArg(argsList, "1g", "-s", "--size"));
+        SyntheticLogGenerator generator = newGenerator(argsList);
+        if (argsList.size() != 1) {
+            System.err.println("You must specify exactly one output file, found: " + argsList);
+            System.exit(1);
+        }
+
+        long numLines = generator.generate(new File(argsList.get(0)), size);
+        System.out.println("Wrote " + numLines + " lines to " + argsList.get(0));
+    }
+
+    // --- command line helpers, shared with the LogParserThroughputBenchmark ---
+
+    static String getOptionsUsage() {
+        return "[--tags numTags] [--rate stopWatchesPerSecond] [--message-size chars] [--noise ratio] " +
+               "[--out-of-order ratio] [--seed seed]";
+    }
+
+    static void printOptionsHelp() {
+        System.out.println("  --tags numTags - The number of distinct tags. Defaults to 100.");
+        System.out.println("  --rate stopWatchesPerSecond - StopWatches per second of simulated time. Defaults to 1000.");
+        System.out.println("  --message-size chars - The average StopWatch message length. Defaults to 0, no messages.");
+        System.out.println("  --noise ratio - The fraction of lines that aren't StopWatches. Defaults to 0.1.");
+        System.out.println("  --out-of-order ratio - The fraction of StopWatches logged out of start time order." +
+                           " Defaults to 0.");
+        System.out.println("  --seed seed - The random seed. Defaults to 42.");
+    }
+
+    /**
+     * Creates a generator with the options in the argument list, removing them from the list.
+     */
+    static SyntheticLogGenerator newGenerator(List<String> argsList) {
+        SyntheticLogGenerator generator = new SyntheticLogGenerator();
+        generator.setNumTags(Integer.parseInt(removeArg(argsList, "100", "--tags")));
+        generator.setRate(Integer.parseInt(removeArg(argsList, "1000", "--rate")));
+        generator.setMessageSize(Integer.parseInt(removeArg(argsList, "0", "--message-size")));
+        generator.setNoiseRatio(Double.parseDouble(removeArg(argsList, "0.1", "--noise")));
+        generator.setOutOfOrderRatio(Double.parseDouble(removeArg(argsList, "0", "--out-of-order")));
+        generator.setSeed(Long.parseLong(removeArg(argsList, "42", "--seed")));
+        return generator;
+    }
+
+    /**
+     * Parses a size such as 1000, 64k, 500m or 4g.
+     */
+    static long parseSize(String size) {
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        long multiplier = (unit == 'k') ? 1024L : (unit == 'm') ? 1024L * 1024L : (unit == 'g') ? 1024L * 1024L * 1024L
+                                                                                                   : 1L;
+        String number = (multiplier == 1L) ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(number) * multiplier;
+    }
+
+    /**
+     * Removes the named option and its value from the argument list.
+     */
+    static String removeArg(List<String> argsList, String defaultValue, String... names) {
+        for (String name : names) {
+            int index = argsList.indexOf(name);
+            if (index >= 0 && index < argsList.size() - 1) {
+                argsList.remove(index);
+                return argsList.remove(index);
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.benchmarks;
+
+import net.jperf.StopWatch;
+import net.jperf.aop.AbstractJoinPoint;
+import net.jperf.aop.AgnosticTimingAspect;
+import net.jperf.aop.Profiled;
+import net.jperf.helpers.ProfilingSwitch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of AgnosticTimingAspect.runProfiledMethod, the advice run around every {@link Profiled} method, with a
+ * plain tag, with a tag that is a JEXL expression over the method arguments, and with a JEXL message as well. The
+ * switchedOff benchmark measures a method whose tag is disabled in the {@link ProfilingSwitch}, which should cost
+ * only a few nanoseconds more than the unprofiled baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimingAspectBenchmark {
+    private AgnosticTimingAspect aspect = new AgnosticTimingAspect();
+    private Profiled plainTag = new BenchmarkProfiled("benchmark.aspect", "");
+    private Profiled jexlTag = new BenchmarkProfiled("benchmark.aspect.{$0}", "");
+    private Profiled jexlTagAndMessage = new BenchmarkProfiled("benchmark.aspect.{$0}", "length {$0.length()}");
+    private Profiled switchedOffTag = new BenchmarkProfiled("benchmark.switchedOff", "");
+    private AbstractJoinPoint joinPoint = new BenchmarkJoinPoint(new Object[] {"argument"});
+
+    @Benchmark
+    public Object plainTag(Blackhole blackhole) throws Throwable {
+        return aspect.runProfiledMethod(joinPoint, plainTag, new BlackholeLoggingStopWatch(null, blackhole));
+    }
+
+    @Benchmark
+    public Object jexlTag(Blackhole blackhole) throws Throwable {
+        return aspect.runProfiledMethod(joinPoint, jexlTag, new BlackholeLoggingStopWatch(null, blackhole));
+    }
+
+    @Benchmark
+    public Object jexlTagAndMessage(Blackhole blackhole) throws Throwable {
+        return aspect.runProfiledMethod(joinPoint, jexlTagAndMessage, new BlackholeLoggingStopWatch(null, blackhole));
+    }
+
+    @Benchmark
+    public Object baseline() throws Throwable {
+        return joinPoint.proceed();
+    }
+
+    @Benchmark
+    public Object switchedOff(SwitchedOff switchedOff, Blackhole blackhole) throws Throwable {
+        //like the AspectJ and EJB advice, check the switch before creating the StopWatch
+        if (!aspect.isEnabled(joinPoint, switchedOffTag)) {
+            return joinPoint.proceed();
+        }
+        return aspect.runProfiledMethod(joinPoint, switchedOffTag, new BlackholeLoggingStopWatch(null, blackhole));
+    }
+
+    /**
+     * Disables the tag of the switchedOff benchmark, and another name so that the switch's lookup isn't trivial.
+     */
+    @State(Scope.Benchmark)
+    public static class SwitchedOff {
+        @Setup
+        public void disable() {
+            ProfilingSwitch.disable("benchmark.switchedOff");
+            ProfilingSwitch.disable("benchmark.other");
+        }
+
+        @TearDown
+        public void reset() {
+            ProfilingSwitch.resetAll();
+        }
+    }
+
+    /**
+     * The benchmarked "method" just returns its first argument.
+     */
+    private static class BenchmarkJoinPoint implements AbstractJoinPoint {
+        private Object[] parameters;
+
+        BenchmarkJoinPoint(Object[] parameters) {
+            this.parameters = parameters;
+        }
+
+        public Object proceed() throws Throwable {
+            return parameters[0];
+        }
+
+        public Object getExecutingObject() {
+            return this;
+        }
+
+        public Object[] getParameters() {
+            return parameters;
+        }
+
+        public String getMethodName() {
+            return "benchmarkedMethod";
+        }
+
+        public Class<?> getDeclaringClass() {
+            return BenchmarkJoinPoint.class;
+        }
+    }
+
+    /**
+     * A Profiled annotation instance with the specified tag and message, and the defaults for everything else.
+     */
+    @SuppressWarnings("all")
+    private static class BenchmarkProfiled implements Profiled {
+        private String tag;
+        private String message;
+
+        BenchmarkProfiled(String tag, String message) {
+            this.tag = tag;
+            this.message = message;
+        }
+
+        public String tag() { return tag; }
+
+        public String message() { return message; }
+
+        public String logger() { return StopWatch.DEFAULT_LOGGER_NAME; }
+
+        public String level() { return "INFO"; }
+
+        public boolean el() { return true; }
+
+        public boolean logFailuresSeparately() { return false; }
+
+        public long timeThreshold() { return -1; }
+
+        public boolean normalAndSlowSuffixesEnabled() { return false; }
+
+        public int sampleEvery() { return 1; }
+
+        public int maxSamplesPerSecond() { return 0; }
+
+        public Class<? extends Annotation> annotationType() { return Profiled.class; }
+    }
+}
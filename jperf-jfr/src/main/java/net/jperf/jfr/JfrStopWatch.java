@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr;
+
+import jdk.jfr.EventType;
+import net.jperf.LoggingStopWatch;
+import net.jperf.SampledRequest;
+
+/**
+ * This LoggingStopWatch records a {@link StopWatchEvent} in the JDK Flight Recorder instead of writing a log message,
+ * so that the timed blocks show up in JFR recordings next to the GC, lock and I/O events of the same threads.
+ * <p>
+ * The StopWatch only "logs" while a recording has the StopWatchEvent enabled: otherwise {@link #isLogging()} returns
+ * false, which makes the timing aspects skip the StopWatch, and no event is created. No event is created in a
+ * {@link SampledRequest} that isn't sampled either, since the StopWatch won't be logged. The threshold and stack
+ * trace settings of the recording apply on top of the StopWatch's own time threshold, which is best left at 0.
+ */
+@SuppressWarnings("serial")
+public class JfrStopWatch extends LoggingStopWatch {
+    private static final EventType EVENT_TYPE = EventType.getEventType(StopWatchEvent.class);
+
+    /**
+     * The event of the current timing, begun when the StopWatch was started, or null if the event wasn't enabled at
+     * that time or the StopWatch was started in an unsampled request.
+     */
+    private transient StopWatchEvent event;
+
+    // --- Constructors ---
+
+    /**
+     * Creates a JfrStopWatch with a blank tag, no message and started at the instant of creation.
+     */
+    public JfrStopWatch() {
+        this("", null);
+    }
+
+    /**
+     * Creates a JfrStopWatch with the tag specified, no message and started at the instant of creation.
+     *
+     * @param tag The tag name for this timing call. Tags are used to group timing logs, thus each block of code being
+     *            timed should have a unique tag. Note that tags can take a hierarchical format using dot notation.
+     */
+    public JfrStopWatch(String tag) {
+        this(tag, null);
+    }
+
+    /**
+     * Creates a JfrStopWatch with the tag and message specified and started at the instant of creation.
+     *
+     * @param tag     The tag name for this timing call. Tags are used to group timing logs, thus each block of code
+     *                being timed should have a unique tag. Note that tags can take a hierarchical format using dot
+     *                notation.
+     * @param message Additional text to be printed with the logging statement of this StopWatch.
+     */
+    public JfrStopWatch(String tag, String message) {
+        super(tag, message);
+        event = beginEvent();
+    }
+
+    /**
+     * Checks whether a recording has the {@link StopWatchEvent} enabled.
+     *
+     * @return true if stopped JfrStopWatches are recorded.
+     */
+    public static boolean isRecording() {
+        return EVENT_TYPE.isEnabled();
+    }
+
+    // --- Overridden Methods ---
+
+    public void start() {
+        super.start();
+        event = beginEvent();
+    }
+
+    /**
+     * Determines whether or not the StopWatch is recorded, which is the case when a recording has the StopWatchEvent
+     * enabled.
+     *
+     * @return true if a recording has the StopWatchEvent enabled.
+     */
+    public boolean isLogging() {
+        return EVENT_TYPE.isEnabled();
+    }
+
+    /**
+     * This method records the StopWatch's event, if it was begun and passes the recording's threshold.
+     *
+     * @param stopWatchAsString The stringified view of the stop watch, which is not used.
+     * @param exception         An exception, if any, that was also passed to the stop() or lap() methods - may be null.
+     */
+    protected void log(String stopWatchAsString, Throwable exception) {
+        StopWatchEvent stoppedEvent = event;
+        event = null;
+        if (stoppedEvent == null) {
+            return;
+        }
+
+        stoppedEvent.end();
+        if (stoppedEvent.shouldCommit()) {
+            stoppedEvent.tag = getTag();
+            stoppedEvent.message = getMessage();
+            stoppedEvent.weight = getWeight();
+            stoppedEvent.exception = (exception == null) ? null : exception.getClass();
+            stoppedEvent.commit();
+        }
+    }
+
+    public JfrStopWatch clone() {
+        JfrStopWatch retVal = (JfrStopWatch) super.clone();
+        //an event can only be committed once, so only the original StopWatch records the current timing
+        retVal.event = null;
+        return retVal;
+    }
+
+    // --- Private Methods ---
+
+    private static StopWatchEvent beginEvent() {
+        if (!EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        SampledRequest request = SampledRequest.current();
+        if (request != null && !request.isSampled()) {
+            return null;
+        }
+        StopWatchEvent retVal = new StopWatchEvent();
+        retVal.begin();
+        return retVal;
+    }
+}
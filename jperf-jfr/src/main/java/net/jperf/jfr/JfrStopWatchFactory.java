@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr;
+
+import net.jperf.LoggingStopWatch;
+import net.jperf.helpers.StopWatchFactory;
+
+/**
+ * This StopWatchFactory creates {@link JfrStopWatch}es. It lets the java agent and the classes generated for
+ * {@link net.jperf.aop.ProfiledWrapper} types record JFR events, by setting their stopWatch option to
+ * <tt>net.jperf.jfr.JfrStopWatchFactory</tt>. The logger and level names aren't used.
+ */
+public class JfrStopWatchFactory extends StopWatchFactory {
+    public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+        return new JfrStopWatch();
+    }
+}
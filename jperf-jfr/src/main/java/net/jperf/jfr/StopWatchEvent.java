@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JFR event of a {@link JfrStopWatch}. The event starts when the StopWatch starts and ends when it stops, so its
+ * duration is the StopWatch's elapsed time, and it is recorded on the thread that stopped the StopWatch. Like other
+ * JFR events, it is only recorded when it is enabled in the recording settings, and the settings' threshold and
+ * stackTrace options apply to it: for example <tt>net.jperf.StopWatch#threshold=20 ms</tt> only records the
+ * StopWatches that took at least 20 milliseconds.
+ */
+@Name(StopWatchEvent.NAME)
+@Label("StopWatch")
+@Category("JPerf")
+@Description("A block of code timed by a JPerf StopWatch")
+@StackTrace(false)
+public class StopWatchEvent extends Event {
+    /**
+     * The name of the event type, used in the recording settings.
+     */
+    public static final String NAME = "net.jperf.StopWatch";
+
+    @Label("Tag")
+    @Description("The tag of the StopWatch, including the normal or slow suffix if they are enabled")
+    String tag;
+
+    @Label("Message")
+    String message;
+
+    @Label("Weight")
+    @Description("The number of calls the StopWatch stands for when calls are sampled")
+    int weight;
+
+    @Label("Exception")
+    @Description("The class of the exception passed to the StopWatch's stop method, if any")
+    Class<?> exception;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingStatistics;
+
+import java.util.Map;
+
+/**
+ * The JFR event of the timing statistics of one tag in a closed time slice, emitted by the
+ * {@link net.jperf.jfr.log4j.JfrStatisticsAppender} or {@link net.jperf.jfr.logback.JfrStatisticsAppender} at the
+ * end of every time slice of the AsyncCoalescingStatisticsAppender they are attached to.
+ */
+@Name(TimingStatisticsEvent.NAME)
+@Label("Timing Statistics")
+@Category("JPerf")
+@Description("The statistics of the StopWatches of a tag in a JPerf time slice")
+@StackTrace(false)
+public class TimingStatisticsEvent extends Event {
+    /**
+     * The name of the event type, used in the recording settings.
+     */
+    public static final String NAME = "net.jperf.TimingStatistics";
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(TimingStatisticsEvent.class);
+
+    @Label("Tag")
+    String tag;
+
+    @Label("Time Slice Start")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long timeSliceStart;
+
+    @Label("Time Slice End")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long timeSliceEnd;
+
+    @Label("Mean")
+    @Timespan(Timespan.MICROSECONDS)
+    long mean;
+
+    @Label("Standard Deviation")
+    @Timespan(Timespan.MICROSECONDS)
+    long standardDeviation;
+
+    @Label("Min")
+    @Timespan(Timespan.MILLISECONDS)
+    long min;
+
+    @Label("Max")
+    @Timespan(Timespan.MILLISECONDS)
+    long max;
+
+    @Label("Count")
+    int count;
+
+    @Label("Throughput")
+    @Description("The number of StopWatches per second")
+    @Frequency
+    double throughput;
+
+    /**
+     * Emits an event for each tag of a closed time slice, if the event is enabled.
+     *
+     * @param statistics The statistics of the time slice.
+     */
+    public static void emit(GroupedTimingStatistics statistics) {
+        if (!EVENT_TYPE.isEnabled()) {
+            return;
+        }
+
+        double windowLengthInSeconds = statistics.getWindowLength() / 1000.0;
+        for (Map.Entry<String, TimingStatistics> tagAndStatistics : statistics.getStatisticsByTag().entrySet()) {
+            TimingStatistics tagStatistics = tagAndStatistics.getValue();
+            TimingStatisticsEvent event = new TimingStatisticsEvent();
+            event.tag = tagAndStatistics.getKey();
+            event.timeSliceStart = statistics.getStartTime();
+            event.timeSliceEnd = statistics.getStopTime();
+            event.mean = Math.round(tagStatistics.getMean() * 1000.0);
+            event.standardDeviation = Math.round(tagStatistics.getStandardDeviation() * 1000.0);
+            event.min = tagStatistics.getMin();
+            event.max = tagStatistics.getMax();
+            event.count = tagStatistics.getCount();
+            event.throughput = (windowLengthInSeconds > 0.0) ? tagStatistics.getCount() / windowLengthInSeconds : 0.0;
+            event.commit();
+        }
+    }
+}
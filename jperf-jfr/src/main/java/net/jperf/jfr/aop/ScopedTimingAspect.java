@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr.aop;
+
+import net.jperf.jfr.JfrStopWatch;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * This ScopedTimingAspect implementation records the StopWatches of the methods in its scope as JDK Flight Recorder
+ * events.
+ */
+@Aspect
+public abstract class ScopedTimingAspect extends net.jperf.aop.ScopedTimingAspect {
+
+    protected JfrStopWatch newStopWatch(String loggerName, String levelName) {
+        return new JfrStopWatch();
+    }
+
+}
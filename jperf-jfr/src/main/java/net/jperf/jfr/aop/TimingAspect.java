@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr.aop;
+
+import net.jperf.aop.ProfiledTimingAspect;
+import net.jperf.jfr.JfrStopWatch;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * This TimingAspect implementation records the StopWatches of @Profiled methods as JDK Flight Recorder events. The
+ * logger and level of the Profiled annotations aren't used.
+ */
+@Aspect
+public class TimingAspect extends ProfiledTimingAspect {
+
+    protected JfrStopWatch newStopWatch(String loggerName, String levelName) {
+        return new JfrStopWatch();
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr.log4j;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.jfr.TimingStatisticsEvent;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * This appender is designed to be attached to an {@link net.jperf.log4j.AsyncCoalescingStatisticsAppender}. It
+ * records the incoming GroupedTimingStatistics log messages as {@link TimingStatisticsEvent}s in the JDK Flight
+ * Recorder, one event per tag at the end of every time slice, as long as a recording has the event enabled.
+ */
+public class JfrStatisticsAppender extends AppenderSkeleton {
+
+    // --- appender methods ---
+
+    protected void append(LoggingEvent event) {
+        Object logMessage = event.getMessage();
+        if (logMessage instanceof GroupedTimingStatistics) {
+            TimingStatisticsEvent.emit((GroupedTimingStatistics) logMessage);
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public void close() { }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr.logback;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.jfr.TimingStatisticsEvent;
+
+/**
+ * This appender is designed to be attached to an {@link net.jperf.logback.AsyncCoalescingStatisticsAppender}. It
+ * records the incoming GroupedTimingStatistics log messages as {@link TimingStatisticsEvent}s in the JDK Flight
+ * Recorder, one event per tag at the end of every time slice, as long as a recording has the event enabled.
+ */
+public class JfrStatisticsAppender extends AppenderBase<LoggingEvent> {
+
+    // --- appender methods ---
+
+    @Override
+    protected void append(LoggingEvent event) {
+        if ((event.getArgumentArray() != null) && (event.getArgumentArray().length > 0)) {
+            Object logMessage = event.getArgumentArray()[0];
+            if (logMessage instanceof GroupedTimingStatistics) {
+                TimingStatisticsEvent.emit((GroupedTimingStatistics) logMessage);
+            }
+        }
+    }
+}
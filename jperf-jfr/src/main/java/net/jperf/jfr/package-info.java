@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Records jperf timings in the JDK Flight Recorder, so they can be correlated with the JVM's own events in JDK
+ * Mission Control. Two event types are defined, both in the JPerf category:
+ * <ul>
+ * <li>{@link net.jperf.jfr.StopWatchEvent} (<tt>net.jperf.StopWatch</tt>) is recorded for each stopped
+ *     {@link net.jperf.jfr.JfrStopWatch}, with the StopWatch's tag, message and duration and the stopping thread.
+ *     JfrStopWatches are created directly, by the {@link net.jperf.jfr.aop.TimingAspect} for @Profiled methods, or
+ *     by the {@link net.jperf.jfr.JfrStopWatchFactory} for the java agent and the generated profiled wrappers.
+ * <li>{@link net.jperf.jfr.TimingStatisticsEvent} (<tt>net.jperf.TimingStatistics</tt>) is recorded for each tag of
+ *     each closed time slice by a JfrStatisticsAppender attached to an AsyncCoalescingStatisticsAppender, for
+ *     {@link net.jperf.jfr.log4j.JfrStatisticsAppender log4j} or {@link net.jperf.jfr.logback.JfrStatisticsAppender
+ *     logback}.
+ * </ul>
+ * The events are enabled by default in recordings, and can be configured like the JDK's events, e.g. with
+ * <tt>-XX:StartFlightRecording:settings=profile,...</tt> and a .jfc file containing
+ * <pre>
+ * &lt;event name="net.jperf.StopWatch"&gt;
+ *   &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ *   &lt;setting name="threshold"&gt;10 ms&lt;/setting&gt;
+ *   &lt;setting name="stackTrace"&gt;true&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </pre>
+ * When no recording has an event enabled, JfrStopWatches report that they aren't logging, so the aspects don't time
+ * the methods at all, and the appenders drop the statistics without creating events.
+ * <p>
+ * This module needs Java 11 or later, while jperf itself runs on Java 6.
+ */
+package net.jperf.jfr;
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.SampledRequest;
+import net.jperf.StopWatch;
+import net.jperf.jfr.log4j.JfrStatisticsAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the events recorded by the JfrStopWatch and the JfrStatisticsAppender, by reading back the events of a
+ * recording.
+ */
+public class JfrStopWatchTest extends TestCase {
+
+    public void testNotRecording() throws Exception {
+        assertFalse(JfrStopWatch.isRecording());
+        JfrStopWatch stopWatch = new JfrStopWatch("notRecorded");
+        assertFalse(stopWatch.isLogging());
+        stopWatch.stop();
+
+        //a recording that doesn't enable the event doesn't record StopWatches either
+        Recording recording = new Recording();
+        recording.disable(StopWatchEvent.NAME);
+        recording.start();
+        try {
+            assertFalse(new JfrStopWatch().isLogging());
+        } finally {
+            recording.close();
+        }
+    }
+
+    public void testStopWatchEvents() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(StopWatchEvent.NAME).withThreshold(Duration.ofMillis(20));
+        recording.start();
+
+        JfrStopWatch stopWatch = new JfrStopWatch();
+        assertTrue(stopWatch.isLogging());
+        //below the recording's threshold
+        stopWatch.lap("fast");
+        Thread.sleep(30);
+        stopWatch.lap("slow", "a message");
+        Thread.sleep(30);
+        stopWatch.stop("failed", new IllegalStateException());
+        recording.stop();
+
+        List<RecordedEvent> events = readEvents(recording, StopWatchEvent.NAME);
+        assertEquals(2, events.size());
+
+        RecordedEvent slowEvent = events.get(0);
+        assertEquals("slow", slowEvent.getString("tag"));
+        assertEquals("a message", slowEvent.getString("message"));
+        assertEquals(1, slowEvent.getInt("weight"));
+        assertNull(slowEvent.getClass("exception"));
+        assertTrue(slowEvent.getDuration().toMillis() >= 30);
+        assertEquals(Thread.currentThread().getName(), slowEvent.getThread().getJavaName());
+
+        RecordedEvent failedEvent = events.get(1);
+        assertEquals("failed", failedEvent.getString("tag"));
+        assertEquals(IllegalStateException.class.getName(), failedEvent.getClass("exception").getName());
+    }
+
+    public void testUnsampledRequest() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(StopWatchEvent.NAME);
+        recording.start();
+
+        //no event is begun in an unsampled request, so none is recorded even if the StopWatch is stopped after it
+        SampledRequest request = SampledRequest.begin(0);
+        JfrStopWatch stopWatch;
+        try {
+            stopWatch = new JfrStopWatch("unsampled");
+            stopWatch.lap("unsampled");
+        } finally {
+            request.end();
+        }
+        stopWatch.stop();
+        new JfrStopWatch("sampled").stop();
+        recording.stop();
+
+        List<RecordedEvent> events = readEvents(recording, StopWatchEvent.NAME);
+        assertEquals(1, events.size());
+        assertEquals("sampled", events.get(0).getString("tag"));
+    }
+
+    public void testStatisticsEvents() throws Exception {
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setStartTime(10000L);
+        statistics.setStopTime(20000L);
+        statistics.addStopWatch(new StopWatch(10000L, 100L, "tagA", null));
+        statistics.addStopWatch(new StopWatch(11000L, 300L, "tagA", null));
+        statistics.addStopWatch(new StopWatch(12000L, 50L, "tagB", null));
+        JfrStatisticsAppender appender = new JfrStatisticsAppender();
+        LoggingEvent loggingEvent =
+                new LoggingEvent(Logger.class.getName(), Logger.getLogger("jfr"), Level.INFO, statistics, null);
+
+        //dropped when not recording
+        appender.doAppend(loggingEvent);
+
+        Recording recording = new Recording();
+        recording.enable(TimingStatisticsEvent.NAME);
+        recording.start();
+        appender.doAppend(loggingEvent);
+        recording.stop();
+
+        List<RecordedEvent> events = readEvents(recording, TimingStatisticsEvent.NAME);
+        assertEquals(2, events.size());
+        RecordedEvent tagAEvent = events.get(0);
+        assertEquals("tagA", tagAEvent.getString("tag"));
+        assertEquals(10000L, tagAEvent.getInstant("timeSliceStart").toEpochMilli());
+        assertEquals(20000L, tagAEvent.getInstant("timeSliceEnd").toEpochMilli());
+        assertEquals(200L, tagAEvent.getDuration("mean").toMillis());
+        assertEquals(100L, tagAEvent.getDuration("min").toMillis());
+        assertEquals(300L, tagAEvent.getDuration("max").toMillis());
+        assertEquals(2, tagAEvent.getInt("count"));
+        assertEquals(0.2, tagAEvent.getDouble("throughput"), 0.0001);
+        assertEquals("tagB", events.get(1).getString("tag"));
+    }
+
+    // --- helper methods ---
+
+    private List<RecordedEvent> readEvents(Recording recording, String eventName) throws Exception {
+        File file = File.createTempFile("jperf", ".jfr");
+        try {
+            recording.dump(file.toPath());
+            recording.close();
+            List<RecordedEvent> retVal = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().equals(eventName)) {
+                    retVal.add(event);
+                }
+            }
+            return retVal;
+        } finally {
+            file.delete();
+        }
+    }
+}
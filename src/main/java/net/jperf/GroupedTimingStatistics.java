@@ -101,6 +101,34 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
         return this;
     }
+
+    /**
+     * Merges the statistics of another window into this one, for example to combine consecutive windows into a
+     * single coarser window. The statistics for each tag are combined with {@link TimingStatistics#merge}, and the
+     * time span of this instance is widened to cover the time span of the other instance.
+     *
+     * @param other The statistics to merge into this instance. Not modified.
+     * @return this GroupedTimingStatistics instance
+     */
+    public GroupedTimingStatistics merge(GroupedTimingStatistics other) {
+        for (Map.Entry<String, TimingStatistics> tagAndStats : other.statisticsByTag.entrySet()) {
+            TimingStatistics stats = statisticsByTag.get(tagAndStats.getKey());
+            if (stats == null) {
+                statisticsByTag.put(tagAndStats.getKey(), tagAndStats.getValue().clone());
+            } else {
+                stats.merge(tagAndStats.getValue());
+            }
+        }
+
+        if (other.startTime < startTime) {
+            startTime = other.startTime;
+        }
+        if (other.stopTime > stopTime) {
+            stopTime = other.stopTime;
+        }
+
+        return this;
+    }
     
     /**
      * The length of time, in milliseconds, of the data window
@@ -175,7 +203,7 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         if (stats == null) {
             statisticsByTag.put(tag, stats = new TimingStatistics());
         }
-        stats.addSampleTime(stopWatch.getElapsedTime());
+        stats.addSampleTime(stopWatch.getElapsedTime(), stopWatch.getWeight());
     }
 
     // --- Object Methods ---
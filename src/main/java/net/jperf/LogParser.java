@@ -18,6 +18,7 @@ package net.jperf;
 
 import net.jperf.chart.GoogleChartGenerator;
 import net.jperf.chart.StatisticsChartGenerator;
+import net.jperf.helpers.BinaryStopWatchLogIterator;
 import net.jperf.helpers.DefaultStatisticsFormatter;
 import net.jperf.helpers.GroupedTimingStatisticsCsvFormatter;
 import net.jperf.helpers.GroupedTimingStatisticsJsonFormatter;
@@ -28,6 +29,7 @@ import net.jperf.helpers.StatsValueRetriever;
 import net.jperf.helpers.StopWatchLogIterator;
 
 import java.io.*;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -44,6 +46,10 @@ public class LogParser {
      * The input log that is being parsed.
      */
     private Reader inputLog;
+    /**
+     * The already deserialized StopWatches being parsed, used instead of inputLog if not null.
+     */
+    private Iterator<StopWatch> inputStopWatches;
     /**
      * The stream where the GroupedTimingStatistics data will be printed - if null, no statistics will be printed
      */
@@ -114,6 +120,25 @@ public class LogParser {
         this.statisticsFormatter = statisticsFormatter;
     }
 
+    /**
+     * Creates a new LogParser to generate statistics from StopWatches that have already been deserialized, for
+     * example by a {@link BinaryStopWatchLogIterator}.
+     *
+     * @param inputStopWatches       The StopWatches being parsed.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     */
+    public LogParser(Iterator<StopWatch> inputStopWatches, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     StatisticsFormatter statisticsFormatter) {
+        this((Reader) null, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter);
+        this.inputStopWatches = inputStopWatches;
+    }
+
     // --- Instance Methods ---
 
     /**
@@ -125,7 +150,9 @@ public class LogParser {
             statisticsOutput.print(statisticsFormatter.header());
         }
 
-        Iterator<StopWatch> stopWatchIter = new StopWatchLogIterator(inputLog);
+        Iterator<StopWatch> stopWatchIter = (inputStopWatches != null) ?
+                                            inputStopWatches :
+                                            new StopWatchLogIterator(inputLog);
 
         int i = 0;
         for (GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(stopWatchIter,
@@ -182,22 +209,37 @@ public class LogParser {
             PrintStream statisticsOutput = null;
         	PrintStream graphingOutput = null;
         	Reader input = null;
+        	BinaryStopWatchLogIterator binaryInput = null;
+        	boolean binaryStdin = false;
         	try {
 	            long timeSlice = getTimeSlice(argsList);
 	            boolean rollupStatistics = getRollupStatistics(argsList);
+	            boolean binary = getBinaryInput(argsList);
 	            StatisticsFormatter formatter = getStatisticsFormatter(argsList);
 	            statisticsOutput = openStatisticsOutput(argsList);
 	            graphingOutput = openGraphingOutput(argsList);
-	            input = openInput(argsList);
+	            if (binary) {
+	                binaryStdin = argsList.isEmpty();
+	                binaryInput = openBinaryInput(argsList);
+	            } else {
+	                input = openInput(argsList);
+	            }
 	
 	            if (!argsList.isEmpty()) {
 	                printUnknownArgs(argsList);
 	                return 1;
 	            }
 	
-	            new LogParser(input, statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter).parseLog();
+	            if (binary) {
+	                new LogParser(binaryInput, statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter)
+	                        .parseLog();
+	            } else {
+	                new LogParser(input, statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter)
+	                        .parseLog();
+	            }
         	} finally {
         		closeInput(input);
+        		closeBinaryInput(binaryInput, binaryStdin);
         		closeStatisticsOutput(statisticsOutput);
         		closeGraphingOutput(graphingOutput);
         	}
@@ -215,6 +257,7 @@ public class LogParser {
                                "[-t|--timeslice timeslice] " +
                                "[-r] " +
                                "[-f|--format text|csv] " +
+                               "[-b|--binary] " +
                                "[logInputFile]");
             System.out.println("Arguments:");
             System.out.println("  logInputFile - The log file to be parsed. If not specified, log data is read from stdin.");
@@ -229,6 +272,8 @@ public class LogParser {
             System.out.println("  -f|--format text|csv - The format for the statistics output, either plain text or CSV." +
                                " Defaults to text.");
             System.out.println("                         If format is csv, then the columns output are tag, start, stop, mean, min, max, stddev, and count.");
+            System.out.println("  -b|--binary - Whether or not the log was written in the binary StopWatch format," +
+                               " for example by a BinaryStopWatchAppender. If not specified, the log is read as text.");
             System.out.println();
             System.out.println("Note that out, stdout, err and stderr can be used as aliases to the standard output" +
                                " streams when specifying output files.");
@@ -273,6 +318,13 @@ public class LogParser {
         }
     }
     
+    protected static void closeBinaryInput(BinaryStopWatchLogIterator binaryInput, boolean stdin) throws IOException {
+        // the iterator reading stdin is not closed, like the InputStreamReader
+        if (binaryInput != null && !stdin) {
+            binaryInput.close();
+        }
+    }
+
     protected static void closeStatisticsOutput(PrintStream statisticsOutput) throws IOException {
         if (statisticsOutput != null) {
             if (statisticsOutput != System.out && statisticsOutput != System.err) {
@@ -311,6 +363,16 @@ public class LogParser {
         }
     }
 
+    protected static boolean getBinaryInput(List<String> argsList) {
+        int indexOfOut = getIndexOfArg(argsList, false, "-b", "--binary");
+        if (indexOfOut >= 0) {
+            argsList.remove(indexOfOut);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
     protected static StatisticsFormatter getStatisticsFormatter(List<String> argsList) {
         int indexOfFormat = getIndexOfArg(argsList, true, "-f", "--format");
         if (indexOfFormat >= 0) {
@@ -339,6 +401,15 @@ public class LogParser {
         }
     }
 
+    protected static BinaryStopWatchLogIterator openBinaryInput(List<String> argsList) throws IOException {
+        if (argsList.isEmpty()) {
+            return new BinaryStopWatchLogIterator(Channels.newChannel(System.in), 64 * 1024);
+        } else {
+            String fileName = argsList.remove(0);
+            return BinaryStopWatchLogIterator.open(new File(fileName));
+        }
+    }
+
     protected static void printUnknownArgs(List<String> argsList) {
         System.out.println("Unknown arguments: ");
         for (String arg : argsList) {
@@ -16,6 +16,8 @@
  */
 package net.jperf;
 
+import net.jperf.helpers.ProfilingSwitch;
+
 /**
  * A LoggingStopWatch prevents the need to explicitly send the StopWatch string to a Logger when stopping. Instead,
  * all of the stop() and lap() methods themselves are responsible for persisting the StopWatch:
@@ -25,7 +27,8 @@ package net.jperf;
  * stopWatch.stop("codeBlock1"); //calling stop writes the StopWatch string to std err.
  * </pre>
  * This class just writes all StopWatch messages to the standard error stream, but subclasses will use Loggers from
- * various logging frameworks to persist the StopWatch.
+ * various logging frameworks to persist the StopWatch. StopWatches whose tag is switched off in the
+ * {@link ProfilingSwitch} are not logged.
  *
  * @author Alex Devine
  */
@@ -53,13 +56,18 @@ public class LoggingStopWatch extends StopWatch {
      */
     private String slowSuffix = ".slow";
 
+    /**
+     * If set, only the calls sampled by this Sampler are logged.
+     */
+    private Sampler sampler = null;
+
     // --- Constructors ---
 
     /**
      * Creates a LoggingStopWatch with a blank tag, no message and started at the instant of creation.
      */
     public LoggingStopWatch() {
-        super();
+        this("", null);
     }
 
     /**
@@ -69,11 +77,13 @@ public class LoggingStopWatch extends StopWatch {
      *            timed should have a unique tag. Note that tags can take a hierarchical format using dot notation.
      */
     public LoggingStopWatch(String tag) {
-        super(tag);
+        this(tag, null);
     }
 
     /**
-     * Creates a LoggingStopWatch with the specified tag and message, started an the instant of creation.
+     * Creates a LoggingStopWatch with the specified tag and message, started an the instant of creation. In a
+     * {@link SampledRequest} that isn't sampled the clock isn't read, and the StopWatch is created stopped with a
+     * start and elapsed time of 0, since it won't be logged anyway.
      *
      * @param tag     The tag name for this timing call. Tags are used to group timing logs, thus each block of code
      *                being timed should have a unique tag. Note that tags can take a hierarchical format using dot
@@ -81,7 +91,7 @@ public class LoggingStopWatch extends StopWatch {
      * @param message Additional text to be printed with the logging statement of this LoggingStopWatch.
      */
     public LoggingStopWatch(String tag, String message) {
-        super(tag, message);
+        this(creationStartTime(), creationElapsedTime(), tag, message);
     }
 
     /**
@@ -211,17 +221,58 @@ public class LoggingStopWatch extends StopWatch {
         return this;
     }
 
-    // --- Stop/Lap/Helper Methods ---
+    // Just overridden to make use of covariant return types
+    public LoggingStopWatch setWeight(int weight) {
+        super.setWeight(weight);
+        return this;
+    }
+
+    /**
+     * Gets the Sampler that decides which stop and lap calls are logged, if any.
+     *
+     * @return The Sampler, or null if every call is logged.
+     */
+    public Sampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * Sets a Sampler to log only a sample of this StopWatch's stop and lap calls, each with the weight returned by
+     * the Sampler. The sampling decision is made when the StopWatch is stopped, so the time is still measured for
+     * calls that are not logged; to avoid that, check the Sampler before creating the StopWatch and set the weight
+     * instead, as the timing aspects do for the <tt>sampleEvery</tt> attribute of the Profiled annotation. The
+     * Sampler is ignored while a {@link SampledRequest} is active, as the request's decision applies instead.
+     *
+     * @param sampler The Sampler, which should be shared by all the StopWatches timing the same code block, or null
+     *                to log every call.
+     * @return this instance, for method chaining if desired.
+     */
+    public LoggingStopWatch setSampler(Sampler sampler) {
+        this.sampler = sampler;
+        return this;
+    }
+
+    // --- Start/Stop/Lap/Helper Methods ---
+    /**
+     * This start method is overridden to not read the clock in a {@link SampledRequest} that isn't sampled, since
+     * the StopWatch won't be logged anyway.
+     */
+    public void start() {
+        SampledRequest request = SampledRequest.current();
+        if (request == null || request.isSampled()) {
+            super.start();
+        }
+    }
+
     /**
      * This stop method is overridden to perform the logging itself instead of needing to make a separate call to
-     * persist the timing information.
+     * persist the timing information. In a {@link SampledRequest} that isn't sampled it neither reads the clock nor
+     * logs, since the StopWatch won't be logged anyway, and just returns the unstopped StopWatch as a string.
      *
      * @return this.toString(), however, this should not be passed to a logger as it will have already been logged.
      */
     public String stop() {
-        String retVal = super.stop();
-        doLogInternal(retVal, null);
-        return retVal;
+        return stop((Throwable) null);
     }
 
     /**
@@ -233,8 +284,15 @@ public class LoggingStopWatch extends StopWatch {
      * @return this.toString(), however, this should not be passed to a logger as it will have already been logged.
      */
     public String stop(Throwable exception) {
+        SampledRequest request = SampledRequest.current();
+        if (request != null && !request.isSampled()) {
+            return toString();
+        }
+        boolean sampled = sample(request);
         String retVal = super.stop();
-        doLogInternal(retVal, exception);
+        if (sampled) {
+            doLogInternal(retVal, exception);
+        }
         return retVal;
     }
 
@@ -317,6 +375,27 @@ public class LoggingStopWatch extends StopWatch {
         }
     }
 
+    /**
+     * Gets the start time a StopWatch created at this instant should have. Subclass constructors pass this and
+     * {@link #creationElapsedTime()} on so that the clock isn't read in a {@link SampledRequest} that isn't sampled.
+     *
+     * @return The current time in milliseconds, or 0 in a SampledRequest that isn't sampled.
+     */
+    protected static long creationStartTime() {
+        SampledRequest request = SampledRequest.current();
+        return (request == null || request.isSampled()) ? System.currentTimeMillis() : 0L;
+    }
+
+    /**
+     * Gets the elapsed time a StopWatch created at this instant should have.
+     *
+     * @return -1, meaning the StopWatch is running, or 0 in a SampledRequest that isn't sampled.
+     */
+    protected static long creationElapsedTime() {
+        SampledRequest request = SampledRequest.current();
+        return (request == null || request.isSampled()) ? -1L : 0L;
+    }
+
     // --- Object Methods ---
     
     public LoggingStopWatch clone() {
@@ -324,6 +403,23 @@ public class LoggingStopWatch extends StopWatch {
     }
 
     // --- Private Methods ---
+    // Helper method checks whether the tag is switched on, and asks the active request or the sampler, if any,
+    // whether this call is logged, and sets its weight
+    private boolean sample(SampledRequest request) {
+        if (!ProfilingSwitch.isEnabled(getTag())) {
+            return false;
+        }
+        if (request == null && sampler == null) {
+            return true;
+        }
+        int weight = (request == null) ? sampler.sample() : request.getWeight();
+        if (weight == 0) {
+            return false;
+        }
+        setWeight(weight);
+        return true;
+    }
+
     // Helper method only calls log if elapsed time is greater than the time threshold
     private void doLogInternal(String stopWatchAsString, Throwable exception) {
     	//if normalAndSlowSuffixesEnabled then always log with the suffixes added
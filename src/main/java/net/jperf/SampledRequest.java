@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+/**
+ * A SampledRequest holds the sampling decision for a whole request, so that either all or none of the StopWatches
+ * timed while serving it are logged. Sampling each timed code block independently, as a {@link Sampler} on its own
+ * does, produces incoherent data: the outer call of a request may be logged while the nested calls it made are not.
+ * Instead the decision is made once at the request's entry point - for example by the {@link
+ * net.jperf.servlet.SamplingFilter}, a {@link TimedCallable} or the outermost method with a
+ * {@link net.jperf.aop.Profiled#sampleEvery() sampleEvery} attribute - and is kept in a thread local while the
+ * request runs:
+ * <pre>
+ * SampledRequest request = SampledRequest.begin(sampler);
+ * try {
+ *     ...serve the request
+ * } finally {
+ *     request.end();
+ * }
+ * </pre>
+ * While a request is active on a thread, its decision overrides the Samplers of nested code blocks. In an unsampled
+ * request the timing aspects, TimedCallables and TimedRunnables run the timed code without starting a StopWatch,
+ * and LoggingStopWatches neither read the clock, when created or started, nor log. In a sampled request every
+ * StopWatch is logged with the request's weight, so that the statistics still reflect the full traffic.
+ * <p>
+ * The begin methods can be nested: a nested call joins the request already active on the thread, and the request
+ * ends when the outermost begin is matched by its end. To continue a request on another thread, pass its weight to
+ * {@link #begin(int)} on that thread.
+ */
+public class SampledRequest {
+    private static final ThreadLocal<SampledRequest> CURRENT = new ThreadLocal<SampledRequest>();
+
+    private final int weight;
+    /**
+     * The number of begin calls not yet matched by an end call. Only accessed by the request's thread.
+     */
+    private int depth = 1;
+
+    private SampledRequest(int weight) {
+        this.weight = weight;
+    }
+
+    // --- static methods ---
+
+    /**
+     * Gets the request active on the current thread.
+     *
+     * @return The active request, or null if the current thread isn't serving a sampled request.
+     */
+    public static SampledRequest current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Begins a request on the current thread, asking the sampler whether it is sampled, or joins the request that is
+     * already active.
+     *
+     * @param sampler The Sampler that decides whether a new request is sampled. If null no new request is begun, but
+     *                an active request is still joined.
+     * @return The request, which must be ended on the same thread, or null if no request is active and the sampler
+     *         is null.
+     */
+    public static SampledRequest begin(Sampler sampler) {
+        SampledRequest retVal = CURRENT.get();
+        if (retVal != null) {
+            retVal.depth++;
+        } else if (sampler != null) {
+            retVal = new SampledRequest(sampler.sample());
+            CURRENT.set(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Begins a request on the current thread with a known sampling decision, or joins the request that is already
+     * active. This is normally used to continue a request on another thread.
+     *
+     * @param weight The weight of the request, as returned by {@link #getWeight()}: 0 if it isn't sampled.
+     * @return The request, which must be ended on the same thread.
+     */
+    public static SampledRequest begin(int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("The weight of a request can't be negative");
+        }
+        SampledRequest retVal = CURRENT.get();
+        if (retVal != null) {
+            retVal.depth++;
+        } else {
+            retVal = new SampledRequest(weight);
+            CURRENT.set(retVal);
+        }
+        return retVal;
+    }
+
+    // --- attributes ---
+
+    /**
+     * Gets the weight of the StopWatches logged during this request, which is the number of requests it stands for.
+     *
+     * @return The weight, or 0 if the request isn't sampled.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean isSampled() {
+        return weight > 0;
+    }
+
+    // --- lifecycle methods ---
+
+    /**
+     * Ends this request, or leaves it if this call matches a nested begin call. Must be called on the thread the
+     * request was begun on.
+     */
+    public void end() {
+        if (CURRENT.get() != this) {
+            throw new IllegalStateException("The request is not active on the current thread");
+        }
+        if (--depth == 0) {
+            CURRENT.remove();
+        }
+    }
+
+    public String toString() {
+        return "SampledRequest[weight=" + weight + "]";
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+/**
+ * A Sampler decides which calls of a timed code block are timed and logged, so that very frequently called code can
+ * be profiled at a fraction of the cost. Each call is sampled with a probability of 1 in SampleEvery, and the
+ * StopWatch of a sampled call carries a weight of SampleEvery, meaning it stands for that many calls: the
+ * {@link TimingStatistics} created from weighted StopWatches count each one as weight calls, so the counts and
+ * transactions per second reflect the true traffic.
+ * <p>
+ * If MaxSamplesPerSecond is set the Sampler is adaptive: once a second it measures the call rate and raises
+ * SampleEvery so that at most about MaxSamplesPerSecond calls are sampled per second, but never lowers it below the
+ * configured value.
+ * <p>
+ * Calls that are not sampled cost a few arithmetic operations - they don't read the clock, except for one call in
+ * every {@link #ADJUST_INTERVAL} in adaptive mode. To keep it that cheap, the random number generator state and call
+ * counts are updated without synchronization; concurrent updates may occasionally be lost, which does not bias the
+ * weighted statistics, since every call is still sampled with the probability its weight stands for.
+ * <p>
+ * Samplers are normally configured with the <tt>sampleEvery</tt> and <tt>maxSamplesPerSecond</tt> attributes of
+ * {@link net.jperf.aop.Profiled}, or set on a {@link LoggingStopWatch}. A Sampler should be shared by all the calls
+ * of the code block it samples.
+ */
+public class Sampler {
+    /**
+     * In adaptive mode, the clock is read to check whether SampleEvery should be adjusted once in this many calls.
+     */
+    public static final int ADJUST_INTERVAL = 64;
+
+    private final int sampleEvery;
+    private final int maxSamplesPerSecond;
+
+    /**
+     * The current sampling interval, which is only different from sampleEvery in adaptive mode.
+     */
+    private volatile int currentSampleEvery;
+    /**
+     * The xorshift random number generator state, updated without synchronization.
+     */
+    private int randomState;
+    /**
+     * The number of calls since the start of the current adjustment window, updated without synchronization.
+     */
+    private int numCalls = 0;
+    private long windowStartTime;
+
+    /**
+     * Creates a Sampler that samples 1 in sampleEvery calls.
+     *
+     * @param sampleEvery The sampling interval. 1 means every call is sampled.
+     */
+    public Sampler(int sampleEvery) {
+        this(sampleEvery, 0);
+    }
+
+    /**
+     * Creates a Sampler.
+     *
+     * @param sampleEvery         The minimum sampling interval. 1 means every call is sampled.
+     * @param maxSamplesPerSecond The target maximum number of calls sampled per second, or 0 to always sample with
+     *                            the sampleEvery interval.
+     */
+    public Sampler(int sampleEvery, int maxSamplesPerSecond) {
+        if (sampleEvery < 1 || maxSamplesPerSecond < 0) {
+            throw new IllegalArgumentException("sampleEvery must be positive and maxSamplesPerSecond can't be negative");
+        }
+        this.sampleEvery = sampleEvery;
+        this.maxSamplesPerSecond = maxSamplesPerSecond;
+        this.currentSampleEvery = sampleEvery;
+        this.randomState = (int) System.nanoTime() | 1;
+        this.windowStartTime = System.currentTimeMillis();
+    }
+
+    // --- attributes ---
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public int getMaxSamplesPerSecond() {
+        return maxSamplesPerSecond;
+    }
+
+    /**
+     * Gets the sampling interval currently used, which in adaptive mode depends on the call rate.
+     *
+     * @return The current sampling interval.
+     */
+    public int getCurrentSampleEvery() {
+        return currentSampleEvery;
+    }
+
+    // --- sampling methods ---
+
+    /**
+     * Decides whether the current call is sampled.
+     *
+     * @return The weight of the call's StopWatch if the call is sampled, or 0 if it is not.
+     */
+    public int sample() {
+        int every = currentSampleEvery;
+        if (maxSamplesPerSecond > 0 && (++numCalls % ADJUST_INTERVAL) == 0) {
+            every = adjust();
+        }
+        if (every == 1) {
+            return 1;
+        }
+
+        int random = randomState;
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        randomState = random;
+
+        return ((random & Integer.MAX_VALUE) % every == 0) ? every : 0;
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Sets the current sampling interval from the call rate, once a second.
+     */
+    private int adjust() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            long windowLength = now - windowStartTime;
+            if (windowLength >= 1000L) {
+                long callsPerSecond = numCalls * 1000L / windowLength;
+                long every = (callsPerSecond + maxSamplesPerSecond - 1) / maxSamplesPerSecond;
+                currentSampleEvery = (int) Math.min(Math.max(every, sampleEvery), Integer.MAX_VALUE);
+                numCalls = 0;
+                windowStartTime = now;
+            }
+            return currentSampleEvery;
+        }
+    }
+}
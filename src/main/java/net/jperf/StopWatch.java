@@ -52,6 +52,7 @@ public class StopWatch implements Serializable, Cloneable {
     private long elapsedTime;
     private String tag;
     private String message;
+    private int weight = 1;
 
     /**
      * Creates a StopWatch with a blank tag, no message and started at the instant of creation.
@@ -156,6 +157,30 @@ public class StopWatch implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * Gets the number of calls of the timed code block this StopWatch stands for. This is 1 unless the calls are
+     * sampled, in which case each logged StopWatch stands for all the calls since the last sampled one.
+     *
+     * @return The weight of this StopWatch.
+     * @see Sampler
+     */
+    public int getWeight() { return weight; }
+
+    /**
+     * Sets the number of calls of the timed code block this StopWatch stands for. Statistics count this StopWatch as
+     * that many calls with the same elapsed time.
+     *
+     * @param weight The weight, which must be at least 1.
+     * @return this instance, for method chaining if desired.
+     */
+    public StopWatch setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("The weight of a StopWatch must be at least 1");
+        }
+        this.weight = weight;
+        return this;
+    }
+
     // --- Start/Stop/Lap methods ---
 
     /**
@@ -283,7 +308,8 @@ public class StopWatch implements Serializable, Cloneable {
     	return "start[" + getStartTime() +
         "] time[" + getElapsedTime() +
         "] tag[" + getTag() +
-        ((message == null) ? "]" : "] message[" + message + "]");
+        ((message == null) ? "]" : "] message[" + message + "]") +
+        ((weight == 1) ? "" : " weight[" + weight + "]");
     }
 
     public StopWatch clone() {
@@ -313,6 +339,9 @@ public class StopWatch implements Serializable, Cloneable {
         if (nanoStartTime != stopWatch.nanoStartTime) {
             return false;
         }
+        if (weight != stopWatch.weight) {
+            return false;
+        }
         if (message != null ? !message.equals(stopWatch.message) : stopWatch.message != null) {
             return false;
         }
@@ -329,6 +358,7 @@ public class StopWatch implements Serializable, Cloneable {
         result = 31 * result + (int) (elapsedTime ^ (elapsedTime >>> 32));
         result = 31 * result + (tag != null ? tag.hashCode() : 0);
         result = 31 * result + (message != null ? message.hashCode() : 0);
+        result = 31 * result + weight;
         return result;
     }
 }
@@ -23,6 +23,11 @@ import java.util.concurrent.Callable;
  * This helper wrapper class can be used to add timing statements to an existing Callable instance, logging how long
  * it takes for the call method to execute. Note that instances of this class are only serializable if the wrapped
  * Callable is serializable.
+ * <p>
+ * If the TimedCallable is created while a {@link SampledRequest} is active, it continues that request when it is run, even on
+ * another thread, so the task is only timed if the request is sampled. Otherwise, if the StopWatch has a
+ * {@link LoggingStopWatch#setSampler Sampler}, the task is the entry point of a new request and the Sampler decides
+ * whether it, and the code it calls, is timed.
  *
  * @author Alex Devine
  */
@@ -30,6 +35,10 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
     private static final long serialVersionUID = -7581382177897573004L;
     private Callable<V> wrappedTask;
     private LoggingStopWatch stopWatch;
+    /**
+     * The weight of the request that was active when this task was created, or null if there was none.
+     */
+    private Integer parentRequestWeight;
 
     /**
      * Wraps the existing Callable in order to time its call method.
@@ -42,6 +51,8 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
     public TimedCallable(Callable<V> task, LoggingStopWatch stopWatch) {
         this.wrappedTask = task;
         this.stopWatch = stopWatch;
+        SampledRequest parentRequest = SampledRequest.current();
+        this.parentRequestWeight = (parentRequest == null) ? null : parentRequest.getWeight();
     }
 
     /**
@@ -66,11 +77,29 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
      * Executes the call method of the underlying task, using the LoggingStopWatch to track the execution time.
      */
     public V call() throws Exception {
+        SampledRequest request = beginSampledRequest();
+        if (request != null && !request.isSampled()) {
+            try {
+                return wrappedTask.call();
+            } finally {
+                request.end();
+            }
+        }
+
         try {
             stopWatch.start();
             return wrappedTask.call();
         } finally {
             stopWatch.stop();
+            if (request != null) {
+                request.end();
+            }
         }
     }
+
+    // Helper method continues the request this task was created in, or begins a new one with the StopWatch's sampler
+    private SampledRequest beginSampledRequest() {
+        return (parentRequestWeight == null) ? SampledRequest.begin(stopWatch.getSampler())
+                                             : SampledRequest.begin(parentRequestWeight);
+    }
 }
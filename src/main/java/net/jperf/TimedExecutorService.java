@@ -0,0 +1,773 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import net.jperf.helpers.StopWatchFactory;
+import net.jperf.helpers.StripedCounter;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An ExecutorService wrapper that times every task it runs, and measures how saturated the wrapped executor is.
+ * Unlike the {@link TimedRunnable} and {@link TimedCallable}, which only time the execution of the tasks they wrap,
+ * a TimedExecutorService logs two StopWatches per task:
+ * <ul>
+ * <li>the time the task waited in the queue before it started running, tagged <tt>&lt;tag&gt;.queueWait</tt> by
+ * default, and
+ * <li>the time it ran, tagged <tt>&lt;tag&gt;.run</tt> by default, logged with the exception if the task failed.
+ * </ul>
+ * It also keeps, for each window of {@link #setWindowLength WindowLength} milliseconds, the highest number of active
+ * tasks, the queue depth high-water mark and the number of rejected tasks, which are available from
+ * {@link #getLastWindow()} and from the MXBean registered by {@link #registerMBean()}. A window is closed by the first
+ * task submitted, or the first read, after it ends, so an idle executor's window can be longer than WindowLength.
+ * <p>
+ * The wrapper works with any ExecutorService, including thread pools and the virtual thread per task executors,
+ * since it only relies on the execute method of the wrapped executor. The tasks passed to submit, invokeAll and
+ * invokeAny are created by the wrapper itself, so they replace the FutureTask the wrapped executor would have
+ * created: the only allocations per task are the wrapper and, if the logger is enabled, the StopWatch. Whether the
+ * logger is enabled is checked again at the start of each window.
+ * <p>
+ * A task leaves the queue depth once, when it starts running, when it is cancelled, or when it is rejected. Tasks
+ * rejected by an exception, or drained by shutdownNow, are always seen. When the wrapped executor is a
+ * ThreadPoolExecutor, the wrapper also wraps its RejectedExecutionHandler, so that tasks silently discarded by a
+ * policy such as DiscardPolicy or DiscardOldestPolicy are counted as rejected too; the handler must not be replaced
+ * afterwards. Other executors must not silently drop tasks, or the queue depth will drift upward. A task taken by a
+ * worker thread at the moment a discarding policy returns may be counted as rejected, but it is still run and timed.
+ * <p>
+ * Like the TimedRunnable, a task submitted while a {@link SampledRequest} is active continues that request when it
+ * runs, so it is only timed if the request is sampled.
+ */
+public class TimedExecutorService extends AbstractExecutorService {
+    /**
+     * The prefix of the ObjectName the MXBean is registered under, which is followed by the quoted tag.
+     */
+    public static final String MBEAN_NAME_PREFIX = "net.jperf:type=TimedExecutorService,name=";
+    /**
+     * The default length of the saturation windows, the same as the default TimeSlice of the statistics appenders.
+     */
+    public static final long DEFAULT_WINDOW_LENGTH = 30000L;
+
+    // --- the states of the tasks ---
+    private static final int TASK_UNSUBMITTED = 0;
+    private static final int TASK_QUEUED = 1;
+    private static final int TASK_LEFT_QUEUE = 2;
+    private static final int TASK_DISCARDED = 3;
+
+    private final ExecutorService delegate;
+    private final String tag;
+    private final StopWatchFactory stopWatchFactory;
+    private final String loggerName;
+    private final String levelName;
+    private String queueWaitTag;
+    private String runTag;
+    private long windowLength = DEFAULT_WINDOW_LENGTH;
+    private volatile ObjectName registeredMBeanName;
+
+    // --- updated by every task ---
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger windowMaxActiveCount = new AtomicInteger();
+    private final AtomicInteger windowMaxQueueDepth = new AtomicInteger();
+    private final StripedCounter numSubmittedTasks = new StripedCounter();
+    private final StripedCounter numCompletedTasks = new StripedCounter();
+    private final StripedCounter numRejectedTasks = new StripedCounter();
+
+    // --- updated when a window is closed, while holding the lock on this ---
+    private volatile long windowStopTime;
+    private long windowStartTime;
+    private long windowStartNumSubmittedTasks;
+    private long windowStartNumCompletedTasks;
+    private long windowStartNumRejectedTasks;
+    private volatile SaturationWindow lastWindow;
+    private volatile boolean logging;
+
+    /**
+     * Wraps an executor, logging the StopWatches to standard error.
+     *
+     * @param delegate The executor that runs the tasks.
+     * @param tag      The tag of the executor, followed by ".queueWait" and ".run" in the tags of the StopWatches.
+     */
+    public TimedExecutorService(ExecutorService delegate, String tag) {
+        this(delegate, tag, StopWatchFactory.forName("stderr"), StopWatch.DEFAULT_LOGGER_NAME, "INFO");
+    }
+
+    /**
+     * Wraps an executor.
+     *
+     * @param delegate         The executor that runs the tasks.
+     * @param tag              The tag of the executor, followed by ".queueWait" and ".run" in the tags of the
+     *                         StopWatches.
+     * @param stopWatchFactory The factory of the StopWatches, which decides the logging framework.
+     * @param loggerName       The name of the logger the StopWatches are logged to.
+     * @param levelName        The name of the level the StopWatches are logged at.
+     */
+    public TimedExecutorService(ExecutorService delegate,
+                                String tag,
+                                StopWatchFactory stopWatchFactory,
+                                String loggerName,
+                                String levelName) {
+        if (delegate == null || tag == null) {
+            throw new NullPointerException();
+        }
+        this.delegate = delegate;
+        this.tag = tag;
+        this.stopWatchFactory = stopWatchFactory;
+        this.loggerName = loggerName;
+        this.levelName = levelName;
+        this.queueWaitTag = tag + ".queueWait";
+        this.runTag = tag + ".run";
+        this.windowStartTime = System.currentTimeMillis();
+        this.windowStopTime = windowStartTime + windowLength;
+        this.logging = stopWatchFactory.newStopWatch(loggerName, levelName).isLogging();
+        if (delegate instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) delegate;
+            pool.setRejectedExecutionHandler(new DiscardDetectingHandler(pool.getRejectedExecutionHandler()));
+        }
+    }
+
+    // --- options ---
+
+    public ExecutorService getDelegate() {
+        return delegate;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getQueueWaitTag() {
+        return queueWaitTag;
+    }
+
+    /**
+     * Sets the tag of the StopWatches timing how long the tasks wait in the queue. Must be set before tasks are
+     * submitted.
+     *
+     * @param queueWaitTag The tag, by default the tag of the executor followed by ".queueWait".
+     * @return this TimedExecutorService, so setters can be chained.
+     */
+    public TimedExecutorService setQueueWaitTag(String queueWaitTag) {
+        this.queueWaitTag = queueWaitTag;
+        return this;
+    }
+
+    public String getRunTag() {
+        return runTag;
+    }
+
+    /**
+     * Sets the tag of the StopWatches timing how long the tasks run. Must be set before tasks are submitted.
+     *
+     * @param runTag The tag, by default the tag of the executor followed by ".run".
+     * @return this TimedExecutorService, so setters can be chained.
+     */
+    public TimedExecutorService setRunTag(String runTag) {
+        this.runTag = runTag;
+        return this;
+    }
+
+    public synchronized long getWindowLength() {
+        return windowLength;
+    }
+
+    /**
+     * Sets the length of the saturation windows. The current window ends WindowLength milliseconds after it started.
+     *
+     * @param windowLength The length in milliseconds, by default 30000.
+     * @return this TimedExecutorService, so setters can be chained.
+     */
+    public synchronized TimedExecutorService setWindowLength(long windowLength) {
+        if (windowLength <= 0L) {
+            throw new IllegalArgumentException("The window length must be positive");
+        }
+        this.windowLength = windowLength;
+        this.windowStopTime = windowStartTime + windowLength;
+        return this;
+    }
+
+    // --- metrics ---
+
+    /**
+     * @return The number of tasks running now.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * @return The number of submitted tasks that haven't started running, been cancelled or been rejected yet.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getNumSubmittedTasks() {
+        return numSubmittedTasks.get();
+    }
+
+    public long getNumCompletedTasks() {
+        return numCompletedTasks.get();
+    }
+
+    public long getNumRejectedTasks() {
+        return numRejectedTasks.get();
+    }
+
+    /**
+     * Gets the saturation metrics of the last closed window, closing the current window first if it has ended.
+     *
+     * @return The last window, or null if no window has been closed yet.
+     */
+    public SaturationWindow getLastWindow() {
+        closeWindowIfEnded();
+        return lastWindow;
+    }
+
+    /**
+     * Registers the {@link TimedExecutorServiceMXBean} of this executor with the platform MBeanServer, under
+     * {@link #MBEAN_NAME_PREFIX} followed by the quoted tag, replacing any MBean already registered under that name.
+     * It is unregistered when the executor is shut down.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName mBeanName = new ObjectName(MBEAN_NAME_PREFIX + ObjectName.quote(tag));
+            if (mBeanServer.isRegistered(mBeanName)) {
+                mBeanServer.unregisterMBean(mBeanName);
+            }
+            mBeanServer.registerMBean(new Management(), mBeanName);
+            registeredMBeanName = mBeanName;
+        } catch (Exception e) {
+            System.err.println("Failed to register the TimedExecutorService MBean " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // --- ExecutorService methods ---
+
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        closeWindowIfEnded();
+
+        LoggingStopWatch stopWatch = logging ? stopWatchFactory.newStopWatch(loggerName, levelName) : null;
+        SampledRequest parentRequest = SampledRequest.current();
+        int parentRequestWeight = (parentRequest == null) ? -1 : parentRequest.getWeight();
+        QueuedTask task;
+        if (command instanceof TimedFutureTask && ((TimedFutureTask<?>) command).getExecutor() == this) {
+            task = (TimedFutureTask<?>) command;
+            ((TimedFutureTask<?>) command).submitted(stopWatch, parentRequestWeight);
+        } else {
+            task = new TimedCommand(command, stopWatch, parentRequestWeight);
+        }
+
+        //counted before the task is handed over, as it may start running right away, but a rejected task is not
+        //part of the high-water mark
+        queueDepth.incrementAndGet();
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException ree) {
+            if (task.leaveQueue(true)) {
+                numRejectedTasks.increment();
+            }
+            throw ree;
+        }
+        if (!task.isDiscarded()) {
+            updateMax(windowMaxQueueDepth, queueDepth.get());
+            numSubmittedTasks.increment();
+        }
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+        unregisterMBean();
+    }
+
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pendingTasks = delegate.shutdownNow();
+        unregisterMBean();
+        List<Runnable> retVal = new ArrayList<Runnable>(pendingTasks.size());
+        for (Runnable pendingTask : pendingTasks) {
+            if (isOwnTask(pendingTask)) {
+                ((QueuedTask) pendingTask).leaveQueue(false);
+            }
+            if (pendingTask instanceof TimedCommand) {
+                retVal.add(((TimedCommand) pendingTask).command);
+            } else {
+                retVal.add(pendingTask);
+            }
+        }
+        return retVal;
+    }
+
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TimedFutureTask<T>(runnable, value);
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TimedFutureTask<T>(callable);
+    }
+
+    public String toString() {
+        return "TimedExecutorService[tag=" + tag + ", delegate=" + delegate + "]";
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Called on the thread running a task, before the task runs.
+     *
+     * @return The request the task continues, which must be ended on the same thread, or null.
+     */
+    private SampledRequest taskStarted(LoggingStopWatch stopWatch, int parentRequestWeight) {
+        updateMax(windowMaxActiveCount, activeCount.incrementAndGet());
+        SampledRequest retVal = (parentRequestWeight < 0) ? null : SampledRequest.begin(parentRequestWeight);
+        if (stopWatch != null) {
+            //the StopWatch doesn't log if the request isn't sampled
+            stopWatch.lap(queueWaitTag);
+        }
+        return retVal;
+    }
+
+    /**
+     * Called on the thread running a task, after the task ran.
+     */
+    private void taskFinished(LoggingStopWatch stopWatch, SampledRequest request, Throwable exception) {
+        try {
+            if (stopWatch != null) {
+                stopWatch.stop(runTag, exception);
+            }
+        } finally {
+            activeCount.decrementAndGet();
+            numCompletedTasks.increment();
+            if (request != null) {
+                request.end();
+            }
+        }
+    }
+
+    private void closeWindowIfEnded() {
+        long now = System.currentTimeMillis();
+        if (now >= windowStopTime) {
+            closeWindow(now);
+        }
+    }
+
+    private synchronized void closeWindow(long now) {
+        if (now < windowStopTime) {
+            //another thread closed it
+            return;
+        }
+        long submitted = numSubmittedTasks.get();
+        long completed = numCompletedTasks.get();
+        long rejected = numRejectedTasks.get();
+        lastWindow = new SaturationWindow(windowStartTime,
+                                          now,
+                                          windowMaxActiveCount.get(),
+                                          windowMaxQueueDepth.get(),
+                                          submitted - windowStartNumSubmittedTasks,
+                                          completed - windowStartNumCompletedTasks,
+                                          rejected - windowStartNumRejectedTasks);
+
+        //the new window starts with the tasks that are already active or queued
+        windowMaxActiveCount.set(activeCount.get());
+        windowMaxQueueDepth.set(queueDepth.get());
+        windowStartNumSubmittedTasks = submitted;
+        windowStartNumCompletedTasks = completed;
+        windowStartNumRejectedTasks = rejected;
+        windowStartTime = now;
+        windowStopTime = now + windowLength;
+        logging = stopWatchFactory.newStopWatch(loggerName, levelName).isLogging();
+    }
+
+    private void unregisterMBean() {
+        ObjectName mBeanName = registeredMBeanName;
+        if (mBeanName == null) {
+            return;
+        }
+        registeredMBeanName = null;
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(mBeanName)) {
+                mBeanServer.unregisterMBean(mBeanName);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to unregister the TimedExecutorService MBean " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isOwnTask(Runnable task) {
+        return task instanceof QueuedTask && ((QueuedTask) task).getExecutor() == this;
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            //retry
+        }
+    }
+
+    // --- tasks ---
+
+    /**
+     * The tasks this executor passes to the wrapped executor, which leave the queue depth exactly once. Their state
+     * is guarded by the lock on the task.
+     */
+    private interface QueuedTask extends Runnable {
+        TimedExecutorService getExecutor();
+
+        boolean isQueued();
+
+        /**
+         * Removes the task from the queue depth, if it is still queued.
+         *
+         * @param discarded Whether the task will never run because it was rejected.
+         * @return Whether the task was still queued.
+         */
+        boolean leaveQueue(boolean discarded);
+
+        boolean isDiscarded();
+    }
+
+    /**
+     * The task created for submit, invokeAll and invokeAny. It is only timed if it is passed to the execute method of
+     * its executor, and not when another task wraps it, as the ExecutorCompletionService used by invokeAny does.
+     */
+    private class TimedFutureTask<V> extends FutureTask<V> implements QueuedTask {
+        private int state = TASK_UNSUBMITTED;
+        private LoggingStopWatch stopWatch;
+        private int parentRequestWeight;
+        private Throwable exception;
+
+        TimedFutureTask(Callable<V> callable) {
+            super(callable);
+        }
+
+        TimedFutureTask(Runnable runnable, V value) {
+            super(runnable, value);
+        }
+
+        public TimedExecutorService getExecutor() {
+            return TimedExecutorService.this;
+        }
+
+        synchronized void submitted(LoggingStopWatch stopWatch, int parentRequestWeight) {
+            this.state = TASK_QUEUED;
+            this.stopWatch = stopWatch;
+            this.parentRequestWeight = parentRequestWeight;
+        }
+
+        public synchronized boolean isQueued() {
+            return state == TASK_QUEUED;
+        }
+
+        public synchronized boolean leaveQueue(boolean discarded) {
+            if (state != TASK_QUEUED) {
+                return false;
+            }
+            state = discarded ? TASK_DISCARDED : TASK_LEFT_QUEUE;
+            queueDepth.decrementAndGet();
+            return true;
+        }
+
+        public synchronized boolean isDiscarded() {
+            return state == TASK_DISCARDED;
+        }
+
+        private synchronized boolean isSubmitted() {
+            return state != TASK_UNSUBMITTED;
+        }
+
+        public void run() {
+            if (!isSubmitted()) {
+                super.run();
+                return;
+            }
+            leaveQueue(false);
+            if (isCancelled()) {
+                return;
+            }
+            SampledRequest request = taskStarted(stopWatch, parentRequestWeight);
+            try {
+                super.run();
+            } finally {
+                taskFinished(stopWatch, request, exception);
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            //a cancelled task leaves the queue now, since the wrapped executor may purge it without running it
+            boolean retVal = super.cancel(mayInterruptIfRunning);
+            if (retVal) {
+                leaveQueue(false);
+            }
+            return retVal;
+        }
+
+        protected void setException(Throwable exception) {
+            this.exception = exception;
+            super.setException(exception);
+        }
+    }
+
+    /**
+     * The task passed to the wrapped executor for a Runnable passed directly to the execute method.
+     */
+    private class TimedCommand implements QueuedTask {
+        private final Runnable command;
+        private final LoggingStopWatch stopWatch;
+        private final int parentRequestWeight;
+        private int state = TASK_QUEUED;
+
+        TimedCommand(Runnable command, LoggingStopWatch stopWatch, int parentRequestWeight) {
+            this.command = command;
+            this.stopWatch = stopWatch;
+            this.parentRequestWeight = parentRequestWeight;
+        }
+
+        public TimedExecutorService getExecutor() {
+            return TimedExecutorService.this;
+        }
+
+        public synchronized boolean isQueued() {
+            return state == TASK_QUEUED;
+        }
+
+        public synchronized boolean leaveQueue(boolean discarded) {
+            if (state != TASK_QUEUED) {
+                return false;
+            }
+            state = discarded ? TASK_DISCARDED : TASK_LEFT_QUEUE;
+            queueDepth.decrementAndGet();
+            return true;
+        }
+
+        public synchronized boolean isDiscarded() {
+            return state == TASK_DISCARDED;
+        }
+
+        public void run() {
+            leaveQueue(false);
+            SampledRequest request = taskStarted(stopWatch, parentRequestWeight);
+            Throwable exception = null;
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                exception = e;
+                throw e;
+            } catch (Error e) {
+                exception = e;
+                throw e;
+            } finally {
+                taskFinished(stopWatch, request, exception);
+            }
+        }
+
+        public String toString() {
+            return command.toString();
+        }
+    }
+
+    /**
+     * Wraps the RejectedExecutionHandler of a ThreadPoolExecutor delegate to detect the tasks it silently discards.
+     * When the handler returns, it either ran the rejected task on the caller thread, queued it after discarding the
+     * oldest queued task, or discarded it. A task of this executor that is still counted as queued but is no longer
+     * in the queue of the pool was discarded.
+     */
+    private class DiscardDetectingHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler handler;
+
+        DiscardDetectingHandler(RejectedExecutionHandler handler) {
+            this.handler = handler;
+        }
+
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            Runnable oldestTask = executor.getQueue().peek();
+            //if the handler throws, execute counts the rejection
+            handler.rejectedExecution(task, executor);
+            discardIfLost(task, executor);
+            if (oldestTask != null && oldestTask != task) {
+                discardIfLost(oldestTask, executor);
+            }
+        }
+
+        private void discardIfLost(Runnable task, ThreadPoolExecutor executor) {
+            if (isOwnTask(task)
+                && ((QueuedTask) task).isQueued()
+                && !executor.getQueue().contains(task)
+                && ((QueuedTask) task).leaveQueue(true)) {
+                numRejectedTasks.increment();
+            }
+        }
+    }
+
+    /**
+     * The saturation metrics of a closed window.
+     */
+    public static class SaturationWindow {
+        private final long startTime;
+        private final long stopTime;
+        private final int maxActiveCount;
+        private final int maxQueueDepth;
+        private final long numSubmittedTasks;
+        private final long numCompletedTasks;
+        private final long numRejectedTasks;
+
+        public SaturationWindow(long startTime,
+                                long stopTime,
+                                int maxActiveCount,
+                                int maxQueueDepth,
+                                long numSubmittedTasks,
+                                long numCompletedTasks,
+                                long numRejectedTasks) {
+            this.startTime = startTime;
+            this.stopTime = stopTime;
+            this.maxActiveCount = maxActiveCount;
+            this.maxQueueDepth = maxQueueDepth;
+            this.numSubmittedTasks = numSubmittedTasks;
+            this.numCompletedTasks = numCompletedTasks;
+            this.numRejectedTasks = numRejectedTasks;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getStopTime() {
+            return stopTime;
+        }
+
+        /**
+         * @return The highest number of tasks running at the same time during the window.
+         */
+        public int getMaxActiveCount() {
+            return maxActiveCount;
+        }
+
+        /**
+         * @return The highest number of tasks waiting to run during the window.
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public long getNumSubmittedTasks() {
+            return numSubmittedTasks;
+        }
+
+        public long getNumCompletedTasks() {
+            return numCompletedTasks;
+        }
+
+        public long getNumRejectedTasks() {
+            return numRejectedTasks;
+        }
+
+        public String toString() {
+            return "SaturationWindow[start=" + startTime + ", stop=" + stopTime
+                   + ", maxActiveCount=" + maxActiveCount + ", maxQueueDepth=" + maxQueueDepth
+                   + ", submitted=" + numSubmittedTasks + ", completed=" + numCompletedTasks
+                   + ", rejected=" + numRejectedTasks + "]";
+        }
+    }
+
+    /**
+     * The MXBean registered by {@link TimedExecutorService#registerMBean()}.
+     */
+    class Management implements TimedExecutorServiceMXBean {
+        public String getTag() {
+            return tag;
+        }
+
+        public long getWindowLength() {
+            return TimedExecutorService.this.getWindowLength();
+        }
+
+        public int getActiveCount() {
+            return TimedExecutorService.this.getActiveCount();
+        }
+
+        public int getQueueDepth() {
+            return TimedExecutorService.this.getQueueDepth();
+        }
+
+        public long getNumSubmittedTasks() {
+            return TimedExecutorService.this.getNumSubmittedTasks();
+        }
+
+        public long getNumCompletedTasks() {
+            return TimedExecutorService.this.getNumCompletedTasks();
+        }
+
+        public long getNumRejectedTasks() {
+            return TimedExecutorService.this.getNumRejectedTasks();
+        }
+
+        public int getLastWindowMaxActiveCount() {
+            SaturationWindow window = getLastWindow();
+            return (window == null) ? 0 : window.getMaxActiveCount();
+        }
+
+        public int getLastWindowMaxQueueDepth() {
+            SaturationWindow window = getLastWindow();
+            return (window == null) ? 0 : window.getMaxQueueDepth();
+        }
+
+        public long getLastWindowNumSubmittedTasks() {
+            SaturationWindow window = getLastWindow();
+            return (window == null) ? 0L : window.getNumSubmittedTasks();
+        }
+
+        public long getLastWindowNumCompletedTasks() {
+            SaturationWindow window = getLastWindow();
+            return (window == null) ? 0L : window.getNumCompletedTasks();
+        }
+
+        public long getLastWindowNumRejectedTasks() {
+            SaturationWindow window = getLastWindow();
+            return (window == null) ? 0L : window.getNumRejectedTasks();
+        }
+    }
+}
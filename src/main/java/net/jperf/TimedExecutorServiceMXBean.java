@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+/**
+ * The management interface of a {@link TimedExecutorService}, registered with the platform MBeanServer by
+ * {@link TimedExecutorService#registerMBean()}. The LastWindow attributes describe the last closed saturation window:
+ * an executor whose queue depth high-water mark keeps growing from window to window, or that rejects tasks, is too
+ * small for its load.
+ */
+public interface TimedExecutorServiceMXBean {
+    /**
+     * @return The tag of the executor, which prefixes the tags of the logged StopWatches.
+     */
+    String getTag();
+
+    /**
+     * @return The length of the saturation windows, in milliseconds.
+     */
+    long getWindowLength();
+
+    /**
+     * @return The number of tasks running now.
+     */
+    int getActiveCount();
+
+    /**
+     * @return The number of tasks submitted that haven't started running yet.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return The number of tasks accepted by the executor since it was created.
+     */
+    long getNumSubmittedTasks();
+
+    /**
+     * @return The number of tasks that finished running since the executor was created, normally or not.
+     */
+    long getNumCompletedTasks();
+
+    /**
+     * @return The number of tasks rejected by the wrapped executor since it was created.
+     */
+    long getNumRejectedTasks();
+
+    /**
+     * @return The highest number of tasks running at the same time during the last window.
+     */
+    int getLastWindowMaxActiveCount();
+
+    /**
+     * @return The highest number of tasks waiting to run during the last window.
+     */
+    int getLastWindowMaxQueueDepth();
+
+    /**
+     * @return The number of tasks accepted during the last window.
+     */
+    long getLastWindowNumSubmittedTasks();
+
+    /**
+     * @return The number of tasks that finished running during the last window.
+     */
+    long getLastWindowNumCompletedTasks();
+
+    /**
+     * @return The number of tasks rejected during the last window.
+     */
+    long getLastWindowNumRejectedTasks();
+}
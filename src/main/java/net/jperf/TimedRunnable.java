@@ -22,6 +22,11 @@ import java.io.Serializable;
  * This helper wrapper class can be used to add timing statements to an existing Runnable instance, logging how long
  * it takes for the run method to execute. Note that instances of this class are only serializable if the wrapped
  * Runnable is serializable.
+ * <p>
+ * If the TimedRunnable is created while a {@link SampledRequest} is active, it continues that request when it is run, even on
+ * another thread, so the task is only timed if the request is sampled. Otherwise, if the StopWatch has a
+ * {@link LoggingStopWatch#setSampler Sampler}, the task is the entry point of a new request and the Sampler decides
+ * whether it, and the code it calls, is timed.
  *
  * @author Alex Devine
  */
@@ -29,6 +34,10 @@ public class TimedRunnable implements Runnable, Serializable {
     private static final long serialVersionUID = -3506292767816484297L;
     private Runnable wrappedTask;
     private LoggingStopWatch stopWatch;
+    /**
+     * The weight of the request that was active when this task was created, or null if there was none.
+     */
+    private Integer parentRequestWeight;
 
     /**
      * Wraps the existing Runnable in order to time its run method.
@@ -41,6 +50,8 @@ public class TimedRunnable implements Runnable, Serializable {
     public TimedRunnable(Runnable task, LoggingStopWatch stopWatch) {
         this.wrappedTask = task;
         this.stopWatch = stopWatch;
+        SampledRequest parentRequest = SampledRequest.current();
+        this.parentRequestWeight = (parentRequest == null) ? null : parentRequest.getWeight();
     }
 
     /**
@@ -65,11 +76,30 @@ public class TimedRunnable implements Runnable, Serializable {
      * Executes the run method of the underlying task, using the LoggingStopWatch to track the execution time.
      */
     public void run() {
+        SampledRequest request = beginSampledRequest();
+        if (request != null && !request.isSampled()) {
+            try {
+                wrappedTask.run();
+            } finally {
+                request.end();
+            }
+            return;
+        }
+
         try {
             stopWatch.start();
             wrappedTask.run();
         } finally {
             stopWatch.stop();
+            if (request != null) {
+                request.end();
+            }
         }
     }
+
+    // Helper method continues the request this task was created in, or begins a new one with the StopWatch's sampler
+    private SampledRequest beginSampledRequest() {
+        return (parentRequestWeight == null) ? SampledRequest.begin(stopWatch.getSampler())
+                                             : SampledRequest.begin(parentRequestWeight);
+    }
 }
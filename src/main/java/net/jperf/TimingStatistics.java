@@ -63,15 +63,29 @@ public class TimingStatistics implements Serializable, Cloneable {
      * @return this TimingStatistics instance
      */
     public TimingStatistics addSampleTime(long elapsedTime) {
-        count++;
+        return addSampleTime(elapsedTime, 1);
+    }
+
+    /**
+     * This method updates the calculated statistics with a logged execution time that stands for several executions,
+     * as if the time had been passed to {@link #addSampleTime(long)} weight times.
+     *
+     * @param elapsedTime The elapsed time being used to update the statistics.
+     * @param weight      The number of executions the elapsed time stands for, which is more than 1 for the
+     *                    StopWatches of sampled calls.
+     * @return this TimingStatistics instance
+     */
+    public TimingStatistics addSampleTime(long elapsedTime, int weight) {
+        int previousCount = count;
+        count += weight;
 
         double diffFromMean = elapsedTime - mean;
-        mean = mean + (diffFromMean / count);
+        mean = mean + (diffFromMean * weight / count);
 
-        runningQ = runningQ + (((count - 1) * Math.pow(diffFromMean, 2.0)) / count);
+        runningQ = runningQ + (((double) previousCount * weight * Math.pow(diffFromMean, 2.0)) / count);
 
         //special case initial stopWatch when finding max and min
-        if (count == 1) {
+        if (previousCount == 0) {
             min = elapsedTime;
             max = elapsedTime;
         } else {
@@ -86,6 +100,44 @@ public class TimingStatistics implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * This method updates the calculated statistics so that they also cover all of the execution times covered by the
+     * specified statistics, as if each of those times had been passed to {@link #addSampleTime}. The mean and standard
+     * deviation are combined using the parallel form of the running variance calculation, so no precision is lost by
+     * merging many small windows into a larger one.
+     *
+     * @param other The statistics to merge into this instance. Not modified.
+     * @return this TimingStatistics instance
+     */
+    public TimingStatistics merge(TimingStatistics other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            mean = other.mean;
+            runningQ = other.runningQ;
+            min = other.min;
+            max = other.max;
+            count = other.count;
+            return this;
+        }
+
+        int totalCount = count + other.count;
+        double diffOfMeans = other.mean - mean;
+        mean = mean + (diffOfMeans * other.count / totalCount);
+        runningQ = runningQ + other.runningQ + (Math.pow(diffOfMeans, 2.0) * count * other.count / totalCount);
+        count = totalCount;
+
+        if (other.min < min) {
+            min = other.min;
+        }
+        if (other.max > max) {
+            max = other.max;
+        }
+
+        return this;
+    }
+
     // --- Bean Properties ---
 
     public double getMean() {
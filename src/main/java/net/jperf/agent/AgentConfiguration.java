@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import net.jperf.StopWatch;
+import net.jperf.helpers.MiscUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The configuration of the {@link TimingAgent}: which methods are timed, and how their StopWatches are logged. An
+ * AgentConfiguration is immutable, so changing the rules at runtime creates a new configuration. It is read from a
+ * properties file like the following:
+ * <pre>
+ * stopWatch=log4j
+ * exposeMBean=true
+ *
+ * rule.dao.methods=com.acme.dao.*Dao#find*, com.acme.dao.OrderDao#save
+ * rule.dao.tag=dao.{class}.{method}
+ * rule.dao.timeThreshold=10
+ * rule.dao.logFailuresSeparately=true
+ *
+ * rule.servlets.methods=com.acme.web.*Servlet#do*
+ * rule.servlets.logger=com.acme.web.TimingLogger
+ * rule.servlets.level=DEBUG
+ * </pre>
+ * The global properties are:
+ * <ul>
+ * <li><tt>stopWatch</tt> - The logging framework the StopWatches are logged with: log4j, slf4j, commonslog, javalog,
+ *     or stderr, which is the default. See {@link net.jperf.helpers.StopWatchFactory#forName}.
+ * <li><tt>exposeMBean</tt> - Whether the {@link TimingAgentMXBean} should be registered. Defaults to false.
+ * </ul>
+ * Each rule is a set of properties with the prefix <tt>rule.<i>name</i>.</tt>:
+ * <ul>
+ * <li><tt>methods</tt> - Required. A comma separated list of <tt>classPattern#methodPattern</tt> entries. Class
+ *     patterns are fully qualified class names, in which <tt>*</tt> matches any characters, including dots; method
+ *     patterns are method names with the same wildcard, and default to <tt>*</tt> if the <tt>#</tt> is missing.
+ * <li><tt>tag</tt> - The StopWatch tag. <tt>{class}</tt>, <tt>{package}</tt> and <tt>{method}</tt> are replaced with
+ *     the simple class name, the package name and the method name. Defaults to <tt>{class}.{method}</tt>.
+ * <li><tt>timeThreshold</tt> - The time threshold in milliseconds, like {@link net.jperf.aop.Profiled#timeThreshold}.
+ *     Defaults to 0.
+ * <li><tt>logger</tt> - The name of the logger. Defaults to {@link StopWatch#DEFAULT_LOGGER_NAME}.
+ * <li><tt>level</tt> - The log level. Defaults to INFO.
+ * <li><tt>logFailuresSeparately</tt> - Like {@link net.jperf.aop.Profiled#logFailuresSeparately}. Defaults to false.
+ * </ul>
+ * If a method matches several rules, the rule whose name comes first alphabetically is used.
+ */
+public class AgentConfiguration {
+    /**
+     * The property naming the logging framework StopWatches are logged with.
+     */
+    public static final String STOP_WATCH_KEY = "stopWatch";
+    /**
+     * The property that enables the JMX management interface of the agent.
+     */
+    public static final String EXPOSE_MBEAN_KEY = "exposeMBean";
+    /**
+     * The prefix of the properties of each rule.
+     */
+    public static final String RULE_PREFIX = "rule.";
+
+    private final String stopWatch;
+    private final boolean exposeMBean;
+    private final Map<String, Rule> rulesByName;
+
+    /**
+     * Creates an empty configuration, which logs to stderr and times no methods.
+     */
+    public AgentConfiguration() {
+        this("stderr", false, new TreeMap<String, Rule>());
+    }
+
+    /**
+     * Creates a configuration from properties in the format described above.
+     *
+     * @param properties The configuration properties.
+     * @throws IllegalArgumentException Thrown if a rule has no methods or an invalid number.
+     */
+    public AgentConfiguration(Properties properties) {
+        this(properties.getProperty(STOP_WATCH_KEY, "stderr").trim(),
+             Boolean.valueOf(properties.getProperty(EXPOSE_MBEAN_KEY, "false").trim()),
+             parseRules(properties));
+    }
+
+    private AgentConfiguration(String stopWatch, boolean exposeMBean, Map<String, Rule> rulesByName) {
+        this.stopWatch = stopWatch;
+        this.exposeMBean = exposeMBean;
+        this.rulesByName = Collections.unmodifiableMap(rulesByName);
+    }
+
+    /**
+     * Reads a configuration from a properties file.
+     *
+     * @param file The configuration file.
+     * @return The configuration.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    public static AgentConfiguration load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new AgentConfiguration(properties);
+    }
+
+    // --- attributes ---
+
+    /**
+     * Gets the name of the logging framework StopWatches are logged with.
+     *
+     * @return The name passed to {@link net.jperf.helpers.StopWatchFactory#forName}.
+     */
+    public String getStopWatch() {
+        return stopWatch;
+    }
+
+    public boolean isExposeMBean() {
+        return exposeMBean;
+    }
+
+    /**
+     * Gets the rules in the order they are matched.
+     *
+     * @return The rules, sorted by name. Never null.
+     */
+    public List<Rule> getRules() {
+        return new ArrayList<Rule>(rulesByName.values());
+    }
+
+    /**
+     * Gets a rule by its name.
+     *
+     * @param name The name of the rule.
+     * @return The rule, or null if there is no rule with that name.
+     */
+    public Rule getRule(String name) {
+        return rulesByName.get(name);
+    }
+
+    // --- matching methods ---
+
+    /**
+     * Checks whether any rule could match methods of a class, so that other classes can be skipped without being
+     * parsed.
+     *
+     * @param className The fully qualified class name, with dots.
+     * @return true if a rule matches the class.
+     */
+    public boolean matchesClass(String className) {
+        for (Rule rule : rulesByName.values()) {
+            if (rule.matchesClass(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the rule for a method.
+     *
+     * @param className  The fully qualified class name, with dots.
+     * @param methodName The method name.
+     * @return The first rule that matches the method, or null if the method should not be timed.
+     */
+    public Rule findRule(String className, String methodName) {
+        for (Rule rule : rulesByName.values()) {
+            if (rule.matches(className, methodName)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    // --- changing methods ---
+
+    /**
+     * Creates a copy of this configuration with a rule added, or replaced if a rule with its name exists.
+     *
+     * @param rule The rule to add.
+     * @return The new configuration.
+     */
+    public AgentConfiguration withRule(Rule rule) {
+        Map<String, Rule> newRules = new TreeMap<String, Rule>(rulesByName);
+        newRules.put(rule.getName(), rule);
+        return new AgentConfiguration(stopWatch, exposeMBean, newRules);
+    }
+
+    /**
+     * Creates a copy of this configuration without a rule.
+     *
+     * @param name The name of the rule to remove.
+     * @return The new configuration, or this configuration if it has no rule with that name.
+     */
+    public AgentConfiguration withoutRule(String name) {
+        if (!rulesByName.containsKey(name)) {
+            return this;
+        }
+        Map<String, Rule> newRules = new TreeMap<String, Rule>(rulesByName);
+        newRules.remove(name);
+        return new AgentConfiguration(stopWatch, exposeMBean, newRules);
+    }
+
+    // --- helper methods ---
+
+    private static Map<String, Rule> parseRules(Properties properties) {
+        Map<String, Rule> retVal = new TreeMap<String, Rule>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(RULE_PREFIX) || !key.endsWith(".methods")) {
+                continue;
+            }
+            String name = key.substring(RULE_PREFIX.length(), key.length() - ".methods".length());
+            String prefix = RULE_PREFIX + name + ".";
+            try {
+                retVal.put(name, new Rule(name,
+                                          properties.getProperty(key),
+                                          properties.getProperty(prefix + "tag", Rule.DEFAULT_TAG).trim(),
+                                          Long.parseLong(properties.getProperty(prefix + "timeThreshold", "0").trim()),
+                                          properties.getProperty(prefix + "logger",
+                                                                 StopWatch.DEFAULT_LOGGER_NAME).trim(),
+                                          properties.getProperty(prefix + "level", "INFO").trim(),
+                                          Boolean.valueOf(properties.getProperty(prefix + "logFailuresSeparately",
+                                                                                 "false").trim())));
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("Invalid timeThreshold for rule " + name + ": " + nfe.getMessage());
+            }
+        }
+        return retVal;
+    }
+
+    // --- support classes ---
+
+    /**
+     * A rule selecting the methods to time, and how to log their StopWatches.
+     */
+    public static class Rule {
+        /**
+         * The tag used if a rule doesn't specify one.
+         */
+        public static final String DEFAULT_TAG = "{class}.{method}";
+
+        private final String name;
+        private final String methods;
+        private final Pattern[] classPatterns;
+        private final Pattern[] methodPatterns;
+        private final String tag;
+        private final long timeThreshold;
+        private final String loggerName;
+        private final String level;
+        private final boolean logFailuresSeparately;
+
+        /**
+         * Creates a new rule.
+         *
+         * @param name                  The name of the rule.
+         * @param methods               The comma separated <tt>classPattern#methodPattern</tt> entries.
+         * @param tag                   The tag template, see {@link #getTag(String, String)}.
+         * @param timeThreshold         The time threshold in milliseconds.
+         * @param loggerName            The name of the logger.
+         * @param level                 The name of the log level.
+         * @param logFailuresSeparately Whether the tags of calls that throw get a ".failure" suffix.
+         * @throws IllegalArgumentException Thrown if no method patterns are specified.
+         */
+        public Rule(String name,
+                    String methods,
+                    String tag,
+                    long timeThreshold,
+                    String loggerName,
+                    String level,
+                    boolean logFailuresSeparately) {
+            if (methods == null || methods.trim().length() == 0) {
+                throw new IllegalArgumentException("Rule " + name + " has no methods");
+            }
+            this.name = name;
+            this.methods = methods.trim();
+            this.tag = tag;
+            this.timeThreshold = timeThreshold;
+            this.loggerName = loggerName;
+            this.level = level;
+            this.logFailuresSeparately = logFailuresSeparately;
+
+            String[] entries = MiscUtils.splitAndTrim(this.methods, ",");
+            classPatterns = new Pattern[entries.length];
+            methodPatterns = new Pattern[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                int hash = entries[i].indexOf('#');
+                classPatterns[i] = globToPattern((hash < 0) ? entries[i] : entries[i].substring(0, hash).trim());
+                methodPatterns[i] = globToPattern((hash < 0) ? "*" : entries[i].substring(hash + 1).trim());
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMethods() {
+            return methods;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public long getTimeThreshold() {
+            return timeThreshold;
+        }
+
+        public String getLoggerName() {
+            return loggerName;
+        }
+
+        public String getLevel() {
+            return level;
+        }
+
+        public boolean isLogFailuresSeparately() {
+            return logFailuresSeparately;
+        }
+
+        /**
+         * Checks whether this rule could match methods of a class.
+         *
+         * @param className The fully qualified class name, with dots.
+         * @return true if a class pattern matches.
+         */
+        public boolean matchesClass(String className) {
+            for (Pattern classPattern : classPatterns) {
+                if (classPattern.matcher(className).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks whether this rule matches a method.
+         *
+         * @param className  The fully qualified class name, with dots.
+         * @param methodName The method name.
+         * @return true if an entry matches both the class and the method.
+         */
+        public boolean matches(String className, String methodName) {
+            for (int i = 0; i < classPatterns.length; i++) {
+                if (classPatterns[i].matcher(className).matches() && methodPatterns[i].matcher(methodName).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets the tag for a method matched by this rule.
+         *
+         * @param className  The fully qualified class name, with dots.
+         * @param methodName The method name.
+         * @return The tag template with <tt>{class}</tt>, <tt>{package}</tt> and <tt>{method}</tt> replaced.
+         */
+        public String getTag(String className, String methodName) {
+            int lastDot = className.lastIndexOf('.');
+            return tag.replace("{class}", className.substring(lastDot + 1))
+                    .replace("{package}", (lastDot < 0) ? "" : className.substring(0, lastDot))
+                    .replace("{method}", methodName);
+        }
+
+        public String toString() {
+            return "methods[" + methods + "] tag[" + tag + "] timeThreshold[" + timeThreshold + "] logger["
+                   + loggerName + "] level[" + level + "] logFailuresSeparately[" + logFailuresSeparately + "]";
+        }
+
+        private static Pattern globToPattern(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int star = glob.indexOf('*'); star >= 0; star = glob.indexOf('*', start)) {
+                if (star > start) {
+                    regex.append(Pattern.quote(glob.substring(start, star)));
+                }
+                regex.append(".*");
+                start = star + 1;
+            }
+            if (start < glob.length()) {
+                regex.append(Pattern.quote(glob.substring(start)));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import net.jperf.LoggingStopWatch;
+import net.jperf.SampledRequest;
+import net.jperf.helpers.ProfilingSwitch;
+import net.jperf.helpers.StopWatchFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The runtime side of the {@link TimingAgent}. The bytecode inserted into each timed method calls {@link #start} on
+ * entry and {@link #stop} on every exit, passing the int id the method was registered under when its class was
+ * transformed, so a timed call costs an array lookup and the StopWatch itself - there is no reflection, tag
+ * evaluation or map lookup on the calling thread.
+ * <p>
+ * Ids are never reused, and a method keeps its id when its class is retransformed, so code compiled before a rule
+ * changed keeps working with the new settings.
+ */
+public final class InstrumentedMethods {
+    private static final Map<String, Integer> idsByKey = new HashMap<String, Integer>();
+    /**
+     * The registered methods by id, replaced as a whole when a method is registered or changed.
+     */
+    private static volatile InstrumentedMethod[] methods = new InstrumentedMethod[0];
+
+    private InstrumentedMethods() {
+        // static methods only, not instantiable
+    }
+
+    // --- methods called by instrumented code ---
+
+    /**
+     * Starts timing a call of an instrumented method.
+     *
+     * @param id The id of the method.
+     * @return The started StopWatch, or null if the call shouldn't be timed because the method or its tag is switched
+     *         off, the current request isn't sampled, or the logger is disabled.
+     */
+    public static LoggingStopWatch start(int id) {
+        InstrumentedMethod method = methods[id];
+        if (!ProfilingSwitch.isAllEnabled()
+            && !(ProfilingSwitch.isEnabled(method.qualifiedName) && ProfilingSwitch.isEnabled(method.tag))) {
+            return null;
+        }
+        SampledRequest request = SampledRequest.current();
+        if (request != null && !request.isSampled()) {
+            return null;
+        }
+
+        LoggingStopWatch stopWatch = method.stopWatchFactory.newStopWatch(method.loggerName, method.level);
+        if (!stopWatch.isLogging()) {
+            return null;
+        }
+        stopWatch.setTimeThreshold(method.timeThreshold);
+        if (request != null) {
+            stopWatch.setWeight(request.getWeight());
+        }
+        return stopWatch;
+    }
+
+    /**
+     * Stops timing a call of an instrumented method.
+     *
+     * @param stopWatch       The StopWatch returned by {@link #start}, may be null.
+     * @param exceptionThrown The exception thrown by the call, or null if it returned normally.
+     * @param id              The id of the method.
+     */
+    public static void stop(LoggingStopWatch stopWatch, Throwable exceptionThrown, int id) {
+        if (stopWatch == null) {
+            return;
+        }
+        InstrumentedMethod method = methods[id];
+        if (method.logFailuresSeparately) {
+            stopWatch.stop(method.tag + ((exceptionThrown == null) ? ".success" : ".failure"), exceptionThrown);
+        } else {
+            stopWatch.stop(method.tag, exceptionThrown);
+        }
+    }
+
+    // --- methods used by the transformer ---
+
+    /**
+     * Registers a method, or updates its settings if it is already registered.
+     *
+     * @param className        The fully qualified class name, with dots.
+     * @param methodName       The method name.
+     * @param descriptor       The method descriptor, to tell overloads apart.
+     * @param rule             The rule that matched the method.
+     * @param stopWatchFactory The factory the method's StopWatches are created with.
+     * @return The id of the method.
+     */
+    static synchronized int register(String className,
+                                     String methodName,
+                                     String descriptor,
+                                     AgentConfiguration.Rule rule,
+                                     StopWatchFactory stopWatchFactory) {
+        InstrumentedMethod method = new InstrumentedMethod(className + "." + methodName,
+                                                           rule.getTag(className, methodName),
+                                                           rule.getTimeThreshold(),
+                                                           rule.getLoggerName(),
+                                                           rule.getLevel(),
+                                                           rule.isLogFailuresSeparately(),
+                                                           stopWatchFactory);
+        String key = className + "." + methodName + descriptor;
+        Integer id = idsByKey.get(key);
+        InstrumentedMethod[] newMethods;
+        if (id == null) {
+            id = methods.length;
+            idsByKey.put(key, id);
+            newMethods = Arrays.copyOf(methods, id + 1);
+        } else {
+            newMethods = methods.clone();
+        }
+        newMethods[id] = method;
+        methods = newMethods;
+        return id;
+    }
+
+    /**
+     * Gets a description of a registered method.
+     *
+     * @param id The id of the method.
+     * @return The qualified method name and tag.
+     */
+    static String describe(int id) {
+        InstrumentedMethod method = methods[id];
+        return method.qualifiedName + " tag[" + method.tag + "]";
+    }
+
+    /**
+     * Gets the descriptions of several registered methods.
+     *
+     * @param ids The ids of the methods.
+     * @return The descriptions, see {@link #describe(int)}.
+     */
+    static List<String> describe(List<Integer> ids) {
+        List<String> retVal = new ArrayList<String>(ids.size());
+        for (Integer id : ids) {
+            retVal.add(describe(id));
+        }
+        return retVal;
+    }
+
+    // --- support classes ---
+
+    /**
+     * The settings of a registered method.
+     */
+    private static class InstrumentedMethod {
+        final String qualifiedName;
+        final String tag;
+        final long timeThreshold;
+        final String loggerName;
+        final String level;
+        final boolean logFailuresSeparately;
+        final StopWatchFactory stopWatchFactory;
+
+        InstrumentedMethod(String qualifiedName,
+                           String tag,
+                           long timeThreshold,
+                           String loggerName,
+                           String level,
+                           boolean logFailuresSeparately,
+                           StopWatchFactory stopWatchFactory) {
+            this.qualifiedName = qualifiedName;
+            this.tag = tag;
+            this.timeThreshold = timeThreshold;
+            this.loggerName = loggerName;
+            this.level = level;
+            this.logFailuresSeparately = logFailuresSeparately;
+            this.stopWatchFactory = stopWatchFactory;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import net.jperf.StopWatch;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The TimingAgent is a java agent that times the methods selected by an {@link AgentConfiguration} file, without
+ * <tt>@Profiled</tt> annotations or an AspectJ weaver. It is started with the JPerf jar as the agent jar, and the
+ * configuration file as the agent argument:
+ * <pre>
+ * java -javaagent:jperf.jar=/etc/acme/jperf-agent.properties -cp jperf.jar:asm.jar:... com.acme.Main
+ * </pre>
+ * If no argument is given, the file named by the <tt>net.jperf.agent.config</tt> system property is used, and
+ * without either the agent starts with no rules. The agent can also be attached to a running JVM, in which case the
+ * classes that are already loaded are retransformed.
+ * <p>
+ * The StopWatches of timed methods respect the {@link net.jperf.helpers.ProfilingSwitch} and the
+ * {@link net.jperf.SampledRequest} of the calling thread, like those of the timing aspects. The rules can be changed
+ * at runtime with {@link #setConfiguration} or through the {@link TimingAgentMXBean}, which retransforms the affected
+ * classes.
+ */
+public class TimingAgent {
+    /**
+     * The ObjectName the {@link TimingAgentMXBean} is registered under.
+     */
+    public static final String MBEAN_NAME = "net.jperf:type=TimingAgent";
+
+    /**
+     * The system property naming the configuration file if no agent argument is given.
+     */
+    public static final String CONFIG_FILE_PROPERTY = "net.jperf.agent.config";
+
+    private static Instrumentation instrumentation;
+    private static TimingTransformer transformer;
+    private static File configFile;
+
+    private TimingAgent() {
+        // static methods only, not instantiable
+    }
+
+    // --- agent entry points ---
+
+    /**
+     * Called by the JVM when the agent is started with the <tt>-javaagent</tt> option.
+     *
+     * @param agentArgs       The path of the configuration file, may be null.
+     * @param instrumentation The JVM's instrumentation.
+     */
+    public static void premain(String agentArgs, Instrumentation instrumentation) {
+        install(agentArgs, instrumentation, false);
+    }
+
+    /**
+     * Called by the JVM when the agent is attached to a running JVM.
+     *
+     * @param agentArgs       The path of the configuration file, may be null.
+     * @param instrumentation The JVM's instrumentation.
+     */
+    public static void agentmain(String agentArgs, Instrumentation instrumentation) {
+        install(agentArgs, instrumentation, true);
+    }
+
+    // --- configuration ---
+
+    /**
+     * Gets the current configuration.
+     *
+     * @return The configuration, or null if the agent isn't installed.
+     */
+    public static synchronized AgentConfiguration getConfiguration() {
+        return (transformer == null) ? null : transformer.getConfiguration();
+    }
+
+    /**
+     * Replaces the configuration, and retransforms the loaded classes matched by the old or the new rules.
+     *
+     * @param configuration The new configuration.
+     * @throws IllegalStateException    Thrown if the agent isn't installed.
+     * @throws IllegalArgumentException Thrown if the configuration names an unknown StopWatch factory.
+     */
+    public static synchronized void setConfiguration(AgentConfiguration configuration) {
+        if (transformer == null) {
+            throw new IllegalStateException("The TimingAgent is not installed");
+        }
+        AgentConfiguration oldConfiguration = transformer.getConfiguration();
+        transformer.setConfiguration(configuration);
+        retransform(oldConfiguration, configuration);
+    }
+
+    /**
+     * Reads the configuration file again and applies it with {@link #setConfiguration}.
+     *
+     * @throws IOException           Thrown if the file could not be read.
+     * @throws IllegalStateException Thrown if the agent isn't installed, or was started without a configuration file.
+     */
+    public static synchronized void reload() throws IOException {
+        if (configFile == null) {
+            throw new IllegalStateException("The TimingAgent was not started with a configuration file");
+        }
+        setConfiguration(AgentConfiguration.load(configFile));
+    }
+
+    /**
+     * Gets the methods currently instrumented by the agent.
+     *
+     * @return The qualified name and tag of each instrumented method, by class name.
+     */
+    public static synchronized Map<String, List<String>> getInstrumentedMethods() {
+        return (transformer == null) ? new TreeMap<String, List<String>>() : transformer.getInstrumentedMethods();
+    }
+
+    // --- helper methods ---
+
+    static synchronized void install(String agentArgs, Instrumentation instrumentation, boolean retransformLoaded) {
+        if (transformer != null) {
+            System.err.println("The JPerf TimingAgent is already installed");
+            return;
+        }
+
+        String fileName = (agentArgs == null || agentArgs.trim().length() == 0)
+                          ? System.getProperty(CONFIG_FILE_PROPERTY)
+                          : agentArgs.trim();
+        AgentConfiguration configuration;
+        try {
+            configuration = (fileName == null) ? new AgentConfiguration() : AgentConfiguration.load(new File(fileName));
+            transformer = new TimingTransformer(configuration);
+        } catch (Exception e) {
+            System.err.println("The JPerf TimingAgent could not read its configuration " + fileName + ": " + e);
+            return;
+        }
+
+        TimingAgent.instrumentation = instrumentation;
+        TimingAgent.configFile = (fileName == null) ? null : new File(fileName);
+        instrumentation.addTransformer(transformer, true);
+        if (retransformLoaded) {
+            retransform(new AgentConfiguration(), configuration);
+        }
+        if (configuration.isExposeMBean()) {
+            registerMBean();
+        }
+    }
+
+    /**
+     * Retransforms the loaded classes that either configuration matches, so that methods are instrumented according
+     * to the current rules and the instrumentation of methods no rule matches any more is removed.
+     */
+    private static void retransform(AgentConfiguration oldConfiguration, AgentConfiguration newConfiguration) {
+        if (!instrumentation.isRetransformClassesSupported()) {
+            System.err.println("The JVM doesn't support retransformation, the new TimingAgent rules only apply to"
+                               + " classes loaded from now on");
+            return;
+        }
+
+        for (Class<?> loadedClass : instrumentation.getAllLoadedClasses()) {
+            String className = loadedClass.getName();
+            if (loadedClass.getClassLoader() != null
+                && (oldConfiguration.matchesClass(className) || newConfiguration.matchesClass(className))
+                && instrumentation.isModifiableClass(loadedClass)) {
+                //one at a time, so a class that can't be retransformed doesn't affect the others
+                try {
+                    instrumentation.retransformClasses(loadedClass);
+                } catch (Throwable t) {
+                    System.err.println("The JPerf TimingAgent could not retransform " + className + ": " + t);
+                }
+            }
+        }
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new Management(), objectName);
+        } catch (Exception e) {
+            System.err.println("Failed to register the TimingAgent MBean " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // --- support classes ---
+
+    /**
+     * The {@link TimingAgentMXBean} implementation, which delegates to the static methods of the agent.
+     */
+    static class Management implements TimingAgentMXBean {
+        public String getConfigFile() {
+            synchronized (TimingAgent.class) {
+                return (configFile == null) ? null : configFile.getPath();
+            }
+        }
+
+        public Map<String, String> getRules() {
+            Map<String, String> retVal = new TreeMap<String, String>();
+            AgentConfiguration configuration = getConfiguration();
+            if (configuration != null) {
+                for (AgentConfiguration.Rule rule : configuration.getRules()) {
+                    retVal.put(rule.getName(), rule.toString());
+                }
+            }
+            return retVal;
+        }
+
+        public Map<String, List<String>> getInstrumentedMethods() {
+            return TimingAgent.getInstrumentedMethods();
+        }
+
+        public void addRule(String name, String methods, String tag, long timeThreshold) {
+            synchronized (TimingAgent.class) {
+                AgentConfiguration.Rule rule =
+                        new AgentConfiguration.Rule(name,
+                                                    methods,
+                                                    (tag == null || tag.length() == 0)
+                                                    ? AgentConfiguration.Rule.DEFAULT_TAG : tag,
+                                                    timeThreshold,
+                                                    StopWatch.DEFAULT_LOGGER_NAME,
+                                                    "INFO",
+                                                    false);
+                setConfiguration(getConfiguration().withRule(rule));
+            }
+        }
+
+        public void removeRule(String name) {
+            synchronized (TimingAgent.class) {
+                setConfiguration(getConfiguration().withoutRule(name));
+            }
+        }
+
+        public void reload() throws IOException {
+            TimingAgent.reload();
+        }
+    }
+}
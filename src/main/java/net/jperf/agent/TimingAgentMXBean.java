@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The management interface of the {@link TimingAgent}, registered with the platform MBeanServer under
+ * {@link TimingAgent#MBEAN_NAME} when the <tt>exposeMBean</tt> property of the agent configuration is true. Changing
+ * the rules retransforms the loaded classes they affect, so methods can be timed in a running application while a
+ * problem is investigated, and left alone again afterwards.
+ */
+public interface TimingAgentMXBean {
+    /**
+     * @return The path of the configuration file the agent was started with, or null if it was started without one.
+     */
+    String getConfigFile();
+
+    /**
+     * @return A description of each rule, by rule name.
+     */
+    Map<String, String> getRules();
+
+    /**
+     * @return The qualified name and tag of each instrumented method, by class name.
+     */
+    Map<String, List<String>> getInstrumentedMethods();
+
+    /**
+     * Adds a rule, or replaces the rule with the same name, logging to the default logger at INFO level.
+     *
+     * @param name          The name of the rule.
+     * @param methods       The comma separated <tt>classPattern#methodPattern</tt> entries, e.g.
+     *                      <tt>com.acme.dao.*Dao#find*</tt>.
+     * @param tag           The tag, in which <tt>{class}</tt>, <tt>{package}</tt> and <tt>{method}</tt> are replaced.
+     *                      If empty, <tt>{class}.{method}</tt> is used.
+     * @param timeThreshold The time threshold in milliseconds.
+     */
+    void addRule(String name, String methods, String tag, long timeThreshold);
+
+    /**
+     * Removes a rule, removing the instrumentation of the methods it matched.
+     *
+     * @param name The name of the rule.
+     */
+    void removeRule(String name);
+
+    /**
+     * Reads the configuration file again, replacing all the rules, including those added through JMX.
+     *
+     * @throws IOException Thrown if the file could not be read.
+     */
+    void reload() throws IOException;
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import net.jperf.helpers.StopWatchFactory;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ClassFileTransformer of the {@link TimingAgent}. For every method matched by a rule of the current
+ * {@link AgentConfiguration} it inserts the equivalent of:
+ * <pre>
+ * LoggingStopWatch stopWatch = InstrumentedMethods.start(id);
+ * try {
+ *     ... original method body, with InstrumentedMethods.stop(stopWatch, null, id) before every return ...
+ * } catch (Throwable t) {
+ *     InstrumentedMethods.stop(stopWatch, t, id);
+ *     throw t;
+ * }
+ * </pre>
+ * The catch block is the last entry of the exception table, so the handlers of the original code keep precedence.
+ * Constructors, static initializers and abstract, native, synthetic and bridge methods are not instrumented, and
+ * neither are the classes of the bootstrap class loader, of ASM, or of JPerf itself. Classes are also left unchanged
+ * if their class loader doesn't resolve the InstrumentedMethods class to the one of the agent, like a child-first
+ * web application loader bundling its own JPerf.
+ * <p>
+ * Class files are transformed with the ASM library, which must be on the classpath of the agent. A class that can't
+ * be transformed is reported on System.err and left unchanged.
+ */
+public class TimingTransformer implements ClassFileTransformer {
+    private static final String INSTRUMENTED_METHODS = Type.getInternalName(InstrumentedMethods.class);
+    private static final String START_DESCRIPTOR = "(I)Lnet/jperf/LoggingStopWatch;";
+    private static final String STOP_DESCRIPTOR = "(Lnet/jperf/LoggingStopWatch;Ljava/lang/Throwable;I)V";
+
+    private volatile AgentConfiguration configuration;
+    private volatile StopWatchFactory stopWatchFactory;
+    /**
+     * The ids of the instrumented methods of each transformed class, by class name.
+     */
+    private final Map<String, List<Integer>> instrumentedMethodIds = new ConcurrentHashMap<String, List<Integer>>();
+    /**
+     * Whether the classes of each class loader link to the InstrumentedMethods of this agent.
+     */
+    private final Map<ClassLoader, Boolean> linkingLoaders =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, Boolean>());
+
+    /**
+     * Creates a new transformer.
+     *
+     * @param configuration The rules selecting the methods to time.
+     * @throws IllegalArgumentException Thrown if the configuration names an unknown StopWatch factory.
+     */
+    public TimingTransformer(AgentConfiguration configuration) {
+        setConfiguration(configuration);
+    }
+
+    // --- configuration ---
+
+    public AgentConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Sets the rules used for classes transformed from now on. Classes that are already loaded keep their current
+     * instrumentation until they are retransformed.
+     *
+     * @param configuration The new configuration.
+     * @throws IllegalArgumentException Thrown if the configuration names an unknown StopWatch factory.
+     */
+    public synchronized void setConfiguration(AgentConfiguration configuration) {
+        this.stopWatchFactory = StopWatchFactory.forName(configuration.getStopWatch());
+        this.configuration = configuration;
+    }
+
+    /**
+     * Gets the methods currently instrumented by this transformer.
+     *
+     * @return The qualified name and tag of each instrumented method, by class name.
+     */
+    public Map<String, List<String>> getInstrumentedMethods() {
+        Map<String, List<String>> retVal = new TreeMap<String, List<String>>();
+        for (Map.Entry<String, List<Integer>> entry : instrumentedMethodIds.entrySet()) {
+            retVal.put(entry.getKey(), InstrumentedMethods.describe(entry.getValue()));
+        }
+        return retVal;
+    }
+
+    // --- ClassFileTransformer ---
+
+    public byte[] transform(ClassLoader loader,
+                            String className,
+                            Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        if (className == null
+            || loader == null
+            || className.startsWith("org/objectweb/asm/")
+            || (className.startsWith("net/jperf/") && loader == TimingTransformer.class.getClassLoader())) {
+            return null;
+        }
+
+        String dottedClassName = className.replace('/', '.');
+        AgentConfiguration currentConfiguration = configuration;
+        if (!currentConfiguration.matchesClass(dottedClassName)) {
+            //on retransformation this removes the instrumentation of classes that no rule matches any more
+            instrumentedMethodIds.remove(dottedClassName);
+            return null;
+        }
+
+        if (!linksToInstrumentedMethods(loader)) {
+            instrumentedMethodIds.remove(dottedClassName);
+            return null;
+        }
+
+        try {
+            return instrument(loader, dottedClassName, classfileBuffer, currentConfiguration, stopWatchFactory);
+        } catch (Throwable t) {
+            instrumentedMethodIds.remove(dottedClassName);
+            System.err.println("JPerf TimingAgent could not instrument " + dottedClassName + ": " + t);
+            return null;
+        }
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Checks that the inserted calls resolve to the InstrumentedMethods of this agent from a class loader. A loader
+     * that bundles its own copy of JPerf, or that can't see the agent's classes at all, would link them to a class
+     * without the registered methods, so its classes are left unchanged.
+     */
+    private boolean linksToInstrumentedMethods(ClassLoader loader) {
+        Boolean retVal = linkingLoaders.get(loader);
+        if (retVal == null) {
+            try {
+                retVal = Class.forName(InstrumentedMethods.class.getName(), false, loader) == InstrumentedMethods.class;
+            } catch (Throwable t) {
+                retVal = Boolean.FALSE;
+            }
+            linkingLoaders.put(loader, retVal);
+        }
+        return retVal;
+    }
+
+    private byte[] instrument(ClassLoader loader,
+                              String className,
+                              byte[] classfileBuffer,
+                              AgentConfiguration currentConfiguration,
+                              StopWatchFactory currentStopWatchFactory) {
+        ClassReader reader = new ClassReader(classfileBuffer);
+        if ((reader.getAccess() & Opcodes.ACC_INTERFACE) != 0) {
+            return null;
+        }
+
+        ClassWriter writer = new LoaderClassWriter(loader);
+        TimingClassVisitor visitor =
+                new TimingClassVisitor(writer, className, currentConfiguration, currentStopWatchFactory);
+        //frames are recomputed by the writer, since the inserted handler changes them
+        reader.accept(visitor, ClassReader.SKIP_FRAMES);
+
+        if (visitor.ids.isEmpty()) {
+            instrumentedMethodIds.remove(className);
+            return null;
+        }
+        byte[] retVal = writer.toByteArray();
+        instrumentedMethodIds.put(className, visitor.ids);
+        return retVal;
+    }
+
+    private static void pushInt(MethodVisitor methodVisitor, int value) {
+        if (value <= 5) {
+            methodVisitor.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            methodVisitor.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            methodVisitor.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            methodVisitor.visitLdcInsn(value);
+        }
+    }
+
+    // --- support classes ---
+
+    /**
+     * Instruments the methods of a class that match a rule.
+     */
+    private static class TimingClassVisitor extends ClassVisitor {
+        final String className;
+        final AgentConfiguration configuration;
+        final StopWatchFactory stopWatchFactory;
+        final List<Integer> ids = new ArrayList<Integer>();
+
+        TimingClassVisitor(ClassVisitor classVisitor,
+                           String className,
+                           AgentConfiguration configuration,
+                           StopWatchFactory stopWatchFactory) {
+            super(Opcodes.ASM9, classVisitor);
+            this.className = className;
+            this.configuration = configuration;
+            this.stopWatchFactory = stopWatchFactory;
+        }
+
+        public MethodVisitor visitMethod(int access,
+                                         String name,
+                                         String descriptor,
+                                         String signature,
+                                         String[] exceptions) {
+            MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+            int skippedAccess = Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE;
+            if ((access & skippedAccess) != 0 || name.startsWith("<")) {
+                return methodVisitor;
+            }
+            AgentConfiguration.Rule rule = configuration.findRule(className, name);
+            if (rule == null) {
+                return methodVisitor;
+            }
+
+            int id = InstrumentedMethods.register(className, name, descriptor, rule, stopWatchFactory);
+            ids.add(id);
+            //the argument sizes include the implicit this, which static methods don't have
+            int firstLocal = (Type.getArgumentsAndReturnSizes(descriptor) >> 2)
+                             - (((access & Opcodes.ACC_STATIC) != 0) ? 1 : 0);
+            return new TimingMethodVisitor(methodVisitor, id, firstLocal);
+        }
+    }
+
+    /**
+     * Inserts the timing code into a method. The StopWatch is stored in the first local variable after the
+     * arguments, and the original local variables from that slot on are moved up by one.
+     */
+    private static class TimingMethodVisitor extends MethodVisitor {
+        final int id;
+        final int stopWatchLocal;
+        final Label start = new Label();
+
+        TimingMethodVisitor(MethodVisitor methodVisitor, int id, int stopWatchLocal) {
+            super(Opcodes.ASM9, methodVisitor);
+            this.id = id;
+            this.stopWatchLocal = stopWatchLocal;
+        }
+
+        public void visitCode() {
+            super.visitCode();
+            pushInt(mv, id);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, INSTRUMENTED_METHODS, "start", START_DESCRIPTOR, false);
+            mv.visitVarInsn(Opcodes.ASTORE, stopWatchLocal);
+            mv.visitLabel(start);
+        }
+
+        public void visitInsn(int opcode) {
+            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+                mv.visitVarInsn(Opcodes.ALOAD, stopWatchLocal);
+                mv.visitInsn(Opcodes.ACONST_NULL);
+                pushInt(mv, id);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INSTRUMENTED_METHODS, "stop", STOP_DESCRIPTOR, false);
+            }
+            super.visitInsn(opcode);
+        }
+
+        public void visitVarInsn(int opcode, int var) {
+            super.visitVarInsn(opcode, remap(var));
+        }
+
+        public void visitIincInsn(int var, int increment) {
+            super.visitIincInsn(remap(var), increment);
+        }
+
+        public void visitLocalVariable(String name,
+                                       String descriptor,
+                                       String signature,
+                                       Label start,
+                                       Label end,
+                                       int index) {
+            super.visitLocalVariable(name, descriptor, signature, start, end, remap(index));
+        }
+
+        public AnnotationVisitor visitLocalVariableAnnotation(int typeRef,
+                                                              TypePath typePath,
+                                                              Label[] start,
+                                                              Label[] end,
+                                                              int[] index,
+                                                              String descriptor,
+                                                              boolean visible) {
+            int[] remappedIndex = new int[index.length];
+            for (int i = 0; i < index.length; i++) {
+                remappedIndex[i] = remap(index[i]);
+            }
+            return super.visitLocalVariableAnnotation(typeRef, typePath, start, end, remappedIndex, descriptor,
+                                                      visible);
+        }
+
+        public void visitMaxs(int maxStack, int maxLocals) {
+            //added after the original handlers, so they are tried first
+            Label handler = new Label();
+            mv.visitTryCatchBlock(start, handler, handler, null);
+            mv.visitLabel(handler);
+            //stack: exception -> exception, stopWatch, exception, id
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitVarInsn(Opcodes.ALOAD, stopWatchLocal);
+            mv.visitInsn(Opcodes.SWAP);
+            pushInt(mv, id);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, INSTRUMENTED_METHODS, "stop", STOP_DESCRIPTOR, false);
+            mv.visitInsn(Opcodes.ATHROW);
+            super.visitMaxs(maxStack, maxLocals + 1);
+        }
+
+        private int remap(int var) {
+            return (var < stopWatchLocal) ? var : var + 1;
+        }
+    }
+
+    /**
+     * Computes the common super class of two types from the class files of the class loader of the transformed class,
+     * instead of loading the types like the default implementation does.
+     */
+    private static class LoaderClassWriter extends ClassWriter {
+        final ClassLoader loader;
+        final Map<String, String> superNames = new HashMap<String, String>();
+
+        LoaderClassWriter(ClassLoader loader) {
+            super(ClassWriter.COMPUTE_FRAMES);
+            this.loader = loader;
+        }
+
+        protected String getCommonSuperClass(String type1, String type2) {
+            //interfaces extend Object, which is what frames use for them
+            Set<String> superClasses1 = new HashSet<String>();
+            for (String type = type1; type != null; type = getSuperName(type)) {
+                superClasses1.add(type);
+            }
+            for (String type = type2; type != null; type = getSuperName(type)) {
+                if (superClasses1.contains(type)) {
+                    return type;
+                }
+            }
+            return "java/lang/Object";
+        }
+
+        private String getSuperName(String type) {
+            if (superNames.containsKey(type)) {
+                return superNames.get(type);
+            }
+            try {
+                InputStream in = loader.getResourceAsStream(type + ".class");
+                if (in == null) {
+                    in = ClassLoader.getSystemResourceAsStream(type + ".class");
+                }
+                if (in == null) {
+                    throw new TypeNotPresentException(type, null);
+                }
+                try {
+                    String retVal = new ClassReader(in).getSuperName();
+                    superNames.put(type, retVal);
+                    return retVal;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ioe) {
+                throw new TypeNotPresentException(type, ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Provides a java agent that times methods selected in a configuration file, as an alternative to
+ * <tt>@Profiled</tt> annotations and an AspectJ weaver for code that can't be changed or recompiled. The
+ * {@link net.jperf.agent.TimingAgent} installs a {@link net.jperf.agent.TimingTransformer}, which uses the ASM library
+ * to insert calls to {@link net.jperf.agent.InstrumentedMethods} into the matched methods, and the rules of the
+ * {@link net.jperf.agent.AgentConfiguration} can be changed at runtime through the
+ * {@link net.jperf.agent.TimingAgentMXBean}, which retransforms the affected classes.
+ */
+package net.jperf.agent;
@@ -18,6 +18,8 @@
 package net.jperf.aop;
 
 import net.jperf.LoggingStopWatch;
+import net.jperf.SampledRequest;
+import net.jperf.Sampler;
 
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.InvocationContext;
@@ -52,24 +54,43 @@ public abstract class AbstractEjbTimingAspect extends AgnosticTimingAspect {
 
         //note - the EJB 3.0 Interceptor spec requires that we only throw Exception, NOT throwable, but
         //runProfiledMethod throws Throwable.
-        try {
-            return runProfiledMethod(
-                    new AbstractJoinPoint() {
-                        public Object proceed() throws Throwable { return ctx.proceed(); }
+        AbstractJoinPoint joinPoint = new AbstractJoinPoint() {
+            public Object proceed() throws Throwable { return ctx.proceed(); }
+
+            public Object getExecutingObject() { return ctx.getTarget(); }
+
+            public Object[] getParameters() { return ctx.getParameters(); }
+
+            public String getMethodName() {
+                return (executingMethod == null) ? "null" : executingMethod.getName();
+            }
 
-                        public Object getExecutingObject() { return ctx.getTarget(); }
+            public Class<?> getDeclaringClass() { return (executingMethod == null) ? null : executingMethod.getDeclaringClass() ; }
+        };
 
-                        public Object[] getParameters() { return ctx.getParameters(); }
+        //the descriptor is only looked up once per call
+        ProfilingDescriptor descriptor = (executingMethod == null) ? null : getProfilingDescriptor(profiled, joinPoint);
 
-                        public String getMethodName() {
-                            return (executingMethod == null) ? "null" : executingMethod.getName();
-                        }
-                        
-                        public Class<?> getDeclaringClass() { return (executingMethod == null) ? null : executingMethod.getDeclaringClass() ; }
-                    },
-                    profiled,
-                    newStopWatch(profiled.logger(), profiled.level())
-            );
+        //methods that are switched off just run, without creating a StopWatch
+        if (descriptor != null && !isEnabled(descriptor)) {
+            return ctx.proceed();
+        }
+
+        //without a method there's no descriptor to sample with, but an active request is still joined
+        SampledRequest request = (descriptor == null) ? SampledRequest.begin((Sampler) null)
+                                                      : beginSampledRequest(descriptor);
+
+        try {
+            //calls in requests that aren't sampled just run the method, without creating a StopWatch
+            if (request != null && !request.isSampled()) {
+                return ctx.proceed();
+            }
+            LoggingStopWatch stopWatch = newStopWatch(profiled.logger(), profiled.level());
+            if (request != null) {
+                stopWatch.setWeight(request.getWeight());
+            }
+            return (descriptor == null) ? runProfiledMethod(joinPoint, profiled, stopWatch)
+                                        : runProfiledMethod(joinPoint, descriptor, stopWatch);
         } catch (Exception e) {
             throw e;
         } catch (Error e) {
@@ -82,6 +103,10 @@ public abstract class AbstractEjbTimingAspect extends AgnosticTimingAspect {
             //The best we can do here is wrap the Throwable as a RuntimeException, even though this could potentially
             //change the semantics from the callers point of view.
             throw new RuntimeException(t);
+        } finally {
+            if (request != null) {
+                request.end();
+            }
         }
     }
 
@@ -20,6 +20,7 @@ package net.jperf.aop;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Aspect;
 import net.jperf.LoggingStopWatch;
+import net.jperf.SampledRequest;
 
 /**
  * This is the base class for TimingAspects that use the AspectJ framework (a better name for this class work probably
@@ -34,21 +35,42 @@ public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
 
     protected Object runProfiledMethod(final ProceedingJoinPoint pjp, Profiled profiled) throws Throwable {
         //We just delegate to the super class, wrapping the AspectJ-specific ProceedingJoinPoint as an AbstractJoinPoint
-        return runProfiledMethod(
-                new AbstractJoinPoint() {
-                    public Object proceed() throws Throwable { return pjp.proceed(); }
+        AbstractJoinPoint joinPoint = new AbstractJoinPoint() {
+            public Object proceed() throws Throwable { return pjp.proceed(); }
 
-                    public Object getExecutingObject() { return pjp.getThis(); }
+            public Object getExecutingObject() { return pjp.getThis(); }
 
-                    public Object[] getParameters() { return pjp.getArgs(); }
+            public Object[] getParameters() { return pjp.getArgs(); }
 
-                    public String getMethodName() { return pjp.getSignature().getName(); }
+            public String getMethodName() { return pjp.getSignature().getName(); }
 
-                    public Class<?> getDeclaringClass() { return pjp.getSignature().getDeclaringType(); }
-                },
-                profiled,
-                newStopWatch(profiled.logger() + "", profiled.level())
-                );
+            public Class<?> getDeclaringClass() { return pjp.getSignature().getDeclaringType(); }
+        };
+
+        //the descriptor is only looked up once per call
+        ProfilingDescriptor descriptor = getProfilingDescriptor(profiled, joinPoint);
+
+        //methods that are switched off just run, without creating a StopWatch
+        if (!isEnabled(descriptor)) {
+            return pjp.proceed();
+        }
+
+        SampledRequest request = beginSampledRequest(descriptor);
+        try {
+            //calls in requests that aren't sampled just run the method, without creating a StopWatch
+            if (request != null && !request.isSampled()) {
+                return pjp.proceed();
+            }
+            LoggingStopWatch stopWatch = newStopWatch(profiled.logger() + "", profiled.level());
+            if (request != null) {
+                stopWatch.setWeight(request.getWeight());
+            }
+            return runProfiledMethod(joinPoint, descriptor, stopWatch);
+        } finally {
+            if (request != null) {
+                request.end();
+            }
+        }
     }
 
     /**
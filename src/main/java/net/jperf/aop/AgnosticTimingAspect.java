@@ -19,13 +19,16 @@ package net.jperf.aop;
 
 import org.apache.commons.jexl.Expression;
 import org.apache.commons.jexl.ExpressionFactory;
-import org.apache.commons.jexl.JexlContext;
-import org.apache.commons.jexl.context.HashMapContext;
 import net.jperf.LoggingStopWatch;
+import net.jperf.SampledRequest;
+import net.jperf.Sampler;
 import net.jperf.helpers.JperfProperties;
+import net.jperf.helpers.ProfilingSwitch;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This AgnosticTimingAspect class contains all the logic for executing a profiled method with appropriate timing calls,
@@ -39,6 +42,18 @@ import java.util.concurrent.ConcurrentHashMap;
 public class AgnosticTimingAspect {
     private static final String DEFAULT_THRESHOLD_CONFIG_KEY = "net.jperf.threshold.default";
 
+    /**
+     * The default value of the timeThreshold field of the Profiled annotation, looked up once.
+     */
+    private static final long ANNOTATION_THRESHOLD_DEFAULT_VALUE = getAnnotationThresholdDefaultValue();
+
+    /**
+     * The maximum number of Profiled annotation instances whose descriptors are cached per method name. Normally each
+     * overload has a single instance, but a framework may hand out equal copies; once a method has this many cached
+     * instances, other copies are matched with equals instead of getting their own descriptor.
+     */
+    private static final int MAX_CACHED_ANNOTATIONS = 64;
+
     /**
      * This Map is used to cache compiled JEXL expressions. While theoretically unbounded, in reality the number of
      * possible keys is equivalent to the number of unique JEXL expressions created in @Profiled annotations, which
@@ -46,9 +61,25 @@ public class AgnosticTimingAspect {
      */
     private Map<String, Expression> jexlExpressionCache = new ConcurrentHashMap<String, Expression>(64, .75F, 16);
 
+    /**
+     * This Map caches the ProfilingDescriptor of each profiled method, by declaring class and method name, and then by
+     * Profiled annotation for overloaded methods, so the configuration doesn't have to be resolved on every call. Like
+     * the JEXL expression cache, the number of entries is bounded by the number of profiled methods.
+     */
+    private ConcurrentMap<Class<?>, ConcurrentMap<String, ProfilingDescriptor[]>> descriptorCache =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<String, ProfilingDescriptor[]>>(64, .75F, 16);
+
+    /**
+     * Whether a subclass overrides the getStopWatchTag or getStopWatchMessage methods that take the Profiled
+     * annotation, in which case runProfiledMethod keeps calling them instead of the ones that take the descriptor.
+     */
+    private final boolean profiledTagHookOverridden = overridesProfiledHook(getClass(), "getStopWatchTag");
+    private final boolean profiledMessageHookOverridden = overridesProfiledHook(getClass(), "getStopWatchMessage");
+
     /**
      * This method actually executes the profiled method. Your AOP-framework-specific class should delegate to this
-     * method to proceed with execution.
+     * method to proceed with execution, once {@link #isEnabled} returned true - this method doesn't check the
+     * {@link ProfilingSwitch} again.
      *
      * @param joinPoint The AOP join point - usually this will just be a simple wrapper around the
      *                  AOP-framework-specific join point.
@@ -63,11 +94,31 @@ public class AgnosticTimingAspect {
         if (!stopWatch.isLogging()) {
             return joinPoint.proceed();
         }
+        return runProfiledMethod(joinPoint, getProfilingDescriptor(profiled, joinPoint), stopWatch);
+    }
 
-        long threshold = chooseThreshold(profiled);
+    /**
+     * Identical to {@link #runProfiledMethod(AbstractJoinPoint, Profiled, LoggingStopWatch)}, but takes the
+     * descriptor of the profiled method, so an AOP-framework-specific class that already got it from
+     * {@link #getProfilingDescriptor} doesn't look it up again.
+     *
+     * @param joinPoint  The AOP join point.
+     * @param descriptor The resolved configuration of the profiled method.
+     * @param stopWatch  This LogginStopWatch should be started JUST before this method is called.
+     * @return The return value from the profiled method.
+     * @throws Throwable Exception thrown by the profiled method will bubble up.
+     */
+    public Object runProfiledMethod(AbstractJoinPoint joinPoint,
+                                    ProfilingDescriptor descriptor,
+                                    LoggingStopWatch stopWatch) throws Throwable {
+        //if we're not going to end up logging the stopwatch, just run the wrapped method - whether the method is
+        //switched off was already checked by the caller, with isEnabled
+        if (!stopWatch.isLogging()) {
+            return joinPoint.proceed();
+        }
 
-        stopWatch.setTimeThreshold(threshold);
-        stopWatch.setNormalAndSlowSuffixesEnabled(profiled.normalAndSlowSuffixesEnabled());
+        stopWatch.setTimeThreshold(descriptor.getTimeThreshold());
+        stopWatch.setNormalAndSlowSuffixesEnabled(descriptor.isNormalAndSlowSuffixesEnabled());
 
         Object retVal = null;
         Throwable exceptionThrown = null;
@@ -76,25 +127,266 @@ public class AgnosticTimingAspect {
         } catch (Throwable t) {
             throw exceptionThrown = t;
         } finally {
-            String tag = getStopWatchTag(profiled, joinPoint, retVal, exceptionThrown);
-            String message = getStopWatchMessage(profiled, joinPoint, retVal, exceptionThrown);
+            //if the StopWatch won't be logged there's no need to evaluate the tag and message - since the elapsed time
+            //only increases, a StopWatch that is over the threshold here will also be over it when it is stopped
+            if (isLoggedWhenStopped(stopWatch)) {
+                String tag = profiledTagHookOverridden
+                             ? getStopWatchTag(descriptor.getProfiled(), joinPoint, retVal, exceptionThrown)
+                             : getStopWatchTag(descriptor, joinPoint, retVal, exceptionThrown);
+                String message = profiledMessageHookOverridden
+                                 ? getStopWatchMessage(descriptor.getProfiled(), joinPoint, retVal, exceptionThrown)
+                                 : getStopWatchMessage(descriptor, joinPoint, retVal, exceptionThrown);
+
+                if (descriptor.isLogFailuresSeparately()) {
+                    tag = (exceptionThrown == null) ? tag + ".success" : tag + ".failure";
+                }
+
+                stopWatch.stop(tag, message);
+            }
+        }
+    }
 
-            if (profiled.logFailuresSeparately()) {
-                tag = (exceptionThrown == null) ? tag + ".success" : tag + ".failure";
+    /**
+     * Checks whether a profiled method is switched on in the {@link ProfilingSwitch}, by its fully qualified name and,
+     * if the tag doesn't depend on the call, by its tag. Your AOP-framework-specific class should call this method
+     * before creating the StopWatch, and just proceed with the method if it returns false. While nothing is switched
+     * off this is a single volatile read.
+     *
+     * @param joinPoint The AOP join point.
+     * @param profiled  The Profiled annotation that was set on the method being profiled.
+     * @return true if calls of the method should be timed.
+     */
+    public boolean isEnabled(AbstractJoinPoint joinPoint, Profiled profiled) {
+        return ProfilingSwitch.isAllEnabled() || isEnabled(getProfilingDescriptor(profiled, joinPoint));
+    }
+
+    /**
+     * Identical to {@link #isEnabled(AbstractJoinPoint, Profiled)}, but takes the descriptor of the profiled method.
+     *
+     * @param descriptor The resolved configuration of the profiled method.
+     * @return true if calls of the method should be timed.
+     */
+    public boolean isEnabled(ProfilingDescriptor descriptor) {
+        return ProfilingSwitch.isAllEnabled()
+               || (ProfilingSwitch.isEnabled(descriptor.getQualifiedMethodName())
+                   && (descriptor.getTag() == null || ProfilingSwitch.isEnabled(descriptor.getTag())));
+    }
+
+    /**
+     * Decides whether a call of a profiled method is timed. If a {@link SampledRequest} is active on the current
+     * thread the call is joined to it; otherwise, if the Profiled annotation has a sampleEvery or maxSamplesPerSecond
+     * attribute, the call begins a new request whose sampling decision also applies to the profiled calls it makes.
+     * Your AOP-framework-specific class should call this method before creating the StopWatch, just proceed with the
+     * method if the returned request isn't sampled, so that the clock isn't read, and end the returned request once
+     * the method returns.
+     *
+     * @param joinPoint The AOP join point.
+     * @param profiled  The Profiled annotation that was set on the method being profiled.
+     * @return The request the call belongs to, which must be ended on the same thread, or null if no request is
+     *         active and the method isn't sampled.
+     */
+    public SampledRequest beginSampledRequest(AbstractJoinPoint joinPoint, Profiled profiled) {
+        if (SampledRequest.current() != null) {
+            //no need to resolve the descriptor, nested calls follow the request's decision
+            return SampledRequest.begin((Sampler) null);
+        }
+        return SampledRequest.begin(getProfilingDescriptor(profiled, joinPoint).getSampler());
+    }
+
+    /**
+     * Identical to {@link #beginSampledRequest(AbstractJoinPoint, Profiled)}, but takes the descriptor of the
+     * profiled method.
+     *
+     * @param descriptor The resolved configuration of the profiled method.
+     * @return The request the call belongs to, which must be ended on the same thread, or null if no request is
+     *         active and the method isn't sampled.
+     */
+    public SampledRequest beginSampledRequest(ProfilingDescriptor descriptor) {
+        //nested calls follow the request's decision, so the sampler is only asked without an active request
+        return SampledRequest.begin(descriptor.getSampler());
+    }
+
+    /**
+     * Helper method determines whether stopping the StopWatch now would log it, which is not the case if it has been
+     * running for less than its time threshold and doesn't use the normal and slow suffixes.
+     *
+     * @param stopWatch The running StopWatch.
+     * @return true if the StopWatch would be logged.
+     */
+    protected boolean isLoggedWhenStopped(LoggingStopWatch stopWatch) {
+        long timeThreshold = stopWatch.getTimeThreshold();
+        return timeThreshold == 0
+               || stopWatch.isNormalAndSlowSuffixesEnabled()
+               || stopWatch.getElapsedTime() >= timeThreshold;
+    }
+
+    /**
+     * Gets the resolved configuration of the profiled method. Descriptors are cached per declaring class, method name
+     * and Profiled annotation instance, so overloaded methods with different annotations each keep their own
+     * descriptor, and recreated when the jperf properties change.
+     *
+     * @param profiled  The Profiled annotation that was set on the method being profiled.
+     * @param joinPoint The AbstractJoinPoint encapulates the method around which this aspect advice runs.
+     * @return The ProfilingDescriptor for the method.
+     */
+    protected ProfilingDescriptor getProfilingDescriptor(Profiled profiled, AbstractJoinPoint joinPoint) {
+        Class<?> declaringClass = joinPoint.getDeclaringClass();
+        ConcurrentMap<String, ProfilingDescriptor[]> descriptorsByMethod = descriptorCache.get(declaringClass);
+        if (descriptorsByMethod == null) {
+            descriptorsByMethod = new ConcurrentHashMap<String, ProfilingDescriptor[]>(16, .75F, 4);
+            ConcurrentMap<String, ProfilingDescriptor[]> existing =
+                    descriptorCache.putIfAbsent(declaringClass, descriptorsByMethod);
+            if (existing != null) {
+                descriptorsByMethod = existing;
+            }
+        }
+
+        String methodName = joinPoint.getMethodName();
+        ProfilingDescriptor[] overloads = descriptorsByMethod.get(methodName);
+        ProfilingDescriptor retVal = findDescriptor(overloads, profiled);
+        if (retVal == null || retVal.getPropertiesModificationCount() != JperfProperties.getModificationCount()) {
+            //Don't need synchronization here - if 2 threads create the same descriptor, that's fine, and if they
+            //replace each other's overloads those are just created again on their next call
+            ProfilingDescriptor staleDescriptor = retVal;
+            retVal = createProfilingDescriptor(profiled, declaringClass, methodName);
+            if (staleDescriptor != null || overloads == null || overloads.length < MAX_CACHED_ANNOTATIONS) {
+                descriptorsByMethod.put(methodName, replaceDescriptor(overloads, staleDescriptor, retVal));
             }
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method finds the descriptor of the overload with the specified annotation. The annotation is normally
+     * the same instance on every call, as the JDK caches the annotations of a method, so it is only compared by
+     * identity: an equal copy gets its own descriptor on its first call, rather than paying for the reflective
+     * Annotation.equals on every call. Only when the method already has the maximum number of cached instances are
+     * copies compared with equals.
+     */
+    private static ProfilingDescriptor findDescriptor(ProfilingDescriptor[] overloads, Profiled profiled) {
+        if (overloads == null) {
+            return null;
+        }
+        for (ProfilingDescriptor descriptor : overloads) {
+            if (descriptor.getProfiled() == profiled) {
+                return descriptor;
+            }
+        }
+        if (overloads.length >= MAX_CACHED_ANNOTATIONS) {
+            for (ProfilingDescriptor descriptor : overloads) {
+                if (descriptor.getProfiled().equals(profiled)) {
+                    return descriptor;
+                }
+            }
+        }
+        return null;
+    }
 
-            stopWatch.stop(tag, message);
+    /**
+     * Helper method copies the overloads array, replacing the stale descriptor, or adding the new one if there is no
+     * stale descriptor.
+     */
+    private static ProfilingDescriptor[] replaceDescriptor(ProfilingDescriptor[] overloads,
+                                                           ProfilingDescriptor staleDescriptor,
+                                                           ProfilingDescriptor newDescriptor) {
+        if (overloads == null) {
+            return new ProfilingDescriptor[] {newDescriptor};
+        }
+        for (int i = 0; i < overloads.length; i++) {
+            if (overloads[i] == staleDescriptor) {
+                ProfilingDescriptor[] retVal = overloads.clone();
+                retVal[i] = newDescriptor;
+                return retVal;
+            }
+        }
+        ProfilingDescriptor[] retVal = Arrays.copyOf(overloads, overloads.length + 1);
+        retVal[overloads.length] = newDescriptor;
+        return retVal;
+    }
+
+    /**
+     * Helper method resolves the configuration of a profiled method from its annotation and the jperf properties.
+     *
+     * @param profiled       The Profiled annotation that was set on the method being profiled.
+     * @param declaringClass The declaring class of the profiled method.
+     * @param methodName     The name of the profiled method.
+     * @return The new ProfilingDescriptor.
+     */
+    protected ProfilingDescriptor createProfilingDescriptor(Profiled profiled,
+                                                            Class<?> declaringClass,
+                                                            String methodName) {
+        //read the modification count first, so a concurrent change makes the descriptor stale rather than lost
+        int modificationCount = JperfProperties.getModificationCount();
+
+        String tag = null;
+        ExpressionTemplate tagTemplate = null;
+        if (Profiled.DEFAULT_TAG_NAME.equals(profiled.tag())) {
+            // look for properties-based default
+            // if the tag name is not explicitly set on the Profiled annotation,
+            String configuredTag =
+                    JperfProperties.INSTANCE.getProperty("tag." + declaringClass.getName() + "." + methodName);
+            String defaultTag = JperfProperties.INSTANCE.getProperty("tag");
+            if (configuredTag == null && defaultTag == null) {
+                // fall back to using the name of the method being annotated.
+                tag = methodName;
+            } else if (configuredTag == null) {
+                tagTemplate = new ExpressionTemplate(defaultTag, this);
+            } else if (configuredTag.contains("{")) {
+                tagTemplate = new ExpressionTemplate(configuredTag, this);
+            } else {
+                tag = configuredTag;
+            }
+        } else if (profiled.el() && profiled.tag().contains("{")) {
+            tagTemplate = new ExpressionTemplate(profiled.tag(), this);
+        } else {
+            tag = profiled.tag();
+        }
+
+        String message = null;
+        ExpressionTemplate messageTemplate = null;
+        boolean emptyMessageNull = false;
+        if (profiled.message().length() == 0) {
+            // look for properties-based default
+            // if the message name is not explicitly set on the Profiled annotation,
+            String configuredMessage =
+                    JperfProperties.INSTANCE.getProperty("message." + declaringClass.getName() + "." + methodName);
+            if (configuredMessage != null && configuredMessage.contains("{")) {
+                messageTemplate = new ExpressionTemplate(configuredMessage, this);
+            } else {
+                message = configuredMessage;
+            }
+        } else if (profiled.el() && profiled.message().contains("{")) {
+            messageTemplate = new ExpressionTemplate(profiled.message(), this);
+            emptyMessageNull = true;
+        } else {
+            message = profiled.message();
         }
+
+        return new ProfilingDescriptor(profiled,
+                                       modificationCount,
+                                       declaringClass.getName() + "." + methodName,
+                                       chooseThreshold(profiled),
+                                       profiled.normalAndSlowSuffixesEnabled(),
+                                       profiled.logFailuresSeparately(),
+                                       tag,
+                                       tagTemplate,
+                                       message,
+                                       messageTemplate,
+                                       emptyMessageNull,
+                                       (profiled.sampleEvery() > 1 || profiled.maxSamplesPerSecond() > 0)
+                                       ? new Sampler(Math.max(profiled.sampleEvery(), 1),
+                                                     Math.max(profiled.maxSamplesPerSecond(), 0))
+                                       : null);
     }
 
     /**
      * Defaults to 0ms. First checks whether a non-negative value is set on the annotation, and if so will use it,
-     * otherwise
+     * otherwise uses the configured threshold if there is one.
      */
     private long chooseThreshold(Profiled profiled) {
         long thresholdFromAnnotation = profiled.timeThreshold();
         long thresholdFromConfig = getThresholdFromConfig();
-        long thresholdDefaultValue = getThresholdDefaultValue(profiled);
+        long thresholdDefaultValue = getThresholdDefaultValue();
 
         // if set on annotation, has higher priority than configured value
         if (thresholdFromAnnotation > thresholdDefaultValue) {
@@ -110,10 +402,9 @@ public class AgnosticTimingAspect {
     }
 
     /**
-     * "Cache" the default annotation field value so we don't have to do reflection calls for every iteration; is not
-     * changed between runs anyway.
+     * Gets the configured default threshold, or the default value of the annotation's timeThreshold field.
      */
-    private long getThresholdDefaultValue(Profiled profiled) {
+    private long getThresholdDefaultValue() {
         String thresholdString = JperfProperties.INSTANCE.getProperty(DEFAULT_THRESHOLD_CONFIG_KEY);
         if (thresholdString != null) {
             try {
@@ -123,18 +414,7 @@ public class AgnosticTimingAspect {
                 // ignore
             }
         }
-        try {
-            long thresholdDefault = (Long)profiled.annotationType().getMethod(Profiled.THRESHOLD_FIELD_NAME).getDefaultValue();
-            JperfProperties.INSTANCE.setProperty(DEFAULT_THRESHOLD_CONFIG_KEY, String.valueOf(thresholdDefault));
-        }
-        catch (NoSuchMethodException e) {
-            // ignore
-        }
-        catch (NullPointerException e) {
-            // just means was not set in properties and cast throws NPE, ignore
-        }
-
-        return -1;
+        return ANNOTATION_THRESHOLD_DEFAULT_VALUE;
     }
 
     private long getThresholdFromConfig() {
@@ -147,7 +427,32 @@ public class AgnosticTimingAspect {
     }
 
     /**
-     * Helper method gets the tag to use for StopWatch logging. Performs JEXL evaluation if necessary.
+     * Helper method determines whether a subclass overrides the variant of a hook that takes the Profiled annotation.
+     */
+    private static boolean overridesProfiledHook(Class<?> aspectClass, String hookName) {
+        for (Class<?> clazz = aspectClass; clazz != AgnosticTimingAspect.class; clazz = clazz.getSuperclass()) {
+            try {
+                clazz.getDeclaredMethod(hookName,
+                                        Profiled.class, AbstractJoinPoint.class, Object.class, Throwable.class);
+                return true;
+            } catch (NoSuchMethodException nsme) {
+                //not declared by this class, check its superclass
+            }
+        }
+        return false;
+    }
+
+    private static long getAnnotationThresholdDefaultValue() {
+        try {
+            return (Long) Profiled.class.getMethod(Profiled.THRESHOLD_FIELD_NAME).getDefaultValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Helper method gets the tag to use for StopWatch logging. Performs JEXL evaluation if necessary. Subclasses may
+     * override this method, and runProfiledMethod then calls it instead of the variant that takes the descriptor.
      *
      * @param profiled        The profiled annotation that was attached to the method.
      * @param joinPoint       The AbstractJoinPoint encapulates the method around which this aspect advice runs.
@@ -158,38 +463,34 @@ public class AgnosticTimingAspect {
      * @return The value to use as the StopWatch tag.
      */
     protected String getStopWatchTag(Profiled profiled, AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
-        String tag;
-        if (Profiled.DEFAULT_TAG_NAME.equals(profiled.tag())) {
-            // look for properties-based default
-            // if the tag name is not explicitly set on the Profiled annotation,
-            final String tagString = String.format("tag.%s.%s",
-                    joinPoint.getDeclaringClass().getName(),
-                    joinPoint.getMethodName());
-
-            tag = JperfProperties.INSTANCE.getProperty(tagString);
-            String defaultTag = JperfProperties.INSTANCE.getProperty("tag");
+        return getStopWatchTag(getProfilingDescriptor(profiled, joinPoint), joinPoint, returnValue, exceptionThrown);
+    }
 
-            if (tag == null && defaultTag == null) {
-                // fall back to using the name of the method being annotated.
-                tag = joinPoint.getMethodName();
-            }
-            else if (tag != null && tag.contains("{")) {
-                tag = evaluateJexl(tag, joinPoint, returnValue, exceptionThrown);
-            }
-            else if (tag == null) {
-                tag = evaluateJexl(defaultTag, joinPoint, returnValue, exceptionThrown);
-            }
-        } else if (profiled.el() && profiled.tag().contains("{")) {
-            tag = evaluateJexl(profiled.tag(), joinPoint, returnValue, exceptionThrown);
-        } else {
-            tag = profiled.tag();
+    /**
+     * Helper method gets the tag to use for StopWatch logging from the method's descriptor. Evaluates the tag template
+     * if necessary.
+     *
+     * @param descriptor      The resolved configuration of the profiled method.
+     * @param joinPoint       The AbstractJoinPoint encapulates the method around which this aspect advice runs.
+     * @param returnValue     The value returned from the execution of the profiled method, or null if the method
+     *                        returned void or an exception was thrown.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method. Will be null if the method
+     *                        completed normally.
+     * @return The value to use as the StopWatch tag.
+     */
+    protected String getStopWatchTag(ProfilingDescriptor descriptor,
+                                     AbstractJoinPoint joinPoint,
+                                     Object returnValue,
+                                     Throwable exceptionThrown) {
+        if (descriptor.getTagTemplate() == null) {
+            return descriptor.getTag();
         }
-        return tag;
+        return descriptor.getTagTemplate().evaluate(joinPoint, returnValue, exceptionThrown);
     }
 
-
     /**
-     * Helper method get the message to use for StopWatch logging. Performs JEXL evaluation if necessary.
+     * Helper method get the message to use for StopWatch logging. Performs JEXL evaluation if necessary. Subclasses
+     * may override this method, and runProfiledMethod then calls it instead of the variant that takes the descriptor.
      *
      * @param profiled        The profiled annotation that was attached to the method.
      * @param joinPoint       The AbstractJoinPoint encapulates the method around which this aspect advice runs.
@@ -203,33 +504,39 @@ public class AgnosticTimingAspect {
                                          AbstractJoinPoint joinPoint,
                                          Object returnValue,
                                          Throwable exceptionThrown) {
-        String message;
-        if (profiled.message().length() == 0) {
-            // look for properties-based default
-            // if the message name is not explicitly set on the Profiled annotation,
-            String property = String.format("message.%s.%s", joinPoint.getDeclaringClass().getName(), joinPoint.getMethodName());
-            message = JperfProperties.INSTANCE.getProperty(property);
+        return getStopWatchMessage(getProfilingDescriptor(profiled, joinPoint),
+                                   joinPoint,
+                                   returnValue,
+                                   exceptionThrown);
+    }
 
-            if (message == null) {
-                return null;
-            }
-            if (message.contains("{")) {
-                message = evaluateJexl(message, joinPoint, returnValue, exceptionThrown);
-            }
-        } else if (profiled.el() && profiled.message().contains("{")) {
-            message = evaluateJexl(profiled.message(), joinPoint, returnValue, exceptionThrown);
-            if ("".equals(message)) {
-                message = null;
-            }
-        } else {
-            message = profiled.message();
+    /**
+     * Helper method get the message to use for StopWatch logging from the method's descriptor. Evaluates the
+     * message template if necessary.
+     *
+     * @param descriptor      The resolved configuration of the profiled method.
+     * @param joinPoint       The AbstractJoinPoint encapulates the method around which this aspect advice runs.
+     * @param returnValue     The value returned from the execution of the profiled method, or null if the method
+     *                        returned void or an exception was thrown.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method. Will be null if the method
+     *                        completed normally.
+     * @return The value to use as the StopWatch message.
+     */
+    protected String getStopWatchMessage(ProfilingDescriptor descriptor,
+                                         AbstractJoinPoint joinPoint,
+                                         Object returnValue,
+                                         Throwable exceptionThrown) {
+        if (descriptor.getMessageTemplate() == null) {
+            return descriptor.getMessage();
         }
-        return message;
+        String message = descriptor.getMessageTemplate().evaluate(joinPoint, returnValue, exceptionThrown);
+        return (descriptor.isEmptyMessageNull() && "".equals(message)) ? null : message;
     }
 
     /**
      * Helper method is used to parse out {expressionLanguage} elements from the text and evaluate the strings using
-     * JEXL.
+     * JEXL. Profiled methods use the templates compiled into their ProfilingDescriptor instead, this method compiles
+     * the text on every call.
      *
      * @param text            The text to be parsed.
      * @param joinPoint       The AbstractJoinPoint encapulates the method around which this aspect advice runs.
@@ -239,83 +546,10 @@ public class AgnosticTimingAspect {
      *                        completed normally.
      * @return The evaluated string.
      * @see Profiled#el()
+     * @see ExpressionTemplate
      */
-	protected String evaluateJexl(String text, AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
-        StringBuilder retVal = new StringBuilder(text.length());
-        JexlContext jexlContext = populateJexlContext(joinPoint, returnValue, exceptionThrown);
-
-        // look for {expression} in the passed in text
-        int bracketIndex;
-        int lastCloseBracketIndex = -1;
-
-        while ((bracketIndex = text.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
-            appendNonJexlText(retVal, text, bracketIndex, lastCloseBracketIndex);
-            lastCloseBracketIndex = lastCloseBracketIndex(text, bracketIndex);
-            String expressionText = textBetweenBrackets(text, bracketIndex, lastCloseBracketIndex);
-            evaluateJexlAndSetOnResult(retVal, expressionText, jexlContext);
-        }
-
-        appendFinalPart(retVal, text, lastCloseBracketIndex);
-        return retVal.toString();
-    }
-
-    private void appendFinalPart(StringBuilder retVal, String text, int lastCloseBracketIndex) {
-        if (lastCloseBracketIndex < text.length()) {
-            retVal.append(text.substring(lastCloseBracketIndex + 1, text.length()));
-        }
-    }
-
-    private void evaluateJexlAndSetOnResult(StringBuilder retVal, String expressionText, JexlContext jexlContext) {
-        if (expressionText.length() == 0) {
-            return;
-        }
-        try {
-            Object result = getJexlExpression(expressionText).evaluate(jexlContext);
-            retVal.append(result);
-        } catch (Exception e) {
-            //we don't want to propagate exceptions up
-            retVal.append("_EL_ERROR_");
-        }
-    }
-
-    private String textBetweenBrackets(String text, int bracketIndex, int lastCloseBracketIndex) {
-        return text.substring(bracketIndex + 1, lastCloseBracketIndex);
-    }
-
-    private void appendNonJexlText(StringBuilder retVal, String text, int bracketIndex, int lastCloseBracketIndex) {
-        retVal.append(text.substring(lastCloseBracketIndex + 1, bracketIndex));
-    }
-
-    private int lastCloseBracketIndex(String text, int bracketIndex) {
-        int index = text.indexOf('}', bracketIndex + 1);
-        if (index == -1) {
-            //if there wasn't a closing bracket index just go to the end of the string
-            index = text.length();
-        }
-
-        return index;
-    }
-
-    @SuppressWarnings("unchecked")
-    private JexlContext populateJexlContext(AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
-        Object[] args = joinPoint.getParameters();
-
-        //create a JexlContext to be used in all evaluations
-        JexlContext jexlContext = new HashMapContext();
-        for (int i = 0; i < args.length; i++) {
-            jexlContext.getVars().put("$" + i, args[i]);
-        }
-
-        Class<?> declaringClass = joinPoint.getDeclaringClass();
-        jexlContext.getVars().put("$methodName", joinPoint.getMethodName());
-        jexlContext.getVars().put("$this", joinPoint.getExecutingObject());
-        jexlContext.getVars().put("$class", declaringClass);
-        jexlContext.getVars().put("$className", declaringClass.getName());
-        jexlContext.getVars().put("$classSimpleName", declaringClass.getSimpleName());
-        jexlContext.getVars().put("$return", returnValue);
-        jexlContext.getVars().put("$exception", exceptionThrown);
-
-        return jexlContext;
+    protected String evaluateJexl(String text, AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
+        return new ExpressionTemplate(text, this).evaluate(joinPoint, returnValue, exceptionThrown);
     }
 
     /**
@@ -48,6 +48,10 @@ public class DefaultProfiled implements Profiled {
     public long timeThreshold() { return -1; }
     
     public boolean normalAndSlowSuffixesEnabled() { return false; }
+
+    public int sampleEvery() { return 1; }
+
+    public int maxSamplesPerSecond() { return 0; }
     
     public Class<? extends Annotation> annotationType() { return getClass(); }
 }
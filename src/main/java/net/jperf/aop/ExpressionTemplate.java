@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop;
+
+import org.apache.commons.jexl.Expression;
+import org.apache.commons.jexl.JexlContext;
+import org.apache.commons.jexl.context.HashMapContext;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An ExpressionTemplate is a tag or message containing {expression} elements, compiled once by the
+ * {@link AgnosticTimingAspect} into literal text and expression segments so that evaluating it doesn't need to parse
+ * the text again.
+ * <p>
+ * Expressions that are a simple variable reference followed by property names, like <tt>{$0}</tt>,
+ * <tt>{$0.id}</tt> or <tt>{$className}</tt>, are evaluated directly: the variable is read from the join point and
+ * the properties with getter methods that are looked up once and cached per class. Every other expression, and any
+ * property that isn't a public getter or Map entry, is evaluated with JEXL, with a context that only contains the
+ * variables the expression references. Properties are read the way JEXL reads them, so both ways give the same
+ * result; see {@link Profiled#el()} for the available variables.
+ */
+public final class ExpressionTemplate {
+    /**
+     * The text evaluated for expressions that could not be compiled or evaluated.
+     */
+    public static final String EL_ERROR = "_EL_ERROR_";
+
+    private static final Pattern SIMPLE_PATH_PATTERN = Pattern.compile("\\$(\\w+)((?:\\.[A-Za-z_]\\w*)*)");
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\w+");
+
+    //variables are identified by the index of the argument, or one of these negative values
+    private static final int VARIABLE_THIS = -1;
+    private static final int VARIABLE_CLASS = -2;
+    private static final int VARIABLE_CLASS_NAME = -3;
+    private static final int VARIABLE_CLASS_SIMPLE_NAME = -4;
+    private static final int VARIABLE_METHOD_NAME = -5;
+    private static final int VARIABLE_RETURN = -6;
+    private static final int VARIABLE_EXCEPTION = -7;
+    private static final int VARIABLE_UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Returned by property accessors that can't read the property, in which case JEXL evaluates the expression.
+     */
+    private static final Object UNRESOLVED = new Object();
+
+    private final String text;
+    private final Segment[] segments;
+
+    /**
+     * Compiles a template.
+     *
+     * @param text   The template text.
+     * @param aspect The aspect whose {@link AgnosticTimingAspect#getJexlExpression} compiles the JEXL expressions.
+     */
+    ExpressionTemplate(String text, AgnosticTimingAspect aspect) {
+        this.text = text;
+
+        List<Segment> segmentList = new ArrayList<Segment>();
+        StringBuilder literal = new StringBuilder();
+        // look for {expression} in the passed in text
+        int bracketIndex;
+        int lastCloseBracketIndex = -1;
+        while ((bracketIndex = text.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
+            literal.append(text, lastCloseBracketIndex + 1, bracketIndex);
+            lastCloseBracketIndex = text.indexOf('}', bracketIndex + 1);
+            if (lastCloseBracketIndex == -1) {
+                //if there wasn't a closing bracket index just go to the end of the string
+                lastCloseBracketIndex = text.length();
+            }
+
+            String expressionText = text.substring(bracketIndex + 1, lastCloseBracketIndex);
+            if (expressionText.length() > 0) {
+                if (literal.length() > 0) {
+                    segmentList.add(new LiteralSegment(literal.toString()));
+                    literal.setLength(0);
+                }
+                segmentList.add(compileExpression(expressionText, aspect));
+            }
+        }
+        if (lastCloseBracketIndex < text.length()) {
+            literal.append(text, lastCloseBracketIndex + 1, text.length());
+        }
+        if (literal.length() > 0) {
+            segmentList.add(new LiteralSegment(literal.toString()));
+        }
+
+        segments = segmentList.toArray(new Segment[segmentList.size()]);
+    }
+
+    /**
+     * Gets the text this template was compiled from.
+     *
+     * @return The template text.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Evaluates this template for a call of a profiled method.
+     *
+     * @param joinPoint       The AbstractJoinPoint encapulates the method around which the aspect advice runs.
+     * @param returnValue     The value returned from the execution of the profiled method, or null if the method
+     *                        returned void or an exception was thrown.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method. Will be null if the method
+     *                        completed normally.
+     * @return The evaluated string.
+     */
+    public String evaluate(AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
+        StringBuilder retVal = new StringBuilder(text.length() + 16);
+        for (Segment segment : segments) {
+            segment.appendTo(retVal, joinPoint, returnValue, exceptionThrown);
+        }
+        return retVal.toString();
+    }
+
+    public String toString() {
+        return text;
+    }
+
+    // --- helper methods ---
+
+    private static Segment compileExpression(String expressionText, AgnosticTimingAspect aspect) {
+        JexlSegment jexlSegment;
+        try {
+            jexlSegment = new JexlSegment(aspect.getJexlExpression(expressionText), expressionText);
+        } catch (Exception e) {
+            //we don't want to propagate exceptions up
+            return new LiteralSegment(EL_ERROR);
+        }
+
+        Matcher matcher = SIMPLE_PATH_PATTERN.matcher(expressionText.trim());
+        if (matcher.matches()) {
+            int variable = getVariable(matcher.group(1));
+            if (variable != VARIABLE_UNKNOWN) {
+                String properties = matcher.group(2);
+                String[] propertyNames = (properties.length() == 0) ? new String[0]
+                                                                     : properties.substring(1).split("\\.");
+                return new PathSegment(variable, propertyNames, jexlSegment);
+            }
+        }
+        return jexlSegment;
+    }
+
+    private static int getVariable(String name) {
+        if (Character.isDigit(name.charAt(0))) {
+            //$0 ... $n are the arguments
+            for (int i = 0; i < name.length(); i++) {
+                if (!Character.isDigit(name.charAt(i))) {
+                    return VARIABLE_UNKNOWN;
+                }
+            }
+            return (name.length() > 9) ? VARIABLE_UNKNOWN : Integer.parseInt(name);
+        }
+        if ("this".equals(name)) {
+            return VARIABLE_THIS;
+        }
+        if ("class".equals(name)) {
+            return VARIABLE_CLASS;
+        }
+        if ("className".equals(name)) {
+            return VARIABLE_CLASS_NAME;
+        }
+        if ("classSimpleName".equals(name)) {
+            return VARIABLE_CLASS_SIMPLE_NAME;
+        }
+        if ("methodName".equals(name)) {
+            return VARIABLE_METHOD_NAME;
+        }
+        if ("return".equals(name)) {
+            return VARIABLE_RETURN;
+        }
+        if ("exception".equals(name)) {
+            return VARIABLE_EXCEPTION;
+        }
+        return VARIABLE_UNKNOWN;
+    }
+
+    private static Object getVariableValue(int variable,
+                                           AbstractJoinPoint joinPoint,
+                                           Object returnValue,
+                                           Throwable exceptionThrown) {
+        switch (variable) {
+            case VARIABLE_THIS:
+                return joinPoint.getExecutingObject();
+            case VARIABLE_CLASS:
+                return joinPoint.getDeclaringClass();
+            case VARIABLE_CLASS_NAME:
+                return joinPoint.getDeclaringClass().getName();
+            case VARIABLE_CLASS_SIMPLE_NAME:
+                return joinPoint.getDeclaringClass().getSimpleName();
+            case VARIABLE_METHOD_NAME:
+                return joinPoint.getMethodName();
+            case VARIABLE_RETURN:
+                return returnValue;
+            case VARIABLE_EXCEPTION:
+                return exceptionThrown;
+            default:
+                Object[] args = joinPoint.getParameters();
+                return (variable < args.length) ? args[variable] : null;
+        }
+    }
+
+    // --- support classes ---
+
+    private abstract static class Segment {
+        abstract void appendTo(StringBuilder retVal,
+                               AbstractJoinPoint joinPoint,
+                               Object returnValue,
+                               Throwable exceptionThrown);
+    }
+
+    private static class LiteralSegment extends Segment {
+        private final String literal;
+
+        LiteralSegment(String literal) {
+            this.literal = literal;
+        }
+
+        void appendTo(StringBuilder retVal,
+                      AbstractJoinPoint joinPoint,
+                      Object returnValue,
+                      Throwable exceptionThrown) {
+            retVal.append(literal);
+        }
+    }
+
+    /**
+     * Evaluates an expression with JEXL. The context only holds the variables referenced in the expression text.
+     */
+    private static class JexlSegment extends Segment {
+        private final Expression expression;
+        private final String[] variableNames;
+        private final int[] variables;
+
+        JexlSegment(Expression expression, String expressionText) {
+            this.expression = expression;
+
+            Set<String> names = new LinkedHashSet<String>();
+            Matcher matcher = VARIABLE_PATTERN.matcher(expressionText);
+            while (matcher.find()) {
+                if (getVariable(matcher.group().substring(1)) != VARIABLE_UNKNOWN) {
+                    names.add(matcher.group());
+                }
+            }
+            variableNames = names.toArray(new String[names.size()]);
+            variables = new int[variableNames.length];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = getVariable(variableNames[i].substring(1));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void appendTo(StringBuilder retVal,
+                      AbstractJoinPoint joinPoint,
+                      Object returnValue,
+                      Throwable exceptionThrown) {
+            try {
+                JexlContext jexlContext = new HashMapContext();
+                for (int i = 0; i < variables.length; i++) {
+                    jexlContext.getVars().put(variableNames[i],
+                                              getVariableValue(variables[i], joinPoint, returnValue, exceptionThrown));
+                }
+                retVal.append(expression.evaluate(jexlContext));
+            } catch (Exception e) {
+                //we don't want to propagate exceptions up
+                retVal.append(EL_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Evaluates a variable reference followed by property names without JEXL, falling back to the JEXL segment
+     * for properties that can't be read with a getter or from a Map.
+     */
+    private static class PathSegment extends Segment {
+        private final int variable;
+        private final PropertyReader[] propertyReaders;
+        private final JexlSegment fallback;
+
+        PathSegment(int variable, String[] propertyNames, JexlSegment fallback) {
+            this.variable = variable;
+            this.fallback = fallback;
+            propertyReaders = new PropertyReader[propertyNames.length];
+            for (int i = 0; i < propertyNames.length; i++) {
+                propertyReaders[i] = new PropertyReader(propertyNames[i]);
+            }
+        }
+
+        void appendTo(StringBuilder retVal,
+                      AbstractJoinPoint joinPoint,
+                      Object returnValue,
+                      Throwable exceptionThrown) {
+            try {
+                Object value = getVariableValue(variable, joinPoint, returnValue, exceptionThrown);
+                for (int i = 0; i < propertyReaders.length && value != null; i++) {
+                    value = propertyReaders[i].read(value);
+                    if (value == UNRESOLVED) {
+                        fallback.appendTo(retVal, joinPoint, returnValue, exceptionThrown);
+                        return;
+                    }
+                }
+                retVal.append(value);
+            } catch (Exception e) {
+                //we don't want to propagate exceptions up
+                retVal.append(EL_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Reads a property, caching how it is read for the last class it was read from.
+     */
+    private static class PropertyReader {
+        private final String propertyName;
+        private volatile PropertyAccessor accessor;
+
+        PropertyReader(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        Object read(Object target) throws Exception {
+            PropertyAccessor retVal = accessor;
+            if (retVal == null || retVal.type != target.getClass()) {
+                accessor = retVal = new PropertyAccessor(target.getClass(), propertyName);
+            }
+            return retVal.read(target);
+        }
+    }
+
+    /**
+     * Reads a property of one class the way JEXL does: with a public getX method, a boolean isX method, or for Maps
+     * with get(x). Other properties are left to JEXL.
+     */
+    private static class PropertyAccessor {
+        final Class<?> type;
+        private final String propertyName;
+        private final Method getter;
+        private final boolean mapEntry;
+
+        PropertyAccessor(Class<?> type, String propertyName) {
+            this.type = type;
+            this.propertyName = propertyName;
+
+            String flippedName = (Character.isLowerCase(propertyName.charAt(0)))
+                                 ? Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1)
+                                 : Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1);
+            Method method = getMethod(type, "get" + propertyName, false);
+            if (method == null) {
+                method = getMethod(type, "get" + flippedName, false);
+            }
+            if (method == null) {
+                method = getMethod(type, "is" + propertyName, true);
+            }
+            if (method == null) {
+                method = getMethod(type, "is" + flippedName, true);
+            }
+
+            //only methods declared in public classes can be invoked without changing their accessibility; JEXL finds
+            //the others through the public interfaces of the class, so they are left to JEXL, as is getClass, which
+            //JEXL doesn't treat as a property
+            if (method != null && (!Modifier.isPublic(method.getDeclaringClass().getModifiers())
+                                   || "getClass".equals(method.getName()))) {
+                getter = null;
+                mapEntry = false;
+            } else {
+                getter = method;
+                mapEntry = (method == null) && Map.class.isAssignableFrom(type);
+            }
+        }
+
+        Object read(Object target) throws Exception {
+            if (getter != null) {
+                return getter.invoke(target);
+            }
+            if (mapEntry) {
+                return ((Map<?, ?>) target).get(propertyName);
+            }
+            return UNRESOLVED;
+        }
+
+        private static Method getMethod(Class<?> type, String methodName, boolean booleanOnly) {
+            try {
+                Method retVal = type.getMethod(methodName);
+                if (retVal.getReturnType() == Void.TYPE || (booleanOnly && retVal.getReturnType() != Boolean.TYPE)) {
+                    return null;
+                }
+                return retVal;
+            } catch (NoSuchMethodException nsme) {
+                return null;
+            }
+        }
+    }
+}
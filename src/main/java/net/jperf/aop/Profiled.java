@@ -130,4 +130,29 @@ public @interface Profiled {
      * @return
      */
     boolean normalAndSlowSuffixesEnabled() default false;
+
+    /**
+     * If sampleEvery is set to a value greater than 1, then only about 1 in sampleEvery executions of the method is
+     * timed and logged, and each logged StopWatch has a {@link net.jperf.StopWatch#getWeight() weight} of
+     * sampleEvery, so that the counts and TPS in the aggregated statistics still reflect all executions. Executions
+     * that aren't sampled don't read the clock or create a StopWatch, so this value can be used to profile methods
+     * that are called too often to time every call.
+     * <p>
+     * The sampling decision covers the whole call: a sampled method is the entry point of a
+     * {@link net.jperf.SampledRequest}, so the profiled methods and LoggingStopWatches it calls are timed if and
+     * only if it is, with the same weight. If the method is itself called within an active request, for example one
+     * begun by the {@link net.jperf.servlet.SamplingFilter}, it follows that request's decision instead.
+     *
+     * @return The sampling interval, defaults to 1 which times every execution.
+     */
+    int sampleEvery() default 1;
+
+    /**
+     * If maxSamplesPerSecond is set to a positive value, then the sampling interval is raised automatically when the
+     * method is called so often that more than maxSamplesPerSecond executions per second would be logged, and lowered
+     * again, but never below sampleEvery, when the call rate drops.
+     *
+     * @return The maximum number of executions logged per second, defaults to 0 which disables the limit.
+     */
+    int maxSamplesPerSecond() default 0;
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop;
+
+import net.jperf.LoggingStopWatch;
+import net.jperf.SampledRequest;
+import net.jperf.Sampler;
+import net.jperf.helpers.ProfilingSwitch;
+import net.jperf.helpers.StopWatchFactory;
+
+/**
+ * A ProfiledMethodTimer times the calls of one profiled method of a class generated by the
+ * {@link net.jperf.aop.processor.ProfiledWrapperProcessor}. It holds the configuration of the method's
+ * {@link Profiled} annotation, resolved at compile time, and does what the {@link AgnosticTimingAspect} does for a
+ * call, without a join point: the generated method calls {@link #beginSampledRequest}, {@link #start} and
+ * {@link #stop} around the call of the wrapped method, and only evaluates the tag and message of calls that will be
+ * logged.
+ */
+public class ProfiledMethodTimer {
+    private final String qualifiedMethodName;
+    private final String tag;
+    private final String message;
+    private final String loggerName;
+    private final String level;
+    private final long timeThreshold;
+    private final boolean normalAndSlowSuffixesEnabled;
+    private final boolean logFailuresSeparately;
+    private final Sampler sampler;
+    private final StopWatchFactory stopWatchFactory;
+
+    /**
+     * Creates the timer of a profiled method. The generated classes create one timer per profiled method, in a static
+     * field.
+     *
+     * @param qualifiedMethodName          The fully qualified name of the method, checked in the ProfilingSwitch.
+     * @param tag                          The tag, or null if the tag is evaluated by the generated code.
+     * @param message                      The message, or null if there is no message or it is evaluated by the
+     *                                     generated code.
+     * @param loggerName                   The name of the logger.
+     * @param level                        The name of the log level.
+     * @param timeThreshold                The time threshold in milliseconds.
+     * @param normalAndSlowSuffixesEnabled See {@link Profiled#normalAndSlowSuffixesEnabled()}.
+     * @param logFailuresSeparately        See {@link Profiled#logFailuresSeparately()}.
+     * @param sampleEvery                  See {@link Profiled#sampleEvery()}.
+     * @param maxSamplesPerSecond          See {@link Profiled#maxSamplesPerSecond()}.
+     * @param stopWatch                    The logging framework, see {@link ProfiledWrapper#stopWatch()}.
+     */
+    public ProfiledMethodTimer(String qualifiedMethodName,
+                               String tag,
+                               String message,
+                               String loggerName,
+                               String level,
+                               long timeThreshold,
+                               boolean normalAndSlowSuffixesEnabled,
+                               boolean logFailuresSeparately,
+                               int sampleEvery,
+                               int maxSamplesPerSecond,
+                               String stopWatch) {
+        this.qualifiedMethodName = qualifiedMethodName;
+        this.tag = tag;
+        this.message = message;
+        this.loggerName = loggerName;
+        this.level = level;
+        this.timeThreshold = Math.max(timeThreshold, 0L);
+        this.normalAndSlowSuffixesEnabled = normalAndSlowSuffixesEnabled;
+        this.logFailuresSeparately = logFailuresSeparately;
+        this.sampler = (sampleEvery > 1 || maxSamplesPerSecond > 0)
+                       ? new Sampler(Math.max(sampleEvery, 1), Math.max(maxSamplesPerSecond, 0))
+                       : null;
+        this.stopWatchFactory = StopWatchFactory.forName(stopWatch);
+    }
+
+    public String getQualifiedMethodName() {
+        return qualifiedMethodName;
+    }
+
+    // --- methods called by generated code ---
+
+    /**
+     * Decides whether a call is timed, like {@link AgnosticTimingAspect#beginSampledRequest}.
+     *
+     * @return The request the call belongs to, which must be ended on the same thread, or null if no request is
+     *         active and the method isn't sampled, or the method is switched off.
+     */
+    public SampledRequest beginSampledRequest() {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (SampledRequest.current() != null) {
+            return SampledRequest.begin((Sampler) null);
+        }
+        return SampledRequest.begin(sampler);
+    }
+
+    /**
+     * Starts timing a call.
+     *
+     * @param request The request returned by {@link #beginSampledRequest}, may be null.
+     * @return The started StopWatch, or null if the call shouldn't be timed because the method is switched off, the
+     *         request isn't sampled, or the logger is disabled.
+     */
+    public LoggingStopWatch start(SampledRequest request) {
+        if ((request != null && !request.isSampled()) || !isEnabled()) {
+            return null;
+        }
+        LoggingStopWatch retVal = stopWatchFactory.newStopWatch(loggerName, level);
+        if (!retVal.isLogging()) {
+            return null;
+        }
+        retVal.setTimeThreshold(timeThreshold);
+        retVal.setNormalAndSlowSuffixesEnabled(normalAndSlowSuffixesEnabled);
+        if (request != null) {
+            retVal.setWeight(request.getWeight());
+        }
+        return retVal;
+    }
+
+    /**
+     * Checks whether stopping a StopWatch now would log it, in which case the generated code evaluates the tag and
+     * message.
+     *
+     * @param stopWatch The StopWatch returned by {@link #start}.
+     * @return true if the StopWatch would be logged.
+     */
+    public boolean isLoggedWhenStopped(LoggingStopWatch stopWatch) {
+        return timeThreshold == 0L || normalAndSlowSuffixesEnabled || stopWatch.getElapsedTime() >= timeThreshold;
+    }
+
+    /**
+     * Stops timing a call.
+     *
+     * @param stopWatch        The StopWatch returned by {@link #start}.
+     * @param evaluatedTag     The tag evaluated by the generated code, or null to use the tag of this timer.
+     * @param evaluatedMessage The message evaluated by the generated code, or null to use the message of this timer.
+     * @param exceptionThrown  The exception thrown by the call, or null if it returned normally.
+     */
+    public void stop(LoggingStopWatch stopWatch,
+                     String evaluatedTag,
+                     String evaluatedMessage,
+                     Throwable exceptionThrown) {
+        String stopWatchTag = (evaluatedTag == null) ? tag : evaluatedTag;
+        if (logFailuresSeparately) {
+            stopWatchTag = (exceptionThrown == null) ? stopWatchTag + ".success" : stopWatchTag + ".failure";
+        }
+        stopWatch.stop(stopWatchTag, (evaluatedMessage == null) ? message : evaluatedMessage);
+    }
+
+    // --- helper methods ---
+
+    private boolean isEnabled() {
+        return ProfilingSwitch.isAllEnabled()
+               || (ProfilingSwitch.isEnabled(qualifiedMethodName) && (tag == null || ProfilingSwitch.isEnabled(tag)));
+    }
+}
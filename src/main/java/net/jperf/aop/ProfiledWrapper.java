@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The ProfiledWrapper annotation makes the {@link net.jperf.aop.processor.ProfiledWrapperProcessor} generate, at
+ * compile time, a class that times the {@link Profiled} methods of the annotated type without an aspect framework:
+ * <ul>
+ * <li>For an interface <tt>OrderService</tt>, <tt>ProfiledOrderService</tt> implements the interface by delegating to
+ *     the OrderService passed to its constructor.
+ * <li>For a class <tt>OrderDao</tt>, <tt>ProfiledOrderDao</tt> extends the class, with a constructor for each of its
+ *     constructors, and overrides the profiled methods.
+ * </ul>
+ * The application then creates the generated class where it would have created the annotated one, e.g.
+ * <tt>new ProfiledOrderService(new OrderServiceImpl())</tt>. The tags, messages and thresholds of the Profiled
+ * annotations are compiled into the generated methods, so calls don't create join points or evaluate expressions
+ * with JEXL; see the processor for the expressions that are supported.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ProfiledWrapper {
+    /**
+     * The logging framework the StopWatches of the generated class are logged with: log4j, slf4j, commonslog,
+     * javalog, stderr or the name of a {@link net.jperf.helpers.StopWatchFactory} subclass.
+     *
+     * @return The logging framework, defaults to stderr.
+     */
+    String stopWatch() default "stderr";
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop;
+
+import net.jperf.Sampler;
+
+/**
+ * A ProfilingDescriptor holds the configuration of a profiled method, resolved from its {@link Profiled} annotation
+ * and the jperf.properties by the {@link AgnosticTimingAspect}. Resolving it means reading several properties, each
+ * of which may walk up the package hierarchy, so the aspect creates one descriptor per profiled method and reuses it
+ * until the properties change. Instances are immutable, except for the state of their Sampler.
+ */
+public class ProfilingDescriptor {
+    private final Profiled profiled;
+    private final int propertiesModificationCount;
+    private final String qualifiedMethodName;
+    private final long timeThreshold;
+    private final boolean normalAndSlowSuffixesEnabled;
+    private final boolean logFailuresSeparately;
+    private final String tag;
+    private final ExpressionTemplate tagTemplate;
+    private final String message;
+    private final ExpressionTemplate messageTemplate;
+    private final boolean emptyMessageNull;
+    private final Sampler sampler;
+
+    /**
+     * Creates a new ProfilingDescriptor.
+     *
+     * @param profiled                     The annotation the descriptor was resolved from.
+     * @param propertiesModificationCount  The modification count of the jperf properties the descriptor was resolved
+     *                                     from.
+     * @param qualifiedMethodName          The fully qualified name of the method, as checked with the
+     *                                     {@link net.jperf.helpers.ProfilingSwitch}.
+     * @param timeThreshold                The StopWatch time threshold, in milliseconds.
+     * @param normalAndSlowSuffixesEnabled Whether the StopWatch appends the normal and slow suffixes.
+     * @param logFailuresSeparately        Whether ".success" or ".failure" is appended to the tag.
+     * @param tag                          The tag, or null if it must be evaluated from the tagTemplate.
+     * @param tagTemplate                  The compiled tag template, or null if the tag is fixed.
+     * @param message                      The message, or null if it must be evaluated from the messageTemplate or
+     *                                     there is no message.
+     * @param messageTemplate              The compiled message template, or null if the message is fixed.
+     * @param emptyMessageNull             Whether a message template evaluating to the empty String means no message.
+     * @param sampler                      The Sampler that decides which calls are timed, or null if every call is.
+     */
+    public ProfilingDescriptor(Profiled profiled,
+                               int propertiesModificationCount,
+                               String qualifiedMethodName,
+                               long timeThreshold,
+                               boolean normalAndSlowSuffixesEnabled,
+                               boolean logFailuresSeparately,
+                               String tag,
+                               ExpressionTemplate tagTemplate,
+                               String message,
+                               ExpressionTemplate messageTemplate,
+                               boolean emptyMessageNull,
+                               Sampler sampler) {
+        this.profiled = profiled;
+        this.propertiesModificationCount = propertiesModificationCount;
+        this.qualifiedMethodName = qualifiedMethodName;
+        this.timeThreshold = timeThreshold;
+        this.normalAndSlowSuffixesEnabled = normalAndSlowSuffixesEnabled;
+        this.logFailuresSeparately = logFailuresSeparately;
+        this.tag = tag;
+        this.tagTemplate = tagTemplate;
+        this.message = message;
+        this.messageTemplate = messageTemplate;
+        this.emptyMessageNull = emptyMessageNull;
+        this.sampler = sampler;
+    }
+
+    public Profiled getProfiled() {
+        return profiled;
+    }
+
+    public int getPropertiesModificationCount() {
+        return propertiesModificationCount;
+    }
+
+    public String getQualifiedMethodName() {
+        return qualifiedMethodName;
+    }
+
+    public long getTimeThreshold() {
+        return timeThreshold;
+    }
+
+    public boolean isNormalAndSlowSuffixesEnabled() {
+        return normalAndSlowSuffixesEnabled;
+    }
+
+    public boolean isLogFailuresSeparately() {
+        return logFailuresSeparately;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public ExpressionTemplate getTagTemplate() {
+        return tagTemplate;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public ExpressionTemplate getMessageTemplate() {
+        return messageTemplate;
+    }
+
+    public boolean isEmptyMessageNull() {
+        return emptyMessageNull;
+    }
+
+    public Sampler getSampler() {
+        return sampler;
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop.processor;
+
+import net.jperf.aop.Profiled;
+import net.jperf.aop.ProfiledWrapper;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The ProfiledWrapperProcessor is the annotation processor that generates the classes of {@link ProfiledWrapper}
+ * types. It is registered as a service in the jperf jar, so javac runs it whenever jperf is on the compile classpath.
+ * <p>
+ * Everything the {@link net.jperf.aop.AgnosticTimingAspect} works out at runtime is resolved when the wrapper is
+ * generated: a method's tag defaults to the method name, its time threshold to 0, and tags and messages without
+ * {expression} elements, or with el = false, are string constants. Unlike the aspects, the generated classes don't
+ * read the defaults of a jperf.properties file. Tag and message expressions are compiled to Java code, so only
+ * variable references followed by property names are supported, like <tt>{$0.id}</tt>, <tt>{$this.name}</tt>,
+ * <tt>{$return}</tt> or <tt>{$exception.message}</tt>; other JEXL expressions are reported as compile errors.
+ * <p>
+ * The @Profiled annotations aren't copied to the generated methods, but the methods of a generated subclass call
+ * the annotated methods of its superclass, so classes shouldn't be both woven and wrapped.
+ */
+@SupportedAnnotationTypes("net.jperf.aop.ProfiledWrapper")
+public class ProfiledWrapperProcessor extends AbstractProcessor {
+    /**
+     * The prefix of the names of the generated classes.
+     */
+    public static final String CLASS_NAME_PREFIX = "Profiled";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(ProfiledWrapper.class)) {
+            try {
+                generateWrapper(element);
+            } catch (ProcessingException pe) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, pe.getMessage(), pe.getElement());
+            } catch (IOException ioe) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                         "Could not write the profiled wrapper: " + ioe, element);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the simple name of the class generated for a type: the prefix followed by the names of the type and the
+     * types it is nested in, joined with underscores.
+     *
+     * @param type The annotated type.
+     * @return The simple name of the generated class.
+     */
+    public static String getWrapperName(TypeElement type) {
+        String retVal = type.getSimpleName().toString();
+        for (Element enclosing = type.getEnclosingElement();
+             enclosing.getKind().isClass() || enclosing.getKind().isInterface();
+             enclosing = enclosing.getEnclosingElement()) {
+            retVal = enclosing.getSimpleName() + "_" + retVal;
+        }
+        return CLASS_NAME_PREFIX + retVal;
+    }
+
+    // --- helper methods ---
+
+    private void generateWrapper(Element element) throws ProcessingException, IOException {
+        if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.INTERFACE) {
+            throw new ProcessingException("@ProfiledWrapper can only annotate classes and interfaces", element);
+        }
+        TypeElement type = (TypeElement) element;
+        boolean isInterface = type.getKind() == ElementKind.INTERFACE;
+        checkWrappable(type, isInterface);
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String wrapperName = getWrapperName(type);
+        String typeReference = type.asType().toString();
+        String thisExpression = isInterface ? "this.delegate" : "this";
+        String stopWatch = type.getAnnotation(ProfiledWrapper.class).stopWatch();
+
+        StringBuilder timers = new StringBuilder();
+        StringBuilder methods = new StringBuilder();
+        int timerCount = 0;
+        boolean failed = false;
+        Set<String> signatures = new HashSet<String>();
+        for (ExecutableElement method
+                : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            Profiled profiled = method.getAnnotation(Profiled.class);
+            try {
+                if (profiled != null) {
+                    checkProfilable(method, isInterface);
+                }
+                if (method.getModifiers().contains(Modifier.STATIC)
+                    || (isInterface ? method.getEnclosingElement().getKind() != ElementKind.INTERFACE
+                                    : profiled == null)) {
+                    continue;
+                }
+
+                ExecutableType methodType =
+                        (ExecutableType) getTypes().asMemberOf((DeclaredType) type.asType(), method);
+                if (!signatures.add(method.getSimpleName() + getTypes().erasure(methodType).toString())) {
+                    //an interface can inherit the same method from several superinterfaces
+                    continue;
+                }
+                String target = isInterface ? "this.delegate" : "super";
+                if (profiled == null) {
+                    appendDelegatingMethod(methods, method, methodType, target);
+                } else {
+                    appendProfiledMethod(timers, methods, timerCount++, type, method, methodType, profiled, target,
+                                         thisExpression, stopWatch);
+                }
+            } catch (ProcessingException pe) {
+                //report the errors of all the methods before giving up on the type
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, pe.getMessage(), pe.getElement());
+                failed = true;
+            }
+        }
+        if (failed) {
+            return;
+        }
+        if (timerCount == 0) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                                     type.getSimpleName() + " has no @Profiled methods", type);
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (packageName.length() > 0) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n");
+        source.append(" * Times the @Profiled methods of {@link ").append(getTypes().erasure(type.asType()))
+                .append("}.\n");
+        source.append(" * Generated by ").append(getClass().getName()).append(", do not edit.\n");
+        source.append(" */\n");
+        if (type.getModifiers().contains(Modifier.PUBLIC)) {
+            source.append("public ");
+        }
+        if (!isInterface && type.getModifiers().contains(Modifier.ABSTRACT)) {
+            source.append("abstract ");
+        }
+        source.append("class ").append(wrapperName).append(getTypeParameters(type.getTypeParameters()))
+                .append(isInterface ? " implements " : " extends ").append(typeReference).append(" {\n");
+        source.append(timers);
+        if (isInterface) {
+            source.append("\n    private final ").append(typeReference).append(" delegate;\n\n");
+            source.append("    public ").append(wrapperName).append('(').append(typeReference).append(" delegate) {\n");
+            source.append("        if (delegate == null) {\n");
+            source.append("            throw new java.lang.NullPointerException(\"delegate\");\n");
+            source.append("        }\n");
+            source.append("        this.delegate = delegate;\n");
+            source.append("    }\n");
+        } else {
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+                if (!constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                    appendConstructor(source, wrapperName, constructor);
+                }
+            }
+        }
+        source.append(methods);
+        source.append("}\n");
+
+        String qualifiedName = (packageName.length() > 0) ? packageName + "." + wrapperName : wrapperName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void checkWrappable(TypeElement type, boolean isInterface) throws ProcessingException {
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            throw new ProcessingException("@ProfiledWrapper can't annotate local classes", type);
+        }
+        for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new ProcessingException("@ProfiledWrapper can't annotate private types", type);
+            }
+        }
+        if (!isInterface) {
+            if (type.getModifiers().contains(Modifier.FINAL)) {
+                throw new ProcessingException("@ProfiledWrapper can't annotate final classes", type);
+            }
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                throw new ProcessingException("@ProfiledWrapper can't annotate inner classes, make the class static",
+                                              type);
+            }
+            boolean hasConstructor = false;
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+                hasConstructor |= !constructor.getModifiers().contains(Modifier.PRIVATE);
+                if (constructor.getAnnotation(Profiled.class) != null) {
+                    processingEnv.getMessager().printMessage(
+                            Diagnostic.Kind.WARNING, "Constructors aren't timed by the profiled wrapper", constructor);
+                }
+            }
+            if (!hasConstructor) {
+                throw new ProcessingException("@ProfiledWrapper classes need a non-private constructor", type);
+            }
+        }
+    }
+
+    private void checkProfilable(ExecutableElement method, boolean isInterface) throws ProcessingException {
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)
+            || modifiers.contains(Modifier.PRIVATE)) {
+            throw new ProcessingException("The profiled wrapper can't time static, final or private @Profiled methods",
+                                          method);
+        }
+        if (!isInterface && modifiers.contains(Modifier.ABSTRACT)) {
+            throw new ProcessingException("The profiled wrapper of a class can't time abstract @Profiled methods",
+                                          method);
+        }
+    }
+
+    private void appendConstructor(StringBuilder source, String wrapperName, ExecutableElement constructor) {
+        source.append('\n');
+        ExecutableType constructorType = (ExecutableType) constructor.asType();
+        source.append("    ").append(getVisibility(constructor))
+                .append(getTypeParameters(constructor.getTypeParameters())).append(wrapperName).append('(')
+                .append(getParameters(constructor, constructorType)).append(')')
+                .append(getThrowsClause(constructorType)).append(" {\n");
+        source.append("        super(").append(getArguments(constructor)).append(");\n");
+        source.append("    }\n");
+    }
+
+    private void appendDelegatingMethod(StringBuilder methods,
+                                        ExecutableElement method,
+                                        ExecutableType methodType,
+                                        String target) {
+        String call = target + "." + method.getSimpleName() + "(" + getArguments(method) + ")";
+        appendMethodDeclaration(methods, method, methodType);
+        methods.append("        ").append((methodType.getReturnType().getKind() == TypeKind.VOID) ? "" : "return ")
+                .append(call).append(";\n");
+        methods.append("    }\n");
+    }
+
+    private void appendProfiledMethod(StringBuilder timers,
+                                      StringBuilder methods,
+                                      int index,
+                                      TypeElement type,
+                                      ExecutableElement method,
+                                      ExecutableType methodType,
+                                      Profiled profiled,
+                                      String target,
+                                      String thisExpression,
+                                      String stopWatch) throws ProcessingException {
+        String timer = "TIMER_" + index;
+        String methodName = method.getSimpleName().toString();
+        String tag = Profiled.DEFAULT_TAG_NAME.equals(profiled.tag()) ? methodName : profiled.tag();
+        String message = profiled.message();
+        boolean isDynamicTag = profiled.el() && tag.indexOf('{') >= 0;
+        boolean isDynamicMessage = profiled.el() && message.indexOf('{') >= 0;
+
+        timers.append("    private static final net.jperf.aop.ProfiledMethodTimer ").append(timer)
+                .append(" = new net.jperf.aop.ProfiledMethodTimer(\n");
+        timers.append("            ")
+                .append(toLiteral(processingEnv.getElementUtils().getBinaryName(type) + "." + methodName)).append(", ")
+                .append(isDynamicTag ? "null" : toLiteral(tag)).append(", ")
+                .append((isDynamicMessage || message.length() == 0) ? "null" : toLiteral(message)).append(",\n");
+        timers.append("            ")
+                .append(toLiteral(profiled.logger())).append(", ")
+                .append(toLiteral(profiled.level())).append(", ")
+                .append(profiled.timeThreshold()).append("L, ")
+                .append(profiled.normalAndSlowSuffixesEnabled()).append(", ")
+                .append(profiled.logFailuresSeparately()).append(", ")
+                .append(profiled.sampleEvery()).append(", ")
+                .append(profiled.maxSamplesPerSecond()).append(", ")
+                .append(toLiteral(stopWatch)).append(");\n");
+
+        //the templates are compiled to helper methods that take the erased types of the values
+        TypeMirror returnType = methodType.getReturnType();
+        boolean isVoid = returnType.getKind() == TypeKind.VOID;
+        TypeMirror[] erasedParameterTypes = new TypeMirror[methodType.getParameterTypes().size()];
+        for (int i = 0; i < erasedParameterTypes.length; i++) {
+            erasedParameterTypes[i] = getTypes().erasure(methodType.getParameterTypes().get(i));
+        }
+        TypeMirror erasedReturnType = isVoid ? null : box(getTypes().erasure(returnType));
+        TemplateCompiler templateCompiler = new TemplateCompiler(processingEnv, type, method, erasedParameterTypes,
+                                                                 erasedReturnType, thisExpression);
+        StringBuilder helperParameters = new StringBuilder();
+        for (int i = 0; i < erasedParameterTypes.length; i++) {
+            helperParameters.append(erasedParameterTypes[i]).append(' ')
+                    .append(method.getParameters().get(i).getSimpleName()).append(", ");
+        }
+        if (!isVoid) {
+            helperParameters.append(erasedReturnType).append(" jperfReturn, ");
+        }
+        helperParameters.append("java.lang.Throwable jperfException");
+
+        String tagHelper = "jperfTag" + index;
+        String messageHelper = "jperfMessage" + index;
+        StringBuilder helpers = new StringBuilder();
+        if (isDynamicTag) {
+            appendTemplateHelper(helpers, tagHelper, helperParameters, templateCompiler.compile(tag, "        "),
+                                 false);
+        }
+        if (isDynamicMessage) {
+            appendTemplateHelper(helpers, messageHelper, helperParameters,
+                                 templateCompiler.compile(message, "        "), true);
+        }
+
+        String arguments = getArguments(method);
+        String call = target + "." + methodName + "(" + arguments + ")";
+        String successArguments = (arguments.length() > 0 ? arguments + ", " : "") + (isVoid ? "" : "jperfReturn, ")
+                                  + "null";
+        String failureArguments = (arguments.length() > 0 ? arguments + ", " : "") + (isVoid ? "" : "null, ")
+                                  + "jperfException";
+
+        appendMethodDeclaration(methods, method, methodType);
+        methods.append("        net.jperf.SampledRequest jperfRequest = ").append(timer)
+                .append(".beginSampledRequest();\n");
+        methods.append("        try {\n");
+        methods.append("            net.jperf.LoggingStopWatch jperfStopWatch = ").append(timer)
+                .append(".start(jperfRequest);\n");
+        methods.append("            if (jperfStopWatch == null) {\n");
+        if (isVoid) {
+            methods.append("                ").append(call).append(";\n");
+            methods.append("                return;\n");
+        } else {
+            methods.append("                return ").append(call).append(";\n");
+        }
+        methods.append("            }\n");
+        methods.append("            try {\n");
+        methods.append("                ").append(isVoid ? "" : returnType + " jperfReturn = ").append(call)
+                .append(";\n");
+        appendStop(methods, timer, isDynamicTag ? tagHelper : null, isDynamicMessage ? messageHelper : null,
+                   successArguments, "null");
+        if (!isVoid) {
+            methods.append("                return jperfReturn;\n");
+        }
+        for (TypeMirror exceptionType : getCaughtTypes(method, methodType)) {
+            methods.append("            } catch (").append(exceptionType).append(" jperfException) {\n");
+            appendStop(methods, timer, isDynamicTag ? tagHelper : null, isDynamicMessage ? messageHelper : null,
+                       failureArguments, "jperfException");
+            methods.append("                throw jperfException;\n");
+        }
+        methods.append("            }\n");
+        methods.append("        } finally {\n");
+        methods.append("            if (jperfRequest != null) {\n");
+        methods.append("                jperfRequest.end();\n");
+        methods.append("            }\n");
+        methods.append("        }\n");
+        methods.append("    }\n");
+        methods.append(helpers);
+    }
+
+    private void appendTemplateHelper(StringBuilder helpers,
+                                      String helperName,
+                                      StringBuilder helperParameters,
+                                      String statements,
+                                      boolean emptyMessageNull) {
+        helpers.append('\n');
+        helpers.append("    private java.lang.String ").append(helperName).append('(').append(helperParameters)
+                .append(") {\n");
+        helpers.append("        java.lang.StringBuilder jperfBuilder = new java.lang.StringBuilder();\n");
+        helpers.append(statements);
+        helpers.append(emptyMessageNull
+                       ? "        return (jperfBuilder.length() == 0) ? null : jperfBuilder.toString();\n"
+                       : "        return jperfBuilder.toString();\n");
+        helpers.append("    }\n");
+    }
+
+    /**
+     * Appends the statements stopping the StopWatch, which only evaluate the dynamic tag and message if the
+     * StopWatch will be logged.
+     */
+    private void appendStop(StringBuilder methods,
+                            String timer,
+                            String tagHelper,
+                            String messageHelper,
+                            String helperArguments,
+                            String exceptionThrown) {
+        if (tagHelper == null && messageHelper == null) {
+            methods.append("                ").append(timer).append(".stop(jperfStopWatch, null, null, ")
+                    .append(exceptionThrown).append(");\n");
+            return;
+        }
+        methods.append("                boolean jperfLogged = ").append(timer)
+                .append(".isLoggedWhenStopped(jperfStopWatch);\n");
+        methods.append("                ").append(timer).append(".stop(jperfStopWatch,\n");
+        methods.append("                        ").append(getHelperCall(tagHelper, helperArguments)).append(",\n");
+        methods.append("                        ").append(getHelperCall(messageHelper, helperArguments)).append(",\n");
+        methods.append("                        ").append(exceptionThrown).append(");\n");
+    }
+
+    private String getHelperCall(String helperName, String arguments) {
+        return (helperName == null) ? "null" : "jperfLogged ? " + helperName + "(" + arguments + ") : null";
+    }
+
+    private void appendMethodDeclaration(StringBuilder methods, ExecutableElement method, ExecutableType methodType) {
+        methods.append('\n');
+        methods.append("    @java.lang.Override\n");
+        methods.append("    ").append(getVisibility(method)).append(getTypeParameters(method.getTypeParameters()))
+                .append(methodType.getReturnType()).append(' ').append(method.getSimpleName()).append('(')
+                .append(getParameters(method, methodType)).append(')').append(getThrowsClause(methodType))
+                .append(" {\n");
+    }
+
+    /**
+     * Gets the exception types the generated code catches: unchecked exceptions and the declared ones, without the
+     * types that are subtypes of others.
+     */
+    private List<TypeMirror> getCaughtTypes(ExecutableElement method, ExecutableType methodType)
+            throws ProcessingException {
+        List<TypeMirror> candidates = new ArrayList<TypeMirror>();
+        candidates.add(processingEnv.getElementUtils().getTypeElement("java.lang.RuntimeException").asType());
+        candidates.add(processingEnv.getElementUtils().getTypeElement("java.lang.Error").asType());
+        for (TypeMirror thrownType : methodType.getThrownTypes()) {
+            if (thrownType.getKind() != TypeKind.DECLARED) {
+                throw new ProcessingException("The profiled wrapper can't time methods that throw a type variable",
+                                              method);
+            }
+            candidates.add(thrownType);
+        }
+
+        List<TypeMirror> retVal = new ArrayList<TypeMirror>();
+        for (TypeMirror candidate : candidates) {
+            boolean isCovered = false;
+            for (TypeMirror other : candidates) {
+                isCovered |= !getTypes().isSameType(candidate, other) && getTypes().isSubtype(candidate, other);
+            }
+            for (TypeMirror caught : retVal) {
+                isCovered |= getTypes().isSameType(candidate, caught);
+            }
+            if (!isCovered) {
+                retVal.add(candidate);
+            }
+        }
+        return retVal;
+    }
+
+    private String getVisibility(ExecutableElement executable) {
+        if (executable.getModifiers().contains(Modifier.PUBLIC)
+            || executable.getEnclosingElement().getKind() == ElementKind.INTERFACE) {
+            return "public ";
+        }
+        return executable.getModifiers().contains(Modifier.PROTECTED) ? "protected " : "";
+    }
+
+    private String getTypeParameters(List<? extends TypeParameterElement> typeParameters) {
+        if (typeParameters.isEmpty()) {
+            return "";
+        }
+        StringBuilder retVal = new StringBuilder("<");
+        for (TypeParameterElement typeParameter : typeParameters) {
+            if (retVal.length() > 1) {
+                retVal.append(", ");
+            }
+            retVal.append(typeParameter.getSimpleName());
+            List<? extends TypeMirror> bounds = typeParameter.getBounds();
+            if (!bounds.isEmpty() && !(bounds.size() == 1 && "java.lang.Object".equals(bounds.get(0).toString()))) {
+                for (int i = 0; i < bounds.size(); i++) {
+                    retVal.append((i == 0) ? " extends " : " & ").append(bounds.get(i));
+                }
+            }
+        }
+        return retVal.append("> ").toString();
+    }
+
+    private String getParameters(ExecutableElement executable, ExecutableType executableType) {
+        StringBuilder retVal = new StringBuilder();
+        List<? extends TypeMirror> parameterTypes = executableType.getParameterTypes();
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                retVal.append(", ");
+            }
+            if (executable.isVarArgs() && i == parameterTypes.size() - 1) {
+                retVal.append(((ArrayType) parameterTypes.get(i)).getComponentType()).append("...");
+            } else {
+                retVal.append(parameterTypes.get(i));
+            }
+            retVal.append(' ').append(executable.getParameters().get(i).getSimpleName());
+        }
+        return retVal.toString();
+    }
+
+    private String getArguments(ExecutableElement executable) {
+        StringBuilder retVal = new StringBuilder();
+        for (int i = 0; i < executable.getParameters().size(); i++) {
+            if (i > 0) {
+                retVal.append(", ");
+            }
+            retVal.append(executable.getParameters().get(i).getSimpleName());
+        }
+        return retVal.toString();
+    }
+
+    private String getThrowsClause(ExecutableType executableType) {
+        StringBuilder retVal = new StringBuilder();
+        for (TypeMirror thrownType : executableType.getThrownTypes()) {
+            retVal.append((retVal.length() == 0) ? " throws " : ", ").append(thrownType);
+        }
+        return retVal.toString();
+    }
+
+    private TypeMirror box(TypeMirror type) {
+        return type.getKind().isPrimitive() ? getTypes().boxedClass((PrimitiveType) type).asType() : type;
+    }
+
+    private Types getTypes() {
+        return processingEnv.getTypeUtils();
+    }
+
+    /**
+     * Gets the Java string literal of a text.
+     */
+    static String toLiteral(CharSequence text) {
+        StringBuilder retVal = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    retVal.append("\\\"");
+                    break;
+                case '\\':
+                    retVal.append("\\\\");
+                    break;
+                case '\n':
+                    retVal.append("\\n");
+                    break;
+                case '\r':
+                    retVal.append("\\r");
+                    break;
+                case '\t':
+                    retVal.append("\\t");
+                    break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        retVal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        retVal.append(c);
+                    }
+            }
+        }
+        return retVal.append('"').toString();
+    }
+
+    /**
+     * Thrown when a wrapper can't be generated, and reported as a compile error on the element.
+     */
+    static class ProcessingException extends Exception {
+        private static final long serialVersionUID = 2915493780286917146L;
+
+        private final transient Element element;
+
+        ProcessingException(String message, Element element) {
+            super(message);
+            this.element = element;
+        }
+
+        Element getElement() {
+            return element;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop.processor;
+
+import net.jperf.aop.ExpressionTemplate;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the {expression} elements of a tag or message template into the body of a Java method that builds the
+ * evaluated string. Only variable references followed by property names, like <tt>{$0}</tt> or
+ * <tt>{$this.servletName}</tt>, are supported: the properties are read with the getter methods of the static types,
+ * found at compile time, and like the {@link net.jperf.aop.ExpressionTemplate} a null value anywhere in the path
+ * evaluates to "null", and an exception thrown by a getter to {@link ExpressionTemplate#EL_ERROR}.
+ */
+class TemplateCompiler {
+    private static final Pattern SIMPLE_PATH_PATTERN = Pattern.compile("\\$(\\w+)((?:\\.[A-Za-z_]\\w*)*)");
+
+    private final ProcessingEnvironment processingEnv;
+    private final TypeElement wrappedType;
+    private final ExecutableElement method;
+    private final TypeMirror[] parameterTypes;
+    private final TypeMirror returnType;
+    private final String thisExpression;
+
+    /**
+     * Creates a compiler for the templates of a profiled method.
+     *
+     * @param processingEnv  The processing environment.
+     * @param wrappedType    The type the wrapper is generated for.
+     * @param method         The profiled method.
+     * @param parameterTypes The erased parameter types of the method, as members of the wrapped type.
+     * @param returnType     The erased and boxed return type, or null for void methods.
+     * @param thisExpression The Java expression for <tt>$this</tt>.
+     */
+    TemplateCompiler(ProcessingEnvironment processingEnv,
+                     TypeElement wrappedType,
+                     ExecutableElement method,
+                     TypeMirror[] parameterTypes,
+                     TypeMirror returnType,
+                     String thisExpression) {
+        this.processingEnv = processingEnv;
+        this.wrappedType = wrappedType;
+        this.method = method;
+        this.parameterTypes = parameterTypes;
+        this.returnType = returnType;
+        this.thisExpression = thisExpression;
+    }
+
+    /**
+     * Compiles a template into statements that append the evaluated text to a StringBuilder named jperfBuilder.
+     *
+     * @param template The template text.
+     * @param indent   The indentation of the statements.
+     * @return The statements.
+     * @throws ProfiledWrapperProcessor.ProcessingException Thrown if an expression isn't supported.
+     */
+    String compile(String template, String indent) throws ProfiledWrapperProcessor.ProcessingException {
+        StringBuilder retVal = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        //the same parsing as the ExpressionTemplate, so templates are split the same way
+        int bracketIndex;
+        int lastCloseBracketIndex = -1;
+        while ((bracketIndex = template.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
+            literal.append(template, lastCloseBracketIndex + 1, bracketIndex);
+            lastCloseBracketIndex = template.indexOf('}', bracketIndex + 1);
+            if (lastCloseBracketIndex == -1) {
+                lastCloseBracketIndex = template.length();
+            }
+
+            String expressionText = template.substring(bracketIndex + 1, lastCloseBracketIndex);
+            if (expressionText.length() > 0) {
+                String constant = getConstant(expressionText.trim());
+                if (constant != null) {
+                    literal.append(constant);
+                } else {
+                    appendLiteral(retVal, literal, indent);
+                    compileExpression(retVal, expressionText.trim(), indent);
+                }
+            }
+        }
+        if (lastCloseBracketIndex < template.length()) {
+            literal.append(template, lastCloseBracketIndex + 1, template.length());
+        }
+        appendLiteral(retVal, literal, indent);
+        return retVal.toString();
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Gets the value of the variables that are known at compile time.
+     */
+    private String getConstant(String expressionText) {
+        if ("$className".equals(expressionText)) {
+            return processingEnv.getElementUtils().getBinaryName(wrappedType).toString();
+        }
+        if ("$classSimpleName".equals(expressionText)) {
+            return wrappedType.getSimpleName().toString();
+        }
+        if ("$methodName".equals(expressionText)) {
+            return method.getSimpleName().toString();
+        }
+        return null;
+    }
+
+    private void appendLiteral(StringBuilder retVal, StringBuilder literal, String indent) {
+        if (literal.length() > 0) {
+            retVal.append(indent).append("jperfBuilder.append(").append(ProfiledWrapperProcessor.toLiteral(literal))
+                    .append(");\n");
+            literal.setLength(0);
+        }
+    }
+
+    private void compileExpression(StringBuilder retVal, String expressionText, String indent)
+            throws ProfiledWrapperProcessor.ProcessingException {
+        Matcher matcher = SIMPLE_PATH_PATTERN.matcher(expressionText);
+        if (!matcher.matches()) {
+            throw unsupported(expressionText, "only $variable.property paths can be compiled");
+        }
+
+        String variable = matcher.group(1);
+        String valueExpression;
+        TypeMirror valueType;
+        if (Character.isDigit(variable.charAt(0))) {
+            int index = Integer.parseInt(variable);
+            if (index >= parameterTypes.length) {
+                throw unsupported(expressionText, "the method has no parameter $" + index);
+            }
+            valueExpression = method.getParameters().get(index).getSimpleName().toString();
+            valueType = parameterTypes[index];
+        } else if ("this".equals(variable)) {
+            if (method.getModifiers().contains(Modifier.STATIC)) {
+                throw unsupported(expressionText, "static methods have no $this");
+            }
+            valueExpression = thisExpression;
+            valueType = getTypes().erasure(wrappedType.asType());
+        } else if ("class".equals(variable)) {
+            valueType = getTypes().erasure(wrappedType.asType());
+            valueExpression = valueType + ".class";
+            valueType = getTypes().getDeclaredType(
+                    processingEnv.getElementUtils().getTypeElement("java.lang.Class"));
+        } else if ("return".equals(variable)) {
+            valueExpression = (returnType == null) ? "null" : "jperfReturn";
+            valueType = (returnType == null) ? getObjectType() : returnType;
+        } else if ("exception".equals(variable)) {
+            valueExpression = "jperfException";
+            valueType = processingEnv.getElementUtils().getTypeElement("java.lang.Throwable").asType();
+        } else {
+            throw unsupported(expressionText, "$" + variable + " is not a known variable");
+        }
+
+        String properties = matcher.group(2);
+        String[] propertyNames = (properties.length() == 0) ? new String[0] : properties.substring(1).split("\\.");
+
+        String innerIndent = indent + "    ";
+        retVal.append(indent).append("try {\n");
+        retVal.append(innerIndent).append("java.lang.Object jperfValue = null;\n");
+        String closing = "";
+        String currentExpression = valueExpression;
+        for (int i = 0; i <= propertyNames.length; i++) {
+            String local = "jperfValue" + i;
+            retVal.append(innerIndent).append(valueType).append(' ').append(local).append(" = ")
+                    .append(currentExpression).append(";\n");
+            if (i == propertyNames.length) {
+                retVal.append(innerIndent).append("jperfValue = ").append(local).append(";\n");
+                break;
+            }
+            if (!valueType.getKind().isPrimitive()) {
+                retVal.append(innerIndent).append("if (").append(local).append(" != null) {\n");
+                closing = innerIndent + "}\n" + closing;
+                innerIndent += "    ";
+            }
+
+            String[] getter = findGetter(valueType, propertyNames[i], expressionText);
+            currentExpression = getter[0].replace("$", local);
+            valueType = getTypes().erasure(getReturnType(valueType, getter[1]));
+        }
+        retVal.append(closing);
+        retVal.append(indent).append("    jperfBuilder.append(jperfValue);\n");
+        retVal.append(indent).append("} catch (java.lang.Exception jperfError) {\n");
+        retVal.append(indent).append("    jperfBuilder.append(")
+                .append(ProfiledWrapperProcessor.toLiteral(ExpressionTemplate.EL_ERROR)).append(");\n");
+        retVal.append(indent).append("}\n");
+    }
+
+    /**
+     * Finds how to read a property, the way JEXL does: with a public getX method, a boolean isX method, or for Maps
+     * with get(x).
+     *
+     * @return The Java expression reading the property from <tt>$</tt>, and the name of the getter, or null for a
+     *         Map entry.
+     */
+    private String[] findGetter(TypeMirror type, String propertyName, String expressionText)
+            throws ProfiledWrapperProcessor.ProcessingException {
+        if (type.getKind() != TypeKind.DECLARED) {
+            throw unsupported(expressionText, type + " has no property " + propertyName);
+        }
+
+        String flippedName = (Character.isLowerCase(propertyName.charAt(0)))
+                             ? Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1)
+                             : Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1);
+        String[] candidates = {"get" + propertyName, "get" + flippedName, "is" + propertyName, "is" + flippedName};
+        for (int i = 0; i < candidates.length; i++) {
+            ExecutableElement getter = findMethod(type, candidates[i]);
+            if (getter != null
+                && !"getClass".equals(candidates[i])
+                && getter.getReturnType().getKind() != TypeKind.VOID
+                && (i < 2 || getter.getReturnType().getKind() == TypeKind.BOOLEAN)) {
+                return new String[] {"$." + candidates[i] + "()", candidates[i]};
+            }
+        }
+
+        TypeMirror mapType = getTypes().erasure(
+                processingEnv.getElementUtils().getTypeElement("java.util.Map").asType());
+        if (getTypes().isAssignable(type, mapType)) {
+            return new String[] {"((java.util.Map<?, ?>) $).get(" + ProfiledWrapperProcessor.toLiteral(propertyName)
+                                 + ")", null};
+        }
+        throw unsupported(expressionText, type + " has no public getter for " + propertyName);
+    }
+
+    private ExecutableElement findMethod(TypeMirror type, String name) {
+        TypeElement typeElement = (TypeElement) getTypes().asElement(type);
+        for (ExecutableElement candidate
+                : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(typeElement))) {
+            if (candidate.getSimpleName().contentEquals(name)
+                && candidate.getParameters().isEmpty()
+                && candidate.getModifiers().contains(Modifier.PUBLIC)
+                && !candidate.getModifiers().contains(Modifier.STATIC)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private TypeMirror getReturnType(TypeMirror type, String getterName) {
+        if (getterName == null) {
+            return getObjectType();
+        }
+        ExecutableElement getter = findMethod(type, getterName);
+        return ((ExecutableType) getTypes().asMemberOf((DeclaredType) type, getter)).getReturnType();
+    }
+
+    private TypeMirror getObjectType() {
+        return processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType();
+    }
+
+    private Types getTypes() {
+        return processingEnv.getTypeUtils();
+    }
+
+    private ProfiledWrapperProcessor.ProcessingException unsupported(String expressionText, String reason) {
+        return new ProfiledWrapperProcessor.ProcessingException(
+                "Cannot compile the expression {" + expressionText + "} of @Profiled method " + method.getSimpleName()
+                + ": " + reason + ". Use a timing aspect for other expressions.",
+                method);
+    }
+}
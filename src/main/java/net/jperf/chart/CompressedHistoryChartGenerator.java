@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.chart;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingStatistics;
+import net.jperf.helpers.StatsValueRetriever;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This GoogleChartGenerator keeps a much longer history of data points than the standard GoogleChartGenerator by
+ * storing only what is actually graphed: for each enabled tag, the value pulled from each window by the value
+ * retriever is stored in a {@link CompressedTimeSeries}, rather than the whole GroupedTimingStatistics. Regularly
+ * spaced windows with slowly changing values take a few bytes per point, so a day or more of data points can be
+ * kept in memory. By default the last {@link #DEFAULT_MAX_HISTORY_DATA_POINTS} windows are graphed.
+ * <p>
+ * Since that many points would make the chart URL far too long, the graphed windows are downsampled to at most
+ * {@link #getMaxDisplayedPoints()} points per series when the URL is generated: consecutive windows are grouped,
+ * and each group is displayed as a single point at the start of its first window, with the mean of the group's
+ * values. The full history is only kept in memory.
+ * <p>
+ * Since the full statistics are not kept, {@link #getData()} only returns the most recently appended windows.
+ */
+public class CompressedHistoryChartGenerator extends GoogleChartGenerator {
+    /**
+     * The default number of data points kept, which is 24 hours of data at the default 30 second time slice.
+     */
+    public static final int DEFAULT_MAX_HISTORY_DATA_POINTS = 24 * 60 * 2;
+
+    /**
+     * The default maximum number of points displayed per series, which keeps the chart URL within the size the
+     * Google Chart API accepts for a few tags.
+     */
+    public static final int DEFAULT_MAX_DISPLAYED_POINTS = 300;
+
+    /**
+     * The number of points stored in each compressed chunk. Old data is evicted a whole chunk at a time.
+     */
+    private static final int POINTS_PER_CHUNK = 256;
+
+    /**
+     * The start times of the data windows, stored as the timestamps of a compressed series (the values are the
+     * window lengths).
+     */
+    private LinkedList<CompressedTimeSeries> windowChunks = new LinkedList<CompressedTimeSeries>();
+    /**
+     * The total number of windows stored in windowChunks.
+     */
+    private int numWindows = 0;
+    /**
+     * The graphed values of each tag.
+     */
+    private Map<String, LinkedList<CompressedTimeSeries>> chunksByTag =
+            new TreeMap<String, LinkedList<CompressedTimeSeries>>();
+    /**
+     * The most recently appended windows, returned by getData.
+     */
+    private LinkedList<GroupedTimingStatistics> recentData = new LinkedList<GroupedTimingStatistics>();
+    private int maxDisplayedPoints = DEFAULT_MAX_DISPLAYED_POINTS;
+
+    // --- Constructors ---
+
+    /**
+     * Default constructor creates a chart that displays mean execution values and uses the default Google Chart URL.
+     */
+    public CompressedHistoryChartGenerator() {
+        this(StatsValueRetriever.MEAN_VALUE_RETRIEVER, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * Creates a chart that uses the specified StatsValueRetriever to determine which values from the
+     * TimingStatistic object to display.
+     *
+     * @param statsValueRetriever The StatsValueRetriever that determines which value to display.
+     */
+    public CompressedHistoryChartGenerator(StatsValueRetriever statsValueRetriever) {
+        this(statsValueRetriever, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * Creates a chart that uses the specified StatsValueRetriever to determine which values from the
+     * TimingStatistic object to display, and also allows the base chart URL to be overridden from the Google default.
+     *
+     * @param valueRetriever Determines which value (such as mean/min/max/etc) from the TimingStatistic to display on
+     *                       the chart
+     * @param baseUrl        A value to override for the default base URL of "http://chart.apis.google.com/chart?"
+     */
+    public CompressedHistoryChartGenerator(StatsValueRetriever valueRetriever, String baseUrl) {
+        super(valueRetriever, baseUrl);
+        setMaxDataPoints(DEFAULT_MAX_HISTORY_DATA_POINTS);
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the maximum number of points displayed per series. When more windows are graphed, consecutive windows are
+     * averaged into a single point.
+     *
+     * @return The maximum number of displayed points.
+     */
+    public int getMaxDisplayedPoints() {
+        return maxDisplayedPoints;
+    }
+
+    /**
+     * Sets the maximum number of points displayed per series.
+     *
+     * @param maxDisplayedPoints The maximum number of displayed points, which must be positive.
+     */
+    public void setMaxDisplayedPoints(int maxDisplayedPoints) {
+        if (maxDisplayedPoints <= 0) {
+            throw new IllegalArgumentException("maxDisplayedPoints must be positive, was " + maxDisplayedPoints);
+        }
+        this.maxDisplayedPoints = maxDisplayedPoints;
+    }
+
+    // --- Data methods ---
+
+    /**
+     * Gets the most recently appended data windows. Note that at most
+     * {@link StatisticsChartGenerator#DEFAULT_MAX_DATA_POINTS} windows are returned, even though many more may be
+     * graphed.
+     *
+     * @return The most recently appended data windows.
+     */
+    public synchronized List<GroupedTimingStatistics> getData() {
+        return Collections.unmodifiableList(new ArrayList<GroupedTimingStatistics>(recentData));
+    }
+
+    public synchronized void appendData(GroupedTimingStatistics statistics) {
+        long windowStartTime = statistics.getStartTime();
+        long windowLength = statistics.getWindowLength();
+
+        appendPoint(windowChunks, windowStartTime, windowLength);
+        numWindows++;
+
+        Set<String> enabledTags = getEnabledTags();
+        for (Map.Entry<String, TimingStatistics> tagWithData : statistics.getStatisticsByTag().entrySet()) {
+            String tag = tagWithData.getKey();
+            if (enabledTags == null || enabledTags.contains(tag)) {
+                LinkedList<CompressedTimeSeries> chunks = chunksByTag.get(tag);
+                if (chunks == null) {
+                    chunksByTag.put(tag, chunks = new LinkedList<CompressedTimeSeries>());
+                }
+                Number value = getValueRetriever().getStatsValue(tagWithData.getValue(), windowLength);
+                appendPoint(chunks, windowStartTime, value.doubleValue());
+            }
+        }
+
+        if (recentData.size() >= DEFAULT_MAX_DATA_POINTS) {
+            recentData.removeFirst();
+        }
+        recentData.add(statistics);
+
+        evictOldChunks();
+    }
+
+    /**
+     * Gets the number of bytes used by the compressed data points currently stored.
+     *
+     * @return The total size of the compressed data.
+     */
+    public synchronized int getCompressedSize() {
+        int retVal = 0;
+        for (CompressedTimeSeries chunk : windowChunks) {
+            retVal += chunk.getCompressedSize();
+        }
+        for (List<CompressedTimeSeries> chunks : chunksByTag.values()) {
+            for (CompressedTimeSeries chunk : chunks) {
+                retVal += chunk.getCompressedSize();
+            }
+        }
+        return retVal;
+    }
+
+    // --- helper methods ---
+
+    @SuppressWarnings("unchecked")
+    protected String generateGoogleChartParams() {
+        List<Long> windowStartTimes = new ArrayList<Long>(numWindows);
+        List<Double> windowLengths = new ArrayList<Double>(numWindows);
+        for (CompressedTimeSeries chunk : windowChunks) {
+            chunk.decode(windowStartTimes, windowLengths);
+        }
+        //only the last maxDataPoints windows are displayed
+        if (windowStartTimes.size() > getMaxDataPoints()) {
+            windowStartTimes = windowStartTimes.subList(windowStartTimes.size() - getMaxDataPoints(),
+                                                        windowStartTimes.size());
+        }
+        long earliestDisplayedTime = windowStartTimes.isEmpty() ? Long.MIN_VALUE : windowStartTimes.get(0);
+
+        //downsample to the display budget, each point standing for the group of windows starting at its time
+        int windowsPerPoint = (windowStartTimes.size() + maxDisplayedPoints - 1) / maxDisplayedPoints;
+        if (windowsPerPoint > 1) {
+            List<Long> pointStartTimes = new ArrayList<Long>(maxDisplayedPoints);
+            for (int i = 0; i < windowStartTimes.size(); i += windowsPerPoint) {
+                pointStartTimes.add(windowStartTimes.get(i));
+            }
+            windowStartTimes = pointStartTimes;
+        }
+
+        Map<String, List<Number>[]> tagsToXDataAndYData = new TreeMap<String, List<Number>[]>();
+        for (Map.Entry<String, LinkedList<CompressedTimeSeries>> tagWithChunks : chunksByTag.entrySet()) {
+            List<Long> timestamps = new ArrayList<Long>();
+            List<Double> values = new ArrayList<Double>();
+            for (CompressedTimeSeries chunk : tagWithChunks.getValue()) {
+                chunk.decode(timestamps, values);
+            }
+
+            List<Number> xData = new ArrayList<Number>(Math.min(timestamps.size(), maxDisplayedPoints));
+            List<Number> yData = new ArrayList<Number>(Math.min(values.size(), maxDisplayedPoints));
+            if (windowsPerPoint > 1) {
+                averagePoints(timestamps, values, earliestDisplayedTime, windowStartTimes, xData, yData);
+            } else {
+                for (int i = 0; i < timestamps.size(); i++) {
+                    if (timestamps.get(i) >= earliestDisplayedTime) {
+                        xData.add(timestamps.get(i));
+                        yData.add(values.get(i));
+                    }
+                }
+            }
+            if (!xData.isEmpty()) {
+                tagsToXDataAndYData.put(tagWithChunks.getKey(), (List<Number>[]) new List<?>[]{xData, yData});
+            }
+        }
+
+        return generateGoogleChartParams(windowStartTimes, tagsToXDataAndYData);
+    }
+
+    /**
+     * Averages the displayed points of a series into one point per group of windows.
+     *
+     * @param timestamps            The timestamps of the stored points of the series.
+     * @param values                The values of the stored points of the series.
+     * @param earliestDisplayedTime Points before this time are not displayed.
+     * @param pointStartTimes       The start time of the first window of each group, in order.
+     * @param xData                 Receives the start time of each group that has points.
+     * @param yData                 Receives the mean value of the points of each group that has points.
+     */
+    private static void averagePoints(List<Long> timestamps,
+                                      List<Double> values,
+                                      long earliestDisplayedTime,
+                                      List<Long> pointStartTimes,
+                                      List<Number> xData,
+                                      List<Number> yData) {
+        double[] sums = new double[pointStartTimes.size()];
+        int[] counts = new int[pointStartTimes.size()];
+        for (int i = 0; i < timestamps.size(); i++) {
+            long timestamp = timestamps.get(i);
+            if (timestamp >= earliestDisplayedTime) {
+                int point = Collections.binarySearch(pointStartTimes, timestamp);
+                if (point < 0) {
+                    //not the start of a group, so it belongs to the group starting before it
+                    point = -point - 2;
+                }
+                sums[point] += values.get(i);
+                counts[point]++;
+            }
+        }
+        for (int point = 0; point < counts.length; point++) {
+            if (counts[point] > 0) {
+                xData.add(pointStartTimes.get(point));
+                yData.add(sums[point] / counts[point]);
+            }
+        }
+    }
+
+    /**
+     * Appends a point to the last chunk in the list, starting a new chunk if the last one is full or if the point
+     * is out of time order.
+     */
+    private void appendPoint(LinkedList<CompressedTimeSeries> chunks, long timestamp, double value) {
+        CompressedTimeSeries lastChunk = chunks.isEmpty() ? null : chunks.getLast();
+        if (lastChunk == null || lastChunk.size() >= POINTS_PER_CHUNK || timestamp < lastChunk.getLastTimestamp()) {
+            chunks.add(lastChunk = new CompressedTimeSeries());
+        }
+        lastChunk.append(timestamp, value);
+    }
+
+    /**
+     * Removes chunks that only contain data points that can no longer be displayed.
+     */
+    private void evictOldChunks() {
+        boolean evicted = false;
+        while (numWindows - windowChunks.getFirst().size() >= getMaxDataPoints()) {
+            numWindows -= windowChunks.removeFirst().size();
+            evicted = true;
+        }
+
+        if (evicted) {
+            long earliestStoredTime = windowChunks.getFirst().getFirstTimestamp();
+            for (Iterator<LinkedList<CompressedTimeSeries>> iter = chunksByTag.values().iterator(); iter.hasNext();) {
+                LinkedList<CompressedTimeSeries> chunks = iter.next();
+                while (!chunks.isEmpty() && chunks.getFirst().getLastTimestamp() < earliestStoredTime) {
+                    chunks.removeFirst();
+                }
+                if (chunks.isEmpty()) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+}
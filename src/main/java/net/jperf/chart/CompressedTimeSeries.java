@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.chart;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A CompressedTimeSeries stores a series of (timestamp, value) points in a compact bit stream, using the compression
+ * scheme described in the Facebook "Gorilla" paper: timestamps are stored as the difference between consecutive
+ * deltas (which is zero for regularly spaced points, so those timestamps take a single bit), and each value is stored
+ * as the XOR with the previous value, of which only the meaningful bits are written (so unchanged values take a
+ * single bit, and slowly changing values typically take a few bytes). Compression is lossless.
+ * <p>
+ * Points can only be appended, in order of non-decreasing timestamp, and are read back by decoding the whole series.
+ * Instances of this class are NOT thread safe.
+ */
+public class CompressedTimeSeries {
+    private byte[] bits = new byte[16];
+    private int bitLength = 0;
+    private int size = 0;
+
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeadingZeros = Integer.MAX_VALUE;
+    private int lastTrailingZeros = 0;
+
+    /**
+     * Appends a point to the series.
+     *
+     * @param timestamp The timestamp of the point, which must not be less than the timestamp of the last point.
+     * @param value     The value of the point.
+     */
+    public void append(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (size == 0) {
+            writeBits(timestamp, 64);
+            writeBits(valueBits, 64);
+            firstTimestamp = timestamp;
+        } else {
+            if (timestamp < lastTimestamp) {
+                throw new IllegalArgumentException("Points must be appended in time order");
+            }
+            long delta = timestamp - lastTimestamp;
+            writeTimestampDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeValueXor(valueBits ^ lastValueBits);
+        }
+        lastTimestamp = timestamp;
+        lastValueBits = valueBits;
+        size++;
+    }
+
+    /**
+     * Decodes all of the points in the series.
+     *
+     * @param timestamps The list to which the timestamps of the points are added, in order.
+     * @param values     The list to which the values of the points are added, in order.
+     */
+    public void decode(List<Long> timestamps, List<Double> values) {
+        if (size == 0) {
+            return;
+        }
+        BitReader reader = new BitReader();
+        long timestamp = reader.read(64);
+        long valueBits = reader.read(64);
+        timestamps.add(timestamp);
+        values.add(Double.longBitsToDouble(valueBits));
+
+        long delta = 0L;
+        int leadingZeros = 0;
+        int trailingZeros = 0;
+        for (int i = 1; i < size; i++) {
+            delta += readTimestampDeltaOfDelta(reader);
+            timestamp += delta;
+
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    leadingZeros = (int) reader.read(5);
+                    int meaningfulBits = (int) reader.read(6) + 1;
+                    trailingZeros = 64 - leadingZeros - meaningfulBits;
+                }
+                int meaningfulBits = 64 - leadingZeros - trailingZeros;
+                valueBits ^= reader.read(meaningfulBits) << trailingZeros;
+            }
+
+            timestamps.add(timestamp);
+            values.add(Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the number of points in the series.
+     *
+     * @return The number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the timestamp of the first point in the series. Only valid if the series is not empty.
+     *
+     * @return The first timestamp.
+     */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * Gets the timestamp of the last point in the series. Only valid if the series is not empty.
+     *
+     * @return The last timestamp.
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Gets the number of bytes used to store the points of this series.
+     *
+     * @return The number of bytes of compressed data.
+     */
+    public int getCompressedSize() {
+        return (bitLength + 7) / 8;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Writes a delta of delta in two's complement, in the smallest of the 7, 9 or 12 bit ranges it fits in.
+     */
+    private void writeTimestampDeltaOfDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0L) {
+            writeBits(0L, 1);
+        } else if (deltaOfDelta >= -64L && deltaOfDelta <= 63L) {
+            writeBits(0x2L, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256L && deltaOfDelta <= 255L) {
+            writeBits(0x6L, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048L && deltaOfDelta <= 2047L) {
+            writeBits(0xEL, 4);
+            writeBits(deltaOfDelta, 12);
+        } else {
+            writeBits(0xFL, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private long readTimestampDeltaOfDelta(BitReader reader) {
+        if (reader.read(1) == 0L) {
+            return 0L;
+        }
+        if (reader.read(1) == 0L) {
+            return signExtend(reader.read(7), 7);
+        }
+        if (reader.read(1) == 0L) {
+            return signExtend(reader.read(9), 9);
+        }
+        if (reader.read(1) == 0L) {
+            return signExtend(reader.read(12), 12);
+        }
+        return reader.read(64);
+    }
+
+    private void writeValueXor(long xor) {
+        if (xor == 0L) {
+            writeBits(0L, 1);
+            return;
+        }
+        writeBits(1L, 1);
+
+        //the leading zero count is stored in 5 bits, so it is capped at 31
+        int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailingZeros = Long.numberOfTrailingZeros(xor);
+        if (lastLeadingZeros != Integer.MAX_VALUE && leadingZeros >= lastLeadingZeros
+            && trailingZeros >= lastTrailingZeros) {
+            //the meaningful bits fit in the same window as the previous value
+            writeBits(0L, 1);
+            int meaningfulBits = 64 - lastLeadingZeros - lastTrailingZeros;
+            writeBits(xor >>> lastTrailingZeros, meaningfulBits);
+        } else {
+            int meaningfulBits = 64 - leadingZeros - trailingZeros;
+            writeBits(1L, 1);
+            writeBits(leadingZeros, 5);
+            writeBits(meaningfulBits - 1, 6);
+            writeBits(xor >>> trailingZeros, meaningfulBits);
+            lastLeadingZeros = leadingZeros;
+            lastTrailingZeros = trailingZeros;
+        }
+    }
+
+    /**
+     * Writes the lowest numBits bits of value, most significant bit first.
+     */
+    private void writeBits(long value, int numBits) {
+        int requiredBytes = (bitLength + numBits + 7) / 8;
+        if (requiredBytes > bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(requiredBytes, bits.length * 3 / 2));
+        }
+        for (int i = numBits - 1; i >= 0; i--) {
+            if (((value >>> i) & 1L) != 0L) {
+                bits[bitLength >>> 3] |= (byte) (0x80 >>> (bitLength & 7));
+            }
+            bitLength++;
+        }
+    }
+
+    private static long signExtend(long value, int numBits) {
+        return (value << (64 - numBits)) >> (64 - numBits);
+    }
+
+    /**
+     * Reads bits back from the stream in the order they were written.
+     */
+    private class BitReader {
+        private int position = 0;
+
+        long read(int numBits) {
+            long retVal = 0L;
+            for (int i = 0; i < numBits; i++) {
+                retVal = (retVal << 1) | ((bits[position >>> 3] >>> (7 - (position & 7))) & 1);
+                position++;
+            }
+            return retVal;
+        }
+    }
+}
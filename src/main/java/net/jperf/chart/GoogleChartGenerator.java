@@ -113,6 +113,15 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
 
     // --- Bean properties ---
 
+    /**
+     * Gets the StatsValueRetriever that determines which value from each TimingStatistics is displayed.
+     *
+     * @return The value retriever, for example the mean value retriever.
+     */
+    public StatsValueRetriever getValueRetriever() {
+        return valueRetriever;
+    }
+
     /**
      * Gets the width of the chart that will be displayed
      *
@@ -238,9 +247,7 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
      */
     @SuppressWarnings("unchecked")
     protected String generateGoogleChartParams() {
-        long minTimeValue = Long.MAX_VALUE;
-        long maxTimeValue = Long.MIN_VALUE;
-        double maxDataValue = Double.MIN_VALUE;
+        List<Long> windowStartTimes = new ArrayList<Long>(data.size());
         //this map stores all the data series. The key is the tag name (each tag represents a single series) and the
         //value contains two lists of numbers - the first list contains the X values for each point (which is time in
         //milliseconds) and the second list contains the y values, which are the data values pulled from dataWindows.
@@ -250,9 +257,7 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
             Map<String, TimingStatistics> statsByTag = groupedTimingStatistics.getStatisticsByTag();
             long windowStartTime = groupedTimingStatistics.getStartTime();
             long windowLength = groupedTimingStatistics.getWindowLength();
-            //keep track of the min/max time value, this is needed for scaling the chart parameters
-            minTimeValue = Math.min(minTimeValue, windowStartTime);
-            maxTimeValue = Math.max(maxTimeValue, windowStartTime);
+            windowStartTimes.add(windowStartTime);
 
             for (Map.Entry<String, TimingStatistics> tagWithData : statsByTag.entrySet()) {
                 String tag = tagWithData.getKey();
@@ -268,13 +273,39 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
                     Number yValue = this.valueRetriever.getStatsValue(tagWithData.getValue(), windowLength);
                     xAndYData[0].add(windowStartTime);
                     xAndYData[1].add(yValue);
-
-                    //update the max data value, which is needed for scaling
-                    maxDataValue = Math.max(maxDataValue, yValue.doubleValue());
                 }
             }
         }
 
+        return generateGoogleChartParams(windowStartTimes, tagsToXDataAndYData);
+    }
+
+    /**
+     * Helper method converts data series that have already been extracted from the data windows to a String
+     * suitable for appending to a Google Chart URL.
+     *
+     * @param windowStartTimes    The start times of all of the data windows, in order.
+     * @param tagsToXDataAndYData Maps each tag to be displayed to two lists - the first list contains the X values
+     *                            (window start times) for each point in the series, and the second list contains the
+     *                            corresponding Y values.
+     * @return the chart parameters that encode all of the data necessary to display the chart.
+     */
+    protected String generateGoogleChartParams(List<Long> windowStartTimes,
+                                               Map<String, List<Number>[]> tagsToXDataAndYData) {
+        //keep track of the min/max time and max data value, this is needed for scaling the chart parameters
+        long minTimeValue = Long.MAX_VALUE;
+        long maxTimeValue = Long.MIN_VALUE;
+        double maxDataValue = Double.MIN_VALUE;
+        for (Long windowStartTime : windowStartTimes) {
+            minTimeValue = Math.min(minTimeValue, windowStartTime);
+            maxTimeValue = Math.max(maxTimeValue, windowStartTime);
+        }
+        for (List<Number>[] xAndYData : tagsToXDataAndYData.values()) {
+            for (Number yValue : xAndYData[1]) {
+                maxDataValue = Math.max(maxDataValue, yValue.doubleValue());
+            }
+        }
+
         //if it's empty, there's nothing to display
         if (tagsToXDataAndYData.isEmpty()) {
             return "";
@@ -290,13 +321,12 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
 
         //for the x-axis (time) labels, ideally we want one label for each data window, but support a maximum of 10
         //labels so the chart doesn't get too crowded
-        int stepSize = this.data.size() / 10 + 1;
+        int stepSize = windowStartTimes.size() / 10 + 1;
         StringBuilder timeAxisLabels = new StringBuilder("&chxl=0:");
         StringBuilder timeAxisLabelPositions = new StringBuilder("&chxp=0");
 
-        for (Iterator<GroupedTimingStatistics> iter = data.iterator(); iter.hasNext();) {
-            GroupedTimingStatistics groupedTimingStatistics = iter.next();
-            long windowStartTime = groupedTimingStatistics.getStartTime();
+        for (Iterator<Long> iter = windowStartTimes.iterator(); iter.hasNext();) {
+            long windowStartTime = iter.next();
             String label = dateFormat.format(new Date(windowStartTime));
             double position = 100.0 * (windowStartTime - minTimeValue) / (maxTimeValue - minTimeValue);
             timeAxisLabels.append("|").append(label);
@@ -313,7 +343,7 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
         timeAxisLabelPositions.append("|1,50");
 
         //display the gridlines
-        double xAxisGridlineStepSize = this.data.size() > 2 ? 100.0 / (this.data.size() - 1) : 50.0;
+        double xAxisGridlineStepSize = windowStartTimes.size() > 2 ? 100.0 / (windowStartTimes.size() - 1) : 50.0;
         String gridlinesParam = "&chg=" + decimalFormat.format(xAxisGridlineStepSize) + ",10";
 
         //at this point we should be able to normalize the data to 0 - 100 as required by the google chart API
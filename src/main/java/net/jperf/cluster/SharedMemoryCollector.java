@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler;
+import net.jperf.helpers.GroupingStatisticsIterator;
+import net.jperf.helpers.StatisticsFormatter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The SharedMemoryCollector is the single, per host process that creates GroupedTimingStatistics for all the JVMs
+ * on the host. Each JVM writes its StopWatches to a {@link SharedMemoryRingFile} with a
+ * {@link SharedMemoryStopWatchWriter} (normally through an appender like the
+ * {@link net.jperf.log4j.SharedMemoryStopWatchAppender}), and the collector drains all of them with a
+ * {@link SharedMemoryStopWatchReader}, groups them into time slices, and passes the resulting host wide statistics to
+ * a {@link GroupedTimingStatisticsHandler}. The JVMs then need no aggregation threads or downstream appenders of
+ * their own.
+ * <p>
+ * The collector can be run as a standalone process with the {@link #main} method, which either prints the statistics
+ * like the {@link net.jperf.LogParser}, or forwards them to a {@link StatisticsAggregator} to be merged with the
+ * statistics of other hosts.
+ */
+public class SharedMemoryCollector implements Closeable {
+    private File file;
+    private long timeSlice;
+    private boolean createRollupStatistics;
+    private GroupedTimingStatisticsHandler handler;
+
+    private SharedMemoryStopWatchReader reader;
+    private Thread drainingThread;
+
+    /**
+     * Creates a new SharedMemoryCollector. The ring file isn't read until {@link #start} is called.
+     *
+     * @param file                   The ring file the JVMs on this host write to.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether rollup statistics should be created, see
+     *                               {@link GroupedTimingStatistics#isCreateRollupStatistics()}.
+     * @param handler                The handler called with the statistics for each time slice.
+     */
+    public SharedMemoryCollector(File file,
+                                 long timeSlice,
+                                 boolean createRollupStatistics,
+                                 GroupedTimingStatisticsHandler handler) {
+        this.file = file;
+        this.timeSlice = timeSlice;
+        this.createRollupStatistics = createRollupStatistics;
+        this.handler = handler;
+    }
+
+    // --- Main ---
+
+    public static void main(String[] args) {
+        System.exit(runMain(args));
+    }
+
+    public static int runMain(String[] args) {
+        List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+        if (argsList.isEmpty() || argsList.contains("-h") || argsList.contains("--help")) {
+            System.out.println("Usage: SharedMemoryCollector [-t|--timeslice timeslice] " +
+                               "[-r] " +
+                               "[-f|--format text|csv|json] " +
+                               "[-o|--out|--output outputFile] " +
+                               "[--forward host:port] " +
+                               "ringFile");
+            System.out.println("Arguments:");
+            System.out.println("  ringFile - The shared memory file the JVMs on this host write StopWatches to.");
+            System.out.println("  -t|--timeslice timeslice - The length of time (in ms) of each timeslice for which" +
+                               " statistics should be generated. Defaults to 30000 ms.");
+            System.out.println("  -r - Whether or not statistics rollups should be generated." +
+                               " If not specified, rollups are not generated.");
+            System.out.println("  -f|--format text|csv|json - The format for the statistics output." +
+                               " Defaults to text.");
+            System.out.println("  -o|--out|--output outputFile - The file where statistics should be written." +
+                               " If not specified, statistics are written to stdout.");
+            System.out.println("  --forward host:port - Forward the statistics to a StatisticsAggregator instead of" +
+                               " writing them.");
+            return 0;
+        }
+
+        try {
+            long timeSlice = Long.parseLong(StatisticsAggregator.removeArg(argsList, "30000", "-t", "--timeslice"));
+            boolean rollupStatistics = argsList.remove("-r");
+            String format = StatisticsAggregator.removeArg(argsList, "text", "-f", "--format");
+            String outputFile = StatisticsAggregator.removeArg(argsList, null, "-o", "--out", "--output");
+            String forwardTo = StatisticsAggregator.removeArg(argsList, null, "--forward");
+            if (argsList.size() != 1) {
+                System.err.println("You must specify exactly one ring file, found: " + argsList);
+                return 1;
+            }
+            File ringFile = new File(argsList.get(0));
+
+            final StatisticsFormatter formatter = StatisticsAggregator.newStatisticsFormatter(format);
+            final PrintStream output = (outputFile == null) ? System.out
+                                                            : new PrintStream(new FileOutputStream(outputFile), true);
+            GroupedTimingStatisticsHandler handler;
+            if (forwardTo == null) {
+                output.print(formatter.header());
+                handler = StatisticsAggregator.newPrintingHandler(formatter, output);
+            } else {
+                int colon = forwardTo.lastIndexOf(':');
+                final StatisticsForwarder forwarder =
+                        new StatisticsForwarder(forwardTo.substring(0, colon),
+                                                Integer.parseInt(forwardTo.substring(colon + 1)));
+                handler = new GroupedTimingStatisticsHandler() {
+                    public void handle(GroupedTimingStatistics statistics) {
+                        try {
+                            forwarder.forward(statistics);
+                        } catch (IOException ioe) {
+                            error("Error forwarding statistics: " + ioe.getMessage());
+                        }
+                    }
+
+                    public void error(String errorMessage) {
+                        System.err.println(errorMessage);
+                    }
+                };
+            }
+
+            final SharedMemoryCollector collector = new SharedMemoryCollector(ringFile, timeSlice, rollupStatistics,
+                                                                              handler);
+            collector.start();
+            final boolean printFooter = (forwardTo == null);
+            Runtime.getRuntime().addShutdownHook(new Thread("jperf-shared-memory-collector-shutdown") {
+                public void run() {
+                    collector.close();
+                    if (printFooter) {
+                        output.print(formatter.footer());
+                        output.flush();
+                    }
+                }
+            });
+
+            collector.drainingThread.join();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+        return 0;
+    }
+
+    // --- Lifecycle Methods ---
+
+    /**
+     * Opens the ring file and starts the thread that drains it.
+     *
+     * @throws IOException Thrown if the ring file could not be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (reader != null) {
+            throw new IllegalStateException("SharedMemoryCollector has already been started");
+        }
+
+        reader = new SharedMemoryStopWatchReader(file, timeSlice);
+        drainingThread = new Thread(new Dispatcher(), "jperf-shared-memory-collector-" + file.getName());
+        drainingThread.setDaemon(true);
+        drainingThread.start();
+    }
+
+    /**
+     * Stops draining the ring file, and passes the statistics for the current time slice to the handler. StopWatches
+     * written after this point stay in the file until a collector is started again.
+     */
+    public void close() {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+            drainingThread.join(Math.max(1000L, timeSlice));
+        } catch (Exception e) {
+            handler.error("Unexpected error stopping SharedMemoryCollector: " + e.getMessage());
+        }
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * Groups the StopWatches read from the ring file and passes the statistics to the handler.
+     */
+    private class Dispatcher implements Runnable {
+        public void run() {
+            GroupingStatisticsIterator statsIterator =
+                    new GroupingStatisticsIterator(reader, timeSlice, createRollupStatistics);
+
+            while (statsIterator.hasNext()) {
+                try {
+                    handler.handle(statsIterator.next());
+                } catch (Exception e) {
+                    handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
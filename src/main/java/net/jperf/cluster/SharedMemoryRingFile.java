@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A memory mapped file that holds one StopWatch ring per producer process, shared by the
+ * {@link SharedMemoryStopWatchWriter}s of all the JVMs on a host and the single {@link SharedMemoryStopWatchReader}
+ * that drains them. The file has the following layout:
+ * <ul>
+ * <li>A {@link #HEADER_SIZE} byte header: the {@link #MAGIC} bytes, the int {@link #VERSION}, the int number of
+ *     slots and the int capacity of each slot's ring, in bytes.
+ * <li>The slots, each of which is a {@link #SLOT_HEADER_SIZE} byte slot header followed by the ring data. The slot
+ *     header holds the long write position at offset 0 and the long read position at offset
+ *     {@link #READ_POSITION_OFFSET}, on separate cache lines. Positions only ever increase; the offset of a position
+ *     in the ring is the position modulo the capacity.
+ * <li>Each record in a ring is the int length of the record body, then the body: the 8 byte start time and elapsed
+ *     time, the short length and UTF-8 bytes of the tag, and the short length (-1 for null) and UTF-8 bytes of the
+ *     message, followed for the StopWatches of sampled calls by the int weight. A length of {@link #PADDING} means
+ *     the rest of the ring up to its end is unused, and the next record starts at offset 0; so does the next record
+ *     if fewer than 4 bytes are left before the end.
+ * </ul>
+ * Each slot has exactly one writer and one reader, so the rings need no locks: the writer only writes the write
+ * position and the reader only writes the read position, each after the records they cover have been written or
+ * read. A writer owns its slot by holding an OS file lock on the slot header, which the OS releases if the process
+ * dies, so a restarted process can claim the slot again.
+ * <p>
+ * On some systems closing any channel to a file releases all of the process's locks on it, so ring files are opened
+ * with {@link #open}, which shares a single instance per file within the JVM. The channel is only closed when the
+ * last writer or reader using it closes it.
+ */
+public final class SharedMemoryRingFile implements Closeable {
+    /**
+     * The bytes that every shared memory ring file starts with.
+     */
+    public static final byte[] MAGIC = {'J', 'P', 'S', 'M'};
+    /**
+     * The version of the layout written by this release.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The size of the file header, in bytes.
+     */
+    public static final int HEADER_SIZE = 64;
+    /**
+     * The size of each slot header, in bytes.
+     */
+    public static final int SLOT_HEADER_SIZE = 128;
+    /**
+     * The offset of the read position in the slot header.
+     */
+    public static final int READ_POSITION_OFFSET = 64;
+    /**
+     * The record length that marks unused space at the end of a ring.
+     */
+    public static final int PADDING = -1;
+    /**
+     * The default number of slots, which is the maximum number of processes that can write to the file at once.
+     */
+    public static final int DEFAULT_NUM_SLOTS = 16;
+    /**
+     * The default capacity of each slot's ring, in bytes.
+     */
+    public static final int DEFAULT_SLOT_CAPACITY = 1024 * 1024;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Serializes the creation and header checks of ring files within this JVM, since file locks are held per process
+     * and overlapping locks from two threads throw an OverlappingFileLockException.
+     */
+    private static final Object OPEN_LOCK = new Object();
+    /**
+     * The ring files open in this JVM, by canonical file. Guarded by OPEN_LOCK.
+     */
+    private static final Map<File, SharedMemoryRingFile> OPEN_FILES = new HashMap<File, SharedMemoryRingFile>();
+
+    /**
+     * Volatile accesses to this field are used as memory fences around reads and writes of the positions. The mapped
+     * buffer has no ordered accessors in the Java versions this library supports, so this relies on the JVM not
+     * moving buffer accesses across volatile accesses, which holds for HotSpot.
+     */
+    private static volatile int fence;
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int numSlots;
+    private int slotCapacity;
+    private File canonicalFile;
+    /**
+     * The number of writers and readers using this instance. Guarded by OPEN_LOCK.
+     */
+    private int numUsers;
+
+    /**
+     * Opens a ring file, creating it with the specified geometry if it does not exist yet. If the file already
+     * exists, the geometry stored in its header is used instead. If the file is already open in this JVM, the open
+     * instance is returned, and it must be closed once more by the caller.
+     *
+     * @param file         The ring file, which should be on a memory backed file system such as /dev/shm for the
+     *                     best performance.
+     * @param numSlots     The number of slots to create the file with.
+     * @param slotCapacity The capacity of each slot's ring, in bytes, to create the file with.
+     * @return The open ring file.
+     * @throws IOException Thrown if the file could not be opened, or is not a ring file.
+     */
+    public static SharedMemoryRingFile open(File file, int numSlots, int slotCapacity) throws IOException {
+        if (numSlots <= 0 || slotCapacity < 64) {
+            throw new IllegalArgumentException("numSlots must be positive and slotCapacity must be at least 64");
+        }
+        File canonicalFile = file.getCanonicalFile();
+        synchronized (OPEN_LOCK) {
+            SharedMemoryRingFile retVal = OPEN_FILES.get(canonicalFile);
+            if (retVal == null) {
+                retVal = new SharedMemoryRingFile(file, canonicalFile, numSlots, slotCapacity);
+                OPEN_FILES.put(canonicalFile, retVal);
+            }
+            retVal.numUsers++;
+            return retVal;
+        }
+    }
+
+    private SharedMemoryRingFile(File file, File canonicalFile, int numSlots, int slotCapacity) throws IOException {
+        this.file = file;
+        this.canonicalFile = canonicalFile;
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            channel = randomAccessFile.getChannel();
+            synchronized (OPEN_LOCK) {
+                FileLock headerLock = channel.lock(0L, HEADER_SIZE, false);
+                try {
+                    if (channel.size() == 0L) {
+                        writeHeader(numSlots, slotCapacity);
+                    } else {
+                        readHeader();
+                    }
+                } finally {
+                    headerLock.release();
+                }
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, getFileSize(this.numSlots, this.slotCapacity));
+        } catch (IOException ioe) {
+            randomAccessFile.close();
+            throw ioe;
+        }
+    }
+
+    // --- attributes ---
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public int getSlotCapacity() {
+        return slotCapacity;
+    }
+
+    /**
+     * Releases this user's reference to the ring file, closing it if it was the last one.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     */
+    public void close() throws IOException {
+        //the channel is closed while holding the lock, so that it can't release the locks of a channel opened again
+        synchronized (OPEN_LOCK) {
+            if (numUsers == 0 || --numUsers > 0) {
+                return;
+            }
+            OPEN_FILES.remove(canonicalFile);
+            randomAccessFile.close();
+        }
+    }
+
+    // --- methods used by the writer and reader ---
+
+    /**
+     * Tries to take ownership of a slot for writing.
+     *
+     * @param slot The slot index.
+     * @return The lock that is held while the slot is owned, or null if another writer owns the slot.
+     * @throws IOException Thrown if the lock could not be requested.
+     */
+    FileLock tryClaimSlot(int slot) throws IOException {
+        try {
+            return channel.tryLock(getSlotOffset(slot), SLOT_HEADER_SIZE, false);
+        } catch (OverlappingFileLockException ofle) {
+            //another writer in this JVM owns the slot
+            return null;
+        }
+    }
+
+    MappedByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    int getSlotOffset(int slot) {
+        return HEADER_SIZE + slot * (SLOT_HEADER_SIZE + slotCapacity);
+    }
+
+    int getDataOffset(int slot) {
+        return getSlotOffset(slot) + SLOT_HEADER_SIZE;
+    }
+
+    long getWritePosition(int slot) {
+        long retVal = buffer.getLong(getSlotOffset(slot));
+        //acquire - the records up to the write position must not be read before the write position is
+        int ignored = fence;
+        return retVal;
+    }
+
+    void putWritePosition(int slot, long position) {
+        //release - the records must be visible before the new write position is
+        fence = 0;
+        buffer.putLong(getSlotOffset(slot), position);
+    }
+
+    long getReadPosition(int slot) {
+        long retVal = buffer.getLong(getSlotOffset(slot) + READ_POSITION_OFFSET);
+        int ignored = fence;
+        return retVal;
+    }
+
+    void putReadPosition(int slot, long position) {
+        //release - the records must have been read before the writer can see their space as free
+        fence = 0;
+        buffer.putLong(getSlotOffset(slot) + READ_POSITION_OFFSET, position);
+    }
+
+    // --- helper methods ---
+
+    private static long getFileSize(int numSlots, int slotCapacity) {
+        return HEADER_SIZE + (long) numSlots * (SLOT_HEADER_SIZE + slotCapacity);
+    }
+
+    private void writeHeader(int numSlots, int slotCapacity) throws IOException {
+        if (getFileSize(numSlots, slotCapacity) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Shared memory ring files must be smaller than 2GB");
+        }
+        randomAccessFile.setLength(getFileSize(numSlots, slotCapacity));
+        randomAccessFile.seek(0L);
+        randomAccessFile.write(MAGIC);
+        randomAccessFile.writeInt(VERSION);
+        randomAccessFile.writeInt(numSlots);
+        randomAccessFile.writeInt(slotCapacity);
+        this.numSlots = numSlots;
+        this.slotCapacity = slotCapacity;
+    }
+
+    private void readHeader() throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        randomAccessFile.seek(0L);
+        randomAccessFile.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException(file + " is not a shared memory StopWatch ring file");
+        }
+        int version = randomAccessFile.readInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+        numSlots = randomAccessFile.readInt();
+        slotCapacity = randomAccessFile.readInt();
+        if (numSlots <= 0 || slotCapacity <= 0 || channel.size() < getFileSize(numSlots, slotCapacity)) {
+            throw new IOException(file + " has a corrupt header");
+        }
+    }
+}
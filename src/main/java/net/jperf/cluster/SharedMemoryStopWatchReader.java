@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Drains the StopWatches written to every slot of a {@link SharedMemoryRingFile} by
+ * {@link SharedMemoryStopWatchWriter}s. Only one reader may drain a ring file at a time.
+ * <p>
+ * This Iterator behaves like the queue iterator used by the AsyncCoalescingStatisticsAppenders, so it can be wrapped
+ * in a {@link net.jperf.helpers.GroupingStatisticsIterator}: when no StopWatch has been written, <tt>hasNext</tt>
+ * blocks, polling the rings, and once every PollTimeout without StopWatches <tt>next</tt> returns null to let the
+ * grouping iterator close the current time slice. The iterator ends when the reader is closed.
+ */
+public class SharedMemoryStopWatchReader implements Iterator<StopWatch>, Closeable {
+    private SharedMemoryRingFile ring;
+    /**
+     * This reader's view of the mapped file.
+     */
+    private ByteBuffer data;
+    /**
+     * The read position of each slot - only this reader writes them.
+     */
+    private long[] readPositions;
+    /**
+     * The slot to read from next, so that all slots are read from fairly.
+     */
+    private int nextSlot = 0;
+    /**
+     * How long, in milliseconds, to wait without StopWatches before next returns null.
+     */
+    private long pollTimeout;
+    /**
+     * How long, in milliseconds, to sleep when all the rings are empty.
+     */
+    private long pollInterval = 10L;
+    private StopWatch nextStopWatch;
+    private boolean timeSliceOver;
+    private long lastStopWatchOrTimeoutTime = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the ring file, creating it with the default geometry if it doesn't exist.
+     *
+     * @param file        The ring file.
+     * @param pollTimeout How long, in milliseconds, to wait without StopWatches before next returns null. This is
+     *                    normally the time slice of the GroupingStatisticsIterator wrapping this reader.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public SharedMemoryStopWatchReader(File file, long pollTimeout) throws IOException {
+        this(file, pollTimeout, SharedMemoryRingFile.DEFAULT_NUM_SLOTS, SharedMemoryRingFile.DEFAULT_SLOT_CAPACITY);
+    }
+
+    /**
+     * Opens the ring file, creating it with the specified geometry if it doesn't exist.
+     *
+     * @param file         The ring file.
+     * @param pollTimeout  How long, in milliseconds, to wait without StopWatches before next returns null.
+     * @param numSlots     The number of slots to create the file with.
+     * @param slotCapacity The capacity of each slot's ring, in bytes, to create the file with.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public SharedMemoryStopWatchReader(File file, long pollTimeout, int numSlots, int slotCapacity)
+            throws IOException {
+        this.pollTimeout = pollTimeout;
+        ring = SharedMemoryRingFile.open(file, numSlots, slotCapacity);
+        data = ring.getBuffer().duplicate();
+        readPositions = new long[ring.getNumSlots()];
+        for (int slot = 0; slot < readPositions.length; slot++) {
+            readPositions[slot] = ring.getReadPosition(slot);
+        }
+    }
+
+    // --- options ---
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Sets how long, in milliseconds, to sleep between polls when all the rings are empty. Defaults to 10 ms.
+     *
+     * @param pollInterval The poll interval in milliseconds.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    // --- iterator methods ---
+
+    public boolean hasNext() {
+        if (nextStopWatch == null && !timeSliceOver) {
+            nextStopWatch = getNext();
+        }
+        return timeSliceOver || nextStopWatch != null;
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (timeSliceOver) {
+            timeSliceOver = false;
+            return null;
+        }
+
+        StopWatch retVal = nextStopWatch;
+        nextStopWatch = null;
+        return retVal;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads the next StopWatch from any of the rings without blocking.
+     *
+     * @return The next StopWatch, or null if all the rings are empty.
+     */
+    public StopWatch poll() {
+        for (int i = 0; i < readPositions.length; i++) {
+            int slot = nextSlot;
+            nextSlot = (nextSlot + 1) % readPositions.length;
+            StopWatch retVal = readFromSlot(slot);
+            if (retVal != null) {
+                return retVal;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the ring file. If another thread is blocked in hasNext it returns once it next polls the rings.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        ring.close();
+    }
+
+    // --- helper methods ---
+
+    private StopWatch getNext() {
+        while (!closed) {
+            StopWatch retVal = poll();
+            long now = System.currentTimeMillis();
+            if (retVal != null) {
+                lastStopWatchOrTimeoutTime = now;
+                return retVal;
+            }
+
+            if (now - lastStopWatchOrTimeoutTime >= pollTimeout) {
+                lastStopWatchOrTimeoutTime = now;
+                timeSliceOver = true;
+                return null;
+            }
+
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException ie) {
+                //someone interrupted us, we're done
+                closed = true;
+            }
+        }
+        return null;
+    }
+
+    private StopWatch readFromSlot(int slot) {
+        int capacity = ring.getSlotCapacity();
+        int dataOffset = ring.getDataOffset(slot);
+        long writePosition = ring.getWritePosition(slot);
+        long readPosition = readPositions[slot];
+        if (writePosition < readPosition || writePosition - readPosition > capacity) {
+            //the file was recreated or corrupted, so skip whatever is there
+            readPosition = writePosition;
+        }
+
+        StopWatch retVal = null;
+        while (retVal == null && readPosition < writePosition) {
+            int offset = (int) (readPosition % capacity);
+            int bodyLength = (capacity - offset < 4) ? SharedMemoryRingFile.PADDING : data.getInt(dataOffset + offset);
+            if (bodyLength == SharedMemoryRingFile.PADDING) {
+                readPosition += capacity - offset;
+            } else if (bodyLength < 20 || offset + 4 + bodyLength > capacity) {
+                readPosition = writePosition;
+            } else {
+                int bodyStart = dataOffset + offset + 4;
+                data.position(bodyStart);
+                long startTime = data.getLong();
+                long elapsedTime = data.getLong();
+                String tag = getString(data.getShort());
+                String message = getString(data.getShort());
+                retVal = new StopWatch(startTime, elapsedTime, tag, message);
+                if (data.position() - bodyStart + 4 <= bodyLength) {
+                    //only sampled StopWatches have a weight
+                    retVal.setWeight(data.getInt());
+                }
+                readPosition += 4 + bodyLength;
+            }
+        }
+
+        if (readPosition != readPositions[slot]) {
+            readPositions[slot] = readPosition;
+            ring.putReadPosition(slot, readPosition);
+        }
+        return retVal;
+    }
+
+    private String getString(short length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        return new String(bytes, SharedMemoryRingFile.UTF_8);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+
+/**
+ * Writes StopWatches into this process's slot of a {@link SharedMemoryRingFile}, from where a
+ * {@link SharedMemoryCollector} running in another process drains them. Writing a StopWatch is just a copy into
+ * memory shared with the collector - there is no queue, thread or system call in the logging process, and the
+ * collector creates the GroupedTimingStatistics for every process on the host.
+ * <p>
+ * If the collector falls behind and the slot's ring is full, StopWatches are discarded rather than blocking the
+ * application; the number of discarded StopWatches is available from {@link #getNumDiscardedStopWatches()}.
+ * Instances are thread safe. Several writers in the same JVM, such as a log4j and a logback appender, can write to
+ * the same ring file, each in its own slot: they share the file's channel, so that closing one of them doesn't
+ * release the slot locks of the others.
+ */
+public class SharedMemoryStopWatchWriter implements Closeable {
+    private SharedMemoryRingFile ring;
+    /**
+     * The slot owned by this writer.
+     */
+    private int slot;
+    /**
+     * The OS lock that marks the slot as owned.
+     */
+    private FileLock slotLock;
+    /**
+     * This writer's view of the mapped file, so its position can be changed without affecting other users.
+     */
+    private ByteBuffer data;
+    /**
+     * The next write position - only this writer writes it, so it doesn't need to be read back from the file.
+     */
+    private long writePosition;
+    private int numDiscardedStopWatches = 0;
+
+    /**
+     * Opens the ring file, creating it with the default geometry if it doesn't exist, and claims a free slot.
+     *
+     * @param file The ring file.
+     * @throws IOException Thrown if the file could not be opened or all its slots are in use.
+     */
+    public SharedMemoryStopWatchWriter(File file) throws IOException {
+        this(file, SharedMemoryRingFile.DEFAULT_NUM_SLOTS, SharedMemoryRingFile.DEFAULT_SLOT_CAPACITY);
+    }
+
+    /**
+     * Opens the ring file, creating it with the specified geometry if it doesn't exist, and claims a free slot.
+     *
+     * @param file         The ring file.
+     * @param numSlots     The number of slots to create the file with.
+     * @param slotCapacity The capacity of each slot's ring, in bytes, to create the file with.
+     * @throws IOException Thrown if the file could not be opened or all its slots are in use.
+     */
+    public SharedMemoryStopWatchWriter(File file, int numSlots, int slotCapacity) throws IOException {
+        ring = SharedMemoryRingFile.open(file, numSlots, slotCapacity);
+        try {
+            for (slot = 0; slot < ring.getNumSlots(); slot++) {
+                slotLock = ring.tryClaimSlot(slot);
+                if (slotLock != null) {
+                    break;
+                }
+            }
+            if (slotLock == null) {
+                throw new IOException("All " + ring.getNumSlots() + " slots of " + file + " are in use");
+            }
+        } catch (IOException ioe) {
+            ring.close();
+            throw ioe;
+        }
+
+        data = ring.getBuffer().duplicate();
+        //a previous owner of the slot may have left StopWatches the collector hasn't read yet, so continue after them
+        writePosition = ring.getWritePosition(slot);
+    }
+
+    // --- attributes ---
+
+    /**
+     * Gets the index of the slot claimed by this writer.
+     *
+     * @return The slot index.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Gets the number of StopWatches that were discarded because the ring was full, or because they were too large to
+     * fit in it.
+     *
+     * @return The number of discarded StopWatches.
+     */
+    public synchronized int getNumDiscardedStopWatches() {
+        return numDiscardedStopWatches;
+    }
+
+    // --- writing methods ---
+
+    /**
+     * Writes a StopWatch to the ring.
+     *
+     * @param stopWatch The StopWatch to write.
+     * @return true if the StopWatch was written, false if it was discarded or this writer is closed.
+     */
+    public synchronized boolean write(StopWatch stopWatch) {
+        if (slotLock == null) {
+            return false;
+        }
+
+        byte[] tagBytes = stopWatch.getTag().getBytes(SharedMemoryRingFile.UTF_8);
+        byte[] messageBytes =
+                (stopWatch.getMessage() == null) ? null : stopWatch.getMessage().getBytes(SharedMemoryRingFile.UTF_8);
+        int messageLength = (messageBytes == null) ? 0 : messageBytes.length;
+        int weight = stopWatch.getWeight();
+        int bodyLength = 8 + 8 + 2 + tagBytes.length + 2 + messageLength + ((weight == 1) ? 0 : 4);
+        int recordLength = 4 + bodyLength;
+
+        int capacity = ring.getSlotCapacity();
+        if (recordLength > capacity || tagBytes.length > Short.MAX_VALUE || messageLength > Short.MAX_VALUE) {
+            numDiscardedStopWatches++;
+            return false;
+        }
+
+        int offset = (int) (writePosition % capacity);
+        int padding = (capacity - offset < recordLength) ? capacity - offset : 0;
+        if (writePosition + padding + recordLength - ring.getReadPosition(slot) > capacity) {
+            //the collector hasn't caught up
+            numDiscardedStopWatches++;
+            return false;
+        }
+
+        int dataOffset = ring.getDataOffset(slot);
+        if (padding > 0) {
+            if (padding >= 4) {
+                data.putInt(dataOffset + offset, SharedMemoryRingFile.PADDING);
+            }
+            writePosition += padding;
+            offset = 0;
+        }
+
+        data.position(dataOffset + offset);
+        data.putInt(bodyLength);
+        data.putLong(stopWatch.getStartTime());
+        data.putLong(stopWatch.getElapsedTime());
+        data.putShort((short) tagBytes.length);
+        data.put(tagBytes);
+        if (messageBytes == null) {
+            data.putShort((short) -1);
+        } else {
+            data.putShort((short) messageBytes.length);
+            data.put(messageBytes);
+        }
+        if (weight != 1) {
+            data.putInt(weight);
+        }
+
+        writePosition += recordLength;
+        ring.putWritePosition(slot, writePosition);
+        return true;
+    }
+
+    /**
+     * Releases this writer's slot and closes the ring file. StopWatches already written are still drained by the
+     * collector.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     */
+    public synchronized void close() throws IOException {
+        if (slotLock != null) {
+            try {
+                slotLock.release();
+            } finally {
+                slotLock = null;
+                ring.close();
+            }
+        }
+    }
+}
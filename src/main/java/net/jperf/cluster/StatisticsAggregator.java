@@ -0,0 +1,569 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.helpers.DefaultStatisticsFormatter;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler;
+import net.jperf.helpers.GroupedTimingStatisticsCodec;
+import net.jperf.helpers.GroupedTimingStatisticsCsvFormatter;
+import net.jperf.helpers.GroupedTimingStatisticsJsonFormatter;
+import net.jperf.helpers.GroupedTimingStatisticsTextFormatter;
+import net.jperf.helpers.StatisticsFormatter;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The StatisticsAggregator merges the GroupedTimingStatistics windows created by many JVMs into fleet wide windows.
+ * Each JVM sends its windows to the aggregator over a plain TCP connection, normally through a
+ * {@link StatisticsForwarder} (or an appender that wraps one) attached to an AsyncCoalescingStatisticsAppender. The
+ * aggregator aligns each received window to a time slice of its own, merges all the windows for the same slice with
+ * {@link GroupedTimingStatistics#merge}, and once a slice has been closed for the configured lateness passes the
+ * merged window to a {@link GroupedTimingStatisticsHandler}. The handler can then pass the window on to any of the
+ * normal downstream appenders, so fleet wide statistics can be written as CSV, exposed through JMX or graphed exactly
+ * like the statistics of a single JVM. Windows that arrive after their slice has already been handled are counted and
+ * dropped.
+ * <p>
+ * Each connection carries a stream of frames, each of which is a 4 byte length followed by a window encoded by a
+ * {@link GroupedTimingStatisticsCodec} that is used for the whole connection.
+ * <p>
+ * The aggregator can be run as a standalone process with the {@link #main} method, which prints the merged windows in
+ * the same formats as the {@link net.jperf.LogParser}. Because the aggregator listens on a normal socket, many JVMs
+ * (or threads) on a single machine can forward to it, which makes it easy to test.
+ */
+public class StatisticsAggregator implements Closeable {
+    /**
+     * The default port the aggregator listens on.
+     */
+    public static final int DEFAULT_PORT = 9712;
+    /**
+     * The largest frame the aggregator will accept - larger frames cause the connection to be closed.
+     */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    // --- configuration ---
+    /**
+     * The port to listen on, or 0 to listen on any free port.
+     */
+    private int port;
+    /**
+     * The length of each aggregated time slice, in milliseconds.
+     */
+    private long timeSlice;
+    /**
+     * How long after the end of a slice windows are still merged into it, in milliseconds.
+     */
+    private long latenessMillis;
+    /**
+     * Merged windows are passed to this handler.
+     */
+    private GroupedTimingStatisticsHandler handler;
+
+    // --- state variables ---
+    /**
+     * The windows still open to new data, keyed by slice start time. Also used as the lock for the slice state.
+     */
+    private final SortedMap<Long, GroupedTimingStatistics> pendingWindows =
+            new TreeMap<Long, GroupedTimingStatistics>();
+    /**
+     * Windows that start before this time have already been handled.
+     */
+    private long handledUpToTime = Long.MIN_VALUE;
+    /**
+     * The number of windows passed to add(), including late windows.
+     */
+    private volatile int numReceivedWindows = 0;
+    /**
+     * The number of windows dropped because they arrived too late.
+     */
+    private volatile int numLateWindows = 0;
+    /**
+     * The sockets of the currently connected forwarders.
+     */
+    private final Set<Socket> connections = new HashSet<Socket>();
+    /**
+     * The socket the aggregator listens on, created in start().
+     */
+    private ServerSocket serverSocket;
+    /**
+     * Accepts new connections, created in start().
+     */
+    private Thread acceptingThread;
+    /**
+     * Periodically handles the windows whose lateness has passed, created in start().
+     */
+    private Thread closingThread;
+    /**
+     * Set to true when close() is called.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new StatisticsAggregator. The aggregator does not listen for connections until {@link #start} is
+     * called.
+     *
+     * @param port           The port to listen on, or 0 to listen on any free port.
+     * @param timeSlice      The length of each aggregated time slice, in milliseconds. This should be the same as
+     *                       the TimeSlice of the forwarding JVMs, or a multiple of it.
+     * @param latenessMillis How long after the end of a slice windows are still accepted for it, in milliseconds.
+     *                       Since a JVM may only send a window when its next window starts, this should be at least
+     *                       the forwarding JVMs' TimeSlice plus the expected clock skew between the machines.
+     * @param handler        The handler called with each merged window.
+     */
+    public StatisticsAggregator(int port, long timeSlice, long latenessMillis, GroupedTimingStatisticsHandler handler) {
+        if (timeSlice <= 0) {
+            throw new IllegalArgumentException("timeSlice must be positive");
+        }
+        if (latenessMillis < 0) {
+            throw new IllegalArgumentException("latenessMillis may not be negative");
+        }
+        this.port = port;
+        this.timeSlice = timeSlice;
+        this.latenessMillis = latenessMillis;
+        this.handler = handler;
+    }
+
+    // --- Main ---
+
+    public static void main(String[] args) {
+        System.exit(runMain(args));
+    }
+
+    public static int runMain(String[] args) {
+        List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+        if (argsList.contains("-h") || argsList.contains("--help")) {
+            System.out.println("Usage: StatisticsAggregator [-p|--port port] " +
+                               "[-t|--timeslice timeslice] " +
+                               "[-l|--lateness lateness] " +
+                               "[-f|--format text|csv|json] " +
+                               "[-o|--out|--output outputFile]");
+            System.out.println("Arguments:");
+            System.out.println("  -p|--port port - The port to listen for forwarded statistics on." +
+                               " Defaults to " + DEFAULT_PORT + ".");
+            System.out.println("  -t|--timeslice timeslice - The length of time (in ms) of each aggregated" +
+                               " timeslice. Defaults to 30000 ms.");
+            System.out.println("  -l|--lateness lateness - How long (in ms) after the end of a timeslice forwarded" +
+                               " statistics are still merged into it. Defaults to the timeslice.");
+            System.out.println("  -f|--format text|csv|json - The format for the statistics output." +
+                               " Defaults to text.");
+            System.out.println("  -o|--out|--output outputFile - The file where merged statistics should be" +
+                               " written. If not specified, statistics are written to stdout.");
+            return 0;
+        }
+
+        try {
+            int port = Integer.parseInt(removeArg(argsList, String.valueOf(DEFAULT_PORT), "-p", "--port"));
+            long timeSlice = Long.parseLong(removeArg(argsList, "30000", "-t", "--timeslice"));
+            long lateness = Long.parseLong(removeArg(argsList, String.valueOf(timeSlice), "-l", "--lateness"));
+            String format = removeArg(argsList, "text", "-f", "--format");
+            String outputFile = removeArg(argsList, null, "-o", "--out", "--output");
+            if (!argsList.isEmpty()) {
+                System.err.println("Unknown arguments: " + argsList);
+                return 1;
+            }
+
+            final StatisticsFormatter formatter = newStatisticsFormatter(format);
+            final PrintStream output = (outputFile == null) ? System.out
+                                                            : new PrintStream(new FileOutputStream(outputFile), true);
+            output.print(formatter.header());
+
+            final StatisticsAggregator aggregator =
+                    new StatisticsAggregator(port, timeSlice, lateness, newPrintingHandler(formatter, output));
+            aggregator.start();
+            Runtime.getRuntime().addShutdownHook(new Thread("jperf-statistics-aggregator-shutdown") {
+                public void run() {
+                    aggregator.close();
+                    output.print(formatter.footer());
+                    output.flush();
+                }
+            });
+
+            aggregator.acceptingThread.join();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+        return 0;
+    }
+
+    // --- Lifecycle Methods ---
+
+    /**
+     * Opens the server socket and starts the threads that accept connections and handle closed windows.
+     *
+     * @throws IOException Thrown if the server socket could not be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("StatisticsAggregator has already been started");
+        }
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+
+        acceptingThread = new Thread(new Acceptor(), "jperf-statistics-aggregator-" + getPort());
+        acceptingThread.setDaemon(true);
+        acceptingThread.start();
+        closingThread = new Thread(new WindowCloser(), "jperf-statistics-aggregator-closer-" + getPort());
+        closingThread.setDaemon(true);
+        closingThread.start();
+    }
+
+    /**
+     * Stops accepting connections, closes all the open connections, and passes every window that is still pending
+     * to the handler.
+     */
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ioe) { /* nothing we can do, we're closing down */ }
+
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                closeQuietly(socket);
+            }
+            connections.clear();
+        }
+
+        if (closingThread != null) {
+            closingThread.interrupt();
+        }
+        handleClosedWindows(Long.MAX_VALUE);
+    }
+
+    // --- Aggregation Methods ---
+
+    /**
+     * Merges a window into the time slice it starts in. This is called for each window received over the network,
+     * but may also be called directly, for example to include the aggregator's own JVM.
+     *
+     * @param statistics The window to merge. Not modified.
+     * @return true if the window was merged, false if it was dropped because its slice had already been handled.
+     */
+    public boolean add(GroupedTimingStatistics statistics) {
+        long sliceStartTime = getSliceStartTime(statistics.getStartTime());
+        synchronized (pendingWindows) {
+            numReceivedWindows++;
+            if (sliceStartTime < handledUpToTime) {
+                numLateWindows++;
+                return false;
+            }
+
+            GroupedTimingStatistics window = pendingWindows.get(sliceStartTime);
+            if (window == null) {
+                window = new GroupedTimingStatistics();
+                window.setCreateRollupStatistics(statistics.isCreateRollupStatistics());
+                window.setStartTime(sliceStartTime);
+                window.setStopTime(sliceStartTime + timeSlice);
+                pendingWindows.put(sliceStartTime, window);
+            }
+            window.merge(statistics);
+            //keep the merged window aligned to the slice even if the sender used a different time slice
+            window.setStartTime(sliceStartTime);
+            window.setStopTime(sliceStartTime + timeSlice);
+            return true;
+        }
+    }
+
+    /**
+     * Passes every pending window whose lateness has expired at the specified time to the handler, in time order.
+     *
+     * @param now The current time, in milliseconds.
+     */
+    public void handleClosedWindows(long now) {
+        List<GroupedTimingStatistics> closedWindows = new ArrayList<GroupedTimingStatistics>();
+        synchronized (pendingWindows) {
+            while (!pendingWindows.isEmpty()) {
+                long sliceStartTime = pendingWindows.firstKey();
+                if (now != Long.MAX_VALUE && sliceStartTime + timeSlice + latenessMillis > now) {
+                    break;
+                }
+                closedWindows.add(pendingWindows.remove(sliceStartTime));
+                handledUpToTime = sliceStartTime + timeSlice;
+            }
+        }
+
+        //call the handler outside the lock so slow handlers don't block the connection threads
+        for (GroupedTimingStatistics window : closedWindows) {
+            try {
+                handler.handle(window);
+            } catch (Exception e) {
+                handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
+            }
+        }
+    }
+
+    // --- Attributes ---
+
+    /**
+     * Gets the port the aggregator is listening on, which is useful if it was created with a port of 0.
+     *
+     * @return The local port, or the configured port if the aggregator has not been started.
+     */
+    public int getPort() {
+        return (serverSocket == null) ? port : serverSocket.getLocalPort();
+    }
+
+    public long getTimeSlice() {
+        return timeSlice;
+    }
+
+    public long getLatenessMillis() {
+        return latenessMillis;
+    }
+
+    /**
+     * Gets the number of windows received from forwarders or passed to {@link #add}, including late windows.
+     *
+     * @return The number of received windows.
+     */
+    public int getNumReceivedWindows() {
+        return numReceivedWindows;
+    }
+
+    /**
+     * Gets the number of windows that were dropped because they arrived after their slice had been handled.
+     *
+     * @return The number of late windows.
+     */
+    public int getNumLateWindows() {
+        return numLateWindows;
+    }
+
+    /**
+     * Gets the number of forwarders currently connected.
+     *
+     * @return The number of open connections.
+     */
+    public int getNumConnections() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Returns the current time. Subclasses may override this, which is mostly useful for testing.
+     *
+     * @return The current time, in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Helper method gets the start time of the slice containing the specified time.
+     *
+     * @param time The time, in milliseconds.
+     * @return The slice start time.
+     */
+    private long getSliceStartTime(long time) {
+        long remainder = time % timeSlice;
+        return (remainder < 0) ? time - remainder - timeSlice : time - remainder;
+    }
+
+    /**
+     * Helper method creates the formatter for one of the text, csv or json output formats.
+     *
+     * @param format The format name, as accepted by the LogParser's --format argument.
+     * @return The formatter.
+     */
+    static StatisticsFormatter newStatisticsFormatter(String format) {
+        if ("text".equalsIgnoreCase(format)) {
+            return new DefaultStatisticsFormatter(new GroupedTimingStatisticsTextFormatter());
+        } else if ("csv".equalsIgnoreCase(format)) {
+            return new DefaultStatisticsFormatter(new GroupedTimingStatisticsCsvFormatter());
+        } else if (format.startsWith("json")) {
+            return new GroupedTimingStatisticsJsonFormatter(format);
+        } else {
+            throw new IllegalArgumentException("Unknown format type: " + format);
+        }
+    }
+
+    /**
+     * Helper method creates a handler that prints each window, and writes errors to stderr.
+     *
+     * @param formatter The formatter used to print the windows.
+     * @param output    The stream the windows are printed to.
+     * @return The new handler.
+     */
+    static GroupedTimingStatisticsHandler newPrintingHandler(final StatisticsFormatter formatter,
+                                                             final PrintStream output) {
+        return new GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) {
+                output.print(formatter.format(statistics));
+                output.flush();
+            }
+
+            public void error(String errorMessage) {
+                System.err.println(errorMessage);
+            }
+        };
+    }
+
+    /**
+     * Helper method removes a command line argument and its value.
+     *
+     * @param argsList     The list of arguments, modified to remove the argument.
+     * @param defaultValue The value to return if the argument is not present.
+     * @param argNames     The names of the argument.
+     * @return The argument value.
+     */
+    static String removeArg(List<String> argsList, String defaultValue, String... argNames) {
+        for (String argName : argNames) {
+            int index = argsList.indexOf(argName);
+            if (index >= 0) {
+                if (index == argsList.size() - 1) {
+                    throw new IllegalArgumentException("You must specify a parameter for the " + argName + " arg");
+                }
+                String retVal = argsList.remove(index + 1);
+                argsList.remove(index);
+                return retVal;
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) { /* nothing we can do */ }
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * Accepts connections and starts a Receiver thread for each one.
+     */
+    private class Acceptor implements Runnable {
+        public void run() {
+            while (!closed) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    synchronized (connections) {
+                        if (closed) {
+                            closeQuietly(socket);
+                            return;
+                        }
+                        connections.add(socket);
+                    }
+                    Thread receivingThread =
+                            new Thread(new Receiver(socket),
+                                       "jperf-statistics-aggregator-" + socket.getRemoteSocketAddress());
+                    receivingThread.setDaemon(true);
+                    receivingThread.start();
+                } catch (IOException ioe) {
+                    if (!closed) {
+                        handler.error("Error accepting statistics connection: " + ioe.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the frames sent over a single connection and merges them.
+     */
+    private class Receiver implements Runnable {
+        private Socket socket;
+
+        public Receiver(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            GroupedTimingStatisticsCodec codec = new GroupedTimingStatisticsCodec();
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] frame = new byte[1024];
+                while (!closed) {
+                    int frameLength;
+                    try {
+                        frameLength = in.readInt();
+                    } catch (EOFException eofe) {
+                        //the forwarder closed the connection
+                        return;
+                    }
+                    if (frameLength < 0 || frameLength > MAX_FRAME_SIZE) {
+                        handler.error("Invalid frame length " + frameLength + " from "
+                                      + socket.getRemoteSocketAddress() + ", closing connection");
+                        return;
+                    }
+                    if (frame.length < frameLength) {
+                        frame = new byte[Math.max(frameLength, frame.length * 2)];
+                    }
+                    in.readFully(frame, 0, frameLength);
+                    add(codec.decode(ByteBuffer.wrap(frame, 0, frameLength)));
+                }
+            } catch (SocketException se) {
+                if (!closed) {
+                    handler.error("Statistics connection from " + socket.getRemoteSocketAddress() + " failed: "
+                                  + se.getMessage());
+                }
+            } catch (Exception e) {
+                handler.error("Error reading statistics from " + socket.getRemoteSocketAddress() + ": "
+                              + e.getMessage());
+            } finally {
+                synchronized (connections) {
+                    connections.remove(socket);
+                }
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Periodically hands closed windows to the handler.
+     */
+    private class WindowCloser implements Runnable {
+        public void run() {
+            //check several times per slice so windows are handled soon after their lateness expires
+            long checkInterval = Math.max(10L, Math.min(1000L, timeSlice / 4));
+            while (!closed) {
+                try {
+                    Thread.sleep(checkInterval);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                handleClosedWindows(currentTimeMillis());
+            }
+        }
+    }
+}
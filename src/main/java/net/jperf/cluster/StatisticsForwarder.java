@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.helpers.GroupedTimingStatisticsCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The StatisticsForwarder sends GroupedTimingStatistics windows to a {@link StatisticsAggregator} over a TCP
+ * connection. The connection is opened when the first window is sent, and if it fails the window is dropped and the
+ * connection is re-opened, at most once per ReconnectDelay, when a later window is sent - a JVM keeps running normally
+ * while the aggregator is down, it just doesn't contribute to the fleet wide statistics. The forwarder is normally
+ * used through an appender, like the {@link net.jperf.log4j.StatisticsForwardingAppender}, attached to an
+ * AsyncCoalescingStatisticsAppender.
+ * <p>
+ * Since {@link #forward} blocks while connecting and writing, the appenders {@link #start} the forwarder and hand
+ * windows over with {@link #enqueue}, which never blocks: the windows are sent from the forwarder's own thread, and
+ * if the aggregator is too slow, or hangs, the oldest queued windows are dropped. That way an unresponsive
+ * aggregator can't stall the AsyncCoalescingStatisticsAppender's thread, which would make it discard StopWatches.
+ * <p>
+ * This class is thread safe.
+ */
+public class StatisticsForwarder implements Closeable {
+    /**
+     * The default time to wait between connection attempts, in milliseconds.
+     */
+    public static final long DEFAULT_RECONNECT_DELAY = 30000L;
+    /**
+     * The default number of windows that can wait to be sent by the sending thread.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+    /**
+     * Queued by close to tell the sending thread to stop once the windows queued before it are sent.
+     */
+    private static final GroupedTimingStatistics END_OF_QUEUE = new GroupedTimingStatistics();
+
+    // --- configuration ---
+    private String host;
+    private int port;
+    private long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+    private int connectTimeout = 5000;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    // --- state variables ---
+    /**
+     * The open connection, or null if not connected. It is volatile so that close can close it, to unblock a write
+     * to an unresponsive aggregator, without waiting for the lock held by that write.
+     */
+    private volatile Socket socket;
+    private DataOutputStream out;
+    /**
+     * The codec used to encode the windows sent over the current connection. A new codec, with an empty tag
+     * dictionary, is created for each connection.
+     */
+    private GroupedTimingStatisticsCodec codec;
+    /**
+     * The buffer windows are encoded into, grown as needed.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    /**
+     * The time of the last failed connection attempt, or 0 if no attempt has failed.
+     */
+    private long lastConnectFailureTime = 0L;
+    /**
+     * The windows waiting to be sent by the sending thread, or null if the forwarder hasn't been started.
+     */
+    private volatile BlockingQueue<GroupedTimingStatistics> queue;
+    /**
+     * The thread sending the queued windows, or null if the forwarder isn't started.
+     */
+    private volatile Thread sendingThread;
+    private volatile ErrorHandler errorHandler;
+    // the counters aren't guarded by the lock so that enqueue and the getters never wait for a blocked write
+    private final AtomicInteger numForwardedWindows = new AtomicInteger();
+    private final AtomicInteger numDroppedWindows = new AtomicInteger();
+
+    /**
+     * Creates a new StatisticsForwarder. No connection is made until the first window is sent.
+     *
+     * @param host The host the StatisticsAggregator runs on.
+     * @param port The port the StatisticsAggregator listens on.
+     */
+    public StatisticsForwarder(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    // --- options ---
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets how long, in milliseconds, to wait after a failed connection attempt before trying again. Windows sent
+     * during this time are dropped.
+     *
+     * @return The reconnect delay in milliseconds.
+     */
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * Gets how long, in milliseconds, to wait for a connection to the aggregator to be established.
+     *
+     * @return The connect timeout in milliseconds.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Gets how many windows can wait to be sent by the sending thread. When the queue is full the oldest window is
+     * dropped to make room for the newest one. Changes only take effect when the forwarder is started.
+     *
+     * @return The maximum number of queued windows.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    // --- attributes ---
+
+    /**
+     * Gets the number of windows successfully written to the aggregator's connection.
+     *
+     * @return The number of forwarded windows.
+     */
+    public int getNumForwardedWindows() {
+        return numForwardedWindows.get();
+    }
+
+    /**
+     * Gets the number of windows dropped because the aggregator could not be reached, or because the queue was full.
+     *
+     * @return The number of dropped windows.
+     */
+    public int getNumDroppedWindows() {
+        return numDroppedWindows.get();
+    }
+
+    // --- forwarding methods ---
+
+    /**
+     * Starts the thread that sends the windows passed to {@link #enqueue}.
+     *
+     * @param errorHandler Notified, on the sending thread, of the windows that could not be sent. May be null.
+     */
+    public synchronized void start(ErrorHandler errorHandler) {
+        if (sendingThread != null) {
+            throw new IllegalStateException("The StatisticsForwarder has already been started");
+        }
+        this.errorHandler = errorHandler;
+        queue = new ArrayBlockingQueue<GroupedTimingStatistics>(queueSize);
+        sendingThread = new SendingThread();
+        sendingThread.start();
+    }
+
+    /**
+     * Queues a window to be sent by the sending thread, dropping the oldest queued window if the queue is full.
+     * This method never blocks.
+     *
+     * @param statistics The window to send.
+     */
+    public void enqueue(GroupedTimingStatistics statistics) {
+        BlockingQueue<GroupedTimingStatistics> queue = this.queue;
+        if (queue == null) {
+            throw new IllegalStateException("The StatisticsForwarder has not been started");
+        }
+        while (!queue.offer(statistics)) {
+            if (queue.poll() != null) {
+                numDroppedWindows.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sends a window to the aggregator, connecting first if necessary. This blocks until the window is written, so it
+     * should not be called from threads that must not stall; use {@link #enqueue} instead.
+     *
+     * @param statistics The window to send.
+     * @throws IOException Thrown if the window could not be sent, in which case it is dropped. The next call will try
+     *                     to reconnect once the ReconnectDelay has passed.
+     */
+    public synchronized void forward(GroupedTimingStatistics statistics) throws IOException {
+        if (out == null) {
+            if (System.currentTimeMillis() - lastConnectFailureTime < reconnectDelay) {
+                numDroppedWindows.incrementAndGet();
+                return;
+            }
+            try {
+                connect();
+            } catch (IOException ioe) {
+                lastConnectFailureTime = System.currentTimeMillis();
+                numDroppedWindows.incrementAndGet();
+                throw ioe;
+            }
+        }
+
+        try {
+            int maxSize = codec.getMaxEncodedSize(statistics);
+            if (buffer.capacity() < maxSize) {
+                buffer = ByteBuffer.allocate(Math.max(maxSize, buffer.capacity() * 2));
+            }
+            buffer.clear();
+            codec.encode(statistics, buffer);
+
+            out.writeInt(buffer.position());
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            numForwardedWindows.incrementAndGet();
+        } catch (IOException ioe) {
+            //the encoder's dictionary no longer matches the aggregator's, so the connection can't be reused
+            disconnect();
+            lastConnectFailureTime = System.currentTimeMillis();
+            numDroppedWindows.incrementAndGet();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Stops the sending thread, if started, and closes the connection to the aggregator, if open. The sending thread
+     * gets up to the ConnectTimeout to send the windows still queued, such as the last window flushed when the
+     * application shuts down, after which the remaining windows are dropped and a blocked write is aborted.
+     */
+    public void close() {
+        Thread thread = sendingThread;
+        if (thread != null) {
+            enqueue(END_OF_QUEUE);
+            try {
+                thread.join(connectTimeout);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            sendingThread = null;
+            thread.interrupt();
+        }
+        //closing the socket unblocks a pending write, which releases the lock
+        Socket openSocket = socket;
+        if (openSocket != null) {
+            try {
+                openSocket.close();
+            } catch (IOException ioe) { /* nothing we can do */ }
+        }
+        synchronized (this) {
+            disconnect();
+        }
+    }
+
+    // --- helper methods ---
+
+    private void connect() throws IOException {
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.connect(new InetSocketAddress(host, port), connectTimeout);
+            out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+            socket = newSocket;
+            codec = new GroupedTimingStatisticsCodec();
+        } catch (IOException ioe) {
+            newSocket.close();
+            throw ioe;
+        }
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ioe) { /* nothing we can do */ }
+        }
+        socket = null;
+        out = null;
+        codec = null;
+    }
+
+    // --- support classes ---
+
+    /**
+     * The ErrorHandler is notified of the windows the sending thread could not send.
+     */
+    public interface ErrorHandler {
+        /**
+         * Called when a window could not be sent, in which case it was dropped.
+         *
+         * @param ioe The error that occurred sending the window.
+         */
+        void error(IOException ioe);
+    }
+
+    /**
+     * The thread that sends the queued windows, until the forwarder is closed.
+     */
+    private class SendingThread extends Thread {
+        SendingThread() {
+            super("jperf-StatisticsForwarder-" + host + ":" + port);
+            setDaemon(true);
+        }
+
+        public void run() {
+            BlockingQueue<GroupedTimingStatistics> queue = StatisticsForwarder.this.queue;
+            while (sendingThread == this) {
+                GroupedTimingStatistics statistics;
+                try {
+                    statistics = queue.take();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                if (statistics == END_OF_QUEUE) {
+                    return;
+                }
+                try {
+                    synchronized (StatisticsForwarder.this) {
+                        //don't reconnect once closed
+                        if (sendingThread != this) {
+                            return;
+                        }
+                        forward(statistics);
+                    }
+                } catch (IOException ioe) {
+                    ErrorHandler errorHandler = StatisticsForwarder.this.errorHandler;
+                    if (errorHandler != null && sendingThread == this) {
+                        errorHandler.error(ioe);
+                    }
+                }
+            }
+        }
+    }
+}
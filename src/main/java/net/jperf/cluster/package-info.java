@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Contains the classes used to combine the {@link net.jperf.GroupedTimingStatistics} of many JVMs into fleet wide
+ * statistics. Each JVM sends its windows over TCP with a {@link net.jperf.cluster.StatisticsForwarder}, normally
+ * through an appender like the {@link net.jperf.log4j.StatisticsForwardingAppender}, to a
+ * {@link net.jperf.cluster.StatisticsAggregator}, which merges the windows by time slice. The aggregator can run as a
+ * standalone process, or inside a JVM through an appender like the
+ * {@link net.jperf.log4j.StatisticsAggregatingAppender} so the merged windows can be passed on to the normal
+ * downstream appenders.
+ * <p>
+ * For JVMs that share a host, the {@link net.jperf.cluster.SharedMemoryStopWatchWriter} copies StopWatches into a
+ * memory mapped {@link net.jperf.cluster.SharedMemoryRingFile}, from which a single
+ * {@link net.jperf.cluster.SharedMemoryCollector} process creates the statistics for the whole host.
+ */
+package net.jperf.cluster;
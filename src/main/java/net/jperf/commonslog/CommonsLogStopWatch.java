@@ -17,6 +17,7 @@
 package net.jperf.commonslog;
 
 import net.jperf.LoggingStopWatch;
+import net.jperf.Sampler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -232,7 +233,7 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
      *                          take an exception is called. Should be one of the ..._LEVEL constants from this class.
      */
     public CommonsLogStopWatch(String tag, String message, Log logger, int normalPriority, int exceptionPriority) {
-        this(System.currentTimeMillis(), -1L, tag, message, logger, normalPriority, exceptionPriority);
+        this(creationStartTime(), creationElapsedTime(), tag, message, logger, normalPriority, exceptionPriority);
     }
 
     /**
@@ -337,6 +338,18 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public CommonsLogStopWatch setWeight(int weight) {
+        super.setWeight(weight);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public CommonsLogStopWatch setSampler(Sampler sampler) {
+        super.setSampler(sampler);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public CommonsLogStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the self-instrumentation metrics of a {@link GenericAsyncCoalescingStatisticsAppender}, and is registered
+ * as an MXBean by the appender when its ExposeMetrics option is true. The metrics let you size the QueueSize and
+ * TimeSlice options, and spot a slow downstream appender before it makes the queue overflow.
+ * <p>
+ * Updating the metrics is cheap: the only metric updated by the application threads is a {@link StripedCounter},
+ * and all the others are only written by the appender's draining thread, which publishes them with
+ * <tt>lazySet</tt> so no memory fences are needed.
+ */
+public class AsyncCoalescingStatisticsAppenderMetrics implements AsyncCoalescingStatisticsAppenderMetricsMXBean {
+    private final GenericAsyncCoalescingStatisticsAppender appender;
+
+    // --- updated by the application threads ---
+    private final StripedCounter numRejectedMessages = new StripedCounter();
+
+    // --- only updated by the draining thread ---
+    private final AtomicLong numDrainBatches = new AtomicLong();
+    private final AtomicLong numDrainedMessages = new AtomicLong();
+    private final AtomicLong maxDrainBatchSize = new AtomicLong();
+    private final AtomicLong numParsedStopWatches = new AtomicLong();
+    private final AtomicLong numParseFailures = new AtomicLong();
+    private final AtomicLong totalParseNanos = new AtomicLong();
+    private final AtomicLong numEmittedWindows = new AtomicLong();
+    private final AtomicLong lastEmissionLagMillis = new AtomicLong();
+    private final AtomicLong maxEmissionLagMillis = new AtomicLong();
+    private final AtomicLong totalDownstreamNanos = new AtomicLong();
+    private final ConcurrentMap<String, DownstreamAppenderTiming> downstreamAppenderTimings =
+            new ConcurrentHashMap<String, DownstreamAppenderTiming>();
+
+    public AsyncCoalescingStatisticsAppenderMetrics(GenericAsyncCoalescingStatisticsAppender appender) {
+        this.appender = appender;
+    }
+
+    // --- recording methods ---
+
+    /**
+     * Called by an application thread when an appended message is not a potential StopWatch message.
+     */
+    public void messageRejected() {
+        numRejectedMessages.increment();
+    }
+
+    /**
+     * Called by the draining thread for each batch of messages it takes off the queue.
+     *
+     * @param batchSize The number of messages in the batch.
+     */
+    public void messagesDrained(int batchSize) {
+        add(numDrainBatches, 1L);
+        add(numDrainedMessages, batchSize);
+        if (batchSize > maxDrainBatchSize.get()) {
+            maxDrainBatchSize.lazySet(batchSize);
+        }
+    }
+
+    /**
+     * Called by the draining thread after parsing each message.
+     *
+     * @param parsed Whether the message was parsed to a StopWatch.
+     * @param nanos  The time spent parsing, in nanoseconds.
+     */
+    public void messageParsed(boolean parsed, long nanos) {
+        add(parsed ? numParsedStopWatches : numParseFailures, 1L);
+        add(totalParseNanos, nanos);
+    }
+
+    /**
+     * Called by the draining thread when a window is about to be passed downstream.
+     *
+     * @param statistics The window.
+     */
+    public void windowEmitted(GroupedTimingStatistics statistics) {
+        long lag = Math.max(0L, System.currentTimeMillis() - statistics.getStopTime());
+        add(numEmittedWindows, 1L);
+        lastEmissionLagMillis.lazySet(lag);
+        if (lag > maxEmissionLagMillis.get()) {
+            maxEmissionLagMillis.lazySet(lag);
+        }
+    }
+
+    /**
+     * Called by the draining thread after a window has been passed downstream.
+     *
+     * @param nanos The time spent in the downstream handler, in nanoseconds.
+     */
+    public void windowHandled(long nanos) {
+        add(totalDownstreamNanos, nanos);
+    }
+
+    /**
+     * Called by the draining thread after a single downstream appender has handled a window.
+     *
+     * @param appenderName The name of the downstream appender.
+     * @param nanos        The time the appender took, in nanoseconds.
+     */
+    public void downstreamAppenderCalled(String appenderName, long nanos) {
+        String key = String.valueOf(appenderName);
+        DownstreamAppenderTiming timing = downstreamAppenderTimings.get(key);
+        if (timing == null) {
+            timing = new DownstreamAppenderTiming();
+            downstreamAppenderTimings.put(key, timing);
+        }
+        add(timing.numCalls, 1L);
+        add(timing.totalNanos, nanos);
+    }
+
+    // --- MXBean attributes ---
+
+    public int getQueueSize() {
+        return appender.getQueueSize();
+    }
+
+    public int getQueueDepth() {
+        return appender.getQueueDepth();
+    }
+
+    public long getTimeSlice() {
+        return appender.getTimeSlice();
+    }
+
+    public long getNumRejectedMessages() {
+        return numRejectedMessages.get();
+    }
+
+    public long getNumDiscardedMessages() {
+        return appender.getNumDiscardedMessages();
+    }
+
+    public long getNumDrainBatches() {
+        return numDrainBatches.get();
+    }
+
+    public double getMeanDrainBatchSize() {
+        return mean(numDrainedMessages.get(), numDrainBatches.get());
+    }
+
+    public int getMaxDrainBatchSize() {
+        return (int) maxDrainBatchSize.get();
+    }
+
+    public long getNumParsedStopWatches() {
+        return numParsedStopWatches.get();
+    }
+
+    public long getNumParseFailures() {
+        return numParseFailures.get();
+    }
+
+    public double getMeanParseMicros() {
+        return mean(totalParseNanos.get(), numParsedStopWatches.get() + numParseFailures.get()) / 1000.0;
+    }
+
+    public long getNumFoldedStopWatches() {
+        return appender.getNumFoldedStopWatches();
+    }
+
+    public long getNumEmittedWindows() {
+        return numEmittedWindows.get();
+    }
+
+    public long getLastEmissionLagMillis() {
+        return lastEmissionLagMillis.get();
+    }
+
+    public long getMaxEmissionLagMillis() {
+        return maxEmissionLagMillis.get();
+    }
+
+    public double getMeanDownstreamMillis() {
+        return mean(totalDownstreamNanos.get(), numEmittedWindows.get()) / 1000000.0;
+    }
+
+    public Map<String, Long> getDownstreamAppenderMillis() {
+        Map<String, Long> retVal = new TreeMap<String, Long>();
+        for (Map.Entry<String, DownstreamAppenderTiming> entry : downstreamAppenderTimings.entrySet()) {
+            retVal.put(entry.getKey(), entry.getValue().totalNanos.get() / 1000000L);
+        }
+        return retVal;
+    }
+
+    public Map<String, Double> getDownstreamAppenderMeanMillis() {
+        Map<String, Double> retVal = new TreeMap<String, Double>();
+        for (Map.Entry<String, DownstreamAppenderTiming> entry : downstreamAppenderTimings.entrySet()) {
+            DownstreamAppenderTiming timing = entry.getValue();
+            retVal.put(entry.getKey(), mean(timing.totalNanos.get(), timing.numCalls.get()) / 1000000.0);
+        }
+        return retVal;
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Adds to a counter that only the draining thread writes, so it doesn't need an atomic read-modify-write.
+     */
+    private static void add(AtomicLong counter, long delta) {
+        counter.lazySet(counter.get() + delta);
+    }
+
+    private static double mean(long total, long count) {
+        return (count == 0L) ? 0.0 : (double) total / count;
+    }
+
+    private static class DownstreamAppenderTiming {
+        final AtomicLong numCalls = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link AsyncCoalescingStatisticsAppenderMetrics}, which reports the health of an
+ * AsyncCoalescingStatisticsAppender itself: how full its queue is, how fast the draining thread keeps up, and how
+ * long the downstream appenders take. All counts are since the appender was started.
+ */
+public interface AsyncCoalescingStatisticsAppenderMetricsMXBean {
+    /**
+     * @return The capacity of the queue, i.e. the QueueSize option.
+     */
+    int getQueueSize();
+
+    /**
+     * @return The number of messages currently waiting in the queue.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return The TimeSlice option, in milliseconds.
+     */
+    long getTimeSlice();
+
+    /**
+     * @return The number of messages rejected on append because they could not be StopWatch messages.
+     */
+    long getNumRejectedMessages();
+
+    /**
+     * @return The number of messages discarded because the queue was full.
+     */
+    long getNumDiscardedMessages();
+
+    /**
+     * @return The number of batches of messages taken off the queue by the draining thread.
+     */
+    long getNumDrainBatches();
+
+    /**
+     * @return The mean number of messages taken off the queue in each batch.
+     */
+    double getMeanDrainBatchSize();
+
+    /**
+     * @return The largest number of messages taken off the queue in one batch.
+     */
+    int getMaxDrainBatchSize();
+
+    /**
+     * @return The number of messages successfully parsed to StopWatches.
+     */
+    long getNumParsedStopWatches();
+
+    /**
+     * @return The number of queued messages that could not be parsed to StopWatches.
+     */
+    long getNumParseFailures();
+
+    /**
+     * @return The mean time, in microseconds, spent parsing each queued message.
+     */
+    double getMeanParseMicros();
+
+    /**
+     * @return The number of StopWatches folded into an overflow tag because of the MaxTagsPerWindow and MaxTags
+     *         options.
+     */
+    long getNumFoldedStopWatches();
+
+    /**
+     * @return The number of GroupedTimingStatistics windows passed to the downstream appenders.
+     */
+    long getNumEmittedWindows();
+
+    /**
+     * @return The time, in milliseconds, between the end of the last window and when it was passed downstream.
+     */
+    long getLastEmissionLagMillis();
+
+    /**
+     * @return The largest emission lag, in milliseconds, of any window.
+     */
+    long getMaxEmissionLagMillis();
+
+    /**
+     * @return The mean time, in milliseconds, spent passing each window downstream, in all downstream appenders.
+     */
+    double getMeanDownstreamMillis();
+
+    /**
+     * @return The total time, in milliseconds, spent in each downstream appender, by appender name.
+     */
+    Map<String, Long> getDownstreamAppenderMillis();
+
+    /**
+     * @return The mean time, in milliseconds, spent in each downstream appender per window, by appender name.
+     */
+    Map<String, Double> getDownstreamAppenderMeanMillis();
+}
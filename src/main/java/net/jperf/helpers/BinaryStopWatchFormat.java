@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Constants and encoding helpers shared by the {@link BinaryStopWatchWriter} and the
+ * {@link BinaryStopWatchLogIterator}. A binary StopWatch log starts with the {@link #MAGIC} bytes followed by the
+ * {@link #VERSION} byte, after which it consists of a sequence of records, each introduced by a single record type
+ * byte:
+ * <ul>
+ * <li>{@link #TAG_DEFINITION} - a varint tag id, then the varint length and UTF-8 bytes of the tag. Tags are defined
+ *     once and then referred to by id in subsequent StopWatch records.
+ * <li>{@link #BLOCK_START} - an 8 byte base time, in milliseconds since the epoch. The start times of the StopWatch
+ *     records that follow are stored as deltas from this base time.
+ * <li>{@link #STOPWATCH} - the zig-zag varint delta of the start time from the block base time, the zig-zag
+ *     varint elapsed time, the varint tag id and the varint length plus one of the UTF-8 message bytes (0 means a
+ *     null message), followed by the message bytes themselves.
+ * <li>{@link #DICTIONARY_RESET} - clears all tag definitions. This is written when a writer appends to an existing
+ *     log, or when the number of defined tags grows too large.
+ * <li>{@link #WEIGHTED_STOPWATCH} - the same fields as a StopWatch record, followed by the varint weight. Used
+ *     instead of a StopWatch record for the StopWatches of sampled calls, whose weight is more than 1.
+ * </ul>
+ * A typical StopWatch record takes 5 to 10 bytes, compared to 70 to 150 bytes for the text format.
+ */
+public final class BinaryStopWatchFormat {
+    /**
+     * The bytes that every binary StopWatch log starts with.
+     */
+    public static final byte[] MAGIC = {'J', 'P', 'S', 'W'};
+    /**
+     * The version of the format written by this release.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Record type byte that introduces a tag definition.
+     */
+    public static final byte TAG_DEFINITION = 1;
+    /**
+     * Record type byte that introduces a new block base time.
+     */
+    public static final byte BLOCK_START = 2;
+    /**
+     * Record type byte that introduces a single StopWatch.
+     */
+    public static final byte STOPWATCH = 3;
+    /**
+     * Record type byte that clears the tag dictionary.
+     */
+    public static final byte DICTIONARY_RESET = 4;
+    /**
+     * Record type byte that introduces a single StopWatch with a weight other than 1.
+     */
+    public static final byte WEIGHTED_STOPWATCH = 5;
+
+    /**
+     * The maximum distance, in milliseconds, of a StopWatch start time from the current block base time. Keeping
+     * this small keeps the encoded deltas to at most 3 bytes.
+     */
+    public static final long MAX_BLOCK_DELTA = 65535L;
+    /**
+     * The maximum number of tags defined before the writer resets the dictionary, which bounds the memory used by
+     * both the writer and the reader even when tags are generated dynamically.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 65536;
+    /**
+     * The maximum number of bytes a varint-encoded long can take.
+     */
+    public static final int MAX_VARINT_LENGTH = 10;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BinaryStopWatchFormat() { }
+
+    /**
+     * Writes an unsigned varint - 7 bits per byte, least significant group first, with the high bit set on all but
+     * the last byte.
+     *
+     * @param value  The value to write, treated as unsigned.
+     * @param buffer The buffer to write to, which must have at least {@link #MAX_VARINT_LENGTH} bytes remaining.
+     */
+    public static void putVarLong(long value, ByteBuffer buffer) {
+        while ((value & ~0x7FL) != 0L) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint written by {@link #putVarLong}.
+     *
+     * @param buffer The buffer to read from.
+     * @return The decoded value.
+     * @throws BufferUnderflowException if the buffer ends in the middle of the varint.
+     * @throws IllegalStateException if the varint is longer than {@link #MAX_VARINT_LENGTH} bytes.
+     */
+    public static long getVarLong(ByteBuffer buffer) {
+        long retVal = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            retVal |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return retVal;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    /**
+     * Zig-zag encodes a signed value so that values close to zero, positive or negative, have a short varint form.
+     *
+     * @param value The signed value.
+     * @return The zig-zag encoded value.
+     */
+    public static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigZagEncode}.
+     *
+     * @param value The zig-zag encoded value.
+     * @return The original signed value.
+     */
+    public static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The BinaryStopWatchLogIterator reads logs written in the format described by {@link BinaryStopWatchFormat} and
+ * returns the deserialized StopWatch instances with each call to next(). It is the binary counterpart of the
+ * {@link StopWatchLogIterator}, and can be used anywhere an <tt>Iterator&lt;StopWatch&gt;</tt> is expected, such as
+ * by the {@link GroupingStatisticsIterator} or the {@link net.jperf.LogParser}.
+ * <p>
+ * Input can either be read from a channel, or decoded directly from a ByteBuffer. The {@link #open(File)} method
+ * memory maps the specified file, which is the fastest way to read a complete log. Since a single mapping is limited
+ * to 2 GB, larger files are mapped one window at a time as the iterator advances. If the log ends in a partially
+ * written record (for example because it is still being written to) iteration simply stops at the last complete
+ * record.
+ */
+public class BinaryStopWatchLogIterator implements Iterator<StopWatch>, Closeable {
+    /**
+     * The default size of the windows a file is mapped in.
+     */
+    public static final int DEFAULT_MAP_WINDOW_SIZE = 1 << 30;
+
+    /**
+     * The buffer records are decoded from.
+     */
+    private ByteBuffer buffer;
+    /**
+     * The channel used to refill the buffer, or null if the buffer contains the entire input.
+     */
+    private ReadableByteChannel channel;
+    /**
+     * The file mapped a window at a time, or null if the input is not a mapped file.
+     */
+    private FileChannel fileChannel;
+    /**
+     * The size of the mapped windows.
+     */
+    private int mapWindowSize;
+    /**
+     * The position in the file of the start of the buffer, when the buffer is a mapped window.
+     */
+    private long mapWindowPosition;
+    /**
+     * Set to true once the channel has reported end of input.
+     */
+    private boolean endOfInput;
+    /**
+     * The tag dictionary - the tag with id N is stored at index N. Index 0 is the null tag.
+     */
+    private List<String> tags = new ArrayList<String>();
+    /**
+     * The base time of the current block.
+     */
+    private long blockBaseTime;
+    /**
+     * State variable points to the next StopWatch to be returned.
+     */
+    private StopWatch nextStopWatch = null;
+    /**
+     * State variable keeps track of whether or not there is a next StopWatch. Null means the next state is currently
+     * unknown.
+     */
+    private Boolean hasNext = null;
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator that decodes the remaining bytes of the specified buffer, which must
+     * start with the binary log header.
+     *
+     * @param buffer The buffer containing the log, for example a MappedByteBuffer.
+     * @throws IllegalArgumentException Thrown if the buffer does not start with a valid header.
+     */
+    public BinaryStopWatchLogIterator(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.endOfInput = true;
+        tags.add(null);
+        if (!readHeader()) {
+            throw new IllegalArgumentException("Input is not a binary StopWatch log");
+        }
+    }
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator that reads from the specified channel.
+     *
+     * @param channel    The channel to read the log from.
+     * @param bufferSize The initial size, in bytes, of the read buffer. The buffer is grown if it is too small to
+     *                   hold a single record.
+     * @throws IOException Thrown if the header could not be read, or if the input is not a binary StopWatch log.
+     */
+    public BinaryStopWatchLogIterator(ReadableByteChannel channel, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 256));
+        this.buffer.flip();
+        tags.add(null);
+        fill();
+        if (!readHeader()) {
+            throw new IOException("Input is not a binary StopWatch log");
+        }
+    }
+
+    private BinaryStopWatchLogIterator(File file, FileChannel fileChannel, int mapWindowSize) throws IOException {
+        this.fileChannel = fileChannel;
+        this.mapWindowSize = mapWindowSize;
+        tags.add(null);
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0L, Math.min(fileChannel.size(), mapWindowSize));
+        if (!readHeader()) {
+            throw new IOException(file + " is not a binary StopWatch log");
+        }
+    }
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator that reads the specified file by memory mapping it. The file remains
+     * open until the iterator is closed.
+     *
+     * @param file The binary log file.
+     * @return The iterator over the StopWatches in the file.
+     * @throws IOException Thrown if the file could not be mapped, or if it is not a binary StopWatch log.
+     */
+    public static BinaryStopWatchLogIterator open(File file) throws IOException {
+        return open(file, DEFAULT_MAP_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator that reads the specified file by memory mapping it a window at a time.
+     * The file remains open until the iterator is closed.
+     *
+     * @param file          The binary log file.
+     * @param mapWindowSize The size, in bytes, of the mapped windows, at most 2 GB. It must be larger than any single
+     *                      record.
+     * @return The iterator over the StopWatches in the file.
+     * @throws IOException Thrown if the file could not be mapped, or if it is not a binary StopWatch log.
+     */
+    public static BinaryStopWatchLogIterator open(File file, int mapWindowSize) throws IOException {
+        FileChannel fileChannel = new FileInputStream(file).getChannel();
+        BinaryStopWatchLogIterator retVal = null;
+        try {
+            retVal = new BinaryStopWatchLogIterator(file, fileChannel, mapWindowSize);
+            return retVal;
+        } finally {
+            if (retVal == null) {
+                fileChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the specified file starts with the binary StopWatch log header.
+     *
+     * @param file The file to check.
+     * @return true if the file is a binary StopWatch log.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    public static boolean isBinaryLog(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] header = new byte[BinaryStopWatchFormat.MAGIC.length];
+            int read = 0;
+            int n;
+            while (read < header.length && (n = in.read(header, read, header.length - read)) > 0) {
+                read += n;
+            }
+            return read == header.length && Arrays.equals(header, BinaryStopWatchFormat.MAGIC);
+        } finally {
+            in.close();
+        }
+    }
+
+    public boolean hasNext() {
+        //if I don't know the state of next, read the next record to determine the state of next
+        if (hasNext == null) {
+            nextStopWatch = getNext();
+            hasNext = (nextStopWatch != null);
+        }
+        return hasNext;
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        //before I return, clear the state of the variables used to determine the next value.
+        StopWatch retVal = nextStopWatch;
+        hasNext = null;
+        nextStopWatch = null;
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the underlying channel or mapped file, if any.
+     *
+     * @throws IOException Thrown if closing the channel failed.
+     */
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (fileChannel != null) {
+            fileChannel.close();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private boolean readHeader() {
+        if (buffer.remaining() < BinaryStopWatchFormat.MAGIC.length + 1) {
+            return false;
+        }
+        byte[] magic = new byte[BinaryStopWatchFormat.MAGIC.length];
+        buffer.get(magic);
+        byte version = buffer.get();
+        return Arrays.equals(magic, BinaryStopWatchFormat.MAGIC) && version <= BinaryStopWatchFormat.VERSION;
+    }
+
+    /**
+     * Decodes records until a StopWatch record is found.
+     *
+     * @return The next StopWatch, or null if there are no more complete records.
+     */
+    private StopWatch getNext() {
+        while (true) {
+            buffer.mark();
+            try {
+                StopWatch retVal = readRecord();
+                if (retVal != null) {
+                    return retVal;
+                }
+            } catch (BufferUnderflowException bue) {
+                //the current record is incomplete - rewind to its start and read more input if possible
+                buffer.reset();
+                if (!fill()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a single record from the buffer.
+     *
+     * @return The StopWatch if a StopWatch record was read, null if some other type of record was read.
+     * @throws BufferUnderflowException Thrown if the buffer ends before the record is complete.
+     */
+    private StopWatch readRecord() {
+        byte recordType = buffer.get();
+        switch (recordType) {
+            case BinaryStopWatchFormat.STOPWATCH:
+            case BinaryStopWatchFormat.WEIGHTED_STOPWATCH:
+                long startTime = blockBaseTime + BinaryStopWatchFormat.zigZagDecode(
+                        BinaryStopWatchFormat.getVarLong(buffer));
+                long elapsedTime = BinaryStopWatchFormat.zigZagDecode(BinaryStopWatchFormat.getVarLong(buffer));
+                int tagId = (int) BinaryStopWatchFormat.getVarLong(buffer);
+                String message = readString((int) BinaryStopWatchFormat.getVarLong(buffer) - 1);
+                if (tagId >= tags.size()) {
+                    throw new IllegalStateException("StopWatch record refers to undefined tag id " + tagId);
+                }
+                StopWatch stopWatch = new StopWatch(startTime, elapsedTime, tags.get(tagId), message);
+                if (recordType == BinaryStopWatchFormat.WEIGHTED_STOPWATCH) {
+                    stopWatch.setWeight((int) BinaryStopWatchFormat.getVarLong(buffer));
+                }
+                return stopWatch;
+            case BinaryStopWatchFormat.TAG_DEFINITION:
+                int id = (int) BinaryStopWatchFormat.getVarLong(buffer);
+                String tag = readString((int) BinaryStopWatchFormat.getVarLong(buffer));
+                while (tags.size() <= id) {
+                    tags.add(null);
+                }
+                tags.set(id, tag);
+                return null;
+            case BinaryStopWatchFormat.BLOCK_START:
+                blockBaseTime = buffer.getLong();
+                return null;
+            case BinaryStopWatchFormat.DICTIONARY_RESET:
+                tags.subList(1, tags.size()).clear();
+                return null;
+            default:
+                throw new IllegalStateException("Unknown record type " + recordType + " at position "
+                                                + (buffer.position() - 1));
+        }
+    }
+
+    /**
+     * Reads a UTF-8 string of the specified length, or returns null if the length is negative.
+     */
+    private String readString(int length) {
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, BinaryStopWatchFormat.UTF_8);
+    }
+
+    /**
+     * Reads more input from the channel into the buffer, preserving any unread bytes.
+     *
+     * @return true if more bytes were read, false if the end of input has been reached.
+     */
+    private boolean fill() {
+        if (fileChannel != null) {
+            return mapNextWindow();
+        }
+        if (endOfInput) {
+            return false;
+        }
+        try {
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                //a single record doesn't fit in the buffer, so grow it
+                ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            int read = 0;
+            while (read == 0) {
+                read = channel.read(buffer);
+            }
+            buffer.flip();
+            if (read < 0) {
+                endOfInput = true;
+                return false;
+            }
+            return true;
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Error reading binary StopWatch log", ioe);
+        }
+    }
+
+    /**
+     * Maps the window of the file that starts with the unread bytes of the buffer.
+     *
+     * @return true if the new window has more bytes, false if the end of the file has been reached.
+     */
+    private boolean mapNextWindow() {
+        try {
+            long position = mapWindowPosition + buffer.position();
+            long length = Math.min(fileChannel.size() - position, mapWindowSize);
+            if (position + length <= mapWindowPosition + buffer.limit()) {
+                if (buffer.position() == 0 && buffer.limit() == mapWindowSize) {
+                    throw new IllegalStateException("A record at position " + position + " is longer than the "
+                                                    + mapWindowSize + " byte map window");
+                }
+                return false;
+            }
+            buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            mapWindowPosition = position;
+            return true;
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Error reading binary StopWatch log", ioe);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BinaryStopWatchWriter writes StopWatches in the compact binary format described by
+ * {@link BinaryStopWatchFormat}. Records are encoded into a direct buffer which is written to the underlying channel
+ * when it fills up, when {@link #flush()} is called, or when the writer is closed. The written logs can be read back
+ * with a {@link BinaryStopWatchLogIterator}.
+ * <p>
+ * Instances of this class are NOT thread safe - callers that share a writer between threads (such as the
+ * {@link net.jperf.log4j.BinaryStopWatchAppender}) must synchronize access to it.
+ */
+public class BinaryStopWatchWriter implements Closeable, Flushable {
+    /**
+     * The default size, in bytes, of the write buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The channel the encoded records are written to.
+     */
+    private WritableByteChannel channel;
+    /**
+     * Records are encoded into this buffer before being written to the channel.
+     */
+    private ByteBuffer buffer;
+    /**
+     * Maps each tag written so far to its dictionary id.
+     */
+    private Map<String, Integer> tagIds = new HashMap<String, Integer>();
+    /**
+     * The base time of the current block. Only valid if blockStarted is true.
+     */
+    private long blockBaseTime;
+    /**
+     * Whether or not a block base time has been written yet.
+     */
+    private boolean blockStarted = false;
+
+    /**
+     * Creates a new BinaryStopWatchWriter that writes to the specified file using the default buffer size.
+     *
+     * @param file   The file to write to.
+     * @param append If true, and the file already contains data, records are appended to the end of the file.
+     *               Otherwise the file is truncated.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public BinaryStopWatchWriter(File file, boolean append) throws IOException {
+        this(file, append, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new BinaryStopWatchWriter that writes to the specified file.
+     *
+     * @param file       The file to write to.
+     * @param append     If true, and the file already contains data, records are appended to the end of the file.
+     *                   Otherwise the file is truncated.
+     * @param bufferSize The size of the write buffer, in bytes.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public BinaryStopWatchWriter(File file, boolean append, int bufferSize) throws IOException {
+        FileChannel fileChannel = new FileOutputStream(file, append).getChannel();
+        this.channel = fileChannel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 256));
+        if (fileChannel.size() > 0) {
+            //appending to an existing log - the tags it defined are unknown to us, so start a fresh dictionary
+            buffer.put(BinaryStopWatchFormat.DICTIONARY_RESET);
+        } else {
+            writeHeader();
+        }
+    }
+
+    /**
+     * Creates a new BinaryStopWatchWriter that writes a new log to the specified channel.
+     *
+     * @param channel    The channel to write to.
+     * @param bufferSize The size of the write buffer, in bytes.
+     */
+    public BinaryStopWatchWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 256));
+        writeHeader();
+    }
+
+    /**
+     * Encodes the specified StopWatch. The record may remain in the write buffer until the next flush.
+     *
+     * @param stopWatch The StopWatch to write, must not be null.
+     * @throws IOException Thrown if the write buffer needed to be flushed and the write to the channel failed.
+     */
+    public void write(StopWatch stopWatch) throws IOException {
+        long startTime = stopWatch.getStartTime();
+        String tag = stopWatch.getTag();
+        String message = stopWatch.getMessage();
+
+        Integer tagId = (tag == null) ? Integer.valueOf(0) : tagIds.get(tag);
+        byte[] tagBytes = null;
+        if (tagId == null) {
+            if (tagIds.size() >= BinaryStopWatchFormat.MAX_DICTIONARY_SIZE) {
+                ensureRemaining(1);
+                buffer.put(BinaryStopWatchFormat.DICTIONARY_RESET);
+                tagIds.clear();
+            }
+            //the tag is only added to the dictionary once its definition is encoded, below
+            tagId = tagIds.size() + 1;
+            tagBytes = tag.getBytes(BinaryStopWatchFormat.UTF_8);
+        }
+        byte[] messageBytes = (message == null) ? null : message.getBytes(BinaryStopWatchFormat.UTF_8);
+
+        boolean newBlock = !blockStarted || Math.abs(startTime - blockBaseTime) > BinaryStopWatchFormat.MAX_BLOCK_DELTA;
+
+        int maxLength = 1 + 5 * BinaryStopWatchFormat.MAX_VARINT_LENGTH
+                        + (messageBytes == null ? 0 : messageBytes.length)
+                        + (newBlock ? 9 : 0)
+                        + (tagBytes == null ? 0 : 1 + 2 * BinaryStopWatchFormat.MAX_VARINT_LENGTH + tagBytes.length);
+        ByteBuffer target = ensureRemaining(maxLength);
+
+        if (tagBytes != null) {
+            target.put(BinaryStopWatchFormat.TAG_DEFINITION);
+            BinaryStopWatchFormat.putVarLong(tagId, target);
+            BinaryStopWatchFormat.putVarLong(tagBytes.length, target);
+            target.put(tagBytes);
+        }
+        if (newBlock) {
+            blockBaseTime = startTime;
+            blockStarted = true;
+            target.put(BinaryStopWatchFormat.BLOCK_START);
+            target.putLong(startTime);
+        }
+        int weight = stopWatch.getWeight();
+        target.put((weight == 1) ? BinaryStopWatchFormat.STOPWATCH : BinaryStopWatchFormat.WEIGHTED_STOPWATCH);
+        BinaryStopWatchFormat.putVarLong(BinaryStopWatchFormat.zigZagEncode(startTime - blockBaseTime), target);
+        BinaryStopWatchFormat.putVarLong(BinaryStopWatchFormat.zigZagEncode(stopWatch.getElapsedTime()), target);
+        BinaryStopWatchFormat.putVarLong(tagId, target);
+        if (messageBytes == null) {
+            BinaryStopWatchFormat.putVarLong(0, target);
+        } else {
+            BinaryStopWatchFormat.putVarLong(messageBytes.length + 1, target);
+            target.put(messageBytes);
+        }
+        if (weight != 1) {
+            BinaryStopWatchFormat.putVarLong(weight, target);
+        }
+
+        if (target != buffer) {
+            //the record was too large for the write buffer, so it was encoded separately
+            target.flip();
+            try {
+                writeFully(target);
+            } catch (IOException e) {
+                forgetWrittenState();
+                throw e;
+            }
+        }
+        if (tagBytes != null) {
+            tagIds.put(tag, tagId);
+        }
+    }
+
+    /**
+     * Writes any buffered records to the underlying channel.
+     *
+     * @throws IOException Thrown if the write to the channel failed.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } catch (IOException e) {
+            forgetWrittenState();
+            throw e;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Flushes any buffered records and closes the underlying channel.
+     *
+     * @throws IOException Thrown if the final flush or the close failed.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void writeHeader() {
+        buffer.put(BinaryStopWatchFormat.MAGIC);
+        buffer.put(BinaryStopWatchFormat.VERSION);
+    }
+
+    /**
+     * Makes room in the write buffer for a record of up to the specified length, flushing if necessary.
+     *
+     * @param maxLength The maximum number of bytes the record may take.
+     * @return The write buffer, or a new temporary buffer if the record could never fit in the write buffer.
+     * @throws IOException Thrown if a flush was needed and it failed.
+     */
+    private ByteBuffer ensureRemaining(int maxLength) throws IOException {
+        if (buffer.remaining() < maxLength) {
+            flush();
+            if (buffer.capacity() < maxLength) {
+                return ByteBuffer.allocate(maxLength);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Called when a write failed, so the tag definitions and block start in the lost bytes may never reach the log.
+     * The next records define their tags again and start a new block, so they can still be read.
+     */
+    private void forgetWrittenState() {
+        tagIds.clear();
+        blockStarted = false;
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+}
@@ -19,6 +19,9 @@ package net.jperf.helpers;
 import net.jperf.StopWatch;
 import net.jperf.GroupedTimingStatistics;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
@@ -84,6 +87,18 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * StopWatchParser
      */
     private String stopWatchParserClassName = StopWatchParser.class.getName();
+    /**
+     * ExposeMetrics option
+     */
+    private boolean exposeMetrics = false;
+    /**
+     * MaxTagsPerWindow option, 0 for no limit
+     */
+    private int maxTagsPerWindow = 0;
+    /**
+     * MaxTags option, 0 for no limit
+     */
+    private int maxTags = 0;
 
     // --- contained objects ---
     /**
@@ -107,6 +122,18 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * This int keeps track of the total number of messages that had to be discarded due to the queue being full.
      */
     private volatile int numDiscardedMessages = 0;
+    /**
+     * The self-instrumentation metrics, created in start().
+     */
+    private AsyncCoalescingStatisticsAppenderMetrics metrics = null;
+    /**
+     * The name the metrics MXBean is registered under, or null if it isn't registered.
+     */
+    private ObjectName metricsMBeanName = null;
+    /**
+     * Limits the number of distinct tags, created in start() if either tag limit is set.
+     */
+    private volatile TagCardinalityGuard tagCardinalityGuard = null;
 
     // --- options ---
     /**
@@ -239,6 +266,72 @@ public class GenericAsyncCoalescingStatisticsAppender {
         this.stopWatchParserClassName = stopWatchParserClassName;
     }
 
+    /**
+     * The <b>ExposeMetrics</b> option determines whether the {@link AsyncCoalescingStatisticsAppenderMetrics} of this
+     * appender are registered with the platform MBeanServer, under the name
+     * <tt>net.jperf:type=AsyncCoalescingStatisticsAppender,name=</tt> followed by the quoted appender name.
+     * Appenders without a name are not registered, and an appender doesn't replace an MBean registered by another
+     * appender with the same name. Defaults to false.
+     *
+     * @return The ExposeMetrics option.
+     */
+    public boolean isExposeMetrics() {
+        return exposeMetrics;
+    }
+
+    /**
+     * Sets the value of the <b>ExposeMetrics</b> option.
+     *
+     * @param exposeMetrics The new ExposeMetrics option.
+     */
+    public void setExposeMetrics(boolean exposeMetrics) {
+        this.exposeMetrics = exposeMetrics;
+    }
+
+    /**
+     * The <b>MaxTagsPerWindow</b> option limits the number of distinct tags in each GroupedTimingStatistics, which
+     * protects against tags built from runtime values creating an unbounded number of statistics. Once the limit is
+     * reached, StopWatches with other tags are folded into an overflow tag per tag prefix, like
+     * <tt>get.__other__</tt>, or into <tt>__other__</tt> once the window has MaxTagsPerWindow / 10 overflow tags;
+     * see {@link TagCardinalityGuard}. Defaults to 0, meaning no limit, unless MaxTags is set, in which case it
+     * defaults to MaxTags.
+     *
+     * @return The MaxTagsPerWindow option.
+     */
+    public int getMaxTagsPerWindow() {
+        return maxTagsPerWindow;
+    }
+
+    /**
+     * Sets the value of the <b>MaxTagsPerWindow</b> option.
+     *
+     * @param maxTagsPerWindow The new MaxTagsPerWindow option.
+     */
+    public void setMaxTagsPerWindow(int maxTagsPerWindow) {
+        this.maxTagsPerWindow = maxTagsPerWindow;
+    }
+
+    /**
+     * The <b>MaxTags</b> option limits the number of distinct tags tracked over all windows. Tags that haven't been
+     * logged for a few windows are forgotten, and tags that are logged more often than the least used tracked tags
+     * replace them. Defaults to 0, meaning no limit, unless MaxTagsPerWindow is set, in which case it defaults to 10
+     * times MaxTagsPerWindow.
+     *
+     * @return The MaxTags option.
+     */
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    /**
+     * Sets the value of the <b>MaxTags</b> option.
+     *
+     * @param maxTags The new MaxTags option.
+     */
+    public void setMaxTags(int maxTags) {
+        this.maxTags = maxTags;
+    }
+
     // --- attributes ---
     /**
      * Returns the number of StopWatch messages that have been discarded due to the queue being full.
@@ -249,6 +342,37 @@ public class GenericAsyncCoalescingStatisticsAppender {
         return numDiscardedMessages;
     }
 
+    /**
+     * Returns the number of messages currently waiting in the queue to be drained.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        BlockingQueue<String> queue = loggedMessages;
+        return (queue == null) ? 0 : queue.size();
+    }
+
+    /**
+     * Returns the self-instrumentation metrics of this appender. The wrapping appenders use this to record the time
+     * spent in each of their downstream appenders.
+     *
+     * @return The metrics, or null if this appender hasn't been started.
+     */
+    public AsyncCoalescingStatisticsAppenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of StopWatches that were folded into an overflow tag because of the MaxTagsPerWindow and
+     * MaxTags options.
+     *
+     * @return The number of folded StopWatches.
+     */
+    public long getNumFoldedStopWatches() {
+        TagCardinalityGuard guard = tagCardinalityGuard;
+        return (guard == null) ? 0L : guard.getNumFoldedStopWatches();
+    }
+
     // --- main lifecycle methods ---
     /**
      * The start method should only be called once, before the append method is called, to initialize options.
@@ -266,6 +390,11 @@ public class GenericAsyncCoalescingStatisticsAppender {
         stopWatchParser = newStopWatchParser();
         numDiscardedMessages = 0;
         loggedMessages = new ArrayBlockingQueue<String>(getQueueSize());
+        tagCardinalityGuard = newTagCardinalityGuard();
+        metrics = new AsyncCoalescingStatisticsAppenderMetrics(this);
+        if (exposeMetrics) {
+            registerMetricsMBean();
+        }
 
         drainingThread = new Thread(new Dispatcher(), "jperf-async-stats-appender-sink-" + getName());
         drainingThread.setDaemon(true);
@@ -285,6 +414,8 @@ public class GenericAsyncCoalescingStatisticsAppender {
                 ++numDiscardedMessages;
                 handler.error(message);
             }
+        } else {
+            metrics.messageRejected();
         }
     }
 
@@ -294,6 +425,7 @@ public class GenericAsyncCoalescingStatisticsAppender {
      */
     public void stop() {
         stopDrainingThread();
+        unregisterMetricsMBean();
     }
 
     // --- Helper Methods ---
@@ -318,6 +450,43 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
     }
 
+    /**
+     * Helper method registers the metrics MXBean, unless the appender has no name. An MBean already registered under
+     * the same name, for example by an appender with the same name in another web application, is left alone.
+     * Failures are reported to the handler but don't prevent the appender from starting.
+     */
+    private void registerMetricsMBean() {
+        if (getName() == null) {
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("net.jperf:type=AsyncCoalescingStatisticsAppender,name=" +
+                                                   ObjectName.quote(getName()));
+            if (mBeanServer.isRegistered(objectName)) {
+                handler.error("Not registering AsyncCoalescingStatisticsAppender metrics MBean " + objectName
+                              + ", another appender with the same name already registered it");
+                return;
+            }
+            mBeanServer.registerMBean(metrics, objectName);
+            metricsMBeanName = objectName;
+        } catch (Exception e) {
+            handler.error("Error registering AsyncCoalescingStatisticsAppender metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method unregisters the metrics MXBean, if this appender registered it.
+     */
+    private void unregisterMetricsMBean() {
+        if (metricsMBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+            } catch (Exception e) { /* already unregistered */ }
+            metricsMBeanName = null;
+        }
+    }
+
     /**
      * Helper method instantiates a new StopWatchParser based on the StopWatchParserClassName option.
      *
@@ -331,6 +500,19 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
     }
 
+    /**
+     * Helper method creates the TagCardinalityGuard for the MaxTagsPerWindow and MaxTags options, or returns null if
+     * neither is set.
+     */
+    private TagCardinalityGuard newTagCardinalityGuard() {
+        if (maxTagsPerWindow <= 0 && maxTags <= 0) {
+            return null;
+        }
+        int perWindow = (maxTagsPerWindow > 0) ? maxTagsPerWindow : maxTags;
+        int overall = (maxTags > 0) ? maxTags : 10 * maxTagsPerWindow;
+        return new TagCardinalityGuard(perWindow, Math.max(perWindow, overall));
+    }
+
     // --- Support Classes ---
     /**
      * This Dispatcher Runnable uses a StopWatchesFromQueueIterator to pull StopWatch logging message off the
@@ -342,11 +524,16 @@ public class GenericAsyncCoalescingStatisticsAppender {
             GroupingStatisticsIterator statsIterator =
                     new GroupingStatisticsIterator(new StopWatchesFromQueueIterator(),
                                                    timeSlice,
-                                                   createRollupStatistics);
+                                                   createRollupStatistics,
+                                                   tagCardinalityGuard);
 
             while (statsIterator.hasNext()) {
                 try {
-                    handler.handle(statsIterator.next());
+                    GroupedTimingStatistics statistics = statsIterator.next();
+                    metrics.windowEmitted(statistics);
+                    long startNanos = System.nanoTime();
+                    handler.handle(statistics);
+                    metrics.windowHandled(System.nanoTime() - startNanos);
                 } catch (Exception e) {
                     handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
                 }
@@ -412,7 +599,10 @@ public class GenericAsyncCoalescingStatisticsAppender {
 
             while (true) {
                 if (drainedMessages.isEmpty()) {
-                    loggedMessages.drainTo(drainedMessages, 64);
+                    int batchSize = loggedMessages.drainTo(drainedMessages, 64);
+                    if (batchSize > 0) {
+                        metrics.messagesDrained(batchSize);
+                    }
 
                     //drainTo is more efficient but it doesn't block, so if we're still empty call take() to block
                     if (drainedMessages.isEmpty()) {
@@ -425,6 +615,7 @@ public class GenericAsyncCoalescingStatisticsAppender {
                                 return null;
                             } else {
                                 drainedMessages.add(message);
+                                metrics.messagesDrained(1);
                             }
                         } catch (InterruptedException ie) {
                             //someone interrupted us, we're done
@@ -443,7 +634,9 @@ public class GenericAsyncCoalescingStatisticsAppender {
                         return null;
                     }
 
+                    long startNanos = System.nanoTime();
                     StopWatch parsedStopWatch = stopWatchParser.parseStopWatch(message);
+                    metrics.messageParsed(parsedStopWatch != null, System.nanoTime() - startNanos);
                     if (parsedStopWatch != null) {
                         return parsedStopWatch;
                     }
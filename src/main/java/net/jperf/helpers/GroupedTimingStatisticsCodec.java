@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingStatistics;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The GroupedTimingStatisticsCodec encodes GroupedTimingStatistics in a compact, versioned binary format, which is
+ * much smaller and faster to produce than default Java serialization. Encoded windows can be written to disk, sent
+ * over a socket, or kept in off-heap buffers. Each encoded window (a "frame") has the following layout, where varints
+ * use the encoding of {@link BinaryStopWatchFormat#putVarLong}:
+ * <ul>
+ * <li>The {@link #VERSION} byte, followed by a flags byte made up of {@link #FLAG_ROLLUP_STATISTICS},
+ *     {@link #FLAG_DICTIONARY_RESET} and {@link #FLAG_HISTOGRAMS}.
+ * <li>The zig-zag varint start time and the varint window length, in milliseconds.
+ * <li>The varint number of tags, followed by each tag's statistics: the varint tag dictionary id, where 0 means the
+ *     tag is not yet in the dictionary; the varint count; the zig-zag varint min; the varint difference between max
+ *     and min; and the 8 byte mean and standard deviation. Tags that are not yet in the dictionary are written after
+ *     the 0 id as the varint number of leading chars shared with the previous new tag in the frame, followed by the
+ *     varint length and UTF-8 bytes of the rest of the tag. Since tags are written in sorted order, related tags
+ *     such as <tt>codeBlock.success</tt> and <tt>codeBlock.failure</tt> share most of their bytes.
+ *     If the histograms flag is set, each tag's statistics are followed by a varint length and that many bytes of
+ *     histogram data. No histograms are currently written, and decoders skip them.
+ * </ul>
+ * The tag dictionary lives as long as the codec instance, so when a codec is used to encode a stream of windows
+ * (such as all the windows sent over one connection), each tag's name is only sent once. The stream must then be
+ * decoded, in order, by a single codec instance. Since the dictionaries are kept per instance, a codec should be used
+ * for a single direction of a single stream, and instances are NOT thread safe. The static {@link #toBytes} and
+ * {@link #fromBytes} methods encode and decode single, self-contained frames.
+ * <p>
+ * Decoding reads directly from the ByteBuffer, so windows can be decoded from direct or memory mapped buffers
+ * without copying; only tag names seen for the first time are copied out of the buffer.
+ */
+public class GroupedTimingStatisticsCodec {
+    /**
+     * The version of the format written by this release.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * Frame flag set if the window contains rollup statistics.
+     */
+    public static final int FLAG_ROLLUP_STATISTICS = 0x01;
+    /**
+     * Frame flag set if the encoder reset its tag dictionary before encoding this frame.
+     */
+    public static final int FLAG_DICTIONARY_RESET = 0x02;
+    /**
+     * Frame flag set if each tag's statistics are followed by a histogram payload.
+     */
+    public static final int FLAG_HISTOGRAMS = 0x04;
+    /**
+     * The maximum number of tags in a dictionary before the encoder resets it.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 65536;
+
+    /**
+     * Maps each tag sent so far to its dictionary id.
+     */
+    private Map<String, Integer> encoderDictionary = new HashMap<String, Integer>();
+    /**
+     * The tags received so far - the tag with id N is stored at index N - 1.
+     */
+    private List<String> decoderDictionary = new ArrayList<String>();
+
+    // --- Static Methods ---
+
+    /**
+     * Encodes a single, self-contained frame.
+     *
+     * @param statistics The window to encode.
+     * @return The encoded frame.
+     */
+    public static byte[] toBytes(GroupedTimingStatistics statistics) {
+        GroupedTimingStatisticsCodec codec = new GroupedTimingStatisticsCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(codec.getMaxEncodedSize(statistics));
+        codec.encode(statistics, buffer);
+        byte[] retVal = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(retVal);
+        return retVal;
+    }
+
+    /**
+     * Decodes a single, self-contained frame, such as one created by {@link #toBytes}.
+     *
+     * @param buffer The buffer to decode from. Its position is advanced past the frame.
+     * @return The decoded window.
+     * @throws IllegalArgumentException Thrown if the frame is malformed, refers to an unknown tag id, or was written
+     *                                  by an unsupported version.
+     * @throws BufferUnderflowException Thrown if the buffer ends before the frame is complete.
+     */
+    public static GroupedTimingStatistics fromBytes(ByteBuffer buffer) {
+        return new GroupedTimingStatisticsCodec().decode(buffer);
+    }
+
+    // --- Instance Methods ---
+
+    /**
+     * Gets an upper bound on the number of bytes needed to encode the specified window with this codec.
+     *
+     * @param statistics The window to be encoded.
+     * @return The maximum encoded size, in bytes.
+     */
+    public int getMaxEncodedSize(GroupedTimingStatistics statistics) {
+        int retVal = 2 + 3 * BinaryStopWatchFormat.MAX_VARINT_LENGTH;
+        for (String tag : statistics.getStatisticsByTag().keySet()) {
+            retVal += 6 * BinaryStopWatchFormat.MAX_VARINT_LENGTH + 16;
+            if (!encoderDictionary.containsKey(tag)) {
+                //each char takes at most 3 UTF-8 bytes
+                retVal += tag.length() * 3;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Encodes a window, adding any tags that are not yet in this codec's dictionary.
+     *
+     * @param statistics The window to encode.
+     * @param buffer     The buffer to encode into, which must have at least {@link #getMaxEncodedSize} bytes
+     *                   remaining.
+     */
+    public void encode(GroupedTimingStatistics statistics, ByteBuffer buffer) {
+        SortedMap<String, TimingStatistics> statisticsByTag = statistics.getStatisticsByTag();
+
+        int flags = statistics.isCreateRollupStatistics() ? FLAG_ROLLUP_STATISTICS : 0;
+        if (encoderDictionary.size() + statisticsByTag.size() > MAX_DICTIONARY_SIZE) {
+            encoderDictionary.clear();
+            flags |= FLAG_DICTIONARY_RESET;
+        }
+
+        buffer.put(VERSION);
+        buffer.put((byte) flags);
+        BinaryStopWatchFormat.putVarLong(BinaryStopWatchFormat.zigZagEncode(statistics.getStartTime()), buffer);
+        BinaryStopWatchFormat.putVarLong(statistics.getWindowLength(), buffer);
+        BinaryStopWatchFormat.putVarLong(statisticsByTag.size(), buffer);
+
+        String previousNewTag = "";
+        for (Map.Entry<String, TimingStatistics> tagAndStats : statisticsByTag.entrySet()) {
+            String tag = tagAndStats.getKey();
+            Integer tagId = encoderDictionary.get(tag);
+            if (tagId == null) {
+                encoderDictionary.put(tag, encoderDictionary.size() + 1);
+                int sharedPrefixLength = 0;
+                int maxSharedPrefixLength = Math.min(tag.length(), previousNewTag.length());
+                while (sharedPrefixLength < maxSharedPrefixLength
+                       && tag.charAt(sharedPrefixLength) == previousNewTag.charAt(sharedPrefixLength)) {
+                    sharedPrefixLength++;
+                }
+                byte[] suffixBytes = tag.substring(sharedPrefixLength).getBytes(BinaryStopWatchFormat.UTF_8);
+                BinaryStopWatchFormat.putVarLong(0, buffer);
+                BinaryStopWatchFormat.putVarLong(sharedPrefixLength, buffer);
+                BinaryStopWatchFormat.putVarLong(suffixBytes.length, buffer);
+                buffer.put(suffixBytes);
+                previousNewTag = tag;
+            } else {
+                BinaryStopWatchFormat.putVarLong(tagId, buffer);
+            }
+
+            TimingStatistics stats = tagAndStats.getValue();
+            BinaryStopWatchFormat.putVarLong(stats.getCount(), buffer);
+            BinaryStopWatchFormat.putVarLong(BinaryStopWatchFormat.zigZagEncode(stats.getMin()), buffer);
+            BinaryStopWatchFormat.putVarLong(stats.getMax() - stats.getMin(), buffer);
+            buffer.putDouble(stats.getMean());
+            buffer.putDouble(stats.getCount() == 0 ? 0.0 : stats.getStandardDeviation());
+        }
+    }
+
+    /**
+     * Decodes the next window from the buffer, adding any newly defined tags to this codec's dictionary.
+     *
+     * @param buffer The buffer to decode from. Its position is advanced past the frame.
+     * @return The decoded window.
+     * @throws IllegalArgumentException Thrown if the frame is malformed, refers to an unknown tag id, or was written
+     *                                  by an unsupported version.
+     * @throws BufferUnderflowException Thrown if the buffer ends before the frame is complete.
+     */
+    public GroupedTimingStatistics decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported GroupedTimingStatistics frame version " + version);
+        }
+        int flags = buffer.get();
+        if ((flags & FLAG_DICTIONARY_RESET) != 0) {
+            decoderDictionary.clear();
+        }
+
+        long startTime = BinaryStopWatchFormat.zigZagDecode(BinaryStopWatchFormat.getVarLong(buffer));
+        long stopTime = startTime + BinaryStopWatchFormat.getVarLong(buffer);
+        int numTags = (int) BinaryStopWatchFormat.getVarLong(buffer);
+
+        SortedMap<String, TimingStatistics> statisticsByTag = new TreeMap<String, TimingStatistics>();
+        String previousNewTag = "";
+        for (int i = 0; i < numTags; i++) {
+            String tag;
+            int tagId = (int) BinaryStopWatchFormat.getVarLong(buffer);
+            if (tagId == 0) {
+                int sharedPrefixLength = (int) BinaryStopWatchFormat.getVarLong(buffer);
+                int suffixLength = (int) BinaryStopWatchFormat.getVarLong(buffer);
+                if (sharedPrefixLength < 0 || sharedPrefixLength > previousNewTag.length()) {
+                    throw new IllegalArgumentException("GroupedTimingStatistics frame has an invalid tag prefix");
+                }
+                if (suffixLength < 0 || suffixLength > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                byte[] suffixBytes = new byte[suffixLength];
+                buffer.get(suffixBytes);
+                tag = previousNewTag.substring(0, sharedPrefixLength)
+                      + new String(suffixBytes, BinaryStopWatchFormat.UTF_8);
+                decoderDictionary.add(tag);
+                previousNewTag = tag;
+            } else if (tagId <= decoderDictionary.size()) {
+                tag = decoderDictionary.get(tagId - 1);
+            } else {
+                throw new IllegalArgumentException("GroupedTimingStatistics frame refers to undefined tag id " + tagId);
+            }
+
+            int count = (int) BinaryStopWatchFormat.getVarLong(buffer);
+            long min = BinaryStopWatchFormat.zigZagDecode(BinaryStopWatchFormat.getVarLong(buffer));
+            long max = min + BinaryStopWatchFormat.getVarLong(buffer);
+            double mean = buffer.getDouble();
+            double standardDeviation = buffer.getDouble();
+            if ((flags & FLAG_HISTOGRAMS) != 0) {
+                //histograms are not supported by this version, so skip them
+                int histogramLength = (int) BinaryStopWatchFormat.getVarLong(buffer);
+                buffer.position(buffer.position() + histogramLength);
+            }
+
+            statisticsByTag.put(tag, new TimingStatistics(mean, standardDeviation, max, min, count));
+        }
+
+        return new GroupedTimingStatistics(statisticsByTag,
+                                           startTime,
+                                           stopTime,
+                                           (flags & FLAG_ROLLUP_STATISTICS) != 0);
+    }
+}
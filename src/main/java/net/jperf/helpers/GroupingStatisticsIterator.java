@@ -47,6 +47,10 @@ public class
      * Whether or not entries for "rollup" tags should be created in each GroupedTimingStatistics returned.
      */
     private boolean createRollupStatistics;
+    /**
+     * Limits the number of distinct tags in each GroupedTimingStatistics, may be null.
+     */
+    private TagCardinalityGuard tagCardinalityGuard;
 
     /**
      * This hasNext is really a tri-state var - null indicates I don't know if there's a next one or not.
@@ -91,9 +95,29 @@ public class
     public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
                                       long timeSlice,
                                       boolean createRollupStatistics) {
+        this(stopWatchIterator, timeSlice, createRollupStatistics, null);
+    }
+
+    /**
+     * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
+     * stopWatchIterator into GroupedTimingStatistics, limiting the number of distinct tags in each of them.
+     *
+     * @param stopWatchIterator      The StopWatch Iterator that provides the StopWatch instances. If stopWatchIterator
+     *                               returns a null value, will check to see if a timeslice is over and return
+     *                               GroupedTimingStatistics if necessary.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param tagCardinalityGuard    The guard that folds the StopWatches of tags over its limits into overflow tags,
+     *                               or null to keep every tag.
+     */
+    public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
+                                      long timeSlice,
+                                      boolean createRollupStatistics,
+                                      TagCardinalityGuard tagCardinalityGuard) {
         this.stopWatchIterator = stopWatchIterator;
         this.timeSlice = timeSlice;
         this.createRollupStatistics = createRollupStatistics;
+        this.tagCardinalityGuard = tagCardinalityGuard;
         this.currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
     }
 
@@ -167,14 +191,17 @@ public class
                 //set the state for the next slice
                 currentGroupedTimingStatistics = new GroupedTimingStatistics();
                 currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+                if (tagCardinalityGuard != null) {
+                    tagCardinalityGuard.windowClosed();
+                }
                 if (stopWatch != null) {
                 	// only add if we got a new stopwatch, not if timeslice just expired
-                	currentGroupedTimingStatistics.addStopWatch(stopWatch);
+                	addStopWatch(stopWatch);
                 }                
                 nextTimeSliceEndTime = ((startTime / timeSlice) * timeSlice) + timeSlice;
                 return retVal;
             } else if (stopWatch != null) {
-                currentGroupedTimingStatistics.addStopWatch(stopWatch);
+                addStopWatch(stopWatch);
             }
         }
 
@@ -187,6 +214,9 @@ public class
             //create an empty GroupedTimingStatistics so we know to return null in the next call to this method.
             currentGroupedTimingStatistics = new GroupedTimingStatistics();
             currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+            if (tagCardinalityGuard != null) {
+                tagCardinalityGuard.windowClosed();
+            }
 
             return retVal;
         } else {
@@ -194,4 +224,22 @@ public class
             return null;
         }
     }
+
+    /**
+     * Helper method adds a StopWatch to the current statistics, under its overflow tag if the TagCardinalityGuard
+     * folds it.
+     *
+     * @param stopWatch The StopWatch to add.
+     */
+    private void addStopWatch(StopWatch stopWatch) {
+        if (tagCardinalityGuard != null) {
+            String tag = tagCardinalityGuard.getTag(stopWatch.getTag());
+            if (!tag.equals(stopWatch.getTag())) {
+                //a sampled StopWatch still stands for weight calls once folded
+                stopWatch = new StopWatch(stopWatch.getStartTime(), stopWatch.getElapsedTime(), tag,
+                                          stopWatch.getMessage()).setWeight(stopWatch.getWeight());
+            }
+        }
+        currentGroupedTimingStatistics.addStopWatch(stopWatch);
+    }
 }
@@ -16,36 +16,234 @@
  */
 package net.jperf.helpers;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
+/**
+ * Holds the jperf.properties loaded from the classpath. The properties can be reloaded while the application runs,
+ * either by calling {@link #reload()}, through JMX, or automatically when the file changes, which is configured with
+ * these properties in the jperf.properties itself:
+ * <ul>
+ * <li><tt>net.jperf.properties.reloadInterval</tt> - How often, in milliseconds, to check whether the
+ *     jperf.properties file has changed and reload it. Only a file in a directory on the classpath, not in a jar, can
+ *     be watched. Defaults to 0, which means the file isn't watched.
+ * <li><tt>net.jperf.properties.exposeMBean</tt> - Whether to register a {@link JperfPropertiesMXBean} under
+ *     {@link #MBEAN_NAME}, to view, change and reload the properties through JMX. Defaults to false. If another
+ *     class loader, for example another web application, already registered that name, its MBean is left alone.
+ * </ul>
+ * Both are only read when the properties are first loaded.
+ */
 public class JperfProperties {
 
+    /**
+     * The property holding how often, in milliseconds, to check the jperf.properties file for changes.
+     */
+    public static final String RELOAD_INTERVAL_KEY = "net.jperf.properties.reloadInterval";
+
+    /**
+     * The property that enables the JMX management interface of the properties.
+     */
+    public static final String EXPOSE_MBEAN_KEY = "net.jperf.properties.exposeMBean";
+
+    /**
+     * The ObjectName the {@link JperfPropertiesMXBean} is registered under.
+     */
+    public static final String MBEAN_NAME = "net.jperf:type=JperfProperties";
+
     public static final Properties INSTANCE;
 
+    private static final String RESOURCE_NAME = "jperf.properties";
+
+    private static final URL resource;
+    private static volatile long resourceLastModified;
+    private static volatile long lastLoadTime;
+
     static {
         INSTANCE = new PackageParentProperties();
-        final InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("jperf.properties");
-        if (is != null) {
-            try {
-                INSTANCE.load(is);
-            } catch (IOException e) {
-                System.err.println("Failed to load jperf.properties " + e.getMessage());
-                e.printStackTrace();
-            } finally {
-                if (is != null) {
+        resource = Thread.currentThread().getContextClassLoader().getResource(RESOURCE_NAME);
+        if (resource != null) {
+            resourceLastModified = getLastModified(resource);
+            Properties loaded = load(resource);
+            if (loaded != null) {
+                INSTANCE.putAll(loaded);
+            }
+        }
+        lastLoadTime = System.currentTimeMillis();
+
+        startReloading();
+        if (Boolean.valueOf(INSTANCE.getProperty(EXPOSE_MBEAN_KEY))) {
+            registerMBean();
+        }
+    }
+
+    private JperfProperties() {
+        // singleton, not instantiable externally
+    }
+
+    /**
+     * Gets the number of changes made to the {@link #INSTANCE} properties, including loading them. Callers that cache
+     * values derived from the properties should recompute them when this count changes.
+     *
+     * @return The modification count of the properties.
+     */
+    public static int getModificationCount() {
+        return ((PackageParentProperties) INSTANCE).getModificationCount();
+    }
+
+    /**
+     * Reloads the properties from the jperf.properties on the classpath, replacing all the current values, including
+     * those set at runtime. Threads reading the properties concurrently see either the old or the new values.
+     *
+     * @return true if the properties were reloaded, false if there is no jperf.properties or it could not be read, in
+     *         which case the current values are kept.
+     */
+    public static boolean reload() {
+        if (resource == null) {
+            return false;
+        }
+        resourceLastModified = getLastModified(resource);
+        Properties loaded = load(resource);
+        if (loaded == null) {
+            return false;
+        }
+        ((PackageParentProperties) INSTANCE).setAll(loaded);
+        lastLoadTime = System.currentTimeMillis();
+        return true;
+    }
+
+    // --- helper methods ---
+
+    private static Properties load(URL url) {
+        Properties retVal = new Properties();
+        InputStream is = null;
+        try {
+            URLConnection connection = url.openConnection();
+            //make sure a changed file is read again
+            connection.setUseCaches(false);
+            is = connection.getInputStream();
+            retVal.load(is);
+            return retVal;
+        } catch (IOException e) {
+            System.err.println("Failed to load jperf.properties " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the last modification time of the resource, or 0 if it isn't a file that can be watched.
+     */
+    private static long getLastModified(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return 0L;
+        }
+        try {
+            return new File(URLDecoder.decode(url.getPath(), "UTF-8")).lastModified();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static void startReloading() {
+        final long reloadInterval;
+        try {
+            reloadInterval = Long.parseLong(INSTANCE.getProperty(RELOAD_INTERVAL_KEY, "0"));
+        } catch (NumberFormatException nfe) {
+            System.err.println("Invalid " + RELOAD_INTERVAL_KEY + " in jperf.properties: " + nfe.getMessage());
+            return;
+        }
+        if (reloadInterval <= 0 || resource == null || getLastModified(resource) == 0L) {
+            return;
+        }
+
+        Thread reloadingThread = new Thread("jperf-properties-reloader") {
+            public void run() {
+                while (true) {
                     try {
-                        is.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                        Thread.sleep(reloadInterval);
+                    } catch (InterruptedException ie) {
+                        //someone interrupted us, we're done
+                        return;
+                    }
+                    long lastModified = getLastModified(resource);
+                    if (lastModified != 0L && lastModified != resourceLastModified) {
+                        reload();
                     }
                 }
             }
+        };
+        reloadingThread.setDaemon(true);
+        reloadingThread.start();
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                System.err.println("Not registering the jperf.properties MBean " + objectName
+                                   + ", another class loader already registered it");
+                return;
+            }
+            mBeanServer.registerMBean(new Management(), objectName);
+        } catch (Exception e) {
+            System.err.println("Failed to register the jperf.properties MBean " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
-    private JperfProperties() {
-        // singleton, not instantiable externally
+    /**
+     * The implementation of the JMX management interface.
+     */
+    static class Management implements JperfPropertiesMXBean {
+        public String getResource() {
+            return (resource == null) ? null : resource.toString();
+        }
+
+        public int getModificationCount() {
+            return JperfProperties.getModificationCount();
+        }
+
+        public long getLastLoadTime() {
+            return lastLoadTime;
+        }
+
+        public Map<String, String> getProperties() {
+            Map<String, String> retVal = new TreeMap<String, String>();
+            for (String key : INSTANCE.stringPropertyNames()) {
+                retVal.put(key, INSTANCE.getProperty(key));
+            }
+            return retVal;
+        }
+
+        public void setProperty(String key, String value) {
+            INSTANCE.setProperty(key, value);
+        }
+
+        public void removeProperty(String key) {
+            INSTANCE.remove(key);
+        }
+
+        public boolean reload() {
+            return JperfProperties.reload();
+        }
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.Map;
+
+/**
+ * The management interface of the jperf.properties, registered with the platform MBeanServer under
+ * {@link JperfProperties#MBEAN_NAME} when the <tt>net.jperf.properties.exposeMBean</tt> property is true. It lets
+ * thresholds, tags and other profiling options be changed in a running application; the changes apply to the next
+ * call of each profiled method.
+ */
+public interface JperfPropertiesMXBean {
+    /**
+     * @return The URL the properties were loaded from, or null if there is no jperf.properties on the classpath.
+     */
+    String getResource();
+
+    /**
+     * @return The number of changes made to the properties, including reloads.
+     */
+    int getModificationCount();
+
+    /**
+     * @return The time the properties were last loaded, in milliseconds since the epoch.
+     */
+    long getLastLoadTime();
+
+    /**
+     * @return The current properties, including values set at runtime.
+     */
+    Map<String, String> getProperties();
+
+    /**
+     * Sets a property until the properties are next reloaded.
+     *
+     * @param key   The property key.
+     * @param value The property value.
+     */
+    void setProperty(String key, String value);
+
+    /**
+     * Removes a property until the properties are next reloaded.
+     *
+     * @param key The property key.
+     */
+    void removeProperty(String key);
+
+    /**
+     * Reloads the properties from the jperf.properties resource, discarding values set at runtime.
+     *
+     * @return true if the properties were reloaded, false if the resource could not be read.
+     */
+    boolean reload();
+}
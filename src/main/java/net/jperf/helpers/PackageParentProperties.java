@@ -16,12 +16,52 @@
  */
 package net.jperf.helpers;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
+/**
+ * Properties where a key that isn't found is looked up again without its last '.'-separated part, so that a value
+ * set for a package applies to all its classes and methods.
+ * <p>
+ * Lookups don't lock: they read an immutable snapshot of the entries, which is recreated after every change, and
+ * remember the value resolved for each key in the snapshot so a key is only walked up the package hierarchy once.
+ * Use {@link #setAll} to replace all the entries at once without readers seeing a partial update. Every way of
+ * changing the entries, including the keySet, entrySet and values views, recreates the snapshot.
+ */
 public class PackageParentProperties extends Properties {
 
     private static final long serialVersionUID = 4732002255463533934L;
 
+    /**
+     * Keys that are not found are remembered with this value.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * The maximum number of resolved keys remembered per snapshot, so that looking up arbitrary keys can't use up the
+     * memory; keys past the limit are resolved on every lookup.
+     */
+    private static final int MAX_RESOLVED_KEYS = 10000;
+
+    /**
+     * Incremented on every change, so callers can cache values derived from these properties.
+     */
+    private transient volatile int modificationCount = 0;
+
+    /**
+     * The snapshot read by get, or null if it needs to be recreated after a change.
+     */
+    private transient volatile Snapshot snapshot;
 
     public PackageParentProperties() {
         super();
@@ -32,35 +72,190 @@ public class PackageParentProperties extends Properties {
     }
 
     @Override
-    public synchronized Object get(Object key) {
+    public Object get(Object key) {
 
         if (key == null) {
             throw new NullPointerException();
         }
 
+        Snapshot currentSnapshot = getSnapshot();
         if (!(key instanceof String)) {
-            return super.get(key);
+            return currentSnapshot.entries.get(key);
         }
 
-        String keyString = (String) key;
+        Object retVal = currentSnapshot.resolvedValues.get(key);
+        if (retVal == null) {
+            retVal = resolve(currentSnapshot.entries, (String) key);
+            if (currentSnapshot.resolvedValues.size() < MAX_RESOLVED_KEYS) {
+                currentSnapshot.resolvedValues.put((String) key, (retVal == null) ? NOT_FOUND : retVal);
+            }
+            return retVal;
+        }
+        return (retVal == NOT_FOUND) ? null : retVal;
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+        Object retVal = super.put(key, value);
+        changed();
+        return retVal;
+    }
 
-        Object o = super.get(keyString);
-        if (o != null) {
-            // found at current position
-            return o;
+    @Override
+    public synchronized void putAll(Map<?, ?> t) {
+        for (Map.Entry<?, ?> entry : t.entrySet()) {
+            super.put(entry.getKey(), entry.getValue());
         }
+        changed();
+    }
 
-        // search parent if exists
-        if (keyString.contains(".")) {
-            // com.some.package.SomeClass -> com.some.package
-            // com.some.package -> com.some
-            // com.some -> com
-            keyString = keyString.substring(0, keyString.lastIndexOf('.'));
-            return get(keyString);
-        } else {
-            // all parent keys exhausted, look no further
-            return null;
+    @Override
+    public synchronized Object remove(Object key) {
+        Object retVal = super.remove(key);
+        changed();
+        return retVal;
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        changed();
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object key, Object value) {
+        Object retVal = super.putIfAbsent(key, value);
+        changed();
+        return retVal;
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+        boolean retVal = super.remove(key, value);
+        changed();
+        return retVal;
+    }
+
+    @Override
+    public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+        boolean retVal = super.replace(key, oldValue, newValue);
+        changed();
+        return retVal;
+    }
+
+    @Override
+    public synchronized Object replace(Object key, Object value) {
+        Object retVal = super.replace(key, value);
+        changed();
+        return retVal;
+    }
+
+    @Override
+    public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+        try {
+            return super.computeIfAbsent(key, mappingFunction);
+        } finally {
+            changed();
+        }
+    }
+
+    @Override
+    public synchronized Object computeIfPresent(Object key,
+                                                BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        try {
+            return super.computeIfPresent(key, remappingFunction);
+        } finally {
+            changed();
+        }
+    }
+
+    @Override
+    public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        try {
+            return super.compute(key, remappingFunction);
+        } finally {
+            changed();
+        }
+    }
+
+    @Override
+    public synchronized Object merge(Object key,
+                                     Object value,
+                                     BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        try {
+            return super.merge(key, value, remappingFunction);
+        } finally {
+            changed();
+        }
+    }
+
+    @Override
+    public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+        try {
+            super.replaceAll(function);
+        } finally {
+            changed();
+        }
+    }
+
+    @Override
+    public Set<Object> keySet() {
+        return new ChangeTrackingSet<Object>(super.keySet());
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return new ChangeTrackingSet<Map.Entry<Object, Object>>(super.entrySet()) {
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                return new ChangeTrackingIterator<Map.Entry<Object, Object>>(set.iterator()) {
+                    public Map.Entry<Object, Object> next() {
+                        return new ChangeTrackingEntry(super.next());
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        final Collection<Object> values = super.values();
+        return new AbstractCollection<Object>() {
+            public Iterator<Object> iterator() {
+                return new ChangeTrackingIterator<Object>(values.iterator());
+            }
+
+            public int size() {
+                return values.size();
+            }
+
+            public boolean contains(Object o) {
+                return values.contains(o);
+            }
+        };
+    }
+
+    /**
+     * Replaces all the entries of these properties. Concurrent lookups see either the old or the new entries, never a
+     * mix of both, which makes this method suitable for reloading the properties while they are in use.
+     *
+     * @param entries The new entries.
+     */
+    public synchronized void setAll(Map<?, ?> entries) {
+        super.clear();
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            super.put(entry.getKey(), entry.getValue());
         }
+        changed();
+    }
+
+    /**
+     * Gets the number of changes made to these properties. Values derived from the properties can be cached and
+     * recomputed only when this count changes.
+     *
+     * @return The modification count.
+     */
+    public int getModificationCount() {
+        return modificationCount;
     }
 
     @Override
@@ -75,4 +270,156 @@ public class PackageParentProperties extends Properties {
         String val = getProperty(key);
         return (val == null) ? defaultValue : val;
     }
+
+    // --- helper methods ---
+
+    private void changed() {
+        snapshot = null;
+        modificationCount++;
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot retVal = snapshot;
+        return (retVal == null) ? createSnapshot() : retVal;
+    }
+
+    private synchronized Snapshot createSnapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(new HashMap<Object, Object>(this));
+        }
+        return snapshot;
+    }
+
+    private static Object resolve(Map<Object, Object> entries, String key) {
+        while (true) {
+            Object o = entries.get(key);
+            if (o != null) {
+                // found at current position
+                return o;
+            }
+
+            // search parent if exists
+            int lastDotIndex = key.lastIndexOf('.');
+            if (lastDotIndex < 0) {
+                // all parent keys exhausted, look no further
+                return null;
+            }
+            // com.some.package.SomeClass -> com.some.package
+            // com.some.package -> com.some
+            // com.some -> com
+            key = key.substring(0, lastDotIndex);
+        }
+    }
+
+    /**
+     * A view of the keys or entries, which recreates the snapshot when entries are removed through it.
+     */
+    private class ChangeTrackingSet<E> extends AbstractSet<E> {
+        final Set<E> set;
+
+        ChangeTrackingSet(Set<E> set) {
+            this.set = set;
+        }
+
+        public Iterator<E> iterator() {
+            return new ChangeTrackingIterator<E>(set.iterator());
+        }
+
+        public int size() {
+            return set.size();
+        }
+
+        public boolean contains(Object o) {
+            return set.contains(o);
+        }
+
+        public boolean remove(Object o) {
+            synchronized (PackageParentProperties.this) {
+                boolean retVal = set.remove(o);
+                changed();
+                return retVal;
+            }
+        }
+
+        public void clear() {
+            PackageParentProperties.this.clear();
+        }
+    }
+
+    /**
+     * An iterator over a view, which recreates the snapshot when entries are removed through it.
+     */
+    private class ChangeTrackingIterator<E> implements Iterator<E> {
+        private final Iterator<E> iterator;
+
+        ChangeTrackingIterator(Iterator<E> iterator) {
+            this.iterator = iterator;
+        }
+
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        public E next() {
+            return iterator.next();
+        }
+
+        public void remove() {
+            synchronized (PackageParentProperties.this) {
+                iterator.remove();
+                changed();
+            }
+        }
+    }
+
+    /**
+     * An entry of the entrySet view, which recreates the snapshot when its value is set.
+     */
+    private class ChangeTrackingEntry implements Map.Entry<Object, Object> {
+        private final Map.Entry<Object, Object> entry;
+
+        ChangeTrackingEntry(Map.Entry<Object, Object> entry) {
+            this.entry = entry;
+        }
+
+        public Object getKey() {
+            return entry.getKey();
+        }
+
+        public Object getValue() {
+            return entry.getValue();
+        }
+
+        public Object setValue(Object value) {
+            synchronized (PackageParentProperties.this) {
+                Object retVal = entry.setValue(value);
+                changed();
+                return retVal;
+            }
+        }
+
+        public boolean equals(Object o) {
+            return entry.equals(o);
+        }
+
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        public String toString() {
+            return entry.toString();
+        }
+    }
+
+    /**
+     * An immutable copy of the entries, and the values resolved from them.
+     */
+    private static class Snapshot {
+        final Map<Object, Object> entries;
+        final ConcurrentMap<String, Object> resolvedValues = new ConcurrentHashMap<String, Object>(64, .75F, 4);
+
+        Snapshot(Map<Object, Object> entries) {
+            this.entries = entries;
+        }
+    }
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The ProfilingSwitch turns profiling on and off at runtime for individual tags and profiled methods, or for whole
+ * subsystems, independently of the logging configuration. Names are hierarchical with dot notation, like tags and
+ * fully qualified method names, and the rule for the longest matching prefix applies: after
+ * <tt>disable("com.acme.dao")</tt> and <tt>enable("com.acme.dao.OrderDao.find")</tt> calls of every profiled method
+ * in the com.acme.dao package, and StopWatches with tags starting with "com.acme.dao.", are not logged, except the
+ * calls of OrderDao.find. The empty name is the prefix of every name, so <tt>disable("")</tt> turns all profiling off.
+ * <p>
+ * The timing aspects check the switch before creating a StopWatch, by the qualified name of the profiled method and
+ * by its tag if the tag doesn't depend on the call, so calls that are switched off cost no allocation or clock read.
+ * LoggingStopWatches check their tag when they are stopped. While no name is disabled, which is the normal case, a
+ * check is a single volatile read; otherwise the result for each name is cached until the rules next change.
+ * <p>
+ * The rules can be changed through the static methods of this class or through JMX, see
+ * {@link ProfilingSwitchMXBean}, and their initial value is configured with these properties in the
+ * jperf.properties:
+ * <ul>
+ * <li><tt>net.jperf.switch.disabled</tt> - A comma separated list of the names that are disabled at startup.
+ * <li><tt>net.jperf.switch.exposeMBean</tt> - Whether to register a {@link ProfilingSwitchMXBean} under
+ *     {@link #MBEAN_NAME}. Defaults to false. If another class loader, for example another web application,
+ *     already registered that name, its MBean is left alone.
+ * </ul>
+ */
+public class ProfilingSwitch {
+
+    /**
+     * The property holding the names that are disabled at startup.
+     */
+    public static final String DISABLED_KEY = "net.jperf.switch.disabled";
+
+    /**
+     * The property that enables the JMX management interface of the switch.
+     */
+    public static final String EXPOSE_MBEAN_KEY = "net.jperf.switch.exposeMBean";
+
+    /**
+     * The ObjectName the {@link ProfilingSwitchMXBean} is registered under.
+     */
+    public static final String MBEAN_NAME = "net.jperf:type=ProfilingSwitch";
+
+    /**
+     * The maximum number of names whose result is cached, so that tags with unbounded cardinality can't exhaust the
+     * heap; further names are resolved on every check.
+     */
+    private static final int MAX_RESOLVED_NAMES = 10000;
+
+    /**
+     * The current rules, replaced as a whole whenever they change.
+     */
+    private static volatile Rules rules = new Rules(new TreeMap<String, Boolean>());
+
+    static {
+        String disabled = JperfProperties.INSTANCE.getProperty(DISABLED_KEY);
+        if (disabled != null) {
+            for (String name : MiscUtils.splitAndTrim(disabled, ",")) {
+                disable(name);
+            }
+        }
+        if (Boolean.valueOf(JperfProperties.INSTANCE.getProperty(EXPOSE_MBEAN_KEY))) {
+            registerMBean();
+        }
+    }
+
+    private ProfilingSwitch() {
+        // static methods only, not instantiable
+    }
+
+    // --- checking methods ---
+
+    /**
+     * Checks whether no name is disabled, with a single volatile read. When this returns true, every call to
+     * {@link #isEnabled(String)} returns true as well.
+     *
+     * @return true if nothing is disabled.
+     */
+    public static boolean isAllEnabled() {
+        return rules.allEnabled;
+    }
+
+    /**
+     * Checks whether a tag or profiled method is enabled.
+     *
+     * @param name The tag or fully qualified method name. Null is treated like the empty name.
+     * @return true if the rule for the longest prefix of the name enables it, or there is no such rule.
+     */
+    public static boolean isEnabled(String name) {
+        Rules currentRules = rules;
+        return currentRules.allEnabled || currentRules.isEnabled((name == null) ? "" : name);
+    }
+
+    // --- changing methods ---
+
+    /**
+     * Disables a name and every name below it, except those below it that are explicitly enabled.
+     *
+     * @param name The tag, fully qualified method name or prefix to disable.
+     */
+    public static void disable(String name) {
+        setRule(name, Boolean.FALSE);
+    }
+
+    /**
+     * Enables a name and every name below it, except those below it that are explicitly disabled. This is only
+     * needed to make an exception below a disabled prefix.
+     *
+     * @param name The tag, fully qualified method name or prefix to enable.
+     */
+    public static void enable(String name) {
+        setRule(name, Boolean.TRUE);
+    }
+
+    /**
+     * Removes the rule for a name, so that the rule for its longest remaining prefix applies to it again.
+     *
+     * @param name The name whose rule should be removed.
+     */
+    public static void reset(String name) {
+        setRule(name, null);
+    }
+
+    /**
+     * Removes all the rules, enabling everything.
+     */
+    public static synchronized void resetAll() {
+        rules = new Rules(new TreeMap<String, Boolean>());
+    }
+
+    /**
+     * Gets the current rules.
+     *
+     * @return An unmodifiable map from name to true if the name is enabled, or false if it is disabled.
+     */
+    public static SortedMap<String, Boolean> getRules() {
+        return Collections.unmodifiableSortedMap(rules.rulesByName);
+    }
+
+    // --- helper methods ---
+
+    private static synchronized void setRule(String name, Boolean enabled) {
+        if (name == null) {
+            throw new IllegalArgumentException("The name of a rule can't be null");
+        }
+        TreeMap<String, Boolean> newRules = new TreeMap<String, Boolean>(rules.rulesByName);
+        if (enabled == null) {
+            newRules.remove(name);
+        } else {
+            newRules.put(name, enabled);
+        }
+        rules = new Rules(newRules);
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                System.err.println("Not registering the ProfilingSwitch MBean " + objectName
+                                   + ", another class loader already registered it");
+                return;
+            }
+            mBeanServer.registerMBean(new Management(), objectName);
+        } catch (Exception e) {
+            System.err.println("Failed to register the ProfilingSwitch MBean " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // --- support classes ---
+
+    /**
+     * An immutable set of rules, with the results of the names checked against it.
+     */
+    private static class Rules {
+        final TreeMap<String, Boolean> rulesByName;
+        /**
+         * True if no rule disables anything, in which case the rules don't need to be looked at.
+         */
+        final boolean allEnabled;
+        final ConcurrentMap<String, Boolean> resolvedNames = new ConcurrentHashMap<String, Boolean>(64, .75F, 4);
+
+        Rules(TreeMap<String, Boolean> rulesByName) {
+            this.rulesByName = rulesByName;
+            this.allEnabled = !rulesByName.containsValue(Boolean.FALSE);
+        }
+
+        boolean isEnabled(String name) {
+            Boolean retVal = resolvedNames.get(name);
+            if (retVal == null) {
+                retVal = resolve(name);
+                if (resolvedNames.size() < MAX_RESOLVED_NAMES) {
+                    resolvedNames.put(name, retVal);
+                }
+            }
+            return retVal;
+        }
+
+        private Boolean resolve(String name) {
+            String prefix = name;
+            while (true) {
+                Boolean rule = rulesByName.get(prefix);
+                if (rule != null) {
+                    return rule;
+                }
+                if (prefix.length() == 0) {
+                    return Boolean.TRUE;
+                }
+                int lastDot = prefix.lastIndexOf('.');
+                prefix = (lastDot < 0) ? "" : prefix.substring(0, lastDot);
+            }
+        }
+    }
+
+    /**
+     * The implementation of the JMX management interface.
+     */
+    static class Management implements ProfilingSwitchMXBean {
+        public Map<String, Boolean> getRules() {
+            return new TreeMap<String, Boolean>(ProfilingSwitch.getRules());
+        }
+
+        public void disable(String name) {
+            ProfilingSwitch.disable(name);
+        }
+
+        public void enable(String name) {
+            ProfilingSwitch.enable(name);
+        }
+
+        public void reset(String name) {
+            ProfilingSwitch.reset(name);
+        }
+
+        public void resetAll() {
+            ProfilingSwitch.resetAll();
+        }
+
+        public boolean isEnabled(String name) {
+            return ProfilingSwitch.isEnabled(name);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link ProfilingSwitch}, registered with the platform MBeanServer under
+ * {@link ProfilingSwitch#MBEAN_NAME} when the <tt>net.jperf.switch.exposeMBean</tt> property is true. It lets the
+ * profiling of noisy subsystems be turned off and on again in a running application, without changing the logging
+ * configuration.
+ */
+public interface ProfilingSwitchMXBean {
+    /**
+     * @return The rules, by name, with true for the names that are explicitly enabled and false for those that are
+     *         disabled.
+     */
+    Map<String, Boolean> getRules();
+
+    /**
+     * Disables a tag, a profiled method, or everything below a tag or package prefix.
+     *
+     * @param name The tag, fully qualified method name (e.g. <tt>com.acme.Dao.find</tt>) or prefix to disable.
+     */
+    void disable(String name);
+
+    /**
+     * Enables a tag, profiled method or prefix below a disabled prefix.
+     *
+     * @param name The tag, fully qualified method name or prefix to enable.
+     */
+    void enable(String name);
+
+    /**
+     * Removes the rule for a name, so the rule for its closest prefix applies again.
+     *
+     * @param name The name whose rule should be removed.
+     */
+    void reset(String name);
+
+    /**
+     * Removes all the rules, enabling everything.
+     */
+    void resetAll();
+
+    /**
+     * @param name A tag or fully qualified method name.
+     * @return Whether StopWatches with the tag, or calls of the method, are currently logged.
+     */
+    boolean isEnabled(String name);
+}
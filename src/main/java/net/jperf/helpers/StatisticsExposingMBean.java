@@ -20,6 +20,15 @@ import net.jperf.GroupedTimingStatistics;
 import net.jperf.TimingStatistics;
 
 import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -29,6 +38,21 @@ import java.util.regex.Pattern;
 /**
  * This class provides a wrapper around GroupedTimingStatistics data so that this performance information can be
  * exposed through JMX.
+ * <p>
+ * Attribute reads don't lock: the current statistics are published through a volatile reference, and attribute names
+ * are resolved through a map that is rebuilt whenever the exposed tags change, so monitoring tools polling many
+ * attributes never hold up the thread calling {@link #updateCurrentTimingStatistics}.
+ * <p>
+ * Besides the per tag attributes, the <tt>getWindow</tt> operation returns the statistics of every tag in the current
+ * window as a single CompositeData, so a poller can fetch them in one call. The operation can be limited to the tags
+ * starting with a prefix and to the tags whose statistics changed since a window the poller has already seen. A tag
+ * that disappears is returned as removed for {@link #getRemovedTagWindows() RemovedTagWindows} windows, so pollers
+ * that skip windows still learn about it.
+ * <p>
+ * Tags to expose may also be given as wildcard patterns, where <tt>*</tt> matches any characters, for example
+ * <tt>orders.*</tt>. Tags matching a pattern are exposed as they first appear in the timing statistics, until
+ * {@link #getMaxExposedTags() MaxExposedTags} tags are exposed. The new attributes are added to the MBeanInfo at most
+ * once per window, when the statistics are updated.
  *
  * @author Alex Devine
  * @author Xu Huisheng
@@ -59,6 +83,16 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      */
     public static final String COLLISION_IGNORE = "IGNORE";
 
+    /**
+     * The default maximum number of tags exposed because they match a wildcard pattern.
+     */
+    public static final int DEFAULT_MAX_EXPOSED_TAGS = 1000;
+
+    /**
+     * The default number of windows for which a tag that disappeared is returned as removed by getWindow.
+     */
+    public static final int DEFAULT_REMOVED_TAG_WINDOWS = 120;
+
     /**
      * The name under which this MBean is registered in the MBean server.
      */
@@ -67,13 +101,29 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     /**
      * This MBeanInfo exposes this MBean's management interface to the MBeanServer.
      */
-    protected MBeanInfo managementInterface;
+    protected volatile MBeanInfo managementInterface;
 
     /**
-     * The tags whose statistics values are being exposed.
+     * The tags whose statistics values are being exposed. Changes must be made while holding the lock on this object.
      */
     protected Collection<String> tagsToExpose;
 
+    /**
+     * The wildcard patterns of the tags to expose as they appear, mapped to the compiled regular expression. Changes
+     * must be made while holding the lock on this object.
+     */
+    protected Map<String, Pattern> tagPatterns = new LinkedHashMap<String, Pattern>();
+
+    /**
+     * Once this many tags are exposed, no more tags are exposed because they match a wildcard pattern.
+     */
+    protected int maxExposedTags = DEFAULT_MAX_EXPOSED_TAGS;
+
+    /**
+     * The number of windows for which a tag that disappeared is kept in the windows as removed.
+     */
+    protected int removedTagWindows = DEFAULT_REMOVED_TAG_WINDOWS;
+
     /**
      * These AcceptableRangeConfigurations force a notification to be sent if a statistic is updated to a value
      * outside the allowable range. This Map maps acceptable ranges to whether or not the LAST check of the attribute
@@ -92,13 +142,40 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      */
     protected long outOfRangeNotificationSeqNo;
     /**
-     * The current underlying timing statistics whose values are exposed as MBean attributes.
+     * The current window, which holds the underlying timing statistics whose values are exposed as MBean attributes.
+     * Windows are not modified once set, so readers don't need a lock.
+     */
+    protected volatile StatisticsWindow currentWindow;
+    /**
+     * Maps the name of each exposed attribute to the tag and statistic it returns. The map is replaced, never
+     * modified, when the exposed tags change.
      */
-    protected GroupedTimingStatistics currentTimingStatistics;
+    protected volatile Map<String, StatisticAttribute> exposedAttributes;
+    /**
+     * The attribute checked by each of the acceptable ranges, resolved when this MBean is created.
+     */
+    protected Map<AcceptableRangeConfiguration, StatisticAttribute> acceptableRangeAttributes;
     /**
      * Pattern used to parse requested attribute names into the tag name and the statistic name
      */
     protected Pattern attributeNamePattern = Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS)");
+    /**
+     * The open type of each row of the statistics table: the tag, one item per statistic and the sequence number of
+     * the window in which the tag's statistics last changed.
+     */
+    protected CompositeType statisticsRowType;
+    /**
+     * The item names of the statistics rows, in the order their values are created.
+     */
+    protected String[] statisticsRowItemNames;
+    /**
+     * The open type of the statistics table, indexed by tag.
+     */
+    protected TabularType statisticsTableType;
+    /**
+     * The open type returned by the getWindow operation.
+     */
+    protected CompositeType windowType;
 
     /**
      * Creates a new StatisticsExposingMBean whose management interface exposes performance attributes for the tags
@@ -107,7 +184,8 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      * @param mBeanName        The name under which this MBean is registered in the MBean server
      * @param tagsToExpose     The names of the tags whose statistics should exposed. For each tag specified there will
      *                         be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
-     *                         tagNameMax, and tagNameCount and tagNameTPS
+     *                         tagNameMax, and tagNameCount and tagNameTPS. Names containing a <tt>*</tt> are
+     *                         wildcard patterns for tags that are exposed as they appear.
      * @param acceptableRanges These acceptable ranges are used to send notifications if any of the monitored
      *                         attributes go outside of the range.
      */
@@ -127,27 +205,44 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         //set acceptableRanges
         if (acceptableRanges == null || acceptableRanges.isEmpty()) {
             this.acceptableRanges = Collections.emptyMap();
+            this.acceptableRangeAttributes = Collections.emptyMap();
         } else {
             this.acceptableRanges = new LinkedHashMap<AcceptableRangeConfiguration, Boolean>();
+            this.acceptableRangeAttributes = new HashMap<AcceptableRangeConfiguration, StatisticAttribute>();
             // initialize the last known value of the attribute as good
             for (AcceptableRangeConfiguration acceptableRange : acceptableRanges) {
                 this.acceptableRanges.put(acceptableRange, Boolean.TRUE);
                 //ensure the attributeName on the range is valid
-                if (!attributeNamePattern.matcher(acceptableRange.getAttributeName()).matches()) {
+                StatisticAttribute attribute = parseAttributeName(acceptableRange.getAttributeName());
+                if (attribute == null) {
                     throw new IllegalArgumentException(
                             "Acceptable range attribute name " + acceptableRange.getAttributeName()
                             + " invalid - must match pattern " + attributeNamePattern.pattern()
                     );
                 }
+                this.acceptableRangeAttributes.put(acceptableRange, attribute);
             }
             this.outOfRangeNotifierThread = Executors.newSingleThreadExecutor();
         }
 
-        this.tagsToExpose = new ArrayList<String>(tagsToExpose);
+        this.tagsToExpose = new LinkedHashSet<String>();
+        for (String tagName : tagsToExpose) {
+            if (isTagPattern(tagName)) {
+                this.tagPatterns.put(tagName, compileTagPattern(tagName));
+            } else {
+                this.tagsToExpose.add(tagName);
+            }
+        }
 
-        this.managementInterface = createMBeanInfoFromTagNames(tagsToExpose);
+        this.managementInterface = createMBeanInfoFromTagNames(this.tagsToExpose);
+        this.exposedAttributes = createAttributesFromTagNames(this.tagsToExpose);
 
-        this.currentTimingStatistics = new GroupedTimingStatistics(); //just set empty so it's never null
+        createOpenTypes();
+
+        //just set empty so it's never null
+        this.currentWindow = new StatisticsWindow(new GroupedTimingStatistics(),
+                                                  0L,
+                                                  Collections.<String, Long>emptyMap());
     }
 
     /**
@@ -160,49 +255,110 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         if (currentTimingStatistics == null) {
             throw new IllegalArgumentException("timing statistics may not be null");
         }
-        this.currentTimingStatistics = currentTimingStatistics;
+        if (!tagPatterns.isEmpty()) {
+            exposeMatchingTags(currentTimingStatistics.getStatisticsByTag().keySet());
+        }
+
+        StatisticsWindow previousWindow = this.currentWindow;
+        long sequenceNumber = previousWindow.getSequenceNumber() + 1;
+
+        //a tag's statistics changed if they differ from the previous window's, or the tag has just disappeared
+        Map<String, Long> lastChangedByTag = new HashMap<String, Long>();
+        SortedMap<String, TimingStatistics> statsByTag = currentTimingStatistics.getStatisticsByTag();
+        SortedMap<String, TimingStatistics> previousStatsByTag =
+                previousWindow.getStatistics().getStatisticsByTag();
+        for (Map.Entry<String, TimingStatistics> tagAndStats : statsByTag.entrySet()) {
+            String tag = tagAndStats.getKey();
+            Long previousLastChanged = previousWindow.getLastChangedByTag().get(tag);
+            boolean unchanged = previousLastChanged != null
+                                && tagAndStats.getValue().equals(previousStatsByTag.get(tag));
+            lastChangedByTag.put(tag, unchanged ? previousLastChanged : sequenceNumber);
+        }
+        //removed tags are kept, with the window they disappeared in, until they are RemovedTagWindows windows old
+        for (Map.Entry<String, Long> tagAndLastChanged : previousWindow.getLastChangedByTag().entrySet()) {
+            String tag = tagAndLastChanged.getKey();
+            if (statsByTag.containsKey(tag)) {
+                continue;
+            }
+            long removedWindow = previousStatsByTag.containsKey(tag) ? sequenceNumber : tagAndLastChanged.getValue();
+            if (sequenceNumber - removedWindow < removedTagWindows) {
+                lastChangedByTag.put(tag, removedWindow);
+            }
+        }
+
+        this.currentWindow = new StatisticsWindow(currentTimingStatistics,
+                                                  sequenceNumber,
+                                                  Collections.unmodifiableMap(lastChangedByTag));
 
         sendNotificationsIfValuesNotAcceptable();
     }
 
+    /**
+     * Gets the maximum number of exposed tags. Once this many tags are exposed, tags matching a wildcard pattern are no
+     * longer exposed as they appear, though tags can still be exposed by name. Defaults to
+     * {@link #DEFAULT_MAX_EXPOSED_TAGS}.
+     *
+     * @return The maximum number of exposed tags.
+     */
+    public synchronized int getMaxExposedTags() {
+        return maxExposedTags;
+    }
+
+    public synchronized void setMaxExposedTags(int maxExposedTags) {
+        this.maxExposedTags = maxExposedTags;
+    }
+
+    /**
+     * Gets the number of windows, counting the window in which it disappeared, for which a tag that is no longer in
+     * the statistics is returned as removed by getWindow. A poller that skipped more windows than this should fetch
+     * all tags, passing -1 as sinceWindow, and drop the tags it isn't given. Defaults to
+     * {@link #DEFAULT_REMOVED_TAG_WINDOWS}.
+     *
+     * @return The number of windows removed tags are kept for.
+     */
+    public synchronized int getRemovedTagWindows() {
+        return removedTagWindows;
+    }
+
+    public synchronized void setRemovedTagWindows(int removedTagWindows) {
+        this.removedTagWindows = removedTagWindows;
+    }
+
     /**
      * This MBean operation method allows the caller to add a tag whose statistics should be exposed as attributes
      * at runtime.
      *
-     * @param tagName The name of the tag whose statistics should be exposed.
+     * @param tagName The name of the tag whose statistics should be exposed, or a wildcard pattern for the tags to
+     *                expose as they appear.
      */
-    public void exposeTag(String tagName) {
-        this.tagsToExpose.add(tagName);
-        this.managementInterface = createMBeanInfoFromTagNames(this.tagsToExpose);
+    public synchronized void exposeTag(String tagName) {
+        if (isTagPattern(tagName)) {
+            this.tagPatterns.put(tagName, compileTagPattern(tagName));
+        } else if (!this.tagsToExpose.contains(tagName)) {
+            addExposedTags(Collections.singletonList(tagName));
+        }
     }
 
     /**
      * This MBean operation method allows the caller to remove, at runtime, a tag whose statistics are exposed.
      *
-     * @param tagName The name of the tag whose statistics should be removed as attributes from this MBean.
+     * @param tagName The name of the tag whose statistics should be removed as attributes from this MBean, or a
+     *                wildcard pattern. Tags already exposed because they matched a removed pattern stay exposed.
      * @return Whether or not the specified tag was previously exposed on this MBean.
      */
-    public boolean removeTag(String tagName) {
+    public synchronized boolean removeTag(String tagName) {
+        if (isTagPattern(tagName)) {
+            return this.tagPatterns.remove(tagName) != null;
+        }
         boolean retVal = this.tagsToExpose.remove(tagName);
         this.managementInterface = createMBeanInfoFromTagNames(this.tagsToExpose);
+        this.exposedAttributes = createAttributesFromTagNames(this.tagsToExpose);
         return retVal;
     }
 
-    public synchronized Object getAttribute(String attribute)
+    public Object getAttribute(String attribute)
             throws AttributeNotFoundException, MBeanException, ReflectionException {
-        Matcher matcher = attributeNamePattern.matcher(attribute);
-        if (matcher.matches()) {
-            String tagName = matcher.group(1);
-            String statisticName = matcher.group(2);
-
-            TimingStatistics timingStats = currentTimingStatistics.getStatisticsByTag().get(tagName);
-            long windowLength = currentTimingStatistics.getWindowLength();
-
-            return getStatsValueRetrievers().get(statisticName).getStatsValue(timingStats, windowLength);
-        } else {
-            throw new AttributeNotFoundException("No attribute named " + attribute);
-        }
-
+        return getAttribute(attribute, currentWindow);
     }
 
     public void setAttribute(Attribute attribute)
@@ -210,11 +366,13 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         throw new AttributeNotFoundException("Statistics attributes are not writable");
     }
 
-    public synchronized AttributeList getAttributes(String[] attributeNames) {
+    public AttributeList getAttributes(String[] attributeNames) {
+        //read the window once so all the values come from the same window
+        StatisticsWindow window = currentWindow;
         AttributeList retVal = new AttributeList();
         for (String attributeName : attributeNames) {
             try {
-                retVal.add(new Attribute(attributeName, getAttribute(attributeName)));
+                retVal.add(new Attribute(attributeName, getAttribute(attributeName, window)));
             } catch (Exception e) {
                 //ignore - the absence of the attribute in the return list indicates there was an error
             }
@@ -234,6 +392,9 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
             return null;
         } else if ("removeTag".equals(actionName)) {
             return removeTag(params[0].toString());
+        } else if ("getWindow".equals(actionName)) {
+            return getWindow((params[0] == null) ? null : params[0].toString(),
+                             (params[1] == null) ? -1L : ((Number) params[1]).longValue());
         } else {
             throw new UnsupportedOperationException("Unsupported operation: " + actionName);
         }
@@ -248,6 +409,34 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         return managementInterface.getNotifications();
     }
 
+    /**
+     * Gets the sequence number of the current window. The sequence number is incremented each time the timing
+     * statistics are updated, starting at 0 before the first update.
+     *
+     * @return The current window's sequence number.
+     */
+    public long getWindowSequenceNumber() {
+        return currentWindow.getSequenceNumber();
+    }
+
+    /**
+     * This MBean operation method returns the statistics of the current window in a single call. The returned
+     * CompositeData holds the window's SequenceNumber, StartTime and StopTime, and a Statistics table with a row per
+     * tag that holds the tag, every statistic and the sequence number of the window in which the tag's statistics last
+     * changed (LastChangedWindow), and whether the tag was removed (Removed). A tag that has no statistics in the
+     * current window appears as removed, with zero values and the window in which it disappeared as its
+     * LastChangedWindow, for {@link #getRemovedTagWindows() RemovedTagWindows} windows.
+     *
+     * @param tagPrefix   Only tags starting with this prefix are returned. If null or empty all tags are returned.
+     * @param sinceWindow Only tags whose statistics changed after the window with this sequence number are returned.
+     *                    Pollers can pass the SequenceNumber of the last window they received; pass -1 to return
+     *                    all tags.
+     * @return The CompositeData for the current window.
+     */
+    public CompositeData getWindow(String tagPrefix, long sinceWindow) {
+        return createWindowData(currentWindow, tagPrefix, sinceWindow);
+    }
+
     /**
      * Overridable helper method gets the Map of statistic name to StatsValueRetriever.
      *
@@ -258,13 +447,177 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     }
 
     /**
-     * Helper method creates an MBeanInfo object that contains 6 read only attributes for each tag name, each
-     * attribute representing a different statistic.
+     * Helper method gets the value of an attribute from the specified window. Exposed attributes are found in the
+     * precomputed map; other attribute names are parsed, so the statistics of tags that aren't exposed can still be
+     * read by name.
+     *
+     * @param attribute The name of the attribute.
+     * @param window    The window to read the value from.
+     * @return The attribute value.
+     * @throws AttributeNotFoundException Thrown if the name doesn't match the attribute name pattern.
+     */
+    protected Object getAttribute(String attribute, StatisticsWindow window)
+            throws AttributeNotFoundException {
+        StatisticAttribute statisticAttribute = exposedAttributes.get(attribute);
+        if (statisticAttribute == null) {
+            statisticAttribute = parseAttributeName(attribute);
+            if (statisticAttribute == null) {
+                throw new AttributeNotFoundException("No attribute named " + attribute);
+            }
+        }
+        return statisticAttribute.getValue(window.getStatistics());
+    }
+
+    /**
+     * Helper method parses an attribute name into the tag name and the statistic name.
+     *
+     * @param attribute The name of the attribute.
+     * @return The StatisticAttribute, or null if the name doesn't match the attribute name pattern.
+     */
+    protected StatisticAttribute parseAttributeName(String attribute) {
+        Matcher matcher = attributeNamePattern.matcher(attribute);
+        if (!matcher.matches()) {
+            return null;
+        }
+        StatsValueRetriever statsValueRetriever = getStatsValueRetrievers().get(matcher.group(2));
+        return (statsValueRetriever == null) ? null : new StatisticAttribute(matcher.group(1), statsValueRetriever);
+    }
+
+    /**
+     * Helper method creates the unmodifiable Map of attribute name to StatisticAttribute for the specified tags.
      *
      * @param tagNames The name of the tags whose statistics should be exposed as MBeanAttributes.
-     * @return The MBeanInfo that represents the management interface for this MBean.
+     * @return The Map of every attribute exposed for the tags.
      */
-    protected MBeanInfo createMBeanInfoFromTagNames(Collection<String> tagNames) {
+    protected Map<String, StatisticAttribute> createAttributesFromTagNames(Collection<String> tagNames) {
+        Map<String, StatisticAttribute> retVal = new HashMap<String, StatisticAttribute>();
+        for (String tagName : tagNames) {
+            for (Map.Entry<String, StatsValueRetriever> statNameAndValueRetriever :
+                    getStatsValueRetrievers().entrySet()) {
+                retVal.put(tagName + statNameAndValueRetriever.getKey(),
+                           new StatisticAttribute(tagName, statNameAndValueRetriever.getValue()));
+            }
+        }
+        return Collections.unmodifiableMap(retVal);
+    }
+
+    /**
+     * Helper method exposes the tags that match a wildcard pattern and are not exposed yet, while fewer than
+     * MaxExposedTags tags are exposed. This method should only be called when the lock on this object's monitor is
+     * held.
+     *
+     * @param tagNames The tags in the latest timing statistics.
+     */
+    protected void exposeMatchingTags(Collection<String> tagNames) {
+        List<String> newTags = null;
+        for (String tagName : tagNames) {
+            int numExposedTags = tagsToExpose.size() + ((newTags == null) ? 0 : newTags.size());
+            if (numExposedTags >= maxExposedTags) {
+                break;
+            }
+            if (!tagsToExpose.contains(tagName) && matchesTagPattern(tagName)) {
+                if (newTags == null) {
+                    newTags = new ArrayList<String>();
+                }
+                newTags.add(tagName);
+            }
+        }
+
+        if (newTags != null) {
+            addExposedTags(newTags);
+        }
+    }
+
+    /**
+     * Helper method exposes new tags by adding their attributes to the current MBeanInfo and attribute map, rather
+     * than recreating them for all the tags. This method should only be called when the lock on this object's monitor
+     * is held.
+     *
+     * @param newTags The tags to expose, none of which may already be exposed.
+     */
+    protected void addExposedTags(Collection<String> newTags) {
+        tagsToExpose.addAll(newTags);
+
+        MBeanInfo oldInfo = managementInterface;
+        MBeanAttributeInfo[] oldAttributes = oldInfo.getAttributes();
+        MBeanAttributeInfo[] newAttributes = createAttributeInfosFromTagNames(newTags);
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[oldAttributes.length + newAttributes.length];
+        System.arraycopy(oldAttributes, 0, attributes, 0, oldAttributes.length);
+        System.arraycopy(newAttributes, 0, attributes, oldAttributes.length, newAttributes.length);
+        managementInterface = new MBeanInfo(oldInfo.getClassName(),
+                                            oldInfo.getDescription(),
+                                            attributes,
+                                            oldInfo.getConstructors(),
+                                            oldInfo.getOperations(),
+                                            oldInfo.getNotifications());
+
+        Map<String, StatisticAttribute> attributesByName = new HashMap<String, StatisticAttribute>(exposedAttributes);
+        attributesByName.putAll(createAttributesFromTagNames(newTags));
+        exposedAttributes = Collections.unmodifiableMap(attributesByName);
+    }
+
+    /**
+     * Helper method determines whether a tag name passed to exposeTag or removeTag is a wildcard pattern.
+     *
+     * @param tagName The tag name.
+     * @return true if the name contains a <tt>*</tt>.
+     */
+    protected boolean isTagPattern(String tagName) {
+        return tagName.indexOf('*') >= 0;
+    }
+
+    /**
+     * Helper method compiles a wildcard pattern, in which <tt>*</tt> matches any characters, into a regular expression.
+     *
+     * @param tagPattern The wildcard pattern.
+     * @return The regular expression that matches the same tags.
+     */
+    protected Pattern compileTagPattern(String tagPattern) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int star = tagPattern.indexOf('*'); star >= 0; star = tagPattern.indexOf('*', start)) {
+            if (star > start) {
+                regex.append(Pattern.quote(tagPattern.substring(start, star)));
+            }
+            regex.append(".*");
+            start = star + 1;
+        }
+        if (start < tagPattern.length()) {
+            regex.append(Pattern.quote(tagPattern.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Helper method determines whether a tag matches any of the wildcard patterns. Patterns with a single <tt>*</tt>
+     * at the end, the common prefix case, are matched without the regular expression.
+     *
+     * @param tagName The tag name.
+     * @return true if the tag matches a pattern.
+     */
+    protected boolean matchesTagPattern(String tagName) {
+        for (Map.Entry<String, Pattern> tagPattern : tagPatterns.entrySet()) {
+            String wildcard = tagPattern.getKey();
+            int prefixLength = wildcard.length() - 1;
+            if (wildcard.indexOf('*') == prefixLength) {
+                if (tagName.regionMatches(0, wildcard, 0, prefixLength)) {
+                    return true;
+                }
+            } else if (tagPattern.getValue().matcher(tagName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method creates the 6 read only attributes for each tag name, each attribute representing a different
+     * statistic.
+     *
+     * @param tagNames The name of the tags whose statistics should be exposed as MBeanAttributes.
+     * @return The MBeanAttributeInfos for the tags.
+     */
+    protected MBeanAttributeInfo[] createAttributeInfosFromTagNames(Collection<String> tagNames) {
         MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[tagNames.size() * getStatsValueRetrievers().size()];
 
         int i = 0;
@@ -282,8 +635,20 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                                                          false /* not "is" getter */);
             }
         }
+        return attributes;
+    }
+
+    /**
+     * Helper method creates an MBeanInfo object that contains 6 read only attributes for each tag name, each
+     * attribute representing a different statistic.
+     *
+     * @param tagNames The name of the tags whose statistics should be exposed as MBeanAttributes.
+     * @return The MBeanInfo that represents the management interface for this MBean.
+     */
+    protected MBeanInfo createMBeanInfoFromTagNames(Collection<String> tagNames) {
+        MBeanAttributeInfo[] attributes = createAttributeInfosFromTagNames(tagNames);
 
-        MBeanOperationInfo[] operations = new MBeanOperationInfo[2]; //exposeTag and removeTag
+        MBeanOperationInfo[] operations = new MBeanOperationInfo[3]; //exposeTag, removeTag and getWindow
         operations[0] = new MBeanOperationInfo("exposeTag",
                                                "Allows the caller to add a monitored tag at runtime",
                                                new MBeanParameterInfo[]{
@@ -302,6 +667,19 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                                                },
                                                "boolean",
                                                MBeanOperationInfo.ACTION);
+        operations[2] = new MBeanOperationInfo("getWindow",
+                                               "Returns the statistics of the current window in a single call",
+                                               new MBeanParameterInfo[]{
+                                                       new MBeanParameterInfo("tagPrefix",
+                                                                              String.class.getName(),
+                                                                              "Only return tags with this prefix"),
+                                                       new MBeanParameterInfo("sinceWindow",
+                                                                              Long.TYPE.getName(),
+                                                                              "Only return tags changed after this"
+                                                                              + " window, -1 for all tags")
+                                               },
+                                               CompositeData.class.getName(),
+                                               MBeanOperationInfo.INFO);
 
         MBeanNotificationInfo[] notificationInfos;
         if (acceptableRanges.isEmpty()) {
@@ -325,23 +703,132 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                              notificationInfos);
     }
 
+    /**
+     * Helper method creates the open types returned by the getWindow operation, with an item in
+     * each statistics row for every StatsValueRetriever.
+     */
+    protected void createOpenTypes() {
+        Map<String, StatsValueRetriever> statsValueRetrievers = getStatsValueRetrievers();
+        String[] itemNames = new String[statsValueRetrievers.size() + 3];
+        OpenType<?>[] itemTypes = new OpenType<?>[itemNames.length];
+        itemNames[0] = "Tag";
+        itemTypes[0] = SimpleType.STRING;
+        int i = 1;
+        for (Map.Entry<String, StatsValueRetriever> statNameAndValueRetriever : statsValueRetrievers.entrySet()) {
+            itemNames[i] = statNameAndValueRetriever.getKey();
+            itemTypes[i++] = getSimpleType(statNameAndValueRetriever.getValue().getValueClass());
+        }
+        itemNames[i] = "LastChangedWindow";
+        itemTypes[i++] = SimpleType.LONG;
+        itemNames[i] = "Removed";
+        itemTypes[i] = SimpleType.BOOLEAN;
+        statisticsRowItemNames = itemNames;
+
+        try {
+            statisticsRowType = new CompositeType("TagStatistics",
+                                                  "The statistics of a tag",
+                                                  itemNames,
+                                                  itemNames,
+                                                  itemTypes);
+            statisticsTableType = new TabularType("Statistics",
+                                                  "The statistics of each tag",
+                                                  statisticsRowType,
+                                                  new String[]{"Tag"});
+            windowType = new CompositeType("StatisticsWindow",
+                                           "The statistics of all tags in a window",
+                                           new String[]{"SequenceNumber", "StartTime", "StopTime", "Statistics"},
+                                           new String[]{"The sequence number of the window",
+                                                        "The start time of the window in ms since the epoch",
+                                                        "The stop time of the window in ms since the epoch",
+                                                        "The statistics of each tag"},
+                                           new OpenType<?>[]{SimpleType.LONG,
+                                                             SimpleType.LONG,
+                                                             SimpleType.LONG,
+                                                             statisticsTableType});
+        } catch (OpenDataException ode) {
+            throw new IllegalStateException("Could not create the statistics open types", ode);
+        }
+    }
+
+    /**
+     * Helper method gets the SimpleType for a statistic's value class.
+     *
+     * @param valueClass The class of the statistic values, from {@link StatsValueRetriever#getValueClass()}.
+     * @return The SimpleType whose values are of the specified class.
+     */
+    protected static SimpleType<?> getSimpleType(Class<?> valueClass) {
+        for (SimpleType<?> simpleType : new SimpleType<?>[]{SimpleType.DOUBLE,
+                                                            SimpleType.LONG,
+                                                            SimpleType.INTEGER,
+                                                            SimpleType.FLOAT,
+                                                            SimpleType.SHORT,
+                                                            SimpleType.BYTE,
+                                                            SimpleType.BIGDECIMAL,
+                                                            SimpleType.BIGINTEGER}) {
+            if (simpleType.getClassName().equals(valueClass.getName())) {
+                return simpleType;
+            }
+        }
+        throw new IllegalArgumentException("Statistic values of " + valueClass + " can't be exposed as open data");
+    }
+
+    /**
+     * Helper method creates the CompositeData returned by the getWindow operation.
+     *
+     * @param window      The window whose statistics are returned.
+     * @param tagPrefix   Only tags starting with this prefix are returned, may be null.
+     * @param sinceWindow Only tags whose statistics changed after this window are returned.
+     * @return The CompositeData for the window.
+     */
+    protected CompositeData createWindowData(StatisticsWindow window, String tagPrefix, long sinceWindow) {
+        Map<String, StatsValueRetriever> statsValueRetrievers = getStatsValueRetrievers();
+        GroupedTimingStatistics statistics = window.getStatistics();
+        long windowLength = statistics.getWindowLength();
+
+        try {
+            TabularData table = new TabularDataSupport(statisticsTableType);
+            for (Map.Entry<String, Long> tagAndLastChanged : window.getLastChangedByTag().entrySet()) {
+                String tag = tagAndLastChanged.getKey();
+                if ((tagPrefix != null && !tag.startsWith(tagPrefix)) || tagAndLastChanged.getValue() <= sinceWindow) {
+                    continue;
+                }
+
+                TimingStatistics timingStats = statistics.getStatisticsByTag().get(tag);
+                Object[] values = new Object[statsValueRetrievers.size() + 3];
+                values[0] = tag;
+                int i = 1;
+                for (StatsValueRetriever statsValueRetriever : statsValueRetrievers.values()) {
+                    values[i++] = statsValueRetriever.getStatsValue(timingStats, windowLength);
+                }
+                values[i++] = tagAndLastChanged.getValue();
+                values[i] = timingStats == null;
+                table.put(new CompositeDataSupport(statisticsRowType, statisticsRowItemNames, values));
+            }
+
+            return new CompositeDataSupport(windowType,
+                                            new String[]{"SequenceNumber", "StartTime", "StopTime", "Statistics"},
+                                            new Object[]{window.getSequenceNumber(),
+                                                         statistics.getStartTime(),
+                                                         statistics.getStopTime(),
+                                                         table});
+        } catch (OpenDataException ode) {
+            throw new IllegalStateException("Could not create the window data", ode);
+        }
+    }
+
     /**
      * This helper method sends notifications if any of the acceptable ranges detects an attribute value that is
      * outside of the specified range. This method should only be called when the lock on this object's monitor is held.
      */
     protected void sendNotificationsIfValuesNotAcceptable() {
+        GroupedTimingStatistics statistics = currentWindow.getStatistics();
         //send notifications if any values are outside the acceptable range, but only if the LAST check was good
         for (Map.Entry<AcceptableRangeConfiguration, Boolean> acceptableRangeAndWasGood : acceptableRanges.entrySet()) {
             AcceptableRangeConfiguration acceptableRange = acceptableRangeAndWasGood.getKey();
             boolean lastCheckWasGood = acceptableRangeAndWasGood.getValue();
 
-            double attributeValue;
-            try {
-                attributeValue = ((Number) getAttribute(acceptableRange.getAttributeName())).doubleValue();
-            } catch (Exception e) {
-                //shouldn't happen
-                continue;
-            }
+            double attributeValue =
+                    acceptableRangeAttributes.get(acceptableRange).getValue(statistics).doubleValue();
 
             boolean isValueInRange = acceptableRange.isInRange(attributeValue);
 
@@ -374,4 +861,67 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
             }
         });
     }
+
+    /**
+     * An exposed attribute: the tag whose statistics it reads and the retriever for the statistic it returns.
+     */
+    protected static class StatisticAttribute {
+        private final String tagName;
+        private final StatsValueRetriever statsValueRetriever;
+
+        public StatisticAttribute(String tagName, StatsValueRetriever statsValueRetriever) {
+            this.tagName = tagName;
+            this.statsValueRetriever = statsValueRetriever;
+        }
+
+        public String getTagName() {
+            return tagName;
+        }
+
+        public StatsValueRetriever getStatsValueRetriever() {
+            return statsValueRetriever;
+        }
+
+        /**
+         * Gets the value of this attribute.
+         *
+         * @param statistics The statistics to read the value from.
+         * @return The statistic value, which is 0 if the statistics don't contain the tag.
+         */
+        public Number getValue(GroupedTimingStatistics statistics) {
+            TimingStatistics timingStats = statistics.getStatisticsByTag().get(tagName);
+            return statsValueRetriever.getStatsValue(timingStats, statistics.getWindowLength());
+        }
+    }
+
+    /**
+     * An immutable snapshot of a window: the timing statistics, the window's sequence number and, for each tag, the
+     * sequence number of the window in which the tag's statistics last changed, or in which a removed tag
+     * disappeared.
+     */
+    protected static class StatisticsWindow {
+        private final GroupedTimingStatistics statistics;
+        private final long sequenceNumber;
+        private final Map<String, Long> lastChangedByTag;
+
+        public StatisticsWindow(GroupedTimingStatistics statistics,
+                                long sequenceNumber,
+                                Map<String, Long> lastChangedByTag) {
+            this.statistics = statistics;
+            this.sequenceNumber = sequenceNumber;
+            this.lastChangedByTag = lastChangedByTag;
+        }
+
+        public GroupedTimingStatistics getStatistics() {
+            return statistics;
+        }
+
+        public long getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        public Map<String, Long> getLastChangedByTag() {
+            return lastChangedByTag;
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.LoggingStopWatch;
+import net.jperf.commonslog.CommonsLogStopWatch;
+import net.jperf.javalog.JavaLogStopWatch;
+import net.jperf.log4j.Log4JStopWatch;
+import net.jperf.slf4j.Slf4JStopWatch;
+
+/**
+ * Creates StopWatches for a logging framework chosen by name, for code that times methods without a timing aspect:
+ * the {@link net.jperf.agent.TimingAgent} and the wrappers generated for {@link net.jperf.aop.ProfiledWrapper} types.
+ * This plays the role of the <tt>newStopWatch</tt> method of the timing aspects; the implementations for each
+ * framework are nested classes, so only the framework that is used needs to be on the classpath.
+ */
+public abstract class StopWatchFactory {
+
+    /**
+     * Gets the factory for a logging framework.
+     *
+     * @param name One of log4j, slf4j, commonslog, javalog or stderr, or the name of a StopWatchFactory subclass with
+     *             a public no-arg constructor.
+     * @return The factory.
+     * @throws IllegalArgumentException Thrown if the name is not a known framework or a loadable factory class.
+     */
+    public static StopWatchFactory forName(String name) {
+        if ("log4j".equalsIgnoreCase(name)) {
+            return new Log4JFactory();
+        } else if ("slf4j".equalsIgnoreCase(name)) {
+            return new Slf4JFactory();
+        } else if ("commonslog".equalsIgnoreCase(name)) {
+            return new CommonsLogFactory();
+        } else if ("javalog".equalsIgnoreCase(name)) {
+            return new JavaLogFactory();
+        } else if ("stderr".equalsIgnoreCase(name)) {
+            return new StdErrFactory();
+        }
+
+        try {
+            return (StopWatchFactory) Class.forName(name).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unknown stopWatch " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Creates a StopWatch that has been started.
+     *
+     * @param loggerName The name of the logger the StopWatch should log to.
+     * @param levelName  The name of the log level.
+     * @return The new StopWatch.
+     */
+    public abstract LoggingStopWatch newStopWatch(String loggerName, String levelName);
+
+    // --- implementations ---
+
+    static class Log4JFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            org.apache.log4j.Level level = org.apache.log4j.Level.toLevel(levelName, org.apache.log4j.Level.INFO);
+            return new Log4JStopWatch(org.apache.log4j.Logger.getLogger(loggerName), level, level);
+        }
+    }
+
+    static class Slf4JFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            int levelInt = Slf4JStopWatch.mapLevelName(levelName);
+            return new Slf4JStopWatch(org.slf4j.LoggerFactory.getLogger(loggerName), levelInt, levelInt);
+        }
+    }
+
+    static class CommonsLogFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            int levelInt = CommonsLogStopWatch.mapLevelName(levelName);
+            return new CommonsLogStopWatch(org.apache.commons.logging.LogFactory.getLog(loggerName), levelInt,
+                                           levelInt);
+        }
+    }
+
+    static class JavaLogFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            java.util.logging.Level level = JavaLogStopWatch.mapLevelName(levelName);
+            return new JavaLogStopWatch(java.util.logging.Logger.getLogger(loggerName), level, level);
+        }
+    }
+
+    /**
+     * Logs to System.err, ignoring the logger and level, like a plain LoggingStopWatch.
+     */
+    static class StdErrFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            return new LoggingStopWatch();
+        }
+    }
+}
@@ -37,10 +37,11 @@ public class StopWatchParser {
      * <li> The elapsed time in milliseconds, parseable as a long
      * <li> The tag name
      * <li> Optional, if not null the message text.
+     * <li> Optional, if not null the weight of a sampled StopWatch.
      * </ol>
      */
     public static final String DEFAULT_MATCH_PATTERN =
-            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?";
+            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?(?: weight\\[(\\d+)\\])?";
 
     /**
      * The regex Pattern object used to parse Strings.
@@ -103,10 +104,14 @@ public class StopWatchParser {
      * @return A new StopWatch that reflects the data from the match result.
      */
     public StopWatch parseStopWatchFromLogMatch(MatchResult matchResult) {
-        return new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
-                             Long.parseLong(matchResult.group(2)) /*elapsed time*/,
-                             matchResult.group(3) /*tag*/,
-                             matchResult.group(4) /*message, may be null*/);
+        StopWatch retVal = new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
+                                         Long.parseLong(matchResult.group(2)) /*elapsed time*/,
+                                         matchResult.group(3) /*tag*/,
+                                         matchResult.group(4) /*message, may be null*/);
+        if (matchResult.groupCount() >= 5 && matchResult.group(5) != null) {
+            retVal.setWeight(Integer.parseInt(matchResult.group(5)) /*weight, only logged for sampled StopWatches*/);
+        }
+        return retVal;
     }
 
     /**
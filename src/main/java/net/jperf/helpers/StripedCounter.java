@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contending on a single memory location. Each thread increments
+ * one of several cells, each on its own cache line, chosen by the thread's id, and the count is the sum of the cells.
+ * Incrementing is therefore about as cheap as an uncontended AtomicLong, while reading is slower, which suits
+ * counters that are updated on every logged message but only read when monitored.
+ */
+public class StripedCounter {
+    /**
+     * The number of longs in a 64 byte cache line - only the first long of each line is used.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * Creates a counter with a cell per available processor, rounded up to a power of 2.
+     */
+    public StripedCounter() {
+        int numCells = 1;
+        while (numCells < Runtime.getRuntime().availableProcessors() && numCells < 64) {
+            numCells <<= 1;
+        }
+        cells = new AtomicLongArray(numCells * PADDING);
+        mask = numCells - 1;
+    }
+
+    public void increment() {
+        cells.getAndIncrement(((int) Thread.currentThread().getId() & mask) * PADDING);
+    }
+
+    /**
+     * Gets the count. Increments made while this method runs may or may not be included.
+     *
+     * @return The sum of all the increments.
+     */
+    public long get() {
+        long retVal = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            retVal += cells.get(i);
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TagCardinalityGuard limits the number of distinct tags in the GroupedTimingStatistics created by a
+ * {@link GroupingStatisticsIterator}, so a tag built from runtime values (for example a JEXL tag like
+ * <tt>get.{$0}</tt>) can't create an unbounded number of TimingStatistics. There are two limits:
+ * <ul>
+ * <li>At most MaxTagsPerWindow distinct tags are kept in each window.
+ * <li>At most MaxTags distinct tags are tracked over all windows. Tags that haven't been seen for a few windows are
+ *     forgotten, making room for new tags.
+ * </ul>
+ * The StopWatches of tags over either limit are folded into an overflow tag formed from the tag's prefix, up to and
+ * including the last period, followed by {@link #OTHER_TAG}; for example <tt>get.12345</tt> is folded into
+ * <tt>get.__other__</tt>. So the timing of the long tail is still reported, per prefix, just not per tag. The runtime
+ * value isn't always the last part of the tag though, as in <tt>order.12345.load</tt>, so the overflow tags are
+ * limited too: at most MaxOtherTagsPerWindow of them are used in each window, and the StopWatches of any other prefix
+ * are folded into {@link #OTHER_TAG} itself. A window therefore never has more than
+ * MaxTagsPerWindow + MaxOtherTagsPerWindow + 1 distinct tags.
+ * <p>
+ * To make sure it is the heaviest tags that are kept exact, the folded tags are counted with a Misra-Gries
+ * frequent items sketch, and at the end of each window folded tags that were seen more often than the lightest
+ * tracked tags take their place. The counts of all tags are halved at the end of each window, so they reflect recent
+ * traffic.
+ * <p>
+ * This class is not thread safe; it is only used by the thread that groups StopWatches. The number of folded
+ * StopWatches can be read from any thread.
+ */
+public class TagCardinalityGuard {
+    /**
+     * The suffix of the tags that StopWatches are folded into.
+     */
+    public static final String OTHER_TAG = "__other__";
+
+    private int maxTagsPerWindow;
+    private int maxTags;
+    private int maxOtherTagsPerWindow;
+
+    /**
+     * The tags that are kept exact, with their recent counts.
+     */
+    private Map<String, TagCounter> trackedTags = new HashMap<String, TagCounter>();
+    /**
+     * The Misra-Gries sketch of the folded tags, with at most MaxTagsPerWindow counters.
+     */
+    private Map<String, TagCounter> foldedTags = new HashMap<String, TagCounter>();
+    /**
+     * The overflow tag of each prefix, so they aren't created for every folded StopWatch.
+     */
+    private Map<String, OtherTag> otherTagsByPrefix = new HashMap<String, OtherTag>();
+    private long windowNumber = 1L;
+    private int numTagsInWindow = 0;
+    private int numOtherTagsInWindow = 0;
+    private final AtomicLong numFoldedStopWatches = new AtomicLong();
+
+    /**
+     * Creates a new TagCardinalityGuard that uses up to a tenth of maxTagsPerWindow, and at least one, overflow tags
+     * per window.
+     *
+     * @param maxTagsPerWindow The maximum number of distinct tags kept in each window.
+     * @param maxTags          The maximum number of distinct tags tracked over all windows, which should be at least
+     *                         maxTagsPerWindow.
+     */
+    public TagCardinalityGuard(int maxTagsPerWindow, int maxTags) {
+        this(maxTagsPerWindow, maxTags, Math.max(maxTagsPerWindow / 10, 1));
+    }
+
+    /**
+     * Creates a new TagCardinalityGuard.
+     *
+     * @param maxTagsPerWindow      The maximum number of distinct tags kept in each window.
+     * @param maxTags               The maximum number of distinct tags tracked over all windows, which should be at
+     *                              least maxTagsPerWindow.
+     * @param maxOtherTagsPerWindow The maximum number of per-prefix overflow tags used in each window, not counting
+     *                              {@link #OTHER_TAG} itself.
+     */
+    public TagCardinalityGuard(int maxTagsPerWindow, int maxTags, int maxOtherTagsPerWindow) {
+        if (maxTagsPerWindow <= 0 || maxTags <= 0 || maxOtherTagsPerWindow < 0) {
+            throw new IllegalArgumentException("maxTagsPerWindow and maxTags must be positive, and "
+                                               + "maxOtherTagsPerWindow can't be negative");
+        }
+        this.maxTagsPerWindow = maxTagsPerWindow;
+        this.maxTags = maxTags;
+        this.maxOtherTagsPerWindow = maxOtherTagsPerWindow;
+    }
+
+    // --- attributes ---
+
+    public int getMaxTagsPerWindow() {
+        return maxTagsPerWindow;
+    }
+
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    public int getMaxOtherTagsPerWindow() {
+        return maxOtherTagsPerWindow;
+    }
+
+    /**
+     * Gets the number of StopWatches that were folded into an overflow tag.
+     *
+     * @return The number of folded StopWatches.
+     */
+    public long getNumFoldedStopWatches() {
+        return numFoldedStopWatches.get();
+    }
+
+    /**
+     * Gets the number of tags currently kept exact.
+     *
+     * @return The number of tracked tags.
+     */
+    public int getNumTrackedTags() {
+        return trackedTags.size();
+    }
+
+    // --- guard methods ---
+
+    /**
+     * Gets the tag under which a StopWatch should be added to the current window.
+     *
+     * @param tag The StopWatch's tag.
+     * @return The tag itself, or its overflow tag if the tag is over one of the limits.
+     */
+    public String getTag(String tag) {
+        TagCounter counter = trackedTags.get(tag);
+        if (counter == null && trackedTags.size() < maxTags) {
+            counter = new TagCounter(tag);
+            trackedTags.put(tag, counter);
+        }
+
+        if (counter == null) {
+            countFoldedTag(tag);
+        } else {
+            counter.count++;
+            if (counter.windowNumber == windowNumber) {
+                return tag;
+            }
+            if (numTagsInWindow < maxTagsPerWindow) {
+                counter.windowNumber = windowNumber;
+                numTagsInWindow++;
+                return tag;
+            }
+        }
+
+        numFoldedStopWatches.lazySet(numFoldedStopWatches.get() + 1L);
+        return getOtherTag(tag);
+    }
+
+    /**
+     * Must be called when a window is closed, before any StopWatch is added to the next window. Folded tags that were
+     * seen more often than the lightest tracked tags replace them, and all the counts are halved.
+     */
+    public void windowClosed() {
+        windowNumber++;
+        numTagsInWindow = 0;
+        numOtherTagsInWindow = 0;
+
+        promoteFoldedTags();
+
+        for (Iterator<TagCounter> iter = trackedTags.values().iterator(); iter.hasNext();) {
+            TagCounter counter = iter.next();
+            counter.count /= 2;
+            if (counter.count == 0L) {
+                //not seen recently, so make room for another tag
+                iter.remove();
+            }
+        }
+        for (Iterator<TagCounter> iter = foldedTags.values().iterator(); iter.hasNext();) {
+            TagCounter counter = iter.next();
+            counter.count /= 2;
+            if (counter.count == 0L) {
+                iter.remove();
+            }
+        }
+        //the overflow tags are few, but their prefixes come from arbitrary tags, so don't let them pile up
+        if (otherTagsByPrefix.size() > maxTags) {
+            otherTagsByPrefix.clear();
+        }
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Counts a folded tag in the Misra-Gries sketch: if the sketch is full, all its counts are decremented instead,
+     * which is amortized constant time because each decrement is paid for by an earlier increment.
+     */
+    private void countFoldedTag(String tag) {
+        TagCounter counter = foldedTags.get(tag);
+        if (counter != null) {
+            counter.count++;
+        } else if (foldedTags.size() < maxTagsPerWindow) {
+            counter = new TagCounter(tag);
+            counter.count = 1L;
+            foldedTags.put(tag, counter);
+        } else {
+            for (Iterator<TagCounter> iter = foldedTags.values().iterator(); iter.hasNext();) {
+                if (--iter.next().count == 0L) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    private void promoteFoldedTags() {
+        if (foldedTags.isEmpty()) {
+            return;
+        }
+
+        List<TagCounter> candidates = new ArrayList<TagCounter>(foldedTags.values());
+        Collections.sort(candidates, Collections.reverseOrder(TagCounter.BY_COUNT));
+        List<TagCounter> lightest = new ArrayList<TagCounter>(trackedTags.values());
+        Collections.sort(lightest, TagCounter.BY_COUNT);
+
+        int lightestIndex = 0;
+        for (TagCounter candidate : candidates) {
+            if (trackedTags.size() >= maxTags) {
+                if (lightestIndex >= lightest.size() || candidate.count <= lightest.get(lightestIndex).count) {
+                    break;
+                }
+                trackedTags.remove(lightest.get(lightestIndex++).tag);
+            }
+            foldedTags.remove(candidate.tag);
+            candidate.windowNumber = 0L;
+            trackedTags.put(candidate.tag, candidate);
+        }
+    }
+
+    /**
+     * Gets the overflow tag of a tag's prefix, or {@link #OTHER_TAG} if the tag has no prefix or the window already
+     * uses MaxOtherTagsPerWindow other overflow tags.
+     */
+    private String getOtherTag(String tag) {
+        int lastDot = tag.lastIndexOf('.');
+        if (lastDot < 0) {
+            return OTHER_TAG;
+        }
+        String prefix = tag.substring(0, lastDot + 1);
+        OtherTag otherTag = otherTagsByPrefix.get(prefix);
+        if (otherTag != null && otherTag.windowNumber == windowNumber) {
+            return otherTag.tag;
+        }
+        if (numOtherTagsInWindow >= maxOtherTagsPerWindow) {
+            return OTHER_TAG;
+        }
+        if (otherTag == null) {
+            otherTag = new OtherTag(prefix + OTHER_TAG);
+            otherTagsByPrefix.put(prefix, otherTag);
+        }
+        otherTag.windowNumber = windowNumber;
+        numOtherTagsInWindow++;
+        return otherTag.tag;
+    }
+
+    private static class OtherTag {
+        final String tag;
+        /**
+         * The number of the last window in which the overflow tag was used.
+         */
+        long windowNumber;
+
+        OtherTag(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static class TagCounter {
+        static final Comparator<TagCounter> BY_COUNT = new Comparator<TagCounter>() {
+            public int compare(TagCounter counter1, TagCounter counter2) {
+                return (counter1.count < counter2.count) ? -1 : ((counter1.count == counter2.count) ? 0 : 1);
+            }
+        };
+
+        final String tag;
+        /**
+         * The recent number of StopWatches with the tag.
+         */
+        long count;
+        /**
+         * The number of the last window in which the tag was kept exact.
+         */
+        long windowNumber;
+
+        TagCounter(String tag) {
+            this.tag = tag;
+        }
+    }
+}
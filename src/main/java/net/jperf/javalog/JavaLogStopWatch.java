@@ -17,6 +17,7 @@
 package net.jperf.javalog;
 
 import net.jperf.LoggingStopWatch;
+import net.jperf.Sampler;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -211,7 +212,7 @@ public class JavaLogStopWatch extends LoggingStopWatch {
      *                          take an exception is called.
      */
     public JavaLogStopWatch(String tag, String message, Logger logger, Level normalPriority, Level exceptionPriority) {
-        this(System.currentTimeMillis(), -1L, tag, message, logger, normalPriority, exceptionPriority);
+        this(creationStartTime(), creationElapsedTime(), tag, message, logger, normalPriority, exceptionPriority);
     }
 
     /**
@@ -314,6 +315,18 @@ public class JavaLogStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public JavaLogStopWatch setWeight(int weight) {
+        super.setWeight(weight);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public JavaLogStopWatch setSampler(Sampler sampler) {
+        super.setSampler(sampler);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public JavaLogStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.log4j;
+
+import net.jperf.StopWatch;
+import net.jperf.helpers.BinaryStopWatchWriter;
+import net.jperf.helpers.StopWatchParser;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * This appender writes logged StopWatches to a file in the compact binary format described by
+ * {@link net.jperf.helpers.BinaryStopWatchFormat}. Binary logs are typically 5 to 10 times smaller than the equivalent
+ * text logs and are much faster to analyze, as no regular expression parsing is needed to read them back. They can be
+ * read with a {@link net.jperf.helpers.BinaryStopWatchLogIterator}, or with the {@link net.jperf.LogParser} using the
+ * <tt>--binary</tt> option.
+ * <p>
+ * Logging events whose message is a StopWatch are written directly; other messages are parsed with a
+ * {@link StopWatchParser} and are discarded if they are not StopWatch messages. Note that the binary log does not
+ * record the logging level or logger name of each event.
+ */
+public class BinaryStopWatchAppender extends AppenderSkeleton implements Flushable {
+    // --- configuration options ---
+    /**
+     * The name of the file the binary log is written to.
+     */
+    private String fileName;
+    /**
+     * Whether or not to append to an existing file.
+     */
+    private boolean append = true;
+    /**
+     * The size of the write buffer, in bytes.
+     */
+    private int bufferSize = BinaryStopWatchWriter.DEFAULT_BUFFER_SIZE;
+    /**
+     * Whether or not the write buffer is flushed after each StopWatch.
+     */
+    private boolean immediateFlush = false;
+
+    // --- state variables ---
+    /**
+     * Used to parse StopWatches from logged string messages.
+     */
+    private StopWatchParser stopWatchParser = new StopWatchParser();
+    /**
+     * The writer that encodes StopWatches to the file, created when the options are activated.
+     */
+    private BinaryStopWatchWriter writer;
+
+    // --- options ---
+    /**
+     * The <b>File</b> option specifies the name of the file the binary StopWatch log is written to. This option is
+     * required.
+     *
+     * @return The value of the File option.
+     */
+    public String getFile() {
+        return fileName;
+    }
+
+    /**
+     * Sets the value of the <b>File</b> option.
+     *
+     * @param fileName The new value for the File option.
+     */
+    public void setFile(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * The <b>Append</b> option specifies whether StopWatches are appended to an existing file (the default) or
+     * whether the file is truncated when the appender is activated.
+     *
+     * @return The value of the Append option.
+     */
+    public boolean getAppend() {
+        return append;
+    }
+
+    /**
+     * Sets the value of the <b>Append</b> option.
+     *
+     * @param append The new value for the Append option.
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * The <b>BufferSize</b> option specifies the size, in bytes, of the buffer encoded records are stored in before
+     * being written to the file. Defaults to 64K.
+     *
+     * @return The value of the BufferSize option.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the value of the <b>BufferSize</b> option.
+     *
+     * @param bufferSize The new value for the BufferSize option.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The <b>ImmediateFlush</b> option specifies whether the buffer is written to the file after every StopWatch.
+     * Defaults to false, which gives much better throughput at the cost of losing buffered StopWatches if the JVM
+     * terminates abnormally.
+     *
+     * @return The value of the ImmediateFlush option.
+     */
+    public boolean getImmediateFlush() {
+        return immediateFlush;
+    }
+
+    /**
+     * Sets the value of the <b>ImmediateFlush</b> option.
+     *
+     * @param immediateFlush The new value for the ImmediateFlush option.
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            throw new RuntimeException("You must set the File option before activating this appender");
+        }
+
+        try {
+            writer = new BinaryStopWatchWriter(new File(fileName), append, bufferSize);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Could not open binary StopWatch log " + fileName + ": " + ioe.getMessage(),
+                                       ioe);
+        }
+    }
+
+    // --- appender methods ---
+
+    protected synchronized void append(LoggingEvent event) {
+        if (writer == null) {
+            return;
+        }
+
+        Object logMessage = event.getMessage();
+        StopWatch stopWatch;
+        if (logMessage instanceof StopWatch) {
+            stopWatch = (StopWatch) logMessage;
+        } else {
+            String message = String.valueOf(logMessage);
+            if (!stopWatchParser.isPotentiallyValid(message) ||
+                (stopWatch = stopWatchParser.parseStopWatch(message)) == null) {
+                return;
+            }
+        }
+
+        try {
+            writer.write(stopWatch);
+            if (immediateFlush) {
+                writer.flush();
+            }
+        } catch (IOException ioe) {
+            errorHandler.error("Error writing to binary StopWatch log " + fileName, ioe, ErrorCode.WRITE_FAILURE);
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                errorHandler.error("Error closing binary StopWatch log " + fileName, ioe, ErrorCode.CLOSE_FAILURE);
+            }
+            writer = null;
+        }
+    }
+
+    // --- Flushable method ---
+    /**
+     * Writes any buffered StopWatches to the file.
+     */
+    public synchronized void flush() {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException ioe) {
+                errorHandler.error("Error flushing binary StopWatch log " + fileName, ioe, ErrorCode.FLUSH_FAILURE);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 import net.jperf.LoggingStopWatch;
+import net.jperf.Sampler;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -211,7 +212,7 @@ public class Log4JStopWatch extends LoggingStopWatch {
      *                          take an exception is called.
      */
     public Log4JStopWatch(String tag, String message, Logger logger, Level normalPriority, Level exceptionPriority) {
-        this(System.currentTimeMillis(), -1L, tag, message, logger, normalPriority, exceptionPriority);
+        this(creationStartTime(), creationElapsedTime(), tag, message, logger, normalPriority, exceptionPriority);
     }
 
     /**
@@ -313,6 +314,18 @@ public class Log4JStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public Log4JStopWatch setWeight(int weight) {
+        super.setWeight(weight);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public Log4JStopWatch setSampler(Sampler sampler) {
+        super.setSampler(sampler);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public Log4JStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
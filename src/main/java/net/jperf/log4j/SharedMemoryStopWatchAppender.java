@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.log4j;
+
+import net.jperf.StopWatch;
+import net.jperf.cluster.SharedMemoryRingFile;
+import net.jperf.cluster.SharedMemoryStopWatchWriter;
+import net.jperf.helpers.StopWatchParser;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This appender writes logged StopWatches to this JVM's slot of a shared memory ring file, which is drained by a
+ * single {@link net.jperf.cluster.SharedMemoryCollector} process that creates the GroupedTimingStatistics for all the
+ * JVMs on the host. Unlike an {@link AsyncCoalescingStatisticsAppender}, this appender uses no threads or queues: each
+ * StopWatch is simply copied into memory shared with the collector. If the collector falls behind, StopWatches are
+ * discarded rather than blocking the application.
+ * <p>
+ * Logging events whose message is a StopWatch are written directly; other messages are parsed with a
+ * {@link StopWatchParser} and are discarded if they are not StopWatch messages.
+ */
+public class SharedMemoryStopWatchAppender extends AppenderSkeleton {
+    // --- configuration options ---
+    /**
+     * The name of the ring file.
+     */
+    private String fileName;
+    /**
+     * The number of slots the ring file is created with.
+     */
+    private int numSlots = SharedMemoryRingFile.DEFAULT_NUM_SLOTS;
+    /**
+     * The capacity of each slot the ring file is created with, in bytes.
+     */
+    private int slotCapacity = SharedMemoryRingFile.DEFAULT_SLOT_CAPACITY;
+
+    // --- state variables ---
+    /**
+     * Used to parse StopWatches from logged string messages.
+     */
+    private StopWatchParser stopWatchParser = new StopWatchParser();
+    /**
+     * The writer that copies StopWatches into the ring file, created when the options are activated.
+     */
+    private SharedMemoryStopWatchWriter writer;
+
+    // --- options ---
+    /**
+     * The <b>File</b> option specifies the name of the shared memory ring file. All the JVMs on a host, and the
+     * collector, should use the same file, preferably on a memory backed file system such as /dev/shm. This option is
+     * required.
+     *
+     * @return The value of the File option.
+     */
+    public String getFile() {
+        return fileName;
+    }
+
+    /**
+     * Sets the value of the <b>File</b> option.
+     *
+     * @param fileName The new value for the File option.
+     */
+    public void setFile(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * The <b>NumSlots</b> option specifies the number of slots the ring file is created with if it does not exist yet,
+     * which is the maximum number of JVMs that can write to it at once. Defaults to 16.
+     *
+     * @return The value of the NumSlots option.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Sets the value of the <b>NumSlots</b> option.
+     *
+     * @param numSlots The new value for the NumSlots option.
+     */
+    public void setNumSlots(int numSlots) {
+        this.numSlots = numSlots;
+    }
+
+    /**
+     * The <b>SlotCapacity</b> option specifies the size, in bytes, of each JVM's ring if the ring file does not exist
+     * yet. Defaults to 1MB, which holds about 20,000 StopWatches.
+     *
+     * @return The value of the SlotCapacity option.
+     */
+    public int getSlotCapacity() {
+        return slotCapacity;
+    }
+
+    /**
+     * Sets the value of the <b>SlotCapacity</b> option.
+     *
+     * @param slotCapacity The new value for the SlotCapacity option.
+     */
+    public void setSlotCapacity(int slotCapacity) {
+        this.slotCapacity = slotCapacity;
+    }
+
+    /**
+     * Gets the number of StopWatches discarded because the collector fell behind.
+     *
+     * @return The number of discarded StopWatches.
+     */
+    public int getNumDiscardedStopWatches() {
+        SharedMemoryStopWatchWriter writer = this.writer;
+        return (writer == null) ? 0 : writer.getNumDiscardedStopWatches();
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            throw new RuntimeException("You must set the File option before activating this appender");
+        }
+
+        try {
+            writer = new SharedMemoryStopWatchWriter(new File(fileName), numSlots, slotCapacity);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Could not open shared memory ring file " + fileName + ": " + ioe.getMessage(),
+                                       ioe);
+        }
+    }
+
+    // --- appender methods ---
+
+    protected void append(LoggingEvent event) {
+        SharedMemoryStopWatchWriter writer = this.writer;
+        if (writer == null) {
+            return;
+        }
+
+        Object logMessage = event.getMessage();
+        StopWatch stopWatch;
+        if (logMessage instanceof StopWatch) {
+            stopWatch = (StopWatch) logMessage;
+        } else {
+            String message = String.valueOf(logMessage);
+            if (!stopWatchParser.isPotentiallyValid(message) ||
+                (stopWatch = stopWatchParser.parseStopWatch(message)) == null) {
+                return;
+            }
+        }
+
+        writer.write(stopWatch);
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                errorHandler.error("Error closing shared memory ring file " + fileName, ioe,
+                                   ErrorCode.CLOSE_FAILURE);
+            }
+            writer = null;
+        }
+    }
+}
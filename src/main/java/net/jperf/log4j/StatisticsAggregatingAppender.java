@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.log4j;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.cluster.StatisticsAggregator;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Enumeration;
+
+/**
+ * This appender runs a {@link StatisticsAggregator}, which listens for the statistics sent by
+ * {@link StatisticsForwardingAppender}s in other JVMs, and passes the merged, fleet wide GroupedTimingStatistics to
+ * its attached appenders - exactly like an {@link AsyncCoalescingStatisticsAppender} does for the statistics of a
+ * single JVM. This means the normal downstream appenders, such as the {@link JmxAttributeStatisticsAppender}, the
+ * {@link GraphingStatisticsAppender} and a file appender with a {@link StatisticsCsvLayout}, can be used to expose
+ * the fleet wide statistics. A small standalone aggregator process only needs a log4j.xml file that configures this
+ * appender on any logger.
+ * <p>
+ * GroupedTimingStatistics logged directly to this appender, for example by attaching it to an
+ * AsyncCoalescingStatisticsAppender, are merged as well, so the aggregating JVM can include its own statistics.
+ */
+public class StatisticsAggregatingAppender extends AppenderSkeleton implements AppenderAttachable {
+    // --- configuration options ---
+    private int port = StatisticsAggregator.DEFAULT_PORT;
+    private long timeSlice = 30000L;
+    private long lateness = -1L;
+    private Level downstreamLogLevel = Level.INFO;
+
+    // --- contained objects ---
+    private final AppenderAttachableImpl downstreamAppenders = new AppenderAttachableImpl();
+
+    private StatisticsAggregator aggregator;
+
+    // --- options ---
+    /**
+     * The <b>Port</b> option specifies the port the aggregator listens on for forwarded statistics. Defaults to
+     * {@link StatisticsAggregator#DEFAULT_PORT}.
+     *
+     * @return The value of the Port option.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets the value of the <b>Port</b> option.
+     *
+     * @param port The new value for the Port option.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * The <b>TimeSlice</b> option represents the length of time, in milliseconds, of the aggregated windows. This
+     * should be the same as the TimeSlice of the AsyncCoalescingStatisticsAppenders in the forwarding JVMs, or a
+     * multiple of it. Defaults to 30,000 milliseconds.
+     *
+     * @return The value of the TimeSlice option.
+     */
+    public long getTimeSlice() {
+        return timeSlice;
+    }
+
+    /**
+     * Sets the value of the <b>TimeSlice</b> option.
+     *
+     * @param timeSlice The new value for the TimeSlice option.
+     */
+    public void setTimeSlice(long timeSlice) {
+        this.timeSlice = timeSlice;
+    }
+
+    /**
+     * The <b>Lateness</b> option specifies how long, in milliseconds, after the end of a time slice statistics from
+     * other JVMs are still merged into it, before it is passed to the attached appenders. Defaults to the TimeSlice.
+     *
+     * @return The value of the Lateness option.
+     */
+    public long getLateness() {
+        return (lateness < 0) ? timeSlice : lateness;
+    }
+
+    /**
+     * Sets the value of the <b>Lateness</b> option.
+     *
+     * @param lateness The new value for the Lateness option.
+     */
+    public void setLateness(long lateness) {
+        this.lateness = lateness;
+    }
+
+    /**
+     * The <b>DownstreamLogLevel</b> option gets the Level of the GroupedTimingStatistics LoggingEvent that is sent to
+     * downstream appenders. Defaults to INFO.
+     *
+     * @return The DownstreamLogLevel option as a String
+     */
+    public String getDownstreamLogLevel() {
+        return downstreamLogLevel.toString();
+    }
+
+    /**
+     * Sets the value of the <b>DownstreamLogLevel</b> option.
+     *
+     * @param downstreamLogLevel The new DownstreamLogLevel option.
+     */
+    public void setDownstreamLogLevel(String downstreamLogLevel) {
+        this.downstreamLogLevel = Level.toLevel(downstreamLogLevel);
+    }
+
+    /**
+     * Gets the aggregator run by this appender.
+     *
+     * @return The StatisticsAggregator, or null if this appender's options have not been activated.
+     */
+    public StatisticsAggregator getAggregator() {
+        return aggregator;
+    }
+
+    public synchronized void activateOptions() {
+        aggregator = new StatisticsAggregator(port, timeSlice, getLateness(),
+                new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+                    public void handle(GroupedTimingStatistics statistics) {
+                        LoggingEvent aggregatedLoggingEvent =
+                                new LoggingEvent(Logger.class.getName(),
+                                                 Logger.getLogger(StopWatch.DEFAULT_LOGGER_NAME),
+                                                 System.currentTimeMillis(),
+                                                 downstreamLogLevel,
+                                                 statistics,
+                                                 null);
+                        try {
+                            synchronized (downstreamAppenders) {
+                                downstreamAppenders.appendLoopOnAppenders(aggregatedLoggingEvent);
+                            }
+                        } catch (Exception e) {
+                            getErrorHandler().error(
+                                    "Exception calling append with GroupedTimingStatistics on downstream appender",
+                                    e, -1, aggregatedLoggingEvent
+                            );
+                        }
+                    }
+
+                    public void error(String errorMessage) {
+                        getErrorHandler().error(errorMessage);
+                    }
+                });
+
+        try {
+            aggregator.start();
+        } catch (IOException ioe) {
+            errorHandler.error("Could not listen for statistics on port " + port, ioe, ErrorCode.GENERIC_FAILURE);
+        }
+    }
+
+    // --- appender attachable methods ---
+
+    public void addAppender(Appender appender) {
+        synchronized (downstreamAppenders) {
+            downstreamAppenders.addAppender(appender);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Enumeration getAllAppenders() {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.getAllAppenders();
+        }
+    }
+
+    public Appender getAppender(String name) {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.getAppender(name);
+        }
+    }
+
+    public boolean isAttached(Appender appender) {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.isAttached(appender);
+        }
+    }
+
+    public void removeAllAppenders() {
+        synchronized (downstreamAppenders) {
+            downstreamAppenders.removeAllAppenders();
+        }
+    }
+
+    public void removeAppender(Appender appender) {
+        synchronized (downstreamAppenders) {
+            downstreamAppenders.removeAppender(appender);
+        }
+    }
+
+    public void removeAppender(String name) {
+        synchronized (downstreamAppenders) {
+            downstreamAppenders.removeAppender(name);
+        }
+    }
+
+    // --- appender methods ---
+
+    protected void append(LoggingEvent event) {
+        Object logMessage = event.getMessage();
+        if (logMessage instanceof GroupedTimingStatistics && aggregator != null) {
+            aggregator.add((GroupedTimingStatistics) logMessage);
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public void close() {
+        if (aggregator != null) {
+            //handles any windows that are still pending
+            aggregator.close();
+        }
+
+        synchronized (downstreamAppenders) {
+            //as in AsyncCoalescingStatisticsAppender, flush all the downstream appenders before closing any of them
+            for (Enumeration enumer = downstreamAppenders.getAllAppenders();
+                    enumer != null && enumer.hasMoreElements();) {
+                Appender appender = (Appender) enumer.nextElement();
+                if (appender instanceof Flushable) {
+                    try {
+                        ((Flushable) appender).flush();
+                    } catch (Exception e) { /* Just eat the exception, we're closing down */ }
+                }
+            }
+
+            for (Enumeration enumer = downstreamAppenders.getAllAppenders();
+                    enumer != null && enumer.hasMoreElements();) {
+                ((Appender) enumer.nextElement()).close();
+            }
+        }
+        this.closed = true;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.log4j;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.cluster.StatisticsAggregator;
+import net.jperf.cluster.StatisticsForwarder;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.IOException;
+
+/**
+ * This appender is designed to be attached to an {@link AsyncCoalescingStatisticsAppender}. It takes the incoming
+ * GroupedTimingStatistics log messages and sends them to a {@link StatisticsAggregator}, which merges the statistics
+ * from many JVMs into fleet wide statistics. If the aggregator cannot be reached the statistics are dropped, and the
+ * appender tries to reconnect after the ReconnectDelay. The statistics are sent from the forwarder's own thread, so
+ * a slow or hung aggregator never blocks the AsyncCoalescingStatisticsAppender; if it falls behind by more than
+ * QueueSize windows the oldest are dropped.
+ *
+ * @see StatisticsAggregatingAppender
+ */
+public class StatisticsForwardingAppender extends AppenderSkeleton {
+    // --- configuration options ---
+    /**
+     * The host the aggregator runs on.
+     */
+    private String remoteHost;
+    /**
+     * The port the aggregator listens on.
+     */
+    private int port = StatisticsAggregator.DEFAULT_PORT;
+    /**
+     * The ReconnectDelay option, in milliseconds.
+     */
+    private long reconnectDelay = StatisticsForwarder.DEFAULT_RECONNECT_DELAY;
+    /**
+     * The QueueSize option.
+     */
+    private int queueSize = StatisticsForwarder.DEFAULT_QUEUE_SIZE;
+
+    // --- state variables ---
+    /**
+     * The forwarder that sends the statistics, created when the options are activated.
+     */
+    private StatisticsForwarder forwarder;
+
+    // --- options ---
+    /**
+     * The <b>RemoteHost</b> option specifies the host name of the machine the StatisticsAggregator runs on. This
+     * option is required.
+     *
+     * @return The value of the RemoteHost option.
+     */
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    /**
+     * Sets the value of the <b>RemoteHost</b> option.
+     *
+     * @param remoteHost The new value for the RemoteHost option.
+     */
+    public void setRemoteHost(String remoteHost) {
+        this.remoteHost = remoteHost;
+    }
+
+    /**
+     * The <b>Port</b> option specifies the port the StatisticsAggregator listens on. Defaults to
+     * {@link StatisticsAggregator#DEFAULT_PORT}.
+     *
+     * @return The value of the Port option.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets the value of the <b>Port</b> option.
+     *
+     * @param port The new value for the Port option.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * The <b>ReconnectDelay</b> option specifies how long, in milliseconds, to wait after a failed connection before
+     * trying to connect to the aggregator again. Statistics logged during this time are dropped. Defaults to 30
+     * seconds.
+     *
+     * @return The value of the ReconnectDelay option.
+     */
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * Sets the value of the <b>ReconnectDelay</b> option.
+     *
+     * @param reconnectDelay The new value for the ReconnectDelay option.
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * The <b>QueueSize</b> option specifies how many statistics windows can wait to be sent to the aggregator. When
+     * more are logged the oldest waiting window is dropped. Defaults to 16.
+     *
+     * @return The value of the QueueSize option.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the value of the <b>QueueSize</b> option.
+     *
+     * @param queueSize The new value for the QueueSize option.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Gets the forwarder used by this appender, which can be used to see how many windows were forwarded or dropped.
+     *
+     * @return The StatisticsForwarder, or null if this appender's options have not been activated.
+     */
+    public StatisticsForwarder getForwarder() {
+        return forwarder;
+    }
+
+    public void activateOptions() {
+        if (remoteHost == null) {
+            throw new RuntimeException("You must set the RemoteHost option before activating this appender");
+        }
+
+        forwarder = new StatisticsForwarder(remoteHost, port);
+        forwarder.setReconnectDelay(reconnectDelay);
+        forwarder.setQueueSize(queueSize);
+        forwarder.start(new StatisticsForwarder.ErrorHandler() {
+            public void error(IOException ioe) {
+                errorHandler.error("Error forwarding statistics to " + remoteHost + ":" + port, ioe,
+                                   ErrorCode.WRITE_FAILURE);
+            }
+        });
+    }
+
+    // --- appender methods ---
+
+    protected void append(LoggingEvent event) {
+        Object logMessage = event.getMessage();
+        if (logMessage instanceof GroupedTimingStatistics && forwarder != null) {
+            forwarder.enqueue((GroupedTimingStatistics) logMessage);
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public void close() {
+        if (forwarder != null) {
+            forwarder.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.log4j;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.store.RetentionTier;
+import net.jperf.store.StatisticsStore;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * This appender is designed to be attached to an {@link AsyncCoalescingStatisticsAppender}. It takes the incoming
+ * GroupedTimingStatistics log messages and adds them to a {@link StatisticsStore}, which keeps a long term,
+ * downsampled history of the statistics in local files. The history can be queried through the store returned by
+ * {@link #getStore()}, or by creating a new StatisticsStore on the same directory.
+ */
+public class StatisticsStoreAppender extends AppenderSkeleton implements Flushable {
+    // --- configuration options ---
+    /**
+     * The directory the store's files are kept in.
+     */
+    private String directory;
+    /**
+     * The comma separated list of retention tiers.
+     */
+    private String retentionTiers = RetentionTier.DEFAULT_TIERS;
+
+    // --- state variables ---
+    /**
+     * The store the statistics are written to, created when the options are activated.
+     */
+    private StatisticsStore store;
+
+    // --- options ---
+    /**
+     * The <b>Directory</b> option specifies the directory where the statistics history is stored. This option is
+     * required.
+     *
+     * @return The value of the Directory option.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the value of the <b>Directory</b> option.
+     *
+     * @param directory The new value for the Directory option.
+     */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The <b>RetentionTiers</b> option is a comma separated list of <tt>resolution:retention</tt> pairs, in order of
+     * increasing resolution, that specify how long statistics are kept at each level of detail. For example, the
+     * default value of <tt>10s:1d,1m:30d,1h:365d</tt> keeps 10 second buckets for a day, 1 minute buckets for 30
+     * days, and 1 hour buckets for a year. Note the finest resolution should be no smaller than the TimeSlice of the
+     * AsyncCoalescingStatisticsAppender this appender is attached to.
+     *
+     * @return The value of the RetentionTiers option.
+     */
+    public String getRetentionTiers() {
+        return retentionTiers;
+    }
+
+    /**
+     * Sets the value of the <b>RetentionTiers</b> option.
+     *
+     * @param retentionTiers The new value for the RetentionTiers option.
+     */
+    public void setRetentionTiers(String retentionTiers) {
+        this.retentionTiers = retentionTiers;
+    }
+
+    /**
+     * Gets the store that this appender writes to, which can be used to query the statistics history.
+     *
+     * @return The StatisticsStore, or null if this appender's options have not been activated.
+     */
+    public StatisticsStore getStore() {
+        return store;
+    }
+
+    public void activateOptions() {
+        if (directory == null) {
+            throw new RuntimeException("You must set the Directory option before activating this appender");
+        }
+
+        try {
+            store = new StatisticsStore(new File(directory), RetentionTier.parseList(retentionTiers));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Could not open statistics store in " + directory + ": " + ioe.getMessage(),
+                                       ioe);
+        }
+    }
+
+    // --- appender methods ---
+
+    protected void append(LoggingEvent event) {
+        Object logMessage = event.getMessage();
+        if (logMessage instanceof GroupedTimingStatistics && store != null) {
+            try {
+                store.append((GroupedTimingStatistics) logMessage);
+            } catch (IOException ioe) {
+                errorHandler.error("Error writing to statistics store " + directory, ioe, ErrorCode.WRITE_FAILURE);
+            }
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public void close() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException ioe) {
+                errorHandler.error("Error closing statistics store " + directory, ioe, ErrorCode.CLOSE_FAILURE);
+            }
+        }
+    }
+
+    // --- Flushable method ---
+    /**
+     * Writes any buffered statistics to the store's files.
+     */
+    public void flush() {
+        if (store != null) {
+            try {
+                store.flush();
+            } catch (IOException ioe) {
+                errorHandler.error("Error flushing statistics store " + directory, ioe, ErrorCode.FLUSH_FAILURE);
+            }
+        }
+    }
+}
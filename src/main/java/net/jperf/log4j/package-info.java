@@ -18,7 +18,7 @@
  * Provides the log4j appenders that can be used to automatically aggregate and analyze
  * {@link net.jperf.StopWatch} timing statements logged to an <tt>org.apache.log4j.Logger</tt>. Normally, though, if
  * log4j is your logging framework of choice you should use the {@link net.jperf.log4j.Log4JStopWatch} as your
- * StopWatch implementation. Three appenders are provided:
+ * StopWatch implementation. Eight appenders are provided:
  *
  * <ol>
  * <li>{@link net.jperf.log4j.AsyncCoalescingStatisticsAppender} - This appender is used to group logged
@@ -35,6 +35,21 @@
  * graph object) backed by the logged <tt>GroupedTimingStatistics</tt> instances (thus, it is also designed to be
  * attached to an <tt>AsyncCoalescingStatisticsAppender</tt>). In addition, these graphs can be made available through
  * a web server using a {@link net.jperf.log4j.servlet.GraphingServlet} instance in concert with this class.
+ * <li>{@link net.jperf.log4j.BinaryStopWatchAppender} - This appender writes the raw <tt>StopWatch</tt> messages to
+ * a file in a compact binary format, which is much smaller than a text log and can be analyzed later by the
+ * {@link net.jperf.LogParser} with the <tt>--binary</tt> option.</li>
+ * <li>{@link net.jperf.log4j.StatisticsStoreAppender} - This appender, when attached to an
+ * <tt>AsyncCoalescingStatisticsAppender</tt>, keeps a long term history of the logged <tt>GroupedTimingStatistics</tt>
+ * in a {@link net.jperf.store.StatisticsStore}, downsampled into coarser retention tiers as it ages.</li>
+ * <li>{@link net.jperf.log4j.StatisticsForwardingAppender} - This appender, when attached to an
+ * <tt>AsyncCoalescingStatisticsAppender</tt>, sends the logged <tt>GroupedTimingStatistics</tt> over TCP to a
+ * {@link net.jperf.cluster.StatisticsAggregator} that merges the statistics of many JVMs.</li>
+ * <li>{@link net.jperf.log4j.StatisticsAggregatingAppender} - This appender runs a <tt>StatisticsAggregator</tt> and
+ * passes the merged, fleet wide <tt>GroupedTimingStatistics</tt> to its attached appenders, just like an
+ * <tt>AsyncCoalescingStatisticsAppender</tt>.</li>
+ * <li>{@link net.jperf.log4j.SharedMemoryStopWatchAppender} - This appender copies the raw <tt>StopWatch</tt>
+ * messages into a shared memory file that a single {@link net.jperf.cluster.SharedMemoryCollector} process drains
+ * for all the JVMs on a host, so the JVMs need no aggregation threads of their own.</li>
  * </ol>
  *
  * The following example shows how logging could be configured using a log4j.xml file:
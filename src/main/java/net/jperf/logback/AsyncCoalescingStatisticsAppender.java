@@ -20,6 +20,7 @@ import java.io.Flushable;
 import java.util.Iterator;
 import net.jperf.GroupedTimingStatistics;
 import net.jperf.StopWatch;
+import net.jperf.helpers.AsyncCoalescingStatisticsAppenderMetrics;
 import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
@@ -198,6 +199,68 @@ public class AsyncCoalescingStatisticsAppender extends AppenderBase<LoggingEvent
         baseImplementation.setStopWatchParserClassName(stopWatchParserClassName);
     }
 
+    /**
+     * The <b>ExposeMetrics</b> option determines whether the self-instrumentation metrics of this appender, such as
+     * its queue depth and the time spent in each downstream appender, are exposed as an MBean named
+     * <tt>net.jperf:type=AsyncCoalescingStatisticsAppender,name="<i>appenderName</i>"</tt>. Defaults to false.
+     *
+     * @return The ExposeMetrics option.
+     * @see net.jperf.helpers.AsyncCoalescingStatisticsAppenderMetrics
+     */
+    public boolean isExposeMetrics() {
+        return baseImplementation.isExposeMetrics();
+    }
+
+    /**
+     * Sets the value of the <b>ExposeMetrics</b> option.
+     *
+     * @param exposeMetrics The new ExposeMetrics option.
+     */
+    public void setExposeMetrics(boolean exposeMetrics) {
+        baseImplementation.setExposeMetrics(exposeMetrics);
+    }
+
+    /**
+     * The <b>MaxTagsPerWindow</b> option limits the number of distinct tags in each GroupedTimingStatistics. Once the
+     * limit is reached, StopWatches with other tags are folded into an overflow tag per tag prefix, like
+     * <tt>get.__other__</tt>, or into <tt>__other__</tt> once the window has MaxTagsPerWindow / 10 overflow tags.
+     * Defaults to 0, meaning no limit.
+     *
+     * @return The MaxTagsPerWindow option.
+     * @see net.jperf.helpers.TagCardinalityGuard
+     */
+    public int getMaxTagsPerWindow() {
+        return baseImplementation.getMaxTagsPerWindow();
+    }
+
+    /**
+     * Sets the value of the <b>MaxTagsPerWindow</b> option.
+     *
+     * @param maxTagsPerWindow The new MaxTagsPerWindow option.
+     */
+    public void setMaxTagsPerWindow(int maxTagsPerWindow) {
+        baseImplementation.setMaxTagsPerWindow(maxTagsPerWindow);
+    }
+
+    /**
+     * The <b>MaxTags</b> option limits the number of distinct tags tracked over all windows; the most frequently
+     * logged tags are kept. Defaults to 0, meaning no limit, or 10 times MaxTagsPerWindow if that is set.
+     *
+     * @return The MaxTags option.
+     */
+    public int getMaxTags() {
+        return baseImplementation.getMaxTags();
+    }
+
+    /**
+     * Sets the value of the <b>MaxTags</b> option.
+     *
+     * @param maxTags The new MaxTags option.
+     */
+    public void setMaxTags(int maxTags) {
+        baseImplementation.setMaxTags(maxTags);
+    }
+
     public void setName(String name) {
         super.setName(name);
         baseImplementation.setName(name);
@@ -217,7 +280,7 @@ public class AsyncCoalescingStatisticsAppender extends AppenderBase<LoggingEvent
                                          new Object[] {statistics});
                 try {
                     synchronized(downstreamAppenders) {
-                        downstreamAppenders.appendLoopOnAppenders(coalescedLoggingEvent);
+                        appendLoopOnAppenders(coalescedLoggingEvent);
                     }
                 } catch (Exception e) {
                     addError("Exception calling append with GroupedTimingStatistics on downstream appender",
@@ -242,6 +305,15 @@ public class AsyncCoalescingStatisticsAppender extends AppenderBase<LoggingEvent
         return baseImplementation.getNumDiscardedMessages();
     }
 
+    /**
+     * Returns the self-instrumentation metrics of this appender.
+     *
+     * @return The metrics, or null if this appender hasn't been started.
+     */
+    public AsyncCoalescingStatisticsAppenderMetrics getMetrics() {
+        return baseImplementation.getMetrics();
+    }
+
     // --- appender attachable methods ---
     public void addAppender(Appender<LoggingEvent> newAppender) {
         synchronized(downstreamAppenders) {
@@ -319,6 +391,23 @@ public class AsyncCoalescingStatisticsAppender extends AppenderBase<LoggingEvent
     }
 
     // --- helper methods ---
+    /**
+     * Passes the event to each downstream appender, like AppenderAttachableImpl.appendLoopOnAppenders, recording the
+     * time each appender takes in the metrics.
+     *
+     * @param event The event containing the GroupedTimingStatistics.
+     */
+    private void appendLoopOnAppenders(LoggingEvent event) {
+        AsyncCoalescingStatisticsAppenderMetrics metrics = baseImplementation.getMetrics();
+        for (Iterator<Appender<LoggingEvent>> iter = downstreamAppenders.iteratorForAppenders();
+             iter != null && iter.hasNext();) {
+            Appender<LoggingEvent> appender = iter.next();
+            long startNanos = System.nanoTime();
+            appender.doAppend(event);
+            metrics.downstreamAppenderCalled(appender.getName(), System.nanoTime() - startNanos);
+        }
+    }
+
     /**
      * Creates the new GenericAsyncCoalescingStatisticsAppender that this instance will wrap.
      *
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.logback;
+
+import net.jperf.StopWatch;
+import net.jperf.helpers.BinaryStopWatchWriter;
+import net.jperf.helpers.StopWatchParser;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * This appender writes logged StopWatches to a file in the compact binary format described by
+ * {@link net.jperf.helpers.BinaryStopWatchFormat}. Binary logs are typically 5 to 10 times smaller than the equivalent
+ * text logs and are much faster to analyze, as no regular expression parsing is needed to read them back. They can be
+ * read with a {@link net.jperf.helpers.BinaryStopWatchLogIterator}, or with the {@link net.jperf.LogParser} using the
+ * <tt>--binary</tt> option.
+ * <p>
+ * Logging events whose first argument is a StopWatch are written directly; other formatted messages are parsed with a
+ * {@link StopWatchParser} and are discarded if they are not StopWatch messages. Note that the binary log does not
+ * record the logging level or logger name of each event.
+ */
+public class BinaryStopWatchAppender extends AppenderBase<LoggingEvent> implements Flushable {
+    // --- configuration options ---
+    /**
+     * The name of the file the binary log is written to.
+     */
+    private String fileName;
+    /**
+     * Whether or not to append to an existing file.
+     */
+    private boolean append = true;
+    /**
+     * The size of the write buffer, in bytes.
+     */
+    private int bufferSize = BinaryStopWatchWriter.DEFAULT_BUFFER_SIZE;
+    /**
+     * Whether or not the write buffer is flushed after each StopWatch.
+     */
+    private boolean immediateFlush = false;
+
+    // --- state variables ---
+    /**
+     * Used to parse StopWatches from logged string messages.
+     */
+    private StopWatchParser stopWatchParser = new StopWatchParser();
+    /**
+     * The writer that encodes StopWatches to the file, created when the options are activated.
+     */
+    private BinaryStopWatchWriter writer;
+
+    // --- options ---
+    /**
+     * The <b>File</b> option specifies the name of the file the binary StopWatch log is written to. This option is
+     * required.
+     *
+     * @return The value of the File option.
+     */
+    public String getFile() {
+        return fileName;
+    }
+
+    /**
+     * Sets the value of the <b>File</b> option.
+     *
+     * @param fileName The new value for the File option.
+     */
+    public void setFile(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * The <b>Append</b> option specifies whether StopWatches are appended to an existing file (the default) or
+     * whether the file is truncated when the appender is activated.
+     *
+     * @return The value of the Append option.
+     */
+    public boolean getAppend() {
+        return append;
+    }
+
+    /**
+     * Sets the value of the <b>Append</b> option.
+     *
+     * @param append The new value for the Append option.
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * The <b>BufferSize</b> option specifies the size, in bytes, of the buffer encoded records are stored in before
+     * being written to the file. Defaults to 64K.
+     *
+     * @return The value of the BufferSize option.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the value of the <b>BufferSize</b> option.
+     *
+     * @param bufferSize The new value for the BufferSize option.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The <b>ImmediateFlush</b> option specifies whether the buffer is written to the file after every StopWatch.
+     * Defaults to false, which gives much better throughput at the cost of losing buffered StopWatches if the JVM
+     * terminates abnormally.
+     *
+     * @return The value of the ImmediateFlush option.
+     */
+    public boolean getImmediateFlush() {
+        return immediateFlush;
+    }
+
+    /**
+     * Sets the value of the <b>ImmediateFlush</b> option.
+     *
+     * @param immediateFlush The new value for the ImmediateFlush option.
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    @Override
+    public void start() {
+        if (fileName == null) {
+            addError("You must set the File option before starting this appender");
+            return;
+        }
+
+        try {
+            writer = new BinaryStopWatchWriter(new File(fileName), append, bufferSize);
+        } catch (IOException ioe) {
+            addError("Could not open binary StopWatch log " + fileName, ioe);
+            return;
+        }
+
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        synchronized (this) {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ioe) {
+                    addError("Error closing binary StopWatch log " + fileName, ioe);
+                }
+                writer = null;
+            }
+        }
+    }
+
+    // --- appender methods ---
+
+    @Override
+    protected void append(LoggingEvent event) {
+        if (writer == null) {
+            return;
+        }
+
+        StopWatch stopWatch;
+        Object[] args = event.getArgumentArray();
+        if (args != null && args.length > 0 && args[0] instanceof StopWatch) {
+            stopWatch = (StopWatch) args[0];
+        } else {
+            String message = event.getFormattedMessage();
+            if (message == null || !stopWatchParser.isPotentiallyValid(message) ||
+                (stopWatch = stopWatchParser.parseStopWatch(message)) == null) {
+                return;
+            }
+        }
+
+        try {
+            writer.write(stopWatch);
+            if (immediateFlush) {
+                writer.flush();
+            }
+        } catch (IOException ioe) {
+            addError("Error writing to binary StopWatch log " + fileName, ioe);
+        }
+    }
+
+    // --- Flushable method ---
+    /**
+     * Writes any buffered StopWatches to the file.
+     */
+    public synchronized void flush() {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException ioe) {
+                addError("Error flushing binary StopWatch log " + fileName, ioe);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import net.jperf.StopWatch;
+import net.jperf.chart.CompressedHistoryChartGenerator;
 import net.jperf.chart.GoogleChartGenerator;
 import net.jperf.chart.StatisticsChartGenerator;
 import net.jperf.helpers.MiscUtils;
@@ -82,6 +83,11 @@ public class GraphingStatisticsAppender extends AppenderBase<LoggingEvent>
      * Defaults to <tt>StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS</tt>.
      */
     private int dataPointsPerGraph = StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS;
+    /**
+     * The number of data points kept in a compressed history for display on the graph. If 0 (the default), a
+     * standard GoogleChartGenerator that keeps the last DEFAULT_MAX_DATA_POINTS windows is used.
+     */
+    private int historyDataPoints = 0;
 
     // --- contained objects/state variables ---
     /**
@@ -175,6 +181,33 @@ public class GraphingStatisticsAppender extends AppenderBase<LoggingEvent>
         this.dataPointsPerGraph = dataPointsPerGraph;
     }
 
+    /**
+     * The <b>HistoryDataPoints</b> option is used to specify how many data points should be kept for display on the
+     * graph exposed through the GraphingServlet. If set, the graph data is kept in a
+     * {@link net.jperf.chart.CompressedHistoryChartGenerator}, which only stores the graphed value of each graphed tag,
+     * compressed to a few bytes per point, so that a long history (such as a day's worth of data points) can be kept
+     * in memory. The graph then averages consecutive data points so that at most
+     * <tt>CompressedHistoryChartGenerator.DEFAULT_MAX_DISPLAYED_POINTS</tt> are displayed per tag. If not set, only
+     * the last <tt>StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS</tt> data points are kept.
+     *
+     * @return The value of the HistoryDataPoints option
+     */
+    public int getHistoryDataPoints() {
+        return historyDataPoints;
+    }
+
+    /**
+     * Sets the value of the <b>HistoryDataPoints</b> option.
+     *
+     * @param historyDataPoints The new value for the HistoryDataPoints option.
+     */
+    public void setHistoryDataPoints(int historyDataPoints) {
+        if (historyDataPoints < 0) {
+            throw new IllegalArgumentException("The HistoryDataPoints option must not be negative");
+        }
+        this.historyDataPoints = historyDataPoints;
+    }
+
     // --- lifecycle ---
     @Override
     public void start() {
@@ -213,7 +246,13 @@ public class GraphingStatisticsAppender extends AppenderBase<LoggingEvent>
         }
 
         //create the chart generator and set the enabled tags
-        GoogleChartGenerator retVal = new GoogleChartGenerator(statsValueRetriever);
+        GoogleChartGenerator retVal;
+        if (getHistoryDataPoints() > 0) {
+            retVal = new CompressedHistoryChartGenerator(statsValueRetriever);
+            retVal.setMaxDataPoints(getHistoryDataPoints());
+        } else {
+            retVal = new GoogleChartGenerator(statsValueRetriever);
+        }
         if (getTagNamesToGraph() != null) {
             Set<String> enabledTags =
                     new HashSet<String>(Arrays.asList(MiscUtils.splitAndTrim(getTagNamesToGraph(), ",")));
@@ -63,6 +63,11 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
      */
     private String collision = StatisticsExposingMBean.COLLISION_DONOTHING;
 
+    /**
+     * The maximum number of tags exposed because they match a wildcard pattern in TagNamesToExpose.
+     */
+    private int maxExposedTags = StatisticsExposingMBean.DEFAULT_MAX_EXPOSED_TAGS;
+
     // --- state variables ---
     /**
      * This is the MBean that is registered with the MBeanServer
@@ -93,6 +98,10 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
      * The <b>TagNamesToExpose</b> option is a comma-separated list of the tag names whose statistics values (e.g.
      * mean, min, max, etc.) should be exposed as MBeanAttributes. See the
      * {@link net.jperf.helpers.StatisticsExposingMBean} for more details.
+     * <p>
+     * Names containing a <tt>*</tt> are wildcard patterns, where <tt>*</tt> matches any characters. For example
+     * <tt>orders.*</tt> exposes every tag starting with "orders." as it first appears in the statistics, which is useful
+     * when tags are generated at runtime and can't be listed up front.
      *
      * @return The value of the TagNamesToExpose expose
      */
@@ -170,6 +179,26 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
         this.collision = collision;
     }
 
+    /**
+     * The <b>MaxExposedTags</b> option limits the number of tags exposed on the MBean, to protect the MBeanServer when
+     * wildcard patterns in TagNamesToExpose match many tags. Once this many tags are exposed, newly appearing tags are
+     * no longer exposed. Defaults to 1000.
+     *
+     * @return The value of the MaxExposedTags option
+     */
+    public int getMaxExposedTags() {
+        return maxExposedTags;
+    }
+
+    /**
+     * Sets the value of the MaxExposedTags option.
+     *
+     * @param maxExposedTags The new value for the MaxExposedTags option.
+     */
+    public void setMaxExposedTags(int maxExposedTags) {
+        this.maxExposedTags = maxExposedTags;
+    }
+
     @Override
     public void start() {
         super.start();
@@ -192,6 +221,7 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
         }
 
         this.mBean = new StatisticsExposingMBean(mBeanName, Arrays.asList(tagNames), rangeConfigs);
+        this.mBean.setMaxExposedTags(maxExposedTags);
 
         this.checkAndRegisterMBean();
     }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.cluster.StatisticsAggregator;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * This appender runs a {@link StatisticsAggregator}, which listens for the statistics sent by
+ * {@link StatisticsForwardingAppender}s in other JVMs, and passes the merged, fleet wide GroupedTimingStatistics to
+ * its attached appenders - exactly like an {@link AsyncCoalescingStatisticsAppender} does for the statistics of a
+ * single JVM. This means the normal downstream appenders, such as the {@link JmxAttributeStatisticsAppender}, the
+ * {@link GraphingStatisticsAppender} and a file appender with a {@link StatisticsCsvLayout}, can be used to expose
+ * the fleet wide statistics.
+ * <p>
+ * GroupedTimingStatistics logged directly to this appender, for example by attaching it to an
+ * AsyncCoalescingStatisticsAppender, are merged as well, so the aggregating JVM can include its own statistics.
+ */
+public class StatisticsAggregatingAppender extends AppenderBase<LoggingEvent>
+        implements AppenderAttachable<LoggingEvent> {
+    // --- configuration options ---
+    private int port = StatisticsAggregator.DEFAULT_PORT;
+    private long timeSlice = 30000L;
+    private long lateness = -1L;
+    private Level downstreamLogLevel = Level.INFO;
+
+    // --- contained objects ---
+    private final AppenderAttachableImpl<LoggingEvent> downstreamAppenders = new AppenderAttachableImpl<LoggingEvent>();
+
+    private StatisticsAggregator aggregator;
+
+    // --- options ---
+    /**
+     * The <b>Port</b> option specifies the port the aggregator listens on for forwarded statistics. Defaults to
+     * {@link StatisticsAggregator#DEFAULT_PORT}.
+     *
+     * @return The value of the Port option.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets the value of the <b>Port</b> option.
+     *
+     * @param port The new value for the Port option.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * The <b>TimeSlice</b> option represents the length of time, in milliseconds, of the aggregated windows. This
+     * should be the same as the TimeSlice of the AsyncCoalescingStatisticsAppenders in the forwarding JVMs, or a
+     * multiple of it. Defaults to 30,000 milliseconds.
+     *
+     * @return The value of the TimeSlice option.
+     */
+    public long getTimeSlice() {
+        return timeSlice;
+    }
+
+    /**
+     * Sets the value of the <b>TimeSlice</b> option.
+     *
+     * @param timeSlice The new value for the TimeSlice option.
+     */
+    public void setTimeSlice(long timeSlice) {
+        this.timeSlice = timeSlice;
+    }
+
+    /**
+     * The <b>Lateness</b> option specifies how long, in milliseconds, after the end of a time slice statistics from
+     * other JVMs are still merged into it, before it is passed to the attached appenders. Defaults to the TimeSlice.
+     *
+     * @return The value of the Lateness option.
+     */
+    public long getLateness() {
+        return (lateness < 0) ? timeSlice : lateness;
+    }
+
+    /**
+     * Sets the value of the <b>Lateness</b> option.
+     *
+     * @param lateness The new value for the Lateness option.
+     */
+    public void setLateness(long lateness) {
+        this.lateness = lateness;
+    }
+
+    /**
+     * The <b>DownstreamLogLevel</b> option gets the Level of the GroupedTimingStatistics LoggingEvent that is sent to
+     * downstream appenders. Defaults to INFO.
+     *
+     * @return The DownstreamLogLevel option as a String
+     */
+    public String getDownstreamLogLevel() {
+        return downstreamLogLevel.toString();
+    }
+
+    /**
+     * Sets the value of the <b>DownstreamLogLevel</b> option.
+     *
+     * @param downstreamLogLevel The new DownstreamLogLevel option.
+     */
+    public void setDownstreamLogLevel(String downstreamLogLevel) {
+        this.downstreamLogLevel = Level.toLevel(downstreamLogLevel);
+    }
+
+    /**
+     * Gets the aggregator run by this appender.
+     *
+     * @return The StatisticsAggregator, or null if this appender has not been started.
+     */
+    public StatisticsAggregator getAggregator() {
+        return aggregator;
+    }
+
+    @Override
+    public void start() {
+        aggregator = new StatisticsAggregator(port, timeSlice, getLateness(),
+                new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+                    public void handle(GroupedTimingStatistics statistics) {
+                        LoggingEvent aggregatedLoggingEvent =
+                                new LoggingEvent(Logger.class.getName(),
+                                                 getLoggerContext().getLogger(StopWatch.DEFAULT_LOGGER_NAME),
+                                                 downstreamLogLevel,
+                                                 "{}",
+                                                 null,
+                                                 new Object[] {statistics});
+                        try {
+                            synchronized (downstreamAppenders) {
+                                downstreamAppenders.appendLoopOnAppenders(aggregatedLoggingEvent);
+                            }
+                        } catch (Exception e) {
+                            addError("Exception calling append with GroupedTimingStatistics on downstream appender",
+                                     e);
+                        }
+                    }
+
+                    public void error(String errorMessage) {
+                        addError(errorMessage);
+                    }
+                });
+
+        try {
+            aggregator.start();
+        } catch (IOException ioe) {
+            addError("Could not listen for statistics on port " + port, ioe);
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (aggregator != null) {
+            //handles any windows that are still pending
+            aggregator.close();
+        }
+
+        synchronized (downstreamAppenders) {
+            //as in AsyncCoalescingStatisticsAppender, flush all the downstream appenders before stopping any of them
+            for (Iterator<Appender<LoggingEvent>> iter = downstreamAppenders.iteratorForAppenders();
+                 iter != null && iter.hasNext();) {
+                Appender<LoggingEvent> appender = iter.next();
+                if (appender instanceof Flushable) {
+                    try {
+                        ((Flushable) appender).flush();
+                    } catch (Exception e) { /* Just eat the exception, we're closing down */ }
+                }
+            }
+
+            for (Iterator<Appender<LoggingEvent>> iter = downstreamAppenders.iteratorForAppenders();
+                 iter != null && iter.hasNext();) {
+                iter.next().stop();
+            }
+        }
+        super.stop();
+    }
+
+    // --- appender attachable methods ---
+
+    public void addAppender(Appender<LoggingEvent> newAppender) {
+        synchronized (downstreamAppenders) {
+            downstreamAppenders.addAppender(newAppender);
+        }
+    }
+
+    public Iterator<Appender<LoggingEvent>> iteratorForAppenders() {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.iteratorForAppenders();
+        }
+    }
+
+    public Appender<LoggingEvent> getAppender(String name) {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.getAppender(name);
+        }
+    }
+
+    public boolean isAttached(Appender<LoggingEvent> appender) {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.isAttached(appender);
+        }
+    }
+
+    public void detachAndStopAllAppenders() {
+        synchronized (downstreamAppenders) {
+            downstreamAppenders.detachAndStopAllAppenders();
+        }
+    }
+
+    public boolean detachAppender(Appender<LoggingEvent> appender) {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.detachAppender(appender);
+        }
+    }
+
+    public boolean detachAppender(String name) {
+        synchronized (downstreamAppenders) {
+            return downstreamAppenders.detachAppender(name);
+        }
+    }
+
+    // --- appender methods ---
+
+    @Override
+    protected void append(LoggingEvent event) {
+        if ((event.getArgumentArray() != null) && (event.getArgumentArray().length > 0)) {
+            Object logMessage = event.getArgumentArray()[0];
+            if (logMessage instanceof GroupedTimingStatistics && aggregator != null) {
+                aggregator.add((GroupedTimingStatistics) logMessage);
+            }
+        }
+    }
+
+    // --- helper methods ---
+
+    LoggerContext getLoggerContext() {
+        return (LoggerContext) getContext();
+    }
+}
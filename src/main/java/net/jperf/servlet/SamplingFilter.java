@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.servlet;
+
+import net.jperf.SampledRequest;
+import net.jperf.Sampler;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * This filter makes every request it handles a {@link SampledRequest}, so that the sampling decision is made once per
+ * HTTP request and either all or none of the StopWatches and profiled methods timed while serving it are logged.
+ * The filter accepts the following init parameters:
+ * <ul>
+ * <li>sampleEvery - About 1 in sampleEvery requests are sampled. Defaults to 1, which samples every request.
+ * <li>maxSamplesPerSecond - If positive, the sampling interval is raised as needed so that at most about this many
+ *     requests are sampled per second. Defaults to 0, which disables the limit.
+ * </ul>
+ * For example, to time 1 in 100 requests:
+ * <pre>
+ * &lt;filter&gt;
+ *   &lt;filter-name&gt;jperfSampling&lt;/filter-name&gt;
+ *   &lt;filter-class&gt;net.jperf.servlet.SamplingFilter&lt;/filter-class&gt;
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;sampleEvery&lt;/param-name&gt;
+ *     &lt;param-value&gt;100&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ * &lt;/filter&gt;
+ * </pre>
+ */
+public class SamplingFilter implements Filter {
+    private Sampler sampler;
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+        try {
+            sampler = new Sampler(getIntParameter(filterConfig, "sampleEvery", 1),
+                                  getIntParameter(filterConfig, "maxSamplesPerSecond", 0));
+        } catch (IllegalArgumentException iae) {
+            throw new ServletException("Invalid SamplingFilter configuration: " + iae.getMessage(), iae);
+        }
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        SampledRequest sampledRequest = SampledRequest.begin(sampler);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            sampledRequest.end();
+        }
+    }
+
+    public void destroy() {
+        sampler = null;
+    }
+
+    /**
+     * Gets the Sampler that decides which requests are sampled.
+     *
+     * @return The Sampler, or null if the filter is not initialized.
+     */
+    public Sampler getSampler() {
+        return sampler;
+    }
+
+    // --- helper methods ---
+
+    private int getIntParameter(FilterConfig filterConfig, String name, int defaultValue) {
+        String value = filterConfig.getInitParameter(name);
+        return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
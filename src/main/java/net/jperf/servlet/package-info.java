@@ -17,6 +17,7 @@
 /**
  * Provides the framework for exposing performance graphs through a servlet front-end. The concrete servlet classes to
  * use depends on whether you are using the log4j or java.util.logging framework. For example, if using the log4j
- * framework you would use classes from the {@link net.jperf.log4j.servlet} package.
+ * framework you would use classes from the {@link net.jperf.log4j.servlet} package. The {@link
+ * net.jperf.servlet.SamplingFilter} can be used to time only a sample of the HTTP requests.
  */
 package net.jperf.servlet;
\ No newline at end of file
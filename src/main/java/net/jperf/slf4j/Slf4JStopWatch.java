@@ -21,6 +21,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 import net.jperf.LoggingStopWatch;
+import net.jperf.Sampler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -232,7 +233,7 @@ public class Slf4JStopWatch extends LoggingStopWatch {
      *                          take an exception is called. Should be one of the ..._LEVEL constants from this class.
      */
     public Slf4JStopWatch(String tag, String message, Logger logger, int normalPriority, int exceptionPriority) {
-        this(System.currentTimeMillis(), -1L, tag, message, logger, normalPriority, exceptionPriority);
+        this(creationStartTime(), creationElapsedTime(), tag, message, logger, normalPriority, exceptionPriority);
     }
 
     /**
@@ -337,6 +338,18 @@ public class Slf4JStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public Slf4JStopWatch setWeight(int weight) {
+        super.setWeight(weight);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public Slf4JStopWatch setSampler(Sampler sampler) {
+        super.setSampler(sampler);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public Slf4JStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.store;
+
+import net.jperf.helpers.MiscUtils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A RetentionTier describes one level of history kept by a {@link StatisticsStore}: statistics are merged into
+ * buckets of the tier's resolution, and the buckets are kept for the tier's retention period. For example, a store
+ * might keep 10 second buckets for a day, 1 minute buckets for 30 days and 1 hour buckets for a year.
+ * <p>
+ * Tiers are usually specified as a string of the form <tt>resolution:retention</tt>, where both values are durations
+ * consisting of a number followed by one of the units <tt>ms</tt>, <tt>s</tt>, <tt>m</tt>, <tt>h</tt> or <tt>d</tt>
+ * (a number with no unit is interpreted as milliseconds), for example <tt>10s:1d</tt>.
+ */
+public class RetentionTier implements Serializable {
+    private static final long serialVersionUID = -2398472615423089117L;
+
+    /**
+     * The tiers used if none are specified: 10 seconds for 1 day, 1 minute for 30 days, 1 hour for a year.
+     */
+    public static final String DEFAULT_TIERS = "10s:1d,1m:30d,1h:365d";
+
+    private long resolution;
+    private long retention;
+
+    /**
+     * Creates a new RetentionTier.
+     *
+     * @param resolution The length, in milliseconds, of the buckets in this tier. Must be positive.
+     * @param retention  The length of time, in milliseconds, buckets are kept in this tier. Must be positive.
+     */
+    public RetentionTier(long resolution, long retention) {
+        if (resolution <= 0 || retention <= 0) {
+            throw new IllegalArgumentException("Resolution and retention must be positive");
+        }
+        this.resolution = resolution;
+        this.retention = retention;
+    }
+
+    /**
+     * Parses a single tier from a string such as <tt>1m:30d</tt>.
+     *
+     * @param tierSpec The tier specification.
+     * @return The parsed tier.
+     * @throws IllegalArgumentException Thrown if the tier specification is invalid.
+     */
+    public static RetentionTier parse(String tierSpec) {
+        String[] parts = MiscUtils.splitAndTrim(tierSpec, ":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Retention tiers must be specified as resolution:retention, found "
+                                               + tierSpec);
+        }
+        return new RetentionTier(parseDuration(parts[0]), parseDuration(parts[1]));
+    }
+
+    /**
+     * Parses a comma separated list of tiers, such as {@link #DEFAULT_TIERS}. The tiers must be listed in order of
+     * increasing resolution.
+     *
+     * @param tierSpecs The comma separated tier specifications.
+     * @return The list of parsed tiers.
+     * @throws IllegalArgumentException Thrown if any tier specification is invalid, or if the tiers are not in order.
+     */
+    public static List<RetentionTier> parseList(String tierSpecs) {
+        List<RetentionTier> retVal = new ArrayList<RetentionTier>();
+        for (String tierSpec : MiscUtils.splitAndTrim(tierSpecs, ",")) {
+            RetentionTier tier = parse(tierSpec);
+            if (!retVal.isEmpty() && tier.getResolution() <= retVal.get(retVal.size() - 1).getResolution()) {
+                throw new IllegalArgumentException("Retention tiers must be listed in order of increasing resolution");
+            }
+            retVal.add(tier);
+        }
+        if (retVal.isEmpty()) {
+            throw new IllegalArgumentException("At least one retention tier must be specified");
+        }
+        return retVal;
+    }
+
+    /**
+     * Parses a duration such as <tt>500ms</tt>, <tt>10s</tt>, <tt>5m</tt>, <tt>1h</tt> or <tt>30d</tt>.
+     *
+     * @param duration The duration string.
+     * @return The duration in milliseconds.
+     * @throws IllegalArgumentException Thrown if the duration could not be parsed.
+     */
+    public static long parseDuration(String duration) {
+        String trimmed = duration.trim().toLowerCase();
+        long multiplier = 1L;
+        String number = trimmed;
+        if (trimmed.endsWith("ms")) {
+            number = trimmed.substring(0, trimmed.length() - 2);
+        } else if (trimmed.endsWith("s")) {
+            multiplier = 1000L;
+        } else if (trimmed.endsWith("m")) {
+            multiplier = 60L * 1000L;
+        } else if (trimmed.endsWith("h")) {
+            multiplier = 60L * 60L * 1000L;
+        } else if (trimmed.endsWith("d")) {
+            multiplier = 24L * 60L * 60L * 1000L;
+        }
+        if (multiplier != 1L) {
+            number = trimmed.substring(0, trimmed.length() - 1);
+        }
+
+        try {
+            return Long.parseLong(number.trim()) * multiplier;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Could not parse duration " + duration);
+        }
+    }
+
+    // --- Bean Properties ---
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public long getRetention() {
+        return retention;
+    }
+
+    /**
+     * Gets the name of this tier, which is also the name of the directory the tier's segments are stored in.
+     *
+     * @return The name of the tier, for example <tt>10000ms</tt>.
+     */
+    public String getName() {
+        return resolution + "ms";
+    }
+
+    // --- Object Methods ---
+
+    public String toString() {
+        return "RetentionTier[resolution=" + resolution + "ms, retention=" + retention + "ms]";
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RetentionTier)) {
+            return false;
+        }
+
+        RetentionTier that = (RetentionTier) o;
+        return resolution == that.resolution && retention == that.retention;
+    }
+
+    public int hashCode() {
+        return 31 * (int) (resolution ^ (resolution >>> 32)) + (int) (retention ^ (retention >>> 32));
+    }
+}
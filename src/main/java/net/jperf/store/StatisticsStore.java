@@ -0,0 +1,594 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.store;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingStatistics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * The StatisticsStore keeps the history of {@link GroupedTimingStatistics} windows in local files. Each appended
+ * window is merged into the current bucket of every configured {@link RetentionTier}, and completed buckets are
+ * written to an append-only segment file per tier per (UTC) day. Segments older than a tier's retention period are
+ * deleted as new segments are started. The history can then be queried by tag or tag prefix for any time range:
+ * queries are answered from the finest tier that still covers the start of the range, and read the segment files by
+ * memory mapping them.
+ * <p>
+ * The directory layout is <tt>directory/tierName/yyyyMMdd.seg</tt>. Each segment starts with the {@link #MAGIC}
+ * bytes and a version byte, followed by one record per tag per bucket. A record consists of a 4 byte length
+ * followed by the bucket start and stop times, the UTF-8 tag, and the count, mean, standard deviation, min and max
+ * of the tag's statistics. Since a bucket may be written more than once (for example, if windows arrive out of order
+ * or the store is closed and reopened in the middle of a bucket), records for the same bucket and tag are merged when
+ * they are read. A record left incomplete by a crash is truncated when the segment is reopened for writing, so that
+ * later records can still be found.
+ * <p>
+ * All methods of this class are synchronized, so a store may be shared between threads.
+ */
+public class StatisticsStore implements Closeable, Flushable {
+    /**
+     * The bytes that every segment file starts with.
+     */
+    public static final byte[] MAGIC = {'J', 'P', 'T', 'S'};
+    /**
+     * The version of the segment format written by this release.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * The file extension used for segment files.
+     */
+    public static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The length of the fixed fields of a record, not counting its length prefix. The tag follows the tag length.
+     */
+    private static final int FIXED_RECORD_LENGTH = 8 + 8 + 2 + 4 + 8 + 8 + 8 + 8;
+    /**
+     * The number of bytes from the start of a record to the end of its tag length.
+     */
+    private static final int RECORD_PREFIX_LENGTH = 4 + 8 + 8 + 2;
+
+    /**
+     * The directory under which each tier's segments are stored.
+     */
+    private File directory;
+    /**
+     * The retention tiers, in order of increasing resolution.
+     */
+    private List<RetentionTier> tiers;
+    /**
+     * The writing state for each tier, in the same order as tiers.
+     */
+    private List<TierWriter> tierWriters = new ArrayList<TierWriter>();
+    /**
+     * Set to true once the store is closed.
+     */
+    private boolean closed = false;
+
+    // --- Constructors ---
+    /**
+     * Creates a StatisticsStore that uses the {@link RetentionTier#DEFAULT_TIERS default tiers}.
+     *
+     * @param directory The directory the store's files are kept in. Created if it doesn't exist.
+     * @throws IOException Thrown if the directory could not be created.
+     */
+    public StatisticsStore(File directory) throws IOException {
+        this(directory, RetentionTier.parseList(RetentionTier.DEFAULT_TIERS));
+    }
+
+    /**
+     * Creates a StatisticsStore with the specified retention tiers.
+     *
+     * @param directory The directory the store's files are kept in. Created if it doesn't exist.
+     * @param tiers     The retention tiers, in order of increasing resolution.
+     * @throws IOException Thrown if the directory could not be created.
+     */
+    public StatisticsStore(File directory, List<RetentionTier> tiers) throws IOException {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one retention tier must be specified");
+        }
+        this.directory = directory;
+        this.tiers = Collections.unmodifiableList(new ArrayList<RetentionTier>(tiers));
+        for (RetentionTier tier : this.tiers) {
+            File tierDirectory = new File(directory, tier.getName());
+            if (!tierDirectory.isDirectory() && !tierDirectory.mkdirs()) {
+                throw new IOException("Could not create directory " + tierDirectory);
+            }
+            tierWriters.add(new TierWriter(tier, tierDirectory));
+        }
+    }
+
+    // --- Instance Methods ---
+
+    /**
+     * Adds a window of statistics to the store. The window is merged into the current bucket of each tier; buckets
+     * are written to disk once a window for a later bucket is appended, or when the store is flushed or closed.
+     *
+     * @param statistics The window of statistics to add.
+     * @throws IOException Thrown if writing a completed bucket failed.
+     */
+    public synchronized void append(GroupedTimingStatistics statistics) throws IOException {
+        if (closed) {
+            throw new IOException("StatisticsStore is closed");
+        }
+        for (TierWriter tierWriter : tierWriters) {
+            tierWriter.append(statistics);
+        }
+    }
+
+    /**
+     * Writes any buffered records to disk. Statistics for buckets that are still in progress are kept in memory, but
+     * are still returned by queries.
+     *
+     * @throws IOException Thrown if the write failed.
+     */
+    public synchronized void flush() throws IOException {
+        for (TierWriter tierWriter : tierWriters) {
+            tierWriter.flush();
+        }
+    }
+
+    /**
+     * Writes all in-progress buckets and closes the store's open files.
+     *
+     * @throws IOException Thrown if the write failed.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException firstException = null;
+        for (TierWriter tierWriter : tierWriters) {
+            try {
+                tierWriter.close();
+            } catch (IOException ioe) {
+                if (firstException == null) {
+                    firstException = ioe;
+                }
+            }
+        }
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    /**
+     * Gets the statistics for a single tag over the specified time range.
+     *
+     * @param tag      The tag to retrieve.
+     * @param fromTime The start of the time range, inclusive, in milliseconds since the epoch.
+     * @param toTime   The end of the time range, exclusive, in milliseconds since the epoch.
+     * @return One GroupedTimingStatistics per bucket containing data for the tag, ordered by start time.
+     * @throws IOException Thrown if a segment could not be read.
+     */
+    public List<GroupedTimingStatistics> query(String tag, long fromTime, long toTime) throws IOException {
+        return query(selectTier(fromTime), tag, false, fromTime, toTime);
+    }
+
+    /**
+     * Gets the statistics for all tags starting with the specified prefix over the specified time range.
+     *
+     * @param tagPrefix The tag prefix. The empty string matches all tags.
+     * @param fromTime  The start of the time range, inclusive, in milliseconds since the epoch.
+     * @param toTime    The end of the time range, exclusive, in milliseconds since the epoch.
+     * @return One GroupedTimingStatistics per bucket containing data for matching tags, ordered by start time.
+     * @throws IOException Thrown if a segment could not be read.
+     */
+    public List<GroupedTimingStatistics> queryByPrefix(String tagPrefix, long fromTime, long toTime)
+            throws IOException {
+        return query(selectTier(fromTime), tagPrefix, true, fromTime, toTime);
+    }
+
+    /**
+     * Gets the statistics stored in a specific tier.
+     *
+     * @param tier        The tier to read, which must be one of this store's tiers.
+     * @param tag         The tag, or the tag prefix if matchPrefix is true.
+     * @param matchPrefix Whether all tags starting with the tag parameter should be returned, or just the exact tag.
+     * @param fromTime    The start of the time range, inclusive, in milliseconds since the epoch. Buckets are
+     *                    returned if they start at or after this time.
+     * @param toTime      The end of the time range, exclusive, in milliseconds since the epoch. Buckets are returned
+     *                    if they start before this time.
+     * @return One GroupedTimingStatistics per bucket containing matching data, ordered by start time.
+     * @throws IOException Thrown if a segment could not be read.
+     */
+    public synchronized List<GroupedTimingStatistics> query(RetentionTier tier,
+                                                            String tag,
+                                                            boolean matchPrefix,
+                                                            long fromTime,
+                                                            long toTime) throws IOException {
+        int tierIndex = tiers.indexOf(tier);
+        if (tierIndex < 0) {
+            throw new IllegalArgumentException(tier + " is not a tier of this store");
+        }
+        TierWriter tierWriter = tierWriters.get(tierIndex);
+        //make sure everything written so far is visible to the segment readers
+        tierWriter.flush();
+
+        SortedMap<Long, GroupedTimingStatistics> bucketsByStartTime = new TreeMap<Long, GroupedTimingStatistics>();
+        long alignedFromTime = fromTime / tier.getResolution() * tier.getResolution();
+        for (long day = floorDiv(alignedFromTime, MILLIS_PER_DAY); day <= floorDiv(toTime - 1, MILLIS_PER_DAY); day++) {
+            File segment = new File(tierWriter.tierDirectory, segmentName(day));
+            if (segment.isFile()) {
+                readSegment(segment, tag, matchPrefix, fromTime, toTime, bucketsByStartTime);
+            }
+        }
+
+        GroupedTimingStatistics pending = tierWriter.pendingBucket;
+        if (pending != null && pending.getStartTime() >= fromTime && pending.getStartTime() < toTime) {
+            for (Map.Entry<String, TimingStatistics> tagAndStats : pending.getStatisticsByTag().entrySet()) {
+                if (tagMatches(tagAndStats.getKey(), tag, matchPrefix)) {
+                    addToBucket(bucketsByStartTime, pending.getStartTime(), pending.getStopTime(),
+                                tagAndStats.getKey(), tagAndStats.getValue());
+                }
+            }
+        }
+
+        return new ArrayList<GroupedTimingStatistics>(bucketsByStartTime.values());
+    }
+
+    /**
+     * Chooses the tier used to answer a query: the finest tier whose retention period still covers the specified
+     * time, or the coarsest tier if no tier covers it.
+     *
+     * @param fromTime The start time of the query.
+     * @return The tier to query.
+     */
+    public RetentionTier selectTier(long fromTime) {
+        long age = currentTimeMillis() - fromTime;
+        for (RetentionTier tier : tiers) {
+            if (age <= tier.getRetention()) {
+                return tier;
+            }
+        }
+        return tiers.get(tiers.size() - 1);
+    }
+
+    // --- Bean Properties ---
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<RetentionTier> getTiers() {
+        return tiers;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Gets the current time used to select a query tier. Subclasses (or tests) could override this.
+     *
+     * @return The current time, in milliseconds since the epoch.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void readSegment(File segment,
+                             String tag,
+                             boolean matchPrefix,
+                             long fromTime,
+                             long toTime,
+                             SortedMap<Long, GroupedTimingStatistics> bucketsByStartTime) throws IOException {
+        FileChannel channel = new FileInputStream(segment).getChannel();
+        ByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        if (buffer.remaining() < MAGIC.length + 1) {
+            return;
+        }
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.get() > VERSION) {
+            throw new IOException(segment + " is not a statistics store segment");
+        }
+
+        //a partially written record at the end of the segment, or a corrupt one, ends it
+        while (buffer.remaining() >= RECORD_PREFIX_LENGTH) {
+            int recordLength = buffer.getInt();
+            int tagLength = buffer.getShort(buffer.position() + 8 + 8) & 0xFFFF;
+            if (!isCompleteRecord(recordLength, tagLength, buffer.remaining())) {
+                break;
+            }
+            int nextRecord = buffer.position() + recordLength;
+
+            long startTime = buffer.getLong();
+            long stopTime = buffer.getLong();
+            byte[] tagBytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(tagBytes);
+            String recordTag = new String(tagBytes, UTF_8);
+            if (startTime >= fromTime && startTime < toTime && tagMatches(recordTag, tag, matchPrefix)) {
+                int count = buffer.getInt();
+                double mean = buffer.getDouble();
+                double standardDeviation = buffer.getDouble();
+                long min = buffer.getLong();
+                long max = buffer.getLong();
+                addToBucket(bucketsByStartTime, startTime, stopTime, recordTag,
+                            new TimingStatistics(mean, standardDeviation, max, min, count));
+            }
+
+            buffer.position(nextRecord);
+        }
+    }
+
+    /**
+     * Checks the length prefix of a record against its tag length and the bytes that follow it.
+     */
+    private static boolean isCompleteRecord(int recordLength, int tagLength, long remaining) {
+        return recordLength == FIXED_RECORD_LENGTH + tagLength && recordLength <= remaining;
+    }
+
+    /**
+     * Finds the end of the last complete record of a segment that is reopened for writing.
+     *
+     * @return The length of the header and the complete records, or 0 if the header itself is incomplete.
+     * @throws IOException Thrown if the segment could not be read, or doesn't start with the header.
+     */
+    private static long completeLength(File segment, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < MAGIC.length + 1) {
+            return 0L;
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(Math.max(MAGIC.length + 1, RECORD_PREFIX_LENGTH));
+        prefix.limit(MAGIC.length + 1);
+        readFully(channel, prefix, 0L);
+        byte[] magic = new byte[MAGIC.length];
+        prefix.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || prefix.get() > VERSION) {
+            throw new IOException(segment + " is not a statistics store segment");
+        }
+
+        long retVal = MAGIC.length + 1;
+        while (size - retVal >= RECORD_PREFIX_LENGTH) {
+            prefix.clear();
+            prefix.limit(RECORD_PREFIX_LENGTH);
+            readFully(channel, prefix, retVal);
+            int recordLength = prefix.getInt(0);
+            int tagLength = prefix.getShort(4 + 8 + 8) & 0xFFFF;
+            if (!isCompleteRecord(recordLength, tagLength, size - retVal - 4)) {
+                break;
+            }
+            retVal += 4 + recordLength;
+        }
+        return retVal;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static void addToBucket(SortedMap<Long, GroupedTimingStatistics> bucketsByStartTime,
+                                    long startTime,
+                                    long stopTime,
+                                    String tag,
+                                    TimingStatistics statistics) {
+        GroupedTimingStatistics bucket = bucketsByStartTime.get(startTime);
+        if (bucket == null) {
+            bucket = new GroupedTimingStatistics(new TreeMap<String, TimingStatistics>(), startTime, stopTime, false);
+            bucketsByStartTime.put(startTime, bucket);
+        }
+        SortedMap<String, TimingStatistics> single = new TreeMap<String, TimingStatistics>();
+        single.put(tag, statistics);
+        bucket.merge(new GroupedTimingStatistics(single, startTime, stopTime, false));
+    }
+
+    private static boolean tagMatches(String candidate, String tag, boolean matchPrefix) {
+        return matchPrefix ? candidate.startsWith(tag) : candidate.equals(tag);
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long retVal = value / divisor;
+        return (value % divisor < 0) ? retVal - 1 : retVal;
+    }
+
+    private static String segmentName(long day) {
+        return newDayFormat().format(day * MILLIS_PER_DAY) + SEGMENT_SUFFIX;
+    }
+
+    private static SimpleDateFormat newDayFormat() {
+        SimpleDateFormat retVal = new SimpleDateFormat("yyyyMMdd");
+        retVal.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return retVal;
+    }
+
+    /**
+     * Holds the writing state of a single tier: the bucket currently being merged, and the segment it will be
+     * written to.
+     */
+    private static class TierWriter {
+        private RetentionTier tier;
+        private File tierDirectory;
+        private GroupedTimingStatistics pendingBucket;
+        private long currentDay = Long.MIN_VALUE;
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(32 * 1024);
+
+        TierWriter(RetentionTier tier, File tierDirectory) {
+            this.tier = tier;
+            this.tierDirectory = tierDirectory;
+        }
+
+        void append(GroupedTimingStatistics statistics) throws IOException {
+            long bucketStart = floorDiv(statistics.getStartTime(), tier.getResolution()) * tier.getResolution();
+            if (pendingBucket != null && pendingBucket.getStartTime() != bucketStart) {
+                writeBucket(pendingBucket);
+                pendingBucket = null;
+            }
+            if (pendingBucket == null) {
+                pendingBucket = new GroupedTimingStatistics(new TreeMap<String, TimingStatistics>(),
+                                                            bucketStart,
+                                                            bucketStart + tier.getResolution(),
+                                                            false);
+            }
+            long stopTime = pendingBucket.getStopTime();
+            pendingBucket.merge(statistics);
+            //the bucket always starts on a resolution boundary, even if the window started before it
+            pendingBucket.setStartTime(bucketStart);
+            pendingBucket.setStopTime(Math.max(stopTime, statistics.getStopTime()));
+        }
+
+        void flush() throws IOException {
+            if (channel != null && buffer.position() > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+
+        void close() throws IOException {
+            try {
+                if (pendingBucket != null) {
+                    writeBucket(pendingBucket);
+                    pendingBucket = null;
+                }
+                flush();
+            } finally {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+
+        private void writeBucket(GroupedTimingStatistics bucket) throws IOException {
+            long day = floorDiv(bucket.getStartTime(), MILLIS_PER_DAY);
+            if (day != currentDay) {
+                openSegment(day);
+            }
+
+            for (Map.Entry<String, TimingStatistics> tagAndStats : bucket.getStatisticsByTag().entrySet()) {
+                byte[] tagBytes = tagAndStats.getKey().getBytes(UTF_8);
+                if (tagBytes.length > 0xFFFF) {
+                    continue; //tags this long are certainly an error, don't fail the whole bucket because of them
+                }
+                int recordLength = FIXED_RECORD_LENGTH + tagBytes.length;
+                if (buffer.remaining() < recordLength + 4) {
+                    flush();
+                    if (buffer.capacity() < recordLength + 4) {
+                        buffer = ByteBuffer.allocate(recordLength + 4);
+                    }
+                }
+
+                TimingStatistics stats = tagAndStats.getValue();
+                buffer.putInt(recordLength);
+                buffer.putLong(bucket.getStartTime());
+                buffer.putLong(bucket.getStopTime());
+                buffer.putShort((short) tagBytes.length);
+                buffer.put(tagBytes);
+                buffer.putInt(stats.getCount());
+                buffer.putDouble(stats.getMean());
+                buffer.putDouble(stats.getStandardDeviation());
+                buffer.putLong(stats.getMin());
+                buffer.putLong(stats.getMax());
+            }
+        }
+
+        private void openSegment(long day) throws IOException {
+            flush();
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+
+            File segment = new File(tierDirectory, segmentName(day));
+            FileChannel segmentChannel = new RandomAccessFile(segment, "rw").getChannel();
+            long length;
+            try {
+                //a record torn by a crash would swallow the start of the records appended after it
+                length = completeLength(segment, segmentChannel);
+                if (length < segmentChannel.size()) {
+                    segmentChannel.truncate(length);
+                }
+                segmentChannel.position(length);
+            } catch (IOException ioe) {
+                segmentChannel.close();
+                throw ioe;
+            }
+            channel = segmentChannel;
+            if (length == 0) {
+                buffer.put(MAGIC);
+                buffer.put(VERSION);
+            }
+            currentDay = day;
+
+            deleteExpiredSegments(day);
+        }
+
+        /**
+         * Deletes the segments that only contain buckets older than the tier's retention, relative to the start of
+         * the specified day.
+         */
+        private void deleteExpiredSegments(long day) {
+            long expiryTime = day * MILLIS_PER_DAY - tier.getRetention();
+            File[] segments = tierDirectory.listFiles();
+            if (segments == null) {
+                return;
+            }
+            SimpleDateFormat dayFormat = newDayFormat();
+            for (File segment : segments) {
+                String name = segment.getName();
+                if (!name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    long segmentStart = dayFormat.parse(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))
+                            .getTime();
+                    if (segmentStart + MILLIS_PER_DAY <= expiryTime) {
+                        segment.delete();
+                    }
+                } catch (ParseException pe) {
+                    //not a segment file, leave it alone
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Contains a file backed store that keeps the history of {@link net.jperf.GroupedTimingStatistics} windows. The
+ * {@link net.jperf.store.StatisticsStore} writes each window to append-only, per day segment files, and automatically
+ * builds coarser {@link net.jperf.store.RetentionTier retention tiers} by merging windows together, so that long term
+ * history can be kept without grepping text logs. Stores are most often populated through an appender (like the
+ * {@link net.jperf.log4j.StatisticsStoreAppender}) attached to an AsyncCoalescingStatisticsAppender.
+ */
+package net.jperf.store;
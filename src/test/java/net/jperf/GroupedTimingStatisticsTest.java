@@ -51,6 +51,75 @@ public class GroupedTimingStatisticsTest extends TestCase {
         assertOutputContains(output, "another short tag                                                              0.1           4           3         0.2           5");
     }
 
+    public void testMergeMatchesStatisticsOfAllSamples() throws Exception {
+        TimingStatistics first = new TimingStatistics();
+        TimingStatistics second = new TimingStatistics();
+        TimingStatistics all = new TimingStatistics();
+        for (long i = 0; i < 50; i++) {
+            long elapsed = (i * 37) % 101;
+            ((i % 3 == 0) ? first : second).addSampleTime(elapsed);
+            all.addSampleTime(elapsed);
+        }
+
+        TimingStatistics merged = first.clone().merge(second);
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        assertEquals(all.getMean(), merged.getMean(), 0.000001);
+        assertEquals(all.getStandardDeviation(), merged.getStandardDeviation(), 0.000001);
+
+        //merging with empty statistics changes nothing
+        assertEquals(merged, merged.clone().merge(new TimingStatistics()));
+        assertEquals(merged, new TimingStatistics().merge(merged));
+    }
+
+    public void testWeightedSamplesMatchRepeatedSamples() throws Exception {
+        TimingStatistics weighted = new TimingStatistics();
+        TimingStatistics repeated = new TimingStatistics();
+        for (long i = 0; i < 20; i++) {
+            long elapsed = (i * 37) % 101;
+            int weight = (int) (i % 4) + 1;
+            weighted.addSampleTime(elapsed, weight);
+            for (int j = 0; j < weight; j++) {
+                repeated.addSampleTime(elapsed);
+            }
+        }
+
+        assertEquals(repeated.getCount(), weighted.getCount());
+        assertEquals(repeated.getMin(), weighted.getMin());
+        assertEquals(repeated.getMax(), weighted.getMax());
+        assertEquals(repeated.getMean(), weighted.getMean(), 0.000001);
+        assertEquals(repeated.getStandardDeviation(), weighted.getStandardDeviation(), 0.000001);
+
+        //grouped statistics count a weighted StopWatch as weight calls
+        GroupedTimingStatistics groupStatistics = new GroupedTimingStatistics();
+        groupStatistics.addStopWatch(new StopWatch(startTime, 10L, "a", null).setWeight(100));
+        groupStatistics.addStopWatch(new StopWatch(startTime, 20L, "a", null));
+        assertEquals(101, groupStatistics.getStatisticsByTag().get("a").getCount());
+    }
+
+    public void testMergeGroupedStatistics() throws Exception {
+        statisticsByTag.put("a", new TimingStatistics(10.0, 0.0, 10, 10, 1));
+        GroupedTimingStatistics groupStatistics =
+                new GroupedTimingStatistics(statisticsByTag, startTime, stopTime, createRollupStatistics);
+
+        SortedMap<String, TimingStatistics> otherStatisticsByTag = new TreeMap<String, TimingStatistics>();
+        otherStatisticsByTag.put("a", new TimingStatistics(20.0, 0.0, 20, 20, 1));
+        otherStatisticsByTag.put("b", new TimingStatistics(5.0, 0.0, 5, 5, 1));
+        GroupedTimingStatistics other =
+                new GroupedTimingStatistics(otherStatisticsByTag, stopTime, stopTime + 100, createRollupStatistics);
+
+        groupStatistics.merge(other);
+        assertEquals(startTime, groupStatistics.getStartTime());
+        assertEquals(stopTime + 100, groupStatistics.getStopTime());
+        assertEquals(2, groupStatistics.getStatisticsByTag().get("a").getCount());
+        assertEquals(15.0, groupStatistics.getStatisticsByTag().get("a").getMean(), 0.000001);
+        assertEquals(1, groupStatistics.getStatisticsByTag().get("b").getCount());
+        //the other instance is not modified
+        assertEquals(1, other.getStatisticsByTag().get("a").getCount());
+        assertNotSame(otherStatisticsByTag.get("b"), groupStatistics.getStatisticsByTag().get("b"));
+    }
+
     public void testOutputContainsHeadingForTotalTimeSpentPerTag() throws Exception {
         GroupedTimingStatistics groupStatistics = new GroupedTimingStatistics(statisticsByTag, startTime, stopTime, createRollupStatistics);
         assertOutputContains(groupStatistics.toString(), "Tag     Avg(ms)         Min         Max     Std-Dev       Count       Total");
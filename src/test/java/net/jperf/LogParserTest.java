@@ -16,6 +16,7 @@
  */
 package net.jperf;
 
+import net.jperf.helpers.BinaryStopWatchWriter;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
@@ -92,6 +93,18 @@ public class LogParserTest extends TimingTestCase {
                        statsOut.indexOf("tag2") >= 0 &&
                        statsOut.indexOf("tag3") >= 0);
 
+            //binary log from file, write to file
+            realOut.println("-- Binary file in -> File out Test --");
+            BinaryStopWatchWriter binaryWriter =
+                    new BinaryStopWatchWriter(new File("./target/logParserTest.bin"), false);
+            for (StopWatch stopWatch : testStopWatches) {
+                binaryWriter.write(stopWatch);
+            }
+            binaryWriter.close();
+            LogParser.runMain(new String[]{"-o", "./target/statistics.out", "--timeslice", "120000", "-b",
+                                           "./target/logParserTest.bin"});
+            assertEquals(statsOut, FileUtils.readFileToString(new File("./target/statistics.out")));
+
             //missing param test
             realOut.println("-- Missing param test --");
             assertEquals(1, LogParser.runMain(new String[]{"./target/logParserTest.log", "-o"}));
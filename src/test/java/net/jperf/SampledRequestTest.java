@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.jperf.log4j.Log4JStopWatch;
+
+/**
+ * Tests the SampledRequest and how LoggingStopWatches, TimedCallables and TimedRunnables follow its decision.
+ */
+public class SampledRequestTest extends TestCase {
+    private List<String> logged = Collections.synchronizedList(new ArrayList<String>());
+
+    protected void tearDown() throws Exception {
+        assertNull(SampledRequest.current());
+    }
+
+    public void testNesting() throws Exception {
+        assertNull(SampledRequest.begin((Sampler) null));
+
+        SampledRequest request = SampledRequest.begin(new Sampler(1));
+        assertSame(request, SampledRequest.current());
+        assertEquals(1, request.getWeight());
+        assertTrue(request.isSampled());
+
+        //nested begin calls join the request, whatever their own decision would be
+        assertSame(request, SampledRequest.begin(0));
+        assertSame(request, SampledRequest.begin((Sampler) null));
+        request.end();
+        request.end();
+        assertSame(request, SampledRequest.current());
+        request.end();
+        assertNull(SampledRequest.current());
+
+        try {
+            request.end();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+    }
+
+    public void testStopWatchesFollowRequest() throws Exception {
+        SampledRequest request = SampledRequest.begin(0);
+        try {
+            //the clock isn't read and the StopWatch isn't logged, but stop still returns it as a string
+            LoggingStopWatch stopWatch = newStopWatch("unsampled");
+            assertEquals(0L, stopWatch.getStartTime());
+            assertEquals("start[0] time[0] tag[unsampled]", stopWatch.stop());
+            assertEquals("start[0] time[0] tag[unsampled]", newStopWatch("unsampled").stop(new Exception()));
+            assertEquals("start[0] time[0] tag[unsampled]", newStopWatch("unsampled").lap("unsampled"));
+            assertEquals(0L, new Log4JStopWatch("unsampled").getStartTime());
+        } finally {
+            request.end();
+        }
+        assertTrue(logged.isEmpty());
+
+        //a sampled request overrides the StopWatch's own sampler, which would almost never log
+        request = SampledRequest.begin(5);
+        try {
+            newStopWatch("sampled").setSampler(new Sampler(Integer.MAX_VALUE)).stop();
+        } finally {
+            request.end();
+        }
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0).endsWith("tag[sampled] weight[5]"));
+    }
+
+    public void testTasksContinueRequestOnOtherThreads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Callable<String> unsampled;
+            Runnable sampled;
+            SampledRequest request = SampledRequest.begin(0);
+            try {
+                unsampled = new TimedCallable<String>(new Callable<String>() {
+                    public String call() throws Exception {
+                        newStopWatch("nestedUnsampled").stop();
+                        return "done";
+                    }
+                }, newStopWatch("unsampled"));
+            } finally {
+                request.end();
+            }
+            request = SampledRequest.begin(3);
+            try {
+                sampled = new TimedRunnable(new Runnable() {
+                    public void run() {
+                        newStopWatch("nestedSampled").stop();
+                    }
+                }, newStopWatch("sampled"));
+            } finally {
+                request.end();
+            }
+
+            assertEquals("done", executor.submit(unsampled).get());
+            executor.submit(sampled).get();
+            assertEquals(2, logged.size());
+            assertTrue(logged.get(0).endsWith("tag[nestedSampled] weight[3]"));
+            assertTrue(logged.get(1).endsWith("tag[sampled] weight[3]"));
+
+            //outside of any request, a task with a sampler is the entry point of a new one
+            logged.clear();
+            Runnable entryPoint = new TimedRunnable(new Runnable() {
+                public void run() {
+                    assertNotNull(SampledRequest.current());
+                    newStopWatch("nested").stop();
+                }
+            }, newStopWatch("entryPoint").setSampler(new Sampler(2)));
+            for (int i = 0; i < 100; i++) {
+                executor.submit(entryPoint).get();
+            }
+            int numNested = 0;
+            int numEntryPoints = 0;
+            for (String stopWatch : logged) {
+                if (stopWatch.contains("tag[nested]")) {
+                    numNested++;
+                } else if (stopWatch.contains("tag[entryPoint]")) {
+                    numEntryPoints++;
+                }
+            }
+            assertTrue(numEntryPoints > 0 && numEntryPoints < 100);
+            assertEquals(numEntryPoints, numNested);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private LoggingStopWatch newStopWatch(String tag) {
+        return new LoggingStopWatch(tag) {
+            private static final long serialVersionUID = 1L;
+
+            protected void log(String stopWatchAsString, Throwable exception) {
+                logged.add(stopWatchAsString);
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the Sampler.
+ */
+public class SamplerTest extends TestCase {
+
+    public void testSampleEvery() throws Exception {
+        Sampler sampler = new Sampler(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, sampler.sample());
+        }
+
+        sampler = new Sampler(10);
+        int numSampled = 0;
+        for (int i = 0; i < 100000; i++) {
+            int weight = sampler.sample();
+            assertTrue("Unexpected weight " + weight, weight == 0 || weight == 10);
+            if (weight > 0) {
+                numSampled++;
+            }
+        }
+        assertTrue("Unexpected number of samples " + numSampled, numSampled > 9000 && numSampled < 11000);
+
+        try {
+            new Sampler(0);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testMaxSamplesPerSecond() throws Exception {
+        Sampler sampler = new Sampler(2, 100);
+        long startTime = System.currentTimeMillis();
+        while (System.currentTimeMillis() - startTime < 1100L) {
+            for (int i = 0; i < 10000; i++) {
+                sampler.sample();
+            }
+        }
+        for (int i = 0; i < Sampler.ADJUST_INTERVAL; i++) {
+            sampler.sample();
+        }
+
+        //the call rate is far more than 100 per second, so the interval must have been raised
+        assertTrue("Sampling interval not adjusted: " + sampler.getCurrentSampleEvery(),
+                   sampler.getCurrentSampleEvery() > 1000);
+        assertEquals(2, sampler.getSampleEvery());
+    }
+}
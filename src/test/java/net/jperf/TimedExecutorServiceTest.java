@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+import net.jperf.helpers.StopWatchFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the TimedExecutorService.
+ */
+public class TimedExecutorServiceTest extends TestCase {
+    static List<String> loggedStopWatches = Collections.synchronizedList(new ArrayList<String>());
+    static List<Long> loggedElapsedTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+    private TimedExecutorService executor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        loggedStopWatches.clear();
+        loggedElapsedTimes.clear();
+        executor = newExecutor(new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testQueueWaitAndRunTime() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        Future<?> blocking = executor.submit(new BlockingTask(blocker));
+        Future<String> queued = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                Thread.sleep(20L);
+                return "done";
+            }
+        });
+        Thread.sleep(100L);
+        blocker.countDown();
+        blocking.get();
+        assertEquals("done", queued.get());
+        awaitCompletedTasks(2);
+
+        assertEquals(Arrays.asList("pool.queueWait", "pool.run", "pool.queueWait", "pool.run"), loggedStopWatches);
+        //the second task waited for the first one
+        assertTrue(loggedElapsedTimes.toString(), loggedElapsedTimes.get(2) >= 100L);
+        assertTrue(loggedElapsedTimes.toString(), loggedElapsedTimes.get(3) >= 20L);
+    }
+
+    public void testFailuresAndTags() throws Exception {
+        executor.setQueueWaitTag("waited").setRunTag("ran");
+        Future<?> failing = executor.submit(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("failed");
+            }
+        });
+        try {
+            failing.get();
+            fail("the task should have failed");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                throw new IllegalArgumentException("failed");
+            }
+        });
+        awaitCompletedTasks(2);
+
+        assertEquals(Arrays.asList("waited", "ran:IllegalStateException", "waited", "ran:IllegalArgumentException"),
+                     loggedStopWatches);
+    }
+
+    public void testInvokeAllAndInvokeAny() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 2; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return value;
+                }
+            });
+        }
+        List<Future<Integer>> results = executor.invokeAll(tasks);
+        assertEquals(1, (int) results.get(1).get());
+        assertEquals(0, (int) executor.invokeAny(tasks.subList(0, 1)));
+        awaitCompletedTasks(3);
+
+        //the tasks wrapped by invokeAny are only timed once
+        assertEquals(6, loggedStopWatches.size());
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(0, executor.getActiveCount());
+    }
+
+    public void testSaturation() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.submit(new BlockingTask(blocker));
+        awaitActiveCount(1);
+        executor.submit(new BlockingTask(blocker));
+        assertEquals(1, executor.getQueueDepth());
+        try {
+            executor.submit(new BlockingTask(blocker));
+            fail("the queue is full");
+        } catch (RejectedExecutionException ree) {
+            //expected
+        }
+        assertEquals(1, executor.getNumRejectedTasks());
+        assertEquals(1, executor.getQueueDepth());
+        assertNull(executor.getLastWindow());
+
+        blocker.countDown();
+        awaitCompletedTasks(2);
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(0, executor.getActiveCount());
+
+        executor.setWindowLength(1L);
+        TimedExecutorService.SaturationWindow window = executor.getLastWindow();
+        assertEquals(1, window.getMaxActiveCount());
+        assertEquals(1, window.getMaxQueueDepth());
+        assertEquals(2, window.getNumSubmittedTasks());
+        assertEquals(2, window.getNumCompletedTasks());
+        assertEquals(1, window.getNumRejectedTasks());
+        //only the submitted StopWatches are logged
+        assertEquals(4, loggedStopWatches.size());
+    }
+
+    public void testCancelledAndPendingTasks() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.submit(new BlockingTask(blocker));
+        awaitActiveCount(1);
+        executor.submit(new BlockingTask(blocker)).cancel(false);
+        //the cancelled task leaves the queue right away, as the pool may purge it without running it
+        assertEquals(0, executor.getQueueDepth());
+        ((ThreadPoolExecutor) executor.getDelegate()).purge();
+        blocker.countDown();
+        awaitCompletedTasks(1);
+        //and it is not timed
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(Arrays.asList("pool.queueWait", "pool.run"), loggedStopWatches);
+
+        blocker = new CountDownLatch(1);
+        executor.execute(new BlockingTask(blocker));
+        awaitActiveCount(1);
+        Runnable pending = new BlockingTask(blocker);
+        executor.execute(pending);
+        List<Runnable> pendingTasks = executor.shutdownNow();
+        //the original command is returned, not its wrapper
+        assertEquals(Collections.singletonList(pending), pendingTasks);
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.isShutdown());
+    }
+
+    public void testDiscardPolicy() throws Exception {
+        executor.shutdownNow();
+        executor = newExecutor(new ThreadPoolExecutor.DiscardPolicy());
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(new BlockingTask(blocker));
+        awaitActiveCount(1);
+        executor.execute(new BlockingTask(blocker));
+        //silently discarded by the pool
+        executor.execute(new BlockingTask(blocker));
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(2, executor.getNumSubmittedTasks());
+        assertEquals(1, executor.getNumRejectedTasks());
+
+        blocker.countDown();
+        awaitCompletedTasks(2);
+        assertEquals(0, executor.getQueueDepth());
+        executor.setWindowLength(1L);
+        assertEquals(1, executor.getLastWindow().getMaxQueueDepth());
+    }
+
+    public void testDiscardOldestPolicy() throws Exception {
+        executor.shutdownNow();
+        executor = newExecutor(new ThreadPoolExecutor.DiscardOldestPolicy());
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(new BlockingTask(blocker));
+        awaitActiveCount(1);
+        Future<?> discarded = executor.submit(new BlockingTask(blocker));
+        //discards the queued task to make room
+        executor.execute(new BlockingTask(blocker));
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(3, executor.getNumSubmittedTasks());
+        assertEquals(1, executor.getNumRejectedTasks());
+        assertFalse(discarded.isDone());
+
+        blocker.countDown();
+        awaitCompletedTasks(2);
+        assertEquals(0, executor.getQueueDepth());
+        //the discarded task can still be cancelled, without leaving the queue twice
+        discarded.cancel(false);
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(4, loggedStopWatches.size());
+    }
+
+    public void testMBean() throws Exception {
+        executor.registerMBean();
+        ObjectName mBeanName = new ObjectName(TimedExecutorService.MBEAN_NAME_PREFIX + ObjectName.quote("pool"));
+        assertEquals("pool", ManagementFactory.getPlatformMBeanServer().getAttribute(mBeanName, "Tag"));
+        assertEquals(0, ManagementFactory.getPlatformMBeanServer().getAttribute(mBeanName, "QueueDepth"));
+        assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(mBeanName,
+                                                                                 "LastWindowNumRejectedTasks"));
+        executor.shutdown();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(mBeanName));
+    }
+
+    // --- helper methods ---
+
+    private TimedExecutorService newExecutor(RejectedExecutionHandler handler) {
+        //a single thread and a single queued task, so the saturation is easy to predict
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                         new ArrayBlockingQueue<Runnable>(1), handler);
+        return new TimedExecutorService(pool, "pool", new RecordingFactory(), StopWatch.DEFAULT_LOGGER_NAME, "INFO")
+                .setWindowLength(3600000L);
+    }
+
+    private void awaitCompletedTasks(int numTasks) throws InterruptedException {
+        //the StopWatches are logged after the futures are done
+        for (int i = 0; i < 100 && executor.getNumCompletedTasks() < numTasks; i++) {
+            Thread.sleep(10L);
+        }
+        assertEquals(numTasks, executor.getNumCompletedTasks());
+    }
+
+    private void awaitActiveCount(int activeCount) throws InterruptedException {
+        for (int i = 0; i < 100 && executor.getActiveCount() < activeCount; i++) {
+            Thread.sleep(10L);
+        }
+        assertEquals(activeCount, executor.getActiveCount());
+    }
+
+    static class BlockingTask implements Runnable {
+        private final CountDownLatch blocker;
+
+        BlockingTask(CountDownLatch blocker) {
+            this.blocker = blocker;
+        }
+
+        public void run() {
+            try {
+                blocker.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class RecordingFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            return new LoggingStopWatch() {
+                protected void log(String stopWatchAsString, Throwable exception) {
+                    loggedElapsedTimes.add(getElapsedTime());
+                    loggedStopWatches.add((exception == null)
+                                          ? getTag()
+                                          : getTag() + ":" + exception.getClass().getSimpleName());
+                }
+            };
+        }
+    }
+}
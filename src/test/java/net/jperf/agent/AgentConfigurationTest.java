@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import junit.framework.TestCase;
+import net.jperf.StopWatch;
+
+import java.util.Properties;
+
+/**
+ * Tests the parsing and matching of the agent configuration.
+ */
+public class AgentConfigurationTest extends TestCase {
+
+    public void testParsing() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("stopWatch", "log4j");
+        properties.setProperty("exposeMBean", "true");
+        properties.setProperty("rule.dao.methods", "com.acme.dao.*Dao#find*, com.acme.dao.OrderDao#save");
+        properties.setProperty("rule.dao.tag", "dao.{package}.{class}.{method}");
+        properties.setProperty("rule.dao.timeThreshold", "10");
+        properties.setProperty("rule.dao.logFailuresSeparately", "true");
+        properties.setProperty("rule.all.methods", "com.acme.web.*");
+        properties.setProperty("rule.all.logger", "com.acme.TimingLogger");
+        properties.setProperty("rule.all.level", "DEBUG");
+        //properties of rules without methods are ignored
+        properties.setProperty("rule.orphan.tag", "orphan");
+
+        AgentConfiguration configuration = new AgentConfiguration(properties);
+        assertEquals("log4j", configuration.getStopWatch());
+        assertTrue(configuration.isExposeMBean());
+        assertEquals(2, configuration.getRules().size());
+        assertEquals("all", configuration.getRules().get(0).getName());
+
+        AgentConfiguration.Rule dao = configuration.getRule("dao");
+        assertEquals(10L, dao.getTimeThreshold());
+        assertTrue(dao.isLogFailuresSeparately());
+        assertEquals(StopWatch.DEFAULT_LOGGER_NAME, dao.getLoggerName());
+        assertEquals("INFO", dao.getLevel());
+        assertEquals("dao.com.acme.dao.OrderDao.find", dao.getTag("com.acme.dao.OrderDao", "find"));
+
+        AgentConfiguration.Rule all = configuration.getRule("all");
+        assertEquals(AgentConfiguration.Rule.DEFAULT_TAG, all.getTag());
+        assertEquals("Servlet.doGet", all.getTag("Servlet", "doGet"));
+        assertEquals("com.acme.TimingLogger", all.getLoggerName());
+        assertEquals("DEBUG", all.getLevel());
+
+        try {
+            properties.setProperty("rule.dao.timeThreshold", "ten");
+            new AgentConfiguration(properties);
+            fail("Invalid thresholds should be rejected");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testMatching() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("rule.b.methods", "com.acme.dao.*Dao#find*, com.acme.dao.OrderDao#save");
+        properties.setProperty("rule.a.methods", "com.acme.dao.OrderDao#findAll");
+        AgentConfiguration configuration = new AgentConfiguration(properties);
+
+        assertTrue(configuration.matchesClass("com.acme.dao.OrderDao"));
+        assertTrue(configuration.matchesClass("com.acme.dao.internal.ItemDao"));
+        assertFalse(configuration.matchesClass("com.acme.dao.DaoHelper"));
+        assertFalse(configuration.matchesClass("com.acme.web.OrderServlet"));
+
+        //rules are tried in name order
+        assertEquals("a", configuration.findRule("com.acme.dao.OrderDao", "findAll").getName());
+        assertEquals("b", configuration.findRule("com.acme.dao.OrderDao", "findById").getName());
+        assertEquals("b", configuration.findRule("com.acme.dao.OrderDao", "save").getName());
+        assertNull(configuration.findRule("com.acme.dao.ItemDao", "save"));
+        //dots in patterns are literal
+        assertNull(configuration.findRule("com.acme.daoXOrderDao", "save"));
+
+        AgentConfiguration withoutA = configuration.withoutRule("a");
+        assertEquals("b", withoutA.findRule("com.acme.dao.OrderDao", "findAll").getName());
+        assertNotNull(configuration.getRule("a"));
+        assertSame(withoutA, withoutA.withoutRule("a"));
+
+        AgentConfiguration withC = configuration.withRule(
+                new AgentConfiguration.Rule("c", "com.acme.web.*Servlet", "web.{method}", 0L, "logger", "INFO", false));
+        assertEquals("c", withC.findRule("com.acme.web.OrderServlet", "doGet").getName());
+        assertNull(configuration.findRule("com.acme.web.OrderServlet", "doGet"));
+
+        try {
+            new AgentConfiguration.Rule("d", " ", "tag", 0L, "logger", "INFO", false);
+            fail("Rules without methods should be rejected");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+}
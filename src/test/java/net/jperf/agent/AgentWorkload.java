@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The methods instrumented in the TimingTransformerTest, covering local variables of every size after the
+ * arguments, loops, exception handlers and finally blocks.
+ */
+public class AgentWorkload {
+    private List<String> events = new ArrayList<String>();
+
+    public List<String> getEvents() {
+        return events;
+    }
+
+    public long sum(int count, long start, double factor) {
+        long total = start;
+        double scaled = factor;
+        for (int i = 0; i < count; i++) {
+            total += i;
+            scaled *= 2;
+        }
+        return total + (long) (scaled - factor * Math.pow(2, count));
+    }
+
+    public static String join(String first, String second) {
+        StringBuilder builder = new StringBuilder(first);
+        builder.append('-').append(second);
+        return builder.toString();
+    }
+
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    public String fail(String message) {
+        throw new IllegalStateException(message);
+    }
+
+    public int recover() {
+        try {
+            fail("recovered");
+            return -1;
+        } catch (IllegalStateException ise) {
+            events.add(ise.getMessage());
+            return 1;
+        } finally {
+            events.add("finally");
+        }
+    }
+
+    public int untimed() {
+        return 42;
+    }
+}
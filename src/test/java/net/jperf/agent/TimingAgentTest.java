@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import junit.framework.TestCase;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the installation of the TimingAgent and the changes made through its MXBean, using an Instrumentation that
+ * records the calls made to it.
+ */
+public class TimingAgentTest extends TestCase {
+
+    public void testManagement() throws Exception {
+        File configFile = File.createTempFile("jperf-agent", ".properties");
+        configFile.deleteOnExit();
+        writeConfig(configFile, "stopWatch=stderr\nexposeMBean=true\nrule.a.methods=net.jperf.agent.AgentWorkload\n");
+
+        final List<ClassFileTransformer> transformers = new ArrayList<ClassFileTransformer>();
+        final List<Class<?>> retransformedClasses = new ArrayList<Class<?>>();
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Instrumentation.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("addTransformer")) {
+                            assertEquals(Boolean.TRUE, args[1]);
+                            transformers.add((ClassFileTransformer) args[0]);
+                            return null;
+                        } else if (method.getName().equals("isRetransformClassesSupported")
+                                   || method.getName().equals("isModifiableClass")) {
+                            return Boolean.TRUE;
+                        } else if (method.getName().equals("getAllLoadedClasses")) {
+                            return new Class[] { AgentWorkload.class, TimingAgentTest.class, String.class };
+                        } else if (method.getName().equals("retransformClasses")) {
+                            retransformedClasses.addAll(Arrays.asList((Class<?>[]) args[0]));
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        //attaching retransforms the loaded classes matched by the rules
+        TimingAgent.agentmain(configFile.getPath(), instrumentation);
+        assertEquals(1, transformers.size());
+        assertEquals(Arrays.<Class<?>>asList(AgentWorkload.class), retransformedClasses);
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        TimingAgentMXBean management =
+                JMX.newMXBeanProxy(mBeanServer, new ObjectName(TimingAgent.MBEAN_NAME), TimingAgentMXBean.class);
+        assertEquals(configFile.getPath(), management.getConfigFile());
+        assertEquals(1, management.getRules().size());
+
+        //the classes matched by the old or the new rules are retransformed
+        retransformedClasses.clear();
+        management.addRule("b", "net.jperf.agent.TimingAgentTest#test*", "", 0L);
+        assertEquals(2, management.getRules().size());
+        assertEquals("{class}.{method}", TimingAgent.getConfiguration().getRule("b").getTag());
+        assertEquals(Arrays.<Class<?>>asList(AgentWorkload.class, TimingAgentTest.class), retransformedClasses);
+
+        retransformedClasses.clear();
+        management.removeRule("a");
+        assertEquals(1, management.getRules().size());
+        assertEquals(Arrays.<Class<?>>asList(AgentWorkload.class, TimingAgentTest.class), retransformedClasses);
+
+        //reloading replaces the rules added through JMX
+        retransformedClasses.clear();
+        writeConfig(configFile, "rule.c.methods=java.lang.String\n");
+        management.reload();
+        assertEquals("[c]", management.getRules().keySet().toString());
+        //classes of the bootstrap class loader are never retransformed
+        assertEquals(Arrays.<Class<?>>asList(TimingAgentTest.class), retransformedClasses);
+
+        //the agent can only be installed once
+        TimingAgent.premain(configFile.getPath(), instrumentation);
+        assertEquals(1, transformers.size());
+    }
+
+    private void writeConfig(File configFile, String config) throws Exception {
+        FileWriter writer = new FileWriter(configFile);
+        try {
+            writer.write(config);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.agent;
+
+import junit.framework.TestCase;
+import net.jperf.LoggingStopWatch;
+import net.jperf.helpers.ProfilingSwitch;
+import net.jperf.helpers.StopWatchFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests the TimingTransformer by loading the AgentWorkload from transformed bytes in a separate class loader.
+ */
+public class TimingTransformerTest extends TestCase {
+    private static final List<String> loggedStopWatches = Collections.synchronizedList(new ArrayList<String>());
+
+    private Class<?> workloadClass;
+
+    protected void setUp() throws Exception {
+        loggedStopWatches.clear();
+    }
+
+    protected void tearDown() throws Exception {
+        ProfilingSwitch.resetAll();
+    }
+
+    public void testInstrumentation() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("stopWatch", RecordingFactory.class.getName());
+        properties.setProperty("rule.a.methods", "net.jperf.agent.AgentWorkload#sum, *.AgentWorkload#join");
+        properties.setProperty("rule.b.methods", "net.jperf.agent.AgentWorkload#sleep");
+        properties.setProperty("rule.b.tag", "{package}.slow");
+        properties.setProperty("rule.b.timeThreshold", "50");
+        properties.setProperty("rule.c.methods",
+                               "net.jperf.agent.AgentWorkload#fail, net.jperf.agent.AgentWorkload#re*");
+        properties.setProperty("rule.c.tag", "errors.{method}");
+        properties.setProperty("rule.c.logFailuresSeparately", "true");
+        TimingTransformer transformer = new TimingTransformer(new AgentConfiguration(properties));
+
+        workloadClass = new TransformingClassLoader(transformer).loadClass(AgentWorkload.class.getName());
+        assertNotSame(AgentWorkload.class, workloadClass);
+        Object workload = workloadClass.newInstance();
+
+        //the locals after the arguments are moved to make room for the StopWatch
+        assertEquals(Long.valueOf(10L + 0 + 1 + 2 + 3), invoke(workload, "sum", 4, 10L, 1.5));
+        assertEquals("AgentWorkload.sum", getLoggedTag(0));
+        assertEquals("a-b", invoke(null, "join", "a", "b"));
+        assertEquals("AgentWorkload.join", getLoggedTag(1));
+
+        //below the threshold nothing is logged
+        invoke(workload, "sleep", 1L);
+        assertEquals(2, loggedStopWatches.size());
+        invoke(workload, "sleep", 60L);
+        assertEquals("net.jperf.agent.slow", getLoggedTag(2));
+
+        //exceptions are rethrown unchanged
+        try {
+            invoke(workload, "fail", "expected");
+            fail("The exception should have been rethrown");
+        } catch (IllegalStateException ise) {
+            assertEquals("expected", ise.getMessage());
+        }
+        assertEquals("errors.fail.failure", getLoggedTag(3));
+
+        //the original handlers run before the inserted one
+        assertEquals(1, invoke(workload, "recover"));
+        assertEquals("errors.fail.failure", getLoggedTag(4));
+        assertEquals("errors.recover.success", getLoggedTag(5));
+        assertEquals("[recovered, finally]", invoke(workload, "getEvents").toString());
+
+        assertEquals(42, invoke(workload, "untimed"));
+        assertEquals(6, loggedStopWatches.size());
+
+        //switched off methods aren't timed
+        ProfilingSwitch.disable("net.jperf.agent.AgentWorkload.sum");
+        invoke(workload, "sum", 1, 0L, 1.0);
+        assertEquals(6, loggedStopWatches.size());
+
+        assertEquals(5, transformer.getInstrumentedMethods().get(AgentWorkload.class.getName()).size());
+    }
+
+    public void testRetransformation() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("stopWatch", RecordingFactory.class.getName());
+        properties.setProperty("rule.a.methods", "net.jperf.agent.AgentWorkload#untimed");
+        TimingTransformer transformer = new TimingTransformer(new AgentConfiguration(properties));
+        byte[] original = readClassBytes(AgentWorkload.class.getName());
+        String internalName = AgentWorkload.class.getName().replace('.', '/');
+        //the test classes are in the net.jperf packages, so they are only instrumented in another class loader
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()) { };
+
+        assertNotNull(transformer.transform(loader, internalName, null, null, original));
+        assertEquals(1, transformer.getInstrumentedMethods().size());
+
+        //the transformer always gets the original bytes, so not transforming them removes the instrumentation
+        transformer.setConfiguration(transformer.getConfiguration().withoutRule("a"));
+        assertNull(transformer.transform(loader, internalName, null, null, original));
+        assertTrue(transformer.getInstrumentedMethods().isEmpty());
+
+        //classes of the bootstrap class loader and of JPerf itself are never instrumented
+        transformer.setConfiguration(transformer.getConfiguration().withRule(
+                new AgentConfiguration.Rule("all", "*", "{method}", 0L, "logger", "INFO", false)));
+        assertNull(transformer.transform(null, "java/lang/String", null, null,
+                                         readClassBytes(String.class.getName())));
+        assertNull(transformer.transform(getClass().getClassLoader(), "net/jperf/StopWatch", null, null,
+                                         readClassBytes("net.jperf.StopWatch")));
+    }
+
+    public void testLoadersWithTheirOwnJPerf() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("stopWatch", RecordingFactory.class.getName());
+        properties.setProperty("rule.a.methods", "net.jperf.agent.AgentWorkload#untimed");
+        TimingTransformer transformer = new TimingTransformer(new AgentConfiguration(properties));
+        byte[] original = readClassBytes(AgentWorkload.class.getName());
+        String internalName = AgentWorkload.class.getName().replace('.', '/');
+
+        //a child-first loader bundling JPerf would link the calls to its own, empty InstrumentedMethods
+        ClassLoader childFirstLoader = new ChildFirstClassLoader(getClass().getClassLoader());
+        assertNull(transformer.transform(childFirstLoader, internalName, null, null, original));
+        //a loader that can't see the agent would fail with a NoClassDefFoundError
+        ClassLoader isolatedLoader = new ClassLoader(null) { };
+        assertNull(transformer.transform(isolatedLoader, internalName, null, null, original));
+        assertTrue(transformer.getInstrumentedMethods().isEmpty());
+
+        ClassLoader delegatingLoader = new ClassLoader(getClass().getClassLoader()) { };
+        assertNotNull(transformer.transform(delegatingLoader, internalName, null, null, original));
+    }
+
+    // --- helper methods ---
+
+    private Object invoke(Object target, String methodName, Object... args) throws Exception {
+        for (Method method : workloadClass.getMethods()) {
+            if (method.getName().equals(methodName)) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException ite) {
+                    throw (Exception) ite.getCause();
+                }
+            }
+        }
+        throw new NoSuchMethodException(methodName);
+    }
+
+    private String getLoggedTag(int index) {
+        String stopWatch = loggedStopWatches.get(index);
+        return stopWatch.substring(stopWatch.indexOf("tag[") + 4, stopWatch.indexOf(']', stopWatch.indexOf("tag[")));
+    }
+
+    private static byte[] readClassBytes(String className) throws Exception {
+        InputStream in = ClassLoader.getSystemResourceAsStream(className.replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    // --- support classes ---
+
+    /**
+     * Creates StopWatches that record what they log.
+     */
+    public static class RecordingFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            return new LoggingStopWatch() {
+                protected void log(String stopWatchAsString, Throwable exception) {
+                    loggedStopWatches.add(stopWatchAsString);
+                }
+            };
+        }
+    }
+
+    /**
+     * Loads the JPerf classes itself before asking its parent, like a web application class loader.
+     */
+    private static class ChildFirstClassLoader extends ClassLoader {
+        ChildFirstClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith("net.jperf.")) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> retVal = findLoadedClass(name);
+            if (retVal == null) {
+                try {
+                    byte[] bytes = readClassBytes(name);
+                    retVal = defineClass(name, bytes, 0, bytes.length);
+                } catch (Exception e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * Loads the AgentWorkload through the transformer, like the JVM does when the agent is installed, and all other
+     * classes from the parent class loader.
+     */
+    private static class TransformingClassLoader extends ClassLoader {
+        private TimingTransformer transformer;
+
+        TransformingClassLoader(TimingTransformer transformer) {
+            super(TimingTransformerTest.class.getClassLoader());
+            this.transformer = transformer;
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(AgentWorkload.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> retVal = findLoadedClass(name);
+            if (retVal == null) {
+                try {
+                    byte[] bytes = readClassBytes(name);
+                    byte[] transformed = transformer.transform(this, name.replace('.', '/'), null, null, bytes);
+                    retVal = defineClass(name, transformed, 0, transformed.length);
+                } catch (Exception e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            return retVal;
+        }
+    }
+}
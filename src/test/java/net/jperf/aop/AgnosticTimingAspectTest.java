@@ -16,10 +16,27 @@
  */
 package net.jperf.aop;
 
+import net.jperf.LoggingStopWatch;
+import net.jperf.helpers.JperfProperties;
+import org.apache.commons.jexl.ExpressionFactory;
+import org.apache.commons.jexl.JexlContext;
+import org.apache.commons.jexl.context.HashMapContext;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author <a href="mailto:oscar.eriks@gmail.com">Oscar Eriksson</a>
@@ -151,6 +168,181 @@ public class AgnosticTimingAspectTest {
         assertEquals("_EL_ERROR_", evaluated);
     }
     
+    @Test
+    public void testProfilingDescriptorIsCachedUntilPropertiesChange() {
+        ProfilingDescriptor descriptor = agnosticTimingAspect.getProfilingDescriptor(DefaultProfiled.INSTANCE, joinPoint);
+        assertSame(descriptor, agnosticTimingAspect.getProfilingDescriptor(DefaultProfiled.INSTANCE, joinPoint));
+
+        String tagProperty = "tag." + className + "." + methodName;
+        JperfProperties.INSTANCE.setProperty(tagProperty, "staticTag");
+        try {
+            ProfilingDescriptor changedDescriptor =
+                    agnosticTimingAspect.getProfilingDescriptor(DefaultProfiled.INSTANCE, joinPoint);
+            assertNotSame(descriptor, changedDescriptor);
+            assertEquals("staticTag", changedDescriptor.getTag());
+            assertNull(changedDescriptor.getTagTemplate());
+        } finally {
+            JperfProperties.INSTANCE.remove(tagProperty);
+        }
+
+        descriptor = agnosticTimingAspect.getProfilingDescriptor(DefaultProfiled.INSTANCE, joinPoint);
+        assertEquals(methodName, agnosticTimingAspect.getStopWatchTag(descriptor, joinPoint, returnValue, null));
+    }
+
+    @Test
+    public void testOverloadsKeepTheirOwnDescriptors() throws Exception {
+        Profiled sampled = AgnosticTimingAspectTest.class.getMethod(methodName).getAnnotation(Profiled.class);
+        Profiled tagged = AgnosticTimingAspectTest.class.getMethod(methodName, String.class)
+                .getAnnotation(Profiled.class);
+
+        ProfilingDescriptor sampledDescriptor = agnosticTimingAspect.getProfilingDescriptor(sampled, joinPoint);
+        ProfilingDescriptor taggedDescriptor = agnosticTimingAspect.getProfilingDescriptor(tagged, joinPoint);
+        assertNotSame(sampledDescriptor, taggedDescriptor);
+        assertEquals("overloaded", taggedDescriptor.getTag());
+        for (int i = 0; i < 3; i++) {
+            //alternating calls don't replace each other's descriptor, nor its Sampler
+            assertSame(sampledDescriptor, agnosticTimingAspect.getProfilingDescriptor(sampled, joinPoint));
+            assertSame(sampledDescriptor.getSampler(),
+                       agnosticTimingAspect.getProfilingDescriptor(sampled, joinPoint).getSampler());
+            assertSame(taggedDescriptor, agnosticTimingAspect.getProfilingDescriptor(tagged, joinPoint));
+        }
+    }
+
+    @Test
+    public void testEqualAnnotationCopiesAreNotComparedOnEveryCall() throws Exception {
+        final Profiled tagged = AgnosticTimingAspectTest.class.getMethod(methodName, String.class)
+                .getAnnotation(Profiled.class);
+        final int[] numCalls = new int[1];
+        Profiled copy = (Profiled) Proxy.newProxyInstance(Profiled.class.getClassLoader(),
+                                                          new Class<?>[] {Profiled.class},
+                                                          new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                numCalls[0]++;
+                return method.invoke(tagged, args);
+            }
+        });
+        assertEquals(tagged, copy);
+
+        ProfilingDescriptor taggedDescriptor = agnosticTimingAspect.getProfilingDescriptor(tagged, joinPoint);
+        ProfilingDescriptor copyDescriptor = agnosticTimingAspect.getProfilingDescriptor(copy, joinPoint);
+        assertEquals("overloaded", copyDescriptor.getTag());
+
+        //the copy gets its own descriptor, so it isn't compared with the reflective Annotation.equals again
+        numCalls[0] = 0;
+        for (int i = 0; i < 3; i++) {
+            assertSame(copyDescriptor, agnosticTimingAspect.getProfilingDescriptor(copy, joinPoint));
+            assertSame(taggedDescriptor, agnosticTimingAspect.getProfilingDescriptor(tagged, joinPoint));
+        }
+        assertEquals(0, numCalls[0]);
+    }
+
+    @Test
+    public void testOverriddenProfiledHooksAreCalled() throws Throwable {
+        AgnosticTimingAspect overridingAspect = new AgnosticTimingAspect() {
+            protected String getStopWatchTag(Profiled profiled,
+                                             AbstractJoinPoint joinPoint,
+                                             Object returnValue,
+                                             Throwable exceptionThrown) {
+                return "overridden." + super.getStopWatchTag(profiled, joinPoint, returnValue, exceptionThrown);
+            }
+
+            protected String getStopWatchMessage(Profiled profiled,
+                                                 AbstractJoinPoint joinPoint,
+                                                 Object returnValue,
+                                                 Throwable exceptionThrown) {
+                return "overridden message";
+            }
+        };
+        Profiled tagged = AgnosticTimingAspectTest.class.getMethod(methodName, String.class)
+                .getAnnotation(Profiled.class);
+        final String[] logged = new String[1];
+        LoggingStopWatch stopWatch = new LoggingStopWatch() {
+            private static final long serialVersionUID = 1L;
+
+            protected void log(String stopWatchAsString, Throwable exception) {
+                logged[0] = stopWatchAsString;
+            }
+        };
+
+        overridingAspect.runProfiledMethod(joinPoint,
+                                           overridingAspect.getProfilingDescriptor(tagged, joinPoint),
+                                           stopWatch);
+        assertEquals("overridden.overloaded", stopWatch.getTag());
+        assertEquals("overridden message", stopWatch.getMessage());
+        assertNotNull(logged[0]);
+
+        //without overrides the descriptor is used directly
+        stopWatch.start();
+        ProfilingDescriptor descriptor = agnosticTimingAspect.getProfilingDescriptor(tagged, joinPoint);
+        agnosticTimingAspect.runProfiledMethod(joinPoint, descriptor, stopWatch);
+        assertEquals("overloaded", stopWatch.getTag());
+        assertEquals(descriptor.getMessage(), stopWatch.getMessage());
+    }
+
+    @Profiled(sampleEvery = 10)
+    public void testMethodName() {
+    }
+
+    @Profiled(tag = "overloaded")
+    public void testMethodName(String value) {
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCompiledTemplateMatchesJexl() throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "mapValue");
+        final Object[] args = {new Date(1234L), map, Arrays.asList("a", "b"), null};
+        AbstractJoinPoint joinPointWithArgs = new AbstractJoinPoint() {
+            public Object proceed() throws Throwable {
+                return null;
+            }
+
+            public Object getExecutingObject() {
+                return this;
+            }
+
+            public Object[] getParameters() {
+                return args;
+            }
+
+            public String getMethodName() {
+                return methodName;
+            }
+
+            public Class<?> getDeclaringClass() {
+                return AgnosticTimingAspectTest.class;
+            }
+        };
+
+        JexlContext jexlContext = new HashMapContext();
+        for (int i = 0; i < args.length; i++) {
+            jexlContext.getVars().put("$" + i, args[i]);
+        }
+        jexlContext.getVars().put("$methodName", methodName);
+        jexlContext.getVars().put("$this", joinPointWithArgs);
+        jexlContext.getVars().put("$class", AgnosticTimingAspectTest.class);
+        jexlContext.getVars().put("$className", className);
+        jexlContext.getVars().put("$classSimpleName", classSimpleName);
+        jexlContext.getVars().put("$return", returnValue);
+        jexlContext.getVars().put("$exception", throwable);
+
+        String[] expressions = {"$0", "$0.time", "$1.key", "$1.class", "$1.missing", "$2.size", "$2.class",
+                                "$3", "$3.name", "$9", "$class.simpleName", "$return.bytes.length",
+                                "$exception.message", "$exception.Message", "$this.methodName", "$0.time + 1",
+                                "$methodName == 'x'", "$4", "$classSimpleName.length"};
+        for (String expression : expressions) {
+            String expected;
+            try {
+                expected = "[" + ExpressionFactory.createExpression(expression).evaluate(jexlContext) + "]";
+            } catch (Exception e) {
+                expected = "[" + ExpressionTemplate.EL_ERROR + "]";
+            }
+            ExpressionTemplate template = new ExpressionTemplate("[{" + expression + "}]", agnosticTimingAspect);
+            assertEquals(expression, expected, template.evaluate(joinPointWithArgs, returnValue, throwable));
+        }
+    }
+
     private String evaluate(String text) {
         return agnosticTimingAspect.evaluateJexl(text, joinPoint, returnValue, throwable);
     }
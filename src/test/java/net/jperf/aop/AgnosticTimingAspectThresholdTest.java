@@ -135,6 +135,33 @@ public class AgnosticTimingAspectThresholdTest {
         assertNotNull("should have logged", InMemoryTimingAspect.getLastLoggedString());
     }
 
+    @Test
+    public void testTagIsNotEvaluatedBelowThreshold() throws Throwable {
+        final int[] numTagEvaluations = new int[1];
+        AgnosticTimingAspect countingAspect = new AgnosticTimingAspect() {
+            protected String getStopWatchTag(ProfilingDescriptor descriptor,
+                                             AbstractJoinPoint joinPoint,
+                                             Object returnValue,
+                                             Throwable exceptionThrown) {
+                numTagEvaluations[0]++;
+                return super.getStopWatchTag(descriptor, joinPoint, returnValue, exceptionThrown);
+            }
+        };
+        Profiled timeThresholdOf100Ms = TestObject.class.getMethod("timeThresholdOf100MsSetOnAnnotationNoSleep")
+                .getAnnotation(Profiled.class);
+
+        countingAspect.runProfiledMethod(joinPoint, timeThresholdOf100Ms, new LoggingStopWatch());
+        assertEquals("tag should not be evaluated below the threshold", 0, numTagEvaluations[0]);
+
+        countingAspect.runProfiledMethod(joinPoint, DefaultProfiled.INSTANCE, new LoggingStopWatch());
+        assertEquals("tag should be evaluated without a threshold", 1, numTagEvaluations[0]);
+
+        Profiled timeThresholdOf100MsWithSuffixes = TestObject.class
+                .getMethod("timeThresholdOf100MsAndSuffixesSetOnAnnotationNoSleep").getAnnotation(Profiled.class);
+        countingAspect.runProfiledMethod(joinPoint, timeThresholdOf100MsWithSuffixes, new LoggingStopWatch());
+        assertEquals("tag should be evaluated with suffixes enabled", 2, numTagEvaluations[0]);
+    }
+
     private static class TestObject {
         @Profiled
         public void annotation() throws IllegalAccessException {
@@ -161,6 +188,11 @@ public class AgnosticTimingAspectThresholdTest {
             System.out.println("timeThresholdOf100MsSetOnAnnotationNoSleep doing nothing");
         }
 
+        @Profiled(timeThreshold = 100, normalAndSlowSuffixesEnabled = true)
+        public void timeThresholdOf100MsAndSuffixesSetOnAnnotationNoSleep() {
+            System.out.println("timeThresholdOf100MsAndSuffixesSetOnAnnotationNoSleep doing nothing");
+        }
+
         private void sleep(long ms) {
             try {
                 Thread.sleep(ms);
@@ -17,6 +17,8 @@
 package net.jperf.aop;
 
 import junit.framework.TestCase;
+import net.jperf.SampledRequest;
+import net.jperf.helpers.ProfilingSwitch;
 
 import java.util.List;
 import java.util.ArrayList;
@@ -202,4 +204,71 @@ outer:  for (String expectedTag : expectedTags) {
         profiledObject.simpleMethodCallExample(50);
         assertEquals(1, InMemoryTimingAspect.logStrings.size());
     }
+
+    public void testSampling() throws Exception {
+        InMemoryTimingAspect.logStrings.clear();
+        for (int i = 0; i < 2000; i++) {
+            profiledObject.sampledTest(0);
+        }
+
+        //about 1 in 10 calls should be logged, each standing for 10 calls
+        List<String> logged = new ArrayList<String>(InMemoryTimingAspect.logStrings);
+        assertTrue("Unexpected number of sampled calls: " + logged.size(), logged.size() > 100 && logged.size() < 400);
+        for (String stopWatch : logged) {
+            assertTrue("Expected weight not found in " + stopWatch,
+                       stopWatch.indexOf("tag[sampled]") >= 0 && stopWatch.endsWith(" weight[10]"));
+        }
+    }
+
+    public void testProfilingSwitch() throws Exception {
+        try {
+            InMemoryTimingAspect.logStrings.clear();
+            ProfilingSwitch.disable("simple");
+            ProfilingSwitch.disable("net.jperf.aop.ProfiledObject.simpleTestDefaultTag");
+            profiledObject.simpleTest(0);
+            profiledObject.simpleTestDefaultTag(0);
+            assertEquals(0, InMemoryTimingAspect.logStrings.size());
+
+            //other methods are still logged
+            profiledObject.simpleTestWithMessage(0);
+            assertEquals(1, InMemoryTimingAspect.logStrings.size());
+
+            //a whole package can be switched off, with exceptions
+            ProfilingSwitch.resetAll();
+            ProfilingSwitch.disable("net.jperf.aop");
+            ProfilingSwitch.enable("net.jperf.aop.ProfiledObject.simpleTest");
+            profiledObject.simpleTestWithMessage(0);
+            assertEquals(1, InMemoryTimingAspect.logStrings.size());
+            profiledObject.simpleTest(0);
+            assertEquals(2, InMemoryTimingAspect.logStrings.size());
+        } finally {
+            ProfilingSwitch.resetAll();
+        }
+    }
+
+    public void testSamplingDecisionCoversNestedCalls() throws Exception {
+        InMemoryTimingAspect.logStrings.clear();
+        for (int i = 0; i < 2000; i++) {
+            profiledObject.sampledOuterTest(0);
+        }
+        assertNull(SampledRequest.current());
+
+        //the nested calls, sampled or not on their own, are logged exactly when the outer call is
+        int numOuter = 0;
+        int numSimple = 0;
+        int numSampled = 0;
+        for (String stopWatch : new ArrayList<String>(InMemoryTimingAspect.logStrings)) {
+            assertTrue("Expected weight not found in " + stopWatch, stopWatch.endsWith(" weight[10]"));
+            if (stopWatch.indexOf("tag[sampledOuter]") >= 0) {
+                numOuter++;
+            } else if (stopWatch.indexOf("tag[simple]") >= 0) {
+                numSimple++;
+            } else if (stopWatch.indexOf("tag[sampled]") >= 0) {
+                numSampled++;
+            }
+        }
+        assertTrue("Unexpected number of sampled calls: " + numOuter, numOuter > 100 && numOuter < 400);
+        assertEquals(numOuter, numSimple);
+        assertEquals(numOuter, numSampled);
+    }
 }
@@ -62,6 +62,17 @@ public class ProfiledObject {
         return sleepTime;
     }
 
+    @Profiled(tag = "sampled", sampleEvery = 10)
+    public long sampledTest(long sleepTime) throws Exception {
+        Thread.sleep(sleepTime);
+        return sleepTime;
+    }
+
+    @Profiled(tag = "sampledOuter", sampleEvery = 10)
+    public long sampledOuterTest(long sleepTime) throws Exception {
+        return simpleTest(sleepTime) + sampledTest(sleepTime);
+    }
+
     @Profiled(tag = "simpleWithMessage", message = "message")
     public long simpleTestWithMessage(long sleepTime) throws Exception {
         Thread.sleep(sleepTime);
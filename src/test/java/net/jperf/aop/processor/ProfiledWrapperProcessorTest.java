@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop.processor;
+
+import junit.framework.TestCase;
+import net.jperf.LoggingStopWatch;
+import net.jperf.helpers.StopWatchFactory;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the ProfiledWrapperProcessor by compiling annotated sources with it, and calling the generated classes.
+ */
+public class ProfiledWrapperProcessorTest extends TestCase {
+    private static final String HEADER =
+            "package wrapped;\n"
+            + "import net.jperf.aop.Profiled;\n"
+            + "import net.jperf.aop.ProfiledWrapper;\n"
+            + "@ProfiledWrapper(stopWatch = \"" + RecordingFactory.class.getName() + "\")\n";
+
+    static List<String> loggedStopWatches = Collections.synchronizedList(new ArrayList<String>());
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        loggedStopWatches.clear();
+        directory = File.createTempFile("jperf-processor", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        delete(directory);
+        super.tearDown();
+    }
+
+    public void testInterfaceWrapper() throws Exception {
+        writeSource("wrapped/Order.java",
+                    "package wrapped;\n"
+                    + "public class Order {\n"
+                    + "    public int getId() { return 42; }\n"
+                    + "    public Order getParent() { return null; }\n"
+                    + "    public boolean isUrgent() { return true; }\n"
+                    + "}\n");
+        writeSource("wrapped/OrderService.java",
+                    HEADER
+                    + "public interface OrderService<T> {\n"
+                    + "    @Profiled(tag = \"order.{$0.id}\", message = \"{$methodName} {$0.parent.id} {$0.urgent}\")\n"
+                    + "    String place(Order order) throws java.io.IOException;\n"
+                    + "    @Profiled(logFailuresSeparately = true, message = \"{$exception.message}\")\n"
+                    + "    int count(int... values);\n"
+                    + "    @Profiled(tag = \"{$classSimpleName}.{$return}\")\n"
+                    + "    T first(java.util.List<T> values);\n"
+                    + "    @Profiled(tag = \"{literal}\", el = false, timeThreshold = 100000)\n"
+                    + "    void fast();\n"
+                    + "    String notProfiled(String value);\n"
+                    + "}\n");
+        writeSource("wrapped/OrderServiceImpl.java",
+                    "package wrapped;\n"
+                    + "public class OrderServiceImpl implements OrderService<String> {\n"
+                    + "    public String place(Order order) { return \"placed\"; }\n"
+                    + "    public int count(int... values) {\n"
+                    + "        if (values.length == 0) throw new IllegalArgumentException(\"no values\");\n"
+                    + "        return values.length;\n"
+                    + "    }\n"
+                    + "    public String first(java.util.List<String> values) { return values.get(0); }\n"
+                    + "    public void fast() { }\n"
+                    + "    public String notProfiled(String value) { return value; }\n"
+                    + "}\n");
+        ClassLoader classLoader = compile(Collections.<String>emptyList());
+
+        Class<?> serviceClass = classLoader.loadClass("wrapped.OrderService");
+        Object wrapper = classLoader.loadClass("wrapped.ProfiledOrderService")
+                .getConstructor(serviceClass)
+                .newInstance(classLoader.loadClass("wrapped.OrderServiceImpl").newInstance());
+        Object order = classLoader.loadClass("wrapped.Order").newInstance();
+
+        assertEquals("placed", call(wrapper, "place", order));
+        assertEquals(2, call(wrapper, "count", new Object[] {new int[] {1, 2}}));
+        try {
+            call(wrapper, "count", new Object[] {new int[0]});
+            fail("the exception should be rethrown");
+        } catch (IllegalArgumentException iae) {
+            assertEquals("no values", iae.getMessage());
+        }
+        assertEquals("b", call(wrapper, "first", Arrays.asList("b", "c")));
+        call(wrapper, "fast");
+        assertEquals("x", call(wrapper, "notProfiled", "x"));
+
+        assertEquals(4, loggedStopWatches.size());
+        assertTrue(loggedStopWatches.get(0),
+                   loggedStopWatches.get(0).endsWith("tag[order.42] message[place null true]"));
+        //like JEXL, the properties of null values are null
+        assertTrue(loggedStopWatches.get(1), loggedStopWatches.get(1).endsWith("tag[count.success] message[null]"));
+        assertTrue(loggedStopWatches.get(2),
+                   loggedStopWatches.get(2).endsWith("tag[count.failure] message[no values]"));
+        assertTrue(loggedStopWatches.get(3), loggedStopWatches.get(3).endsWith("tag[OrderService.b]"));
+    }
+
+    public void testClassWrapper() throws Exception {
+        writeSource("wrapped/OrderDao.java",
+                    HEADER
+                    + "public abstract class OrderDao {\n"
+                    + "    private final String name;\n"
+                    + "    protected OrderDao(String name) throws java.io.IOException { this.name = name; }\n"
+                    + "    private OrderDao() { this.name = null; }\n"
+                    + "    public String getName() { return name; }\n"
+                    + "    @Profiled(tag = \"dao.{$this.name}.{$1}\")\n"
+                    + "    public <K extends Comparable<K>> K find(K key, long version) throws Exception {\n"
+                    + "        if (key == null) throw new java.io.IOException(\"no key\");\n"
+                    + "        return key;\n"
+                    + "    }\n"
+                    + "    @Profiled\n"
+                    + "    protected void save() { }\n"
+                    + "    public abstract void unprofiled();\n"
+                    + "}\n");
+        writeSource("wrapped/OrderDaoImpl.java",
+                    "package wrapped;\n"
+                    + "public class OrderDaoImpl extends ProfiledOrderDao {\n"
+                    + "    public OrderDaoImpl() throws java.io.IOException { super(\"orders\"); }\n"
+                    + "    public void unprofiled() { save(); }\n"
+                    + "}\n");
+        ClassLoader classLoader = compile(Collections.<String>emptyList());
+
+        Object dao = classLoader.loadClass("wrapped.OrderDaoImpl").newInstance();
+        assertEquals("key", call(dao, "find", "key", 3L));
+        try {
+            call(dao, "find", null, 4L);
+            fail("the exception should be rethrown");
+        } catch (java.io.IOException ioe) {
+            assertEquals("no key", ioe.getMessage());
+        }
+        call(dao, "unprofiled");
+
+        assertEquals(3, loggedStopWatches.size());
+        assertTrue(loggedStopWatches.get(0), loggedStopWatches.get(0).endsWith("tag[dao.orders.3]"));
+        assertTrue(loggedStopWatches.get(1), loggedStopWatches.get(1).endsWith("tag[dao.orders.4]"));
+        assertTrue(loggedStopWatches.get(2), loggedStopWatches.get(2).endsWith("tag[save]"));
+    }
+
+    public void testErrors() throws Exception {
+        writeSource("wrapped/Unsupported.java",
+                    HEADER
+                    + "public class Unsupported {\n"
+                    + "    @Profiled(tag = \"{$0 + 1}\")\n"
+                    + "    public void expression(int value) { }\n"
+                    + "    @Profiled(tag = \"{$0.missing}\")\n"
+                    + "    public void property(String value) { }\n"
+                    + "    @Profiled\n"
+                    + "    public final void finalMethod() { }\n"
+                    + "}\n");
+        List<String> errors = new ArrayList<String>();
+        assertNull(compile(errors));
+        //all the methods are checked, not only the first one with an error
+        assertEquals(errors.toString(), 3, errors.size());
+        String allErrors = errors.toString();
+        assertTrue(allErrors, allErrors.contains("Cannot compile the expression {$0 + 1}"));
+        assertTrue(allErrors, allErrors.contains("java.lang.String has no public getter for missing"));
+        assertTrue(allErrors, allErrors.contains("can't time static, final or private @Profiled methods"));
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Compiles the sources in the temp directory with the processor.
+     *
+     * @param errors The list the compile errors are added to.
+     * @return A class loader for the compiled classes, or null if the compilation failed.
+     */
+    private ClassLoader compile(List<String> errors) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            List<File> sources = new ArrayList<File>();
+            File[] files = new File(directory, "wrapped").listFiles();
+            for (File file : files) {
+                sources.add(file);
+            }
+            //surefire may run the tests with a manifest-only jar on the class path
+            String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, diagnostics,
+                    Arrays.asList("-classpath", classPath, "-d", directory.getPath(), "-s", directory.getPath()),
+                    null, fileManager.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(Arrays.asList(new ProfiledWrapperProcessor()));
+            boolean success = task.call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    errors.add(diagnostic.getMessage(null));
+                }
+            }
+            if (!success) {
+                return null;
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+        } finally {
+            fileManager.close();
+        }
+        return new URLClassLoader(new URL[] {directory.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    private Object call(Object target, String methodName, Object... args) throws Exception {
+        for (Method method : target.getClass().getMethods()) {
+            if (method.getName().equals(methodName)) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException ite) {
+                    throw (Exception) ite.getCause();
+                }
+            }
+        }
+        throw new NoSuchMethodException(methodName);
+    }
+
+    private void writeSource(String path, String source) throws Exception {
+        File file = new File(directory, path);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static class RecordingFactory extends StopWatchFactory {
+        public LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            return new LoggingStopWatch() {
+                protected void log(String stopWatchAsString, Throwable exception) {
+                    loggedStopWatches.add(stopWatchAsString);
+                }
+            };
+        }
+    }
+}
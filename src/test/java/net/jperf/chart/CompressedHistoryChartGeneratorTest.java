@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.chart;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.helpers.StatsValueRetriever;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the CompressedHistoryChartGenerator and the CompressedTimeSeries.
+ */
+public class CompressedHistoryChartGeneratorTest extends TestCase {
+    public static final long START_TIME = 1229903820000L;
+
+    public void testSameChartAsGoogleChartGenerator() throws Exception {
+        for (StatsValueRetriever valueRetriever : StatsValueRetriever.DEFAULT_RETRIEVERS.values()) {
+            GoogleChartGenerator expected = new GoogleChartGenerator(valueRetriever);
+            expected.setMaxDataPoints(300);
+            CompressedHistoryChartGenerator chart = new CompressedHistoryChartGenerator(valueRetriever);
+            chart.setMaxDataPoints(300);
+            chart.setEnabledTags(Collections.singleton("tag1"));
+            expected.setEnabledTags(Collections.singleton("tag1"));
+
+            //enough windows that chunks of old data get evicted, with tag2 missing from some windows
+            Random random = new Random(42L);
+            for (int i = 0; i < 1000; i++) {
+                GroupedTimingStatistics statistics = window(START_TIME + i * 30000L, random);
+                expected.appendData(statistics);
+                chart.appendData(statistics);
+                if (i % 97 == 0) {
+                    assertEquals(expected.getChartUrl(), chart.getChartUrl());
+                }
+            }
+            assertEquals(expected.getChartUrl(), chart.getChartUrl());
+
+            //with all tags enabled
+            expected.setEnabledTags(null);
+            chart = new CompressedHistoryChartGenerator(valueRetriever);
+            chart.setMaxDataPoints(300);
+            for (GroupedTimingStatistics statistics : expected.getData()) {
+                chart.appendData(statistics);
+            }
+            assertEquals(expected.getChartUrl(), chart.getChartUrl());
+        }
+    }
+
+    public void testDownsampledToDisplayBudget() throws Exception {
+        //a day of windows is displayed in groups of 10 windows, each group here having the same values, so the chart
+        //is the same as one of every tenth window
+        GoogleChartGenerator expected = new GoogleChartGenerator();
+        expected.setMaxDataPoints(CompressedHistoryChartGenerator.DEFAULT_MAX_DISPLAYED_POINTS);
+        CompressedHistoryChartGenerator chart = new CompressedHistoryChartGenerator();
+        Random random = new Random(42L);
+        GroupedTimingStatistics statistics = null;
+        for (int i = 0; i < CompressedHistoryChartGenerator.DEFAULT_MAX_HISTORY_DATA_POINTS; i++) {
+            if (i % 10 == 0) {
+                statistics = window(START_TIME + i * 30000L, random);
+                expected.appendData(statistics);
+            }
+            GroupedTimingStatistics copy = new GroupedTimingStatistics(statistics.getStatisticsByTag(),
+                                                                       START_TIME + i * 30000L,
+                                                                       START_TIME + (i + 1) * 30000L,
+                                                                       false);
+            chart.appendData(copy);
+        }
+        assertEquals(expected.getChartUrl(), chart.getChartUrl());
+
+        //values within a group are averaged
+        chart = new CompressedHistoryChartGenerator();
+        chart.setMaxDisplayedPoints(2);
+        for (int i = 0; i < 4; i++) {
+            statistics = new GroupedTimingStatistics();
+            statistics.setStartTime(START_TIME + i * 30000L);
+            statistics.setStopTime(START_TIME + (i + 1) * 30000L);
+            statistics.addStopWatch(new StopWatch(START_TIME + i * 30000L, 10L * (i + 1), "tag", null));
+            chart.appendData(statistics);
+        }
+        //means of 15 and 35 ms
+        assertTrue(chart.getChartUrl(), chart.getChartUrl().contains("&chd=t:0.0,100.0|42.9,100.0&"));
+        assertTrue(chart.getChartUrl(), chart.getChartUrl().contains("&chxr=2,0,35.0&"));
+    }
+
+    public void testNoData() throws Exception {
+        assertEquals(new GoogleChartGenerator().getChartUrl(), new CompressedHistoryChartGenerator().getChartUrl());
+    }
+
+    public void testRecentData() throws Exception {
+        CompressedHistoryChartGenerator chart = new CompressedHistoryChartGenerator();
+        Random random = new Random(42L);
+        List<GroupedTimingStatistics> appended = new ArrayList<GroupedTimingStatistics>();
+        for (int i = 0; i < 50; i++) {
+            GroupedTimingStatistics statistics = window(START_TIME + i * 30000L, random);
+            appended.add(statistics);
+            chart.appendData(statistics);
+        }
+        assertEquals(appended.subList(50 - StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS, 50), chart.getData());
+    }
+
+    public void testHistoryIsCompact() throws Exception {
+        CompressedHistoryChartGenerator chart = new CompressedHistoryChartGenerator();
+        //a day of 30 second windows with one tag taking 100 or 101 ms
+        for (int i = 0; i < CompressedHistoryChartGenerator.DEFAULT_MAX_HISTORY_DATA_POINTS; i++) {
+            GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+            statistics.setStartTime(START_TIME + i * 30000L);
+            statistics.setStopTime(START_TIME + (i + 1) * 30000L);
+            statistics.addStopWatch(new StopWatch(START_TIME + i * 30000L, 100L + (i % 2), "tag", null));
+            chart.appendData(statistics);
+        }
+        assertTrue(chart.getCompressedSize() < CompressedHistoryChartGenerator.DEFAULT_MAX_HISTORY_DATA_POINTS * 4);
+    }
+
+    public void testTimeSeriesRoundTrip() throws Exception {
+        Random random = new Random(7L);
+        List<Long> timestamps = new ArrayList<Long>();
+        List<Double> values = new ArrayList<Double>();
+        long timestamp = START_TIME;
+        double[] specialValues = {0.0, -0.0, Double.NaN, Double.MAX_VALUE, Double.MIN_VALUE, -1.5,
+                                  Double.POSITIVE_INFINITY};
+        for (int i = 0; i < 2000; i++) {
+            //regular, jittered and very irregular deltas
+            timestamp += (i % 10 == 0) ? random.nextInt(1000000) : 30000L + random.nextInt(3) - 1;
+            timestamps.add(timestamp);
+            values.add((i % 50 == 0) ? specialValues[i / 50 % specialValues.length] :
+                       (i % 3 == 0) ? random.nextDouble() * 1000 : Math.floor(random.nextDouble() * 10));
+        }
+
+        CompressedTimeSeries series = new CompressedTimeSeries();
+        for (int i = 0; i < timestamps.size(); i++) {
+            series.append(timestamps.get(i), values.get(i));
+        }
+        assertEquals(timestamps.size(), series.size());
+        assertEquals((long) timestamps.get(0), series.getFirstTimestamp());
+        assertEquals((long) timestamps.get(timestamps.size() - 1), series.getLastTimestamp());
+
+        List<Long> decodedTimestamps = new ArrayList<Long>();
+        List<Double> decodedValues = new ArrayList<Double>();
+        series.decode(decodedTimestamps, decodedValues);
+        assertEquals(timestamps, decodedTimestamps);
+        assertEquals(values, decodedValues);
+
+        try {
+            series.append(timestamp - 1, 0.0);
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected, out of order
+        }
+    }
+
+    public void testTimestampDeltaOfDeltaBoundaries() throws Exception {
+        long[] boundaries = {63L, 64L, 65L, 255L, 256L, 257L, 2047L, 2048L, 2049L};
+        for (long boundary : boundaries) {
+            for (long deltaOfDelta : new long[] {boundary, -boundary}) {
+                //the third point has the delta of delta, and the fourth the opposite one
+                List<Long> timestamps = new ArrayList<Long>();
+                timestamps.add(START_TIME);
+                timestamps.add(START_TIME + 10000L);
+                timestamps.add(START_TIME + 20000L + deltaOfDelta);
+                timestamps.add(START_TIME + 30000L);
+                timestamps.add(START_TIME + 40000L);
+
+                CompressedTimeSeries series = new CompressedTimeSeries();
+                for (long timestamp : timestamps) {
+                    series.append(timestamp, 1.0);
+                }
+                List<Long> decodedTimestamps = new ArrayList<Long>();
+                series.decode(decodedTimestamps, new ArrayList<Double>());
+                assertEquals("delta of delta " + deltaOfDelta, timestamps, decodedTimestamps);
+            }
+        }
+    }
+
+    // --- helper methods ---
+
+    private GroupedTimingStatistics window(long startTime, Random random) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setStartTime(startTime);
+        retVal.setStopTime(startTime + 30000L);
+        for (int i = random.nextInt(5); i >= 0; i--) {
+            retVal.addStopWatch(new StopWatch(startTime, 100L + random.nextInt(50), "tag1", null));
+        }
+        if (random.nextInt(4) != 0) {
+            retVal.addStopWatch(new StopWatch(startTime, random.nextInt(10), "tag2", null));
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the shared memory ring file, its writers and reader, and the SharedMemoryCollector. Threads in this JVM are
+ * used as stand-ins for the JVMs on a host.
+ */
+public class SharedMemoryCollectorTest extends TestCase {
+    private static final long BASE_TIME = 1400000040000L;
+
+    private File ringFile;
+
+    protected void setUp() throws Exception {
+        new File("./target").mkdirs();
+        ringFile = new File("./target/sharedMemoryCollectorTest.ring");
+        ringFile.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        ringFile.delete();
+    }
+
+    public void testConcurrentWritersWithWrapAround() throws Exception {
+        //small rings so that the writers wrap around many times while the reader drains them
+        final int numWriters = 3;
+        final int numStopWatches = 5000;
+        final SharedMemoryStopWatchWriter[] writers = new SharedMemoryStopWatchWriter[numWriters];
+        for (int i = 0; i < numWriters; i++) {
+            writers[i] = new SharedMemoryStopWatchWriter(ringFile, 4, 4096);
+            assertEquals(i, writers[i].getSlot());
+        }
+        SharedMemoryStopWatchReader reader = new SharedMemoryStopWatchReader(ringFile, 1000L);
+
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] threads = new Thread[numWriters];
+        for (int i = 0; i < numWriters; i++) {
+            final SharedMemoryStopWatchWriter writer = writers[i];
+            final String tag = "writer" + i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < numStopWatches; j++) {
+                            StopWatch stopWatch = new StopWatch(BASE_TIME + j, j % 100, tag, (j % 2 == 0) ? null : "m");
+                            //spin until the reader has made room
+                            while (!writer.write(stopWatch)) {
+                                Thread.yield();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Map<String, Long> lastStartTimes = new HashMap<String, Long>();
+        int total = 0;
+        long giveUpTime = System.currentTimeMillis() + 30000L;
+        while (total < numWriters * numStopWatches && System.currentTimeMillis() < giveUpTime) {
+            StopWatch stopWatch = reader.poll();
+            if (stopWatch == null) {
+                Thread.yield();
+                continue;
+            }
+            total++;
+            String tag = stopWatch.getTag();
+            Integer count = counts.get(tag);
+            int index = (count == null) ? 0 : count;
+            counts.put(tag, index + 1);
+
+            //each writer's StopWatches come out in the order they were written, with all their fields intact
+            assertEquals(BASE_TIME + index, stopWatch.getStartTime());
+            assertEquals(index % 100, stopWatch.getElapsedTime());
+            assertEquals((index % 2 == 0) ? null : "m", stopWatch.getMessage());
+            Long lastStartTime = lastStartTimes.put(tag, stopWatch.getStartTime());
+            assertTrue(lastStartTime == null || lastStartTime < stopWatch.getStartTime());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(numWriters * numStopWatches, total);
+        assertNull(reader.poll());
+
+        for (SharedMemoryStopWatchWriter writer : writers) {
+            assertTrue(writer.getNumDiscardedStopWatches() > 0);
+            writer.close();
+        }
+        reader.close();
+    }
+
+    public void testFullRingAndSlotClaiming() throws Exception {
+        SharedMemoryStopWatchWriter first = new SharedMemoryStopWatchWriter(ringFile, 2, 256);
+        SharedMemoryStopWatchWriter second = new SharedMemoryStopWatchWriter(ringFile, 2, 256);
+        try {
+            new SharedMemoryStopWatchWriter(ringFile, 2, 256);
+            fail("Expected all slots to be in use");
+        } catch (IOException ioe) {
+            //expected
+        }
+
+        //each record takes 4 + 20 + 3 bytes, so 9 fit in 256 bytes
+        int written = 0;
+        while (first.write(new StopWatch(BASE_TIME, 1L, "tag", null))) {
+            written++;
+        }
+        assertEquals(9, written);
+        assertEquals(1, first.getNumDiscardedStopWatches());
+
+        //a too large StopWatch is discarded
+        StringBuilder longTag = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longTag.append('x');
+        }
+        assertFalse(second.write(new StopWatch(BASE_TIME, 1L, longTag.toString(), null)));
+
+        //after the reader drains the ring there is room again, and a new writer can take over a released slot
+        SharedMemoryStopWatchReader reader = new SharedMemoryStopWatchReader(ringFile, 1000L);
+        for (int i = 0; i < 9; i++) {
+            assertNotNull(reader.poll());
+        }
+        assertNull(reader.poll());
+        assertTrue(first.write(new StopWatch(BASE_TIME + 1, 2L, "tag", null)));
+        first.close();
+        assertFalse(first.write(new StopWatch(BASE_TIME + 2, 2L, "tag", null)));
+
+        SharedMemoryStopWatchWriter third = new SharedMemoryStopWatchWriter(ringFile, 2, 256);
+        assertEquals(0, third.getSlot());
+        assertTrue(third.write(new StopWatch(BASE_TIME + 3, 3L, "tag", null)));
+        assertEquals(BASE_TIME + 1, reader.poll().getStartTime());
+        assertEquals(BASE_TIME + 3, reader.poll().getStartTime());
+
+        second.close();
+        third.close();
+        reader.close();
+    }
+
+    public void testRingFileSharedWithinTheJvm() throws Exception {
+        SharedMemoryStopWatchWriter first = new SharedMemoryStopWatchWriter(ringFile, 2, 256);
+        SharedMemoryStopWatchWriter second = new SharedMemoryStopWatchWriter(new File("./target/../target/"
+                                                                                      + ringFile.getName()), 2, 256);
+        try {
+            new SharedMemoryStopWatchWriter(ringFile, 2, 256);
+            fail("Expected all slots to be in use");
+        } catch (IOException ioe) {
+            //expected
+        }
+        SharedMemoryRingFile ring = SharedMemoryRingFile.open(ringFile, 2, 256);
+        assertSame(ring, SharedMemoryRingFile.open(ringFile.getAbsoluteFile(), 2, 256));
+        ring.close();
+
+        //closing the second writer and the failed third one leaves the channel, and so the first slot's lock, open
+        second.close();
+        assertNotNull(ring.tryClaimSlot(1));
+        assertNull(ring.tryClaimSlot(0));
+        ring.close();
+        assertTrue(first.write(new StopWatch(BASE_TIME, 1L, "tag", null)));
+        first.close();
+
+        //once the last user closed it, the file is opened again
+        SharedMemoryRingFile reopened = SharedMemoryRingFile.open(ringFile, 2, 256);
+        assertNotSame(ring, reopened);
+        reopened.close();
+    }
+
+    public void testWeightedStopWatches() throws Exception {
+        SharedMemoryStopWatchWriter writer = new SharedMemoryStopWatchWriter(ringFile, 1, 256);
+        SharedMemoryStopWatchReader reader = new SharedMemoryStopWatchReader(ringFile, 1000L);
+        StopWatch weighted = new StopWatch(BASE_TIME, 1L, "tag", "message").setWeight(25);
+        StopWatch unweighted = new StopWatch(BASE_TIME + 1, 2L, "tag", null);
+        assertTrue(writer.write(weighted));
+        assertTrue(writer.write(unweighted));
+
+        assertEquals(weighted, reader.poll());
+        assertEquals(unweighted, reader.poll());
+        assertNull(reader.poll());
+
+        writer.close();
+        reader.close();
+    }
+
+    public void testCollector() throws Exception {
+        final List<GroupedTimingStatistics> handled =
+                Collections.synchronizedList(new ArrayList<GroupedTimingStatistics>());
+        SharedMemoryCollector collector = new SharedMemoryCollector(ringFile, 10000L, false,
+                                                                    new GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) {
+                handled.add(statistics);
+            }
+
+            public void error(String errorMessage) {
+                fail(errorMessage);
+            }
+        });
+        collector.start();
+
+        SharedMemoryStopWatchWriter jvm1 = new SharedMemoryStopWatchWriter(ringFile);
+        SharedMemoryStopWatchWriter jvm2 = new SharedMemoryStopWatchWriter(ringFile);
+        for (int i = 0; i < 10; i++) {
+            jvm1.write(new StopWatch(BASE_TIME + i * 1000L, 10L, "shared", null));
+            jvm2.write(new StopWatch(BASE_TIME + i * 1000L, 30L, "shared", null));
+        }
+        jvm2.write(new StopWatch(BASE_TIME + 10000L, 5L, "next", null));
+        jvm1.close();
+        jvm2.close();
+
+        //wait for the collector to see the StopWatch in the second slice, which closes the first
+        for (int i = 0; i < 500 && handled.isEmpty(); i++) {
+            Thread.sleep(10L);
+        }
+        collector.close();
+
+        assertEquals(2, handled.size());
+        GroupedTimingStatistics first = handled.get(0);
+        assertEquals(BASE_TIME, first.getStartTime());
+        assertEquals(20, first.getStatisticsByTag().get("shared").getCount());
+        assertEquals(20.0, first.getStatisticsByTag().get("shared").getMean(), 0.000001);
+        assertEquals(1, handled.get(1).getStatisticsByTag().get("next").getCount());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.cluster;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the StatisticsAggregator and StatisticsForwarder, using threads as stand-ins for separate JVMs.
+ */
+public class StatisticsAggregatorTest extends TestCase {
+    private static final long BASE_TIME = 1400000040000L;
+
+    private List<GroupedTimingStatistics> handled =
+            Collections.synchronizedList(new ArrayList<GroupedTimingStatistics>());
+    private List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    private GroupedTimingStatisticsHandler handler = new GroupedTimingStatisticsHandler() {
+        public void handle(GroupedTimingStatistics statistics) {
+            handled.add(statistics);
+        }
+
+        public void error(String errorMessage) {
+            errors.add(errorMessage);
+        }
+    };
+
+    public void testAggregationOverSockets() throws Exception {
+        //a large lateness so that nothing is handled until the aggregator is closed
+        final StatisticsAggregator aggregator = new StatisticsAggregator(0, 10000L, 60L * 60L * 1000L, handler);
+        aggregator.start();
+
+        //each "JVM" sends 5 windows, and JVM j logs j + 1 stop watches of j + 1 ms for tag "shared" in each window
+        final int numJvms = 4;
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] jvms = new Thread[numJvms];
+        for (int i = 0; i < numJvms; i++) {
+            final int jvm = i;
+            jvms[i] = new Thread() {
+                public void run() {
+                    StatisticsForwarder forwarder = new StatisticsForwarder("localhost", aggregator.getPort());
+                    try {
+                        for (int window = 0; window < 5; window++) {
+                            GroupedTimingStatistics stats = new GroupedTimingStatistics();
+                            long startTime = BASE_TIME + window * 10000L;
+                            for (int k = 0; k <= jvm; k++) {
+                                stats.addStopWatch(new StopWatch(startTime + k, jvm + 1, "shared", null));
+                            }
+                            stats.addStopWatch(new StopWatch(startTime, 7L, "jvm" + jvm, null));
+                            stats.setStartTime(startTime);
+                            stats.setStopTime(startTime + 10000L);
+                            forwarder.forward(stats);
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    } finally {
+                        forwarder.close();
+                    }
+                }
+            };
+            jvms[i].start();
+        }
+        for (Thread jvm : jvms) {
+            jvm.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        for (int i = 0; i < 500 && aggregator.getNumReceivedWindows() < numJvms * 5; i++) {
+            Thread.sleep(10L);
+        }
+        assertEquals(errors.toString(), numJvms * 5, aggregator.getNumReceivedWindows());
+        assertTrue(handled.isEmpty());
+
+        aggregator.close();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(5, handled.size());
+        for (int window = 0; window < 5; window++) {
+            GroupedTimingStatistics merged = handled.get(window);
+            assertEquals(BASE_TIME + window * 10000L, merged.getStartTime());
+            assertEquals(BASE_TIME + (window + 1) * 10000L, merged.getStopTime());
+            assertEquals(numJvms + 1, merged.getStatisticsByTag().size());
+
+            //1 + 2 + 3 + 4 stop watches, with 1 at 1 ms, 2 at 2 ms, ...
+            TimingStatistics shared = merged.getStatisticsByTag().get("shared");
+            assertEquals(10, shared.getCount());
+            assertEquals(1L, shared.getMin());
+            assertEquals(4L, shared.getMax());
+            assertEquals(3.0, shared.getMean(), 0.000001);
+            assertEquals(1, merged.getStatisticsByTag().get("jvm2").getCount());
+        }
+    }
+
+    public void testLatenessAndAlignment() throws Exception {
+        StatisticsAggregator aggregator = new StatisticsAggregator(0, 60000L, 5000L, handler);
+
+        //windows from senders with a shorter time slice are merged into the enclosing slice
+        assertTrue(aggregator.add(window(BASE_TIME + 10000L, 10000L, "a", 10L)));
+        assertTrue(aggregator.add(window(BASE_TIME + 50000L, 10000L, "a", 20L)));
+        assertTrue(aggregator.add(window(BASE_TIME + 60000L, 10000L, "a", 30L)));
+
+        //the first slice ends at BASE_TIME + 60000, so isn't handled until BASE_TIME + 65000
+        aggregator.handleClosedWindows(BASE_TIME + 64999L);
+        assertTrue(handled.isEmpty());
+        aggregator.handleClosedWindows(BASE_TIME + 65000L);
+        assertEquals(1, handled.size());
+        GroupedTimingStatistics first = handled.get(0);
+        assertEquals(BASE_TIME, first.getStartTime());
+        assertEquals(BASE_TIME + 60000L, first.getStopTime());
+        assertEquals(2, first.getStatisticsByTag().get("a").getCount());
+        assertEquals(15.0, first.getStatisticsByTag().get("a").getMean(), 0.000001);
+
+        //a straggler for the first slice is dropped, but one for the second slice is still merged
+        assertFalse(aggregator.add(window(BASE_TIME + 20000L, 10000L, "a", 40L)));
+        assertEquals(1, aggregator.getNumLateWindows());
+        assertTrue(aggregator.add(window(BASE_TIME + 70000L, 10000L, "b", 50L)));
+        assertEquals(5, aggregator.getNumReceivedWindows());
+
+        aggregator.close();
+        assertEquals(2, handled.size());
+        assertEquals(BASE_TIME + 60000L, handled.get(1).getStartTime());
+        assertEquals(2, handled.get(1).getStatisticsByTag().size());
+    }
+
+    public void testForwarderWithoutAggregator() throws Exception {
+        //nothing listens on the privileged tcpmux port
+        StatisticsForwarder forwarder = new StatisticsForwarder("localhost", 1);
+        forwarder.setReconnectDelay(60000L);
+        try {
+            forwarder.forward(window(BASE_TIME, 1000L, "a", 1L));
+            fail("Expected the connection to be refused");
+        } catch (IOException ioe) {
+            //expected
+        }
+        //within the reconnect delay windows are silently dropped
+        forwarder.forward(window(BASE_TIME + 1000L, 1000L, "a", 1L));
+        assertEquals(0, forwarder.getNumForwardedWindows());
+        assertEquals(2, forwarder.getNumDroppedWindows());
+        forwarder.close();
+    }
+
+    public void testQueuedWindowsAreSentBeforeClosing() throws Exception {
+        StatisticsAggregator aggregator = new StatisticsAggregator(0, 10000L, 60L * 60L * 1000L, handler);
+        aggregator.start();
+        StatisticsForwarder forwarder = new StatisticsForwarder("localhost", aggregator.getPort());
+        forwarder.start(null);
+        for (int window = 0; window < 3; window++) {
+            forwarder.enqueue(window(BASE_TIME + window * 10000L, 10000L, "a", 1L));
+        }
+        forwarder.close();
+        assertEquals(3, forwarder.getNumForwardedWindows());
+
+        for (int i = 0; i < 500 && aggregator.getNumReceivedWindows() < 3; i++) {
+            Thread.sleep(10L);
+        }
+        aggregator.close();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(3, handled.size());
+    }
+
+    public void testForwarderWithHungAggregator() throws Exception {
+        //an aggregator that accepts connections but never reads, so writes block once the socket buffers are full
+        ServerSocket hungAggregator = new ServerSocket(0);
+        StatisticsForwarder forwarder = new StatisticsForwarder("localhost", hungAggregator.getLocalPort());
+        forwarder.setQueueSize(4);
+        forwarder.setConnectTimeout(1000);
+        final List<IOException> forwardingErrors = Collections.synchronizedList(new ArrayList<IOException>());
+        forwarder.start(new StatisticsForwarder.ErrorHandler() {
+            public void error(IOException ioe) {
+                forwardingErrors.add(ioe);
+            }
+        });
+        try {
+            GroupedTimingStatistics bigWindow = new GroupedTimingStatistics();
+            for (int i = 0; i < 2000; i++) {
+                bigWindow.addStopWatch(new StopWatch(BASE_TIME, i, "tag" + i, null));
+            }
+            bigWindow.setStartTime(BASE_TIME);
+            bigWindow.setStopTime(BASE_TIME + 10000L);
+
+            //enqueue never blocks, even once the socket buffers are full and the sending thread is stuck writing
+            int numWindows = 1000;
+            for (int i = 0; i < numWindows; i++) {
+                forwarder.enqueue(bigWindow);
+                Thread.sleep(1L);
+            }
+            Thread.sleep(200L);
+            int numForwarded = forwarder.getNumForwardedWindows();
+            assertTrue(numForwarded > 0);
+            assertTrue(numForwarded + forwarder.getNumDroppedWindows() < numWindows);
+            assertTrue(forwarder.getNumDroppedWindows() > 0);
+        } finally {
+            //close gives up on the blocked write
+            long closeStart = System.currentTimeMillis();
+            forwarder.close();
+            assertTrue(System.currentTimeMillis() - closeStart < 5000L);
+            hungAggregator.close();
+        }
+        assertTrue(forwardingErrors.toString(), forwardingErrors.isEmpty());
+    }
+
+    private GroupedTimingStatistics window(long startTime, long length, String tag, long elapsedTime) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.addStopWatch(new StopWatch(startTime, elapsedTime, tag, null));
+        retVal.setStartTime(startTime);
+        retVal.setStopTime(startTime + length);
+        return retVal;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the AsyncCoalescingStatisticsAppenderMetrics and their MXBean.
+ */
+public class AsyncCoalescingStatisticsAppenderMetricsTest extends TestCase {
+    private static final String MBEAN_NAME = "net.jperf:type=AsyncCoalescingStatisticsAppender,name=\"metricsTest\"";
+
+    private List<GroupedTimingStatistics> handled =
+            Collections.synchronizedList(new ArrayList<GroupedTimingStatistics>());
+
+    private GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler handler =
+            new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+                public void handle(GroupedTimingStatistics statistics) {
+                    handled.add(statistics);
+                }
+
+                public void error(String errorMessage) {
+                    fail("Unexpected error: " + errorMessage);
+                }
+            };
+
+    public void testMetrics() throws Exception {
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setName("metricsTest");
+        appender.setTimeSlice(100L);
+        appender.setExposeMetrics(true);
+        appender.start(handler);
+
+        long now = System.currentTimeMillis();
+        appender.append("start[" + now + "] time[2] tag[tag1]");
+        appender.append("start[" + now + "] time[3] tag[tag2] message[hello]");
+        appender.append("not a stopwatch");
+        appender.append("start of something else");
+
+        AsyncCoalescingStatisticsAppenderMetrics metrics = appender.getMetrics();
+        for (int i = 0; i < 100 && metrics.getNumEmittedWindows() == 0L; i++) {
+            Thread.sleep(50L);
+        }
+
+        assertEquals(1L, metrics.getNumRejectedMessages());
+        assertEquals(0L, metrics.getNumDiscardedMessages());
+        assertEquals(2L, metrics.getNumParsedStopWatches());
+        assertEquals(1L, metrics.getNumParseFailures());
+        assertTrue(metrics.getNumDrainBatches() >= 1L);
+        assertTrue(metrics.getMaxDrainBatchSize() >= 1);
+        assertTrue(metrics.getMeanDrainBatchSize() >= 1.0);
+        assertTrue(metrics.getMeanParseMicros() > 0.0);
+        assertEquals(1L, metrics.getNumEmittedWindows());
+        assertTrue(metrics.getMaxEmissionLagMillis() >= metrics.getLastEmissionLagMillis());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(1024, metrics.getQueueSize());
+
+        metrics.downstreamAppenderCalled("downstream", 3000000L);
+        metrics.downstreamAppenderCalled("downstream", 1000000L);
+        assertEquals(Long.valueOf(4L), metrics.getDownstreamAppenderMillis().get("downstream"));
+        assertEquals(2.0, metrics.getDownstreamAppenderMeanMillis().get("downstream"), 0.001);
+
+        //the metrics are readable through JMX, with the maps converted to open types
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(MBEAN_NAME);
+        assertTrue(mBeanServer.isRegistered(objectName));
+        assertEquals(2L, mBeanServer.getAttribute(objectName, "NumParsedStopWatches"));
+        assertEquals(1L, mBeanServer.getAttribute(objectName, "NumRejectedMessages"));
+        assertNotNull(mBeanServer.getAttribute(objectName, "DownstreamAppenderMeanMillis"));
+
+        appender.stop();
+        assertFalse(mBeanServer.isRegistered(objectName));
+    }
+
+    public void testExposeMetricsDisabledByDefault() throws Exception {
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setName("metricsTest");
+        assertFalse(appender.isExposeMetrics());
+        appender.start(handler);
+        try {
+            assertNotNull(appender.getMetrics());
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(MBEAN_NAME)));
+        } finally {
+            appender.stop();
+        }
+    }
+
+    public void testSameNamedAndUnnamedAppenders() throws Exception {
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler recordingHandler =
+                new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+                    public void handle(GroupedTimingStatistics statistics) {
+                    }
+
+                    public void error(String errorMessage) {
+                        errors.add(errorMessage);
+                    }
+                };
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(MBEAN_NAME);
+
+        GenericAsyncCoalescingStatisticsAppender first = new GenericAsyncCoalescingStatisticsAppender();
+        first.setName("metricsTest");
+        first.setExposeMetrics(true);
+        first.start(recordingHandler);
+        GenericAsyncCoalescingStatisticsAppender second = new GenericAsyncCoalescingStatisticsAppender();
+        second.setName("metricsTest");
+        second.setExposeMetrics(true);
+        second.start(recordingHandler);
+        GenericAsyncCoalescingStatisticsAppender unnamed = new GenericAsyncCoalescingStatisticsAppender();
+        unnamed.setExposeMetrics(true);
+        unnamed.start(recordingHandler);
+        try {
+            //the second appender reports the collision, and the unnamed one is silently not registered
+            assertEquals(errors.toString(), 1, errors.size());
+            assertTrue(mBeanServer.isRegistered(objectName));
+
+            //stopping the second appender leaves the first one's MBean registered
+            second.stop();
+            assertTrue(mBeanServer.isRegistered(objectName));
+            first.stop();
+            assertFalse(mBeanServer.isRegistered(objectName));
+        } finally {
+            unnamed.stop();
+            second.stop();
+            first.stop();
+        }
+    }
+
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000L, counter.get());
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class tests the BinaryStopWatchWriter and the BinaryStopWatchLogIterator.
+ */
+public class BinaryStopWatchLogIteratorTest extends TimingTestCase {
+
+    public void testFileRoundTrip() throws Exception {
+        File logFile = new File("./target/binaryStopWatchLogIteratorTest.bin");
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(logFile, false);
+        for (StopWatch stopWatch : testStopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+
+        assertTrue(BinaryStopWatchLogIterator.isBinaryLog(logFile));
+        assertEquals(testStopWatches, readAll(BinaryStopWatchLogIterator.open(logFile)));
+    }
+
+    public void testChannelRoundTripWithSmallBuffers() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        long now = System.currentTimeMillis();
+        StringBuilder longMessage = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            //include negative deltas, long gaps, tags and messages longer than the buffers and non-ASCII text
+            stopWatches.add(new StopWatch(now + (i % 7 == 0 ? -i : i * 1000L), i, "tag" + (i % 13),
+                                          (i % 3 == 0) ? null : "messageé" + i));
+            if (i % 100 == 0) {
+                longMessage.append(i).append("0123456789");
+                stopWatches.add(new StopWatch(now + i, -5L, "tag" + longMessage, longMessage.toString()));
+            }
+        }
+        stopWatches.add(new StopWatch(now, 0L, null, null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(Channels.newChannel(out), 256);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+
+        BinaryStopWatchLogIterator iter =
+                new BinaryStopWatchLogIterator(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), 256);
+        assertEquals(stopWatches, readAll(iter));
+
+        assertEquals(stopWatches, readAll(new BinaryStopWatchLogIterator(ByteBuffer.wrap(out.toByteArray()))));
+    }
+
+    public void testFileMappedInWindows() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            stopWatches.add(new StopWatch(now + i * 10L, i, "tag" + (i % 13), (i % 3 == 0) ? null : "message" + i));
+        }
+        File logFile = new File("./target/binaryStopWatchLogIteratorWindowTest.bin");
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(logFile, false);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+
+        //records cross the ends of the windows, which are re-mapped from the start of the incomplete record
+        assertTrue(logFile.length() > 10 * 100);
+        assertEquals(stopWatches, readAll(BinaryStopWatchLogIterator.open(logFile, 100)));
+
+        try {
+            readAll(BinaryStopWatchLogIterator.open(logFile, 10));
+            fail("the records don't fit in the windows");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+
+        File textFile = new File("./target/binaryStopWatchLogIteratorTextTest.log");
+        FileOutputStream out = new FileOutputStream(textFile);
+        out.write(testLog.getBytes());
+        out.close();
+        try {
+            BinaryStopWatchLogIterator.open(textFile);
+            fail();
+        } catch (IOException ioe) {
+            assertTrue(ioe.getMessage().contains("is not a binary StopWatch log"));
+        }
+    }
+
+    public void testAppendToExistingLog() throws Exception {
+        File logFile = new File("./target/binaryStopWatchLogIteratorAppendTest.bin");
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(logFile, false);
+        writer.write(testStopWatches.get(0));
+        writer.write(testStopWatches.get(2));
+        writer.close();
+
+        //the appending writer reuses tag ids, which only works because it resets the dictionary
+        writer = new BinaryStopWatchWriter(logFile, true);
+        writer.write(testStopWatches.get(3));
+        writer.write(testStopWatches.get(1));
+        writer.close();
+
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        expected.add(testStopWatches.get(0));
+        expected.add(testStopWatches.get(2));
+        expected.add(testStopWatches.get(3));
+        expected.add(testStopWatches.get(1));
+        assertEquals(expected, readAll(BinaryStopWatchLogIterator.open(logFile)));
+    }
+
+    public void testWeightedStopWatches() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            stopWatches.add(new StopWatch(now + i, i, "tag" + (i % 3), null).setWeight((i % 2 == 0) ? 1 : i * 1000));
+        }
+
+        assertEquals(stopWatches, readAll(new BinaryStopWatchLogIterator(ByteBuffer.wrap(writeToBytes(stopWatches)))));
+    }
+
+    public void testFailedFlush() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final boolean[] failNextWrite = new boolean[1];
+        WritableByteChannel channel = new WritableByteChannel() {
+            public int write(ByteBuffer source) throws IOException {
+                if (failNextWrite[0]) {
+                    failNextWrite[0] = false;
+                    throw new IOException("disk full");
+                }
+                byte[] bytes = new byte[source.remaining()];
+                source.get(bytes);
+                out.write(bytes);
+                return bytes.length;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        long now = System.currentTimeMillis();
+        StringBuilder longMessage = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            longMessage.append("0123456789");
+        }
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(channel, 256);
+        writer.write(new StopWatch(now, 1L, "a", null));
+        writer.flush();
+        writer.write(new StopWatch(now + 1, 2L, "a", null));
+        //the new tag's record needs a flush, which fails, so neither it nor the buffered record are written
+        failNextWrite[0] = true;
+        try {
+            writer.write(new StopWatch(now + 2, 3L, "b", longMessage.toString()));
+            fail("the flush should have failed");
+        } catch (IOException ioe) {
+            //expected
+        }
+        writer.write(new StopWatch(now + 3, 4L, "b", null));
+        writer.write(new StopWatch(now + 4, 5L, "a", null));
+        writer.close();
+
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        expected.add(new StopWatch(now, 1L, "a", null));
+        expected.add(new StopWatch(now + 3, 4L, "b", null));
+        expected.add(new StopWatch(now + 4, 5L, "a", null));
+        assertEquals(expected, readAll(new BinaryStopWatchLogIterator(ByteBuffer.wrap(out.toByteArray()))));
+    }
+
+    public void testTruncatedLog() throws Exception {
+        byte[] log = writeToBytes(testStopWatches);
+        byte[] truncated = new byte[log.length - 2];
+        System.arraycopy(log, 0, truncated, 0, truncated.length);
+
+        List<StopWatch> expected = new ArrayList<StopWatch>(testStopWatches.subList(0, testStopWatches.size() - 1));
+        assertEquals(expected, readAll(new BinaryStopWatchLogIterator(ByteBuffer.wrap(truncated))));
+        assertEquals(expected, readAll(new BinaryStopWatchLogIterator(
+                Channels.newChannel(new ByteArrayInputStream(truncated)), 256)));
+    }
+
+    public void testSmallerThanTextLog() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        StringBuilder textLog = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            StopWatch stopWatch = new StopWatch(now + i * 10, i % 250, "codeBlock" + (i % 5), null);
+            stopWatches.add(stopWatch);
+            textLog.append(stopWatch).append('\n');
+        }
+
+        byte[] binaryLog = writeToBytes(stopWatches);
+        assertTrue(binaryLog.length * 5 < textLog.length());
+    }
+
+    public void testGroupingStatistics() throws Exception {
+        Iterator<GroupedTimingStatistics> fromText =
+                new GroupingStatisticsIterator(new StopWatchLogIterator(new StringReader(testLog)));
+        Iterator<GroupedTimingStatistics> fromBinary =
+                new GroupingStatisticsIterator(
+                        new BinaryStopWatchLogIterator(ByteBuffer.wrap(writeToBytes(testStopWatches))));
+
+        while (fromText.hasNext()) {
+            assertEquals(fromText.next(), fromBinary.next());
+        }
+        assertFalse(fromBinary.hasNext());
+    }
+
+    public void testNotABinaryLog() throws Exception {
+        try {
+            new BinaryStopWatchLogIterator(ByteBuffer.wrap(testLog.getBytes()));
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+
+        try {
+            new BinaryStopWatchLogIterator(Channels.newChannel(new ByteArrayInputStream(new byte[0])), 256);
+            fail();
+        } catch (IOException ioe) {
+            //expected
+        }
+    }
+
+    public void testEmptyLogAndNext() throws Exception {
+        BinaryStopWatchLogIterator iter =
+                new BinaryStopWatchLogIterator(ByteBuffer.wrap(writeToBytes(new ArrayList<StopWatch>())));
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail();
+        } catch (NoSuchElementException nsee) {
+            //expected
+        }
+    }
+
+    public void testVarLongs() throws Exception {
+        long[] values = {0L, 1L, -1L, 127L, 128L, 65535L, -65536L, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * BinaryStopWatchFormat.MAX_VARINT_LENGTH);
+        for (long value : values) {
+            BinaryStopWatchFormat.putVarLong(BinaryStopWatchFormat.zigZagEncode(value), buffer);
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, BinaryStopWatchFormat.zigZagDecode(BinaryStopWatchFormat.getVarLong(buffer)));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    // --- helper methods ---
+
+    private byte[] writeToBytes(List<StopWatch> stopWatches) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(Channels.newChannel(out), 1024);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private List<StopWatch> readAll(Iterator<StopWatch> iter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests the GroupedTimingStatisticsCodec.
+ */
+public class GroupedTimingStatisticsCodecTest extends TestCase {
+    private static final long START_TIME = 1229903820000L;
+
+    public void testRoundTrip() throws Exception {
+        GroupedTimingStatistics statistics = window(START_TIME, new Random(42L), 20);
+        statistics.setCreateRollupStatistics(true);
+
+        GroupedTimingStatistics decoded =
+                GroupedTimingStatisticsCodec.fromBytes(ByteBuffer.wrap(GroupedTimingStatisticsCodec.toBytes(statistics)));
+        assertEquivalent(statistics, decoded);
+        assertTrue(decoded.isCreateRollupStatistics());
+    }
+
+    public void testEmptyAndUnusualWindows() throws Exception {
+        assertEquivalent(new GroupedTimingStatistics(),
+                         GroupedTimingStatisticsCodec.fromBytes(
+                                 ByteBuffer.wrap(GroupedTimingStatisticsCodec.toBytes(new GroupedTimingStatistics()))));
+
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setStartTime(-1000L);
+        statistics.setStopTime(-2000L);
+        statistics.getStatisticsByTag().put("", new TimingStatistics(-5.5, 2.0, 0L, -10L, 3));
+        statistics.getStatisticsByTag().put("tag é中", new TimingStatistics(1.0, 0.0, 1L, 1L, 1));
+        assertEquivalent(statistics, GroupedTimingStatisticsCodec.fromBytes(
+                ByteBuffer.wrap(GroupedTimingStatisticsCodec.toBytes(statistics))));
+    }
+
+    public void testStreamUsesDictionary() throws Exception {
+        GroupedTimingStatisticsCodec encoder = new GroupedTimingStatisticsCodec();
+        GroupedTimingStatisticsCodec decoder = new GroupedTimingStatisticsCodec();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        Random random = new Random(7L);
+
+        GroupedTimingStatistics[] windows = new GroupedTimingStatistics[10];
+        int firstFrameSize = 0;
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = window(START_TIME + i * 30000L, random, 10);
+            int before = buffer.position();
+            assertTrue(buffer.remaining() >= encoder.getMaxEncodedSize(windows[i]));
+            encoder.encode(windows[i], buffer);
+            if (i == 0) {
+                firstFrameSize = buffer.position() - before;
+            } else {
+                //tag names are only sent in the first frame
+                assertTrue(buffer.position() - before < firstFrameSize);
+            }
+        }
+
+        buffer.flip();
+        for (GroupedTimingStatistics window : windows) {
+            assertEquivalent(window, decoder.decode(buffer));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testMuchSmallerThanSerialization() throws Exception {
+        GroupedTimingStatistics statistics = window(START_TIME, new Random(42L), 20);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(statistics);
+        out.close();
+
+        assertTrue(GroupedTimingStatisticsCodec.toBytes(statistics).length * 2 < serialized.size());
+
+        //once the tags are in the dictionary, frames are smaller still
+        GroupedTimingStatisticsCodec encoder = new GroupedTimingStatisticsCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(encoder.getMaxEncodedSize(statistics));
+        encoder.encode(statistics, buffer);
+        buffer.clear();
+        encoder.encode(statistics, buffer);
+        assertTrue(buffer.position() * 3 < serialized.size());
+    }
+
+    public void testMalformedFrames() throws Exception {
+        byte[] frame = GroupedTimingStatisticsCodec.toBytes(window(START_TIME, new Random(42L), 3));
+
+        //truncated
+        try {
+            ByteBuffer truncated = ByteBuffer.wrap(frame, 0, frame.length - 1);
+            GroupedTimingStatisticsCodec.fromBytes(truncated);
+            fail();
+        } catch (BufferUnderflowException bue) {
+            //expected
+        }
+
+        //unknown version
+        byte[] badVersion = frame.clone();
+        badVersion[0] = 99;
+        try {
+            GroupedTimingStatisticsCodec.fromBytes(ByteBuffer.wrap(badVersion));
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+
+        //a stream frame decoded without the dictionary from earlier frames
+        GroupedTimingStatisticsCodec encoder = new GroupedTimingStatisticsCodec();
+        GroupedTimingStatistics statistics = window(START_TIME, new Random(42L), 3);
+        ByteBuffer buffer = ByteBuffer.allocate(encoder.getMaxEncodedSize(statistics) * 2);
+        encoder.encode(statistics, buffer);
+        int secondFrameStart = buffer.position();
+        encoder.encode(statistics, buffer);
+        buffer.flip();
+        buffer.position(secondFrameStart);
+        try {
+            GroupedTimingStatisticsCodec.fromBytes(buffer);
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    // --- helper methods ---
+
+    private GroupedTimingStatistics window(long startTime, Random random, int numTags) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics(new TreeMap<String, TimingStatistics>(),
+                                                                     startTime, startTime + 30000L, false);
+        for (int i = 0; i < numTags; i++) {
+            for (int j = random.nextInt(20); j >= 0; j--) {
+                retVal.addStopWatch(new StopWatch(startTime, random.nextInt(2000), "codeBlock" + i + ".success", null));
+            }
+        }
+        return retVal;
+    }
+
+    private void assertEquivalent(GroupedTimingStatistics expected, GroupedTimingStatistics actual) {
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getStopTime(), actual.getStopTime());
+        assertEquals(expected.getStatisticsByTag().keySet(), actual.getStatisticsByTag().keySet());
+        for (Map.Entry<String, TimingStatistics> tagAndStats : expected.getStatisticsByTag().entrySet()) {
+            TimingStatistics expectedStats = tagAndStats.getValue();
+            TimingStatistics actualStats = actual.getStatisticsByTag().get(tagAndStats.getKey());
+            assertEquals(expectedStats.getCount(), actualStats.getCount());
+            assertEquals(expectedStats.getMin(), actualStats.getMin());
+            assertEquals(expectedStats.getMax(), actualStats.getMax());
+            assertEquals(expectedStats.getMean(), actualStats.getMean());
+            //the standard deviation is stored exactly, but is recomputed from the variance when decoded
+            assertEquals(expectedStats.getStandardDeviation(), actualStats.getStandardDeviation(), 0.000001);
+        }
+    }
+}
@@ -16,6 +16,8 @@
  */
 package net.jperf.helpers;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
 
 import junit.framework.TestCase;
@@ -62,4 +64,88 @@ public class PackageParentPropertiesTest extends TestCase {
     public void testDefaultProperty() {
         assertEquals("default", properties.getProperty("nomatch", "default"));
     }
+
+    public void testChangesAreVisible() {
+        PackageParentProperties changing = new PackageParentProperties();
+        assertNull(changing.getProperty("threshold.com.some.SomeClass"));
+
+        int modificationCount = changing.getModificationCount();
+        changing.setProperty("threshold.com.some", "10");
+        assertTrue(changing.getModificationCount() > modificationCount);
+        assertEquals("10", changing.getProperty("threshold.com.some.SomeClass"));
+
+        changing.setProperty("threshold.com.some.SomeClass", "20");
+        assertEquals("20", changing.getProperty("threshold.com.some.SomeClass"));
+
+        changing.remove("threshold.com.some.SomeClass");
+        assertEquals("10", changing.getProperty("threshold.com.some.SomeClass"));
+    }
+
+    public void testChangesThroughOtherMutatorsAreVisible() {
+        PackageParentProperties changing = new PackageParentProperties();
+        changing.setProperty("threshold.com.some", "10");
+        String key = "threshold.com.some.SomeClass";
+        assertEquals("10", changing.getProperty(key));
+
+        changing.putIfAbsent(key, "20");
+        assertEquals("20", changing.getProperty(key));
+        changing.replace(key, "30");
+        assertEquals("30", changing.getProperty(key));
+        changing.replace(key, "30", "40");
+        assertEquals("40", changing.getProperty(key));
+        changing.remove(key, "40");
+        assertEquals("10", changing.getProperty(key));
+
+        changing.setProperty(key, "20");
+        assertEquals("20", changing.getProperty(key));
+        changing.keySet().remove(key);
+        assertEquals("10", changing.getProperty(key));
+
+        changing.setProperty(key, "20");
+        assertEquals("20", changing.getProperty(key));
+        changing.values().remove("20");
+        assertEquals("10", changing.getProperty(key));
+
+        changing.setProperty(key, "20");
+        assertEquals("20", changing.getProperty(key));
+        for (Map.Entry<Object, Object> entry : changing.entrySet()) {
+            if (key.equals(entry.getKey())) {
+                entry.setValue("30");
+            }
+        }
+        assertEquals("30", changing.getProperty(key));
+        for (Iterator<Map.Entry<Object, Object>> iter = changing.entrySet().iterator(); iter.hasNext();) {
+            if (key.equals(iter.next().getKey())) {
+                iter.remove();
+            }
+        }
+        assertEquals("10", changing.getProperty(key));
+
+        changing.keySet().clear();
+        assertNull(changing.getProperty(key));
+    }
+
+    public void testSetAll() {
+        PackageParentProperties changing = new PackageParentProperties();
+        changing.setProperty("tag.com.some", "old tag");
+        changing.setProperty("message.com.some", "old message");
+
+        Properties newProperties = new Properties();
+        newProperties.setProperty("tag.com", "new tag");
+        changing.setAll(newProperties);
+
+        assertEquals("new tag", changing.getProperty("tag.com.some.SomeClass"));
+        assertNull(changing.getProperty("message.com.some.SomeClass"));
+        assertEquals(1, changing.size());
+    }
+
+    public void testReload() {
+        properties.setProperty("tag." + getClass().getName(), "changed tag");
+        properties.setProperty("added.at.runtime", "value");
+        assertEquals("changed tag", properties.getProperty("tag." + getClass().getName()));
+
+        assertTrue(JperfProperties.reload());
+        assertEquals("some tag", properties.getProperty("tag." + getClass().getName()));
+        assertNull(properties.getProperty("added.at.runtime"));
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.LoggingStopWatch;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the ProfilingSwitch.
+ */
+public class ProfilingSwitchTest extends TestCase {
+
+    protected void tearDown() throws Exception {
+        ProfilingSwitch.resetAll();
+    }
+
+    public void testRules() throws Exception {
+        assertTrue(ProfilingSwitch.isAllEnabled());
+        assertTrue(ProfilingSwitch.isEnabled("com.acme.dao.OrderDao.find"));
+
+        ProfilingSwitch.disable("com.acme.dao");
+        ProfilingSwitch.enable("com.acme.dao.OrderDao.find");
+        assertFalse(ProfilingSwitch.isAllEnabled());
+        assertFalse(ProfilingSwitch.isEnabled("com.acme.dao"));
+        assertFalse(ProfilingSwitch.isEnabled("com.acme.dao.OrderDao.save"));
+        assertTrue(ProfilingSwitch.isEnabled("com.acme.dao.OrderDao.find"));
+        assertTrue(ProfilingSwitch.isEnabled("com.acme.dao.OrderDao.find.slow"));
+        //prefixes only match whole segments
+        assertTrue(ProfilingSwitch.isEnabled("com.acme.daoHelper"));
+        assertTrue(ProfilingSwitch.isEnabled("com.acme"));
+        assertTrue(ProfilingSwitch.isEnabled(null));
+
+        //the cached results are dropped when the rules change
+        ProfilingSwitch.reset("com.acme.dao");
+        assertTrue(ProfilingSwitch.isEnabled("com.acme.dao.OrderDao.save"));
+        assertTrue(ProfilingSwitch.isAllEnabled());
+        assertEquals(1, ProfilingSwitch.getRules().size());
+
+        ProfilingSwitch.disable("");
+        assertFalse(ProfilingSwitch.isEnabled("anything"));
+        assertTrue(ProfilingSwitch.isEnabled("com.acme.dao.OrderDao.find"));
+        ProfilingSwitch.resetAll();
+        assertTrue(ProfilingSwitch.getRules().isEmpty());
+        assertTrue(ProfilingSwitch.isEnabled("anything"));
+    }
+
+    public void testLoggingStopWatch() throws Exception {
+        final List<String> logged = new ArrayList<String>();
+        LoggingStopWatch stopWatch = new LoggingStopWatch() {
+            protected void log(String stopWatchAsString, Throwable exception) {
+                logged.add(stopWatchAsString);
+            }
+        };
+
+        ProfilingSwitch.disable("noisy");
+        stopWatch.lap("noisy.subsystem");
+        stopWatch.stop("quiet");
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0).contains("tag[quiet]"));
+    }
+
+    public void testManagement() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(ProfilingSwitch.MBEAN_NAME);
+        mBeanServer.registerMBean(new ProfilingSwitch.Management(), objectName);
+        try {
+            mBeanServer.invoke(objectName, "disable", new Object[] {"viaJmx"}, new String[] {String.class.getName()});
+            assertFalse(ProfilingSwitch.isEnabled("viaJmx.tag"));
+            assertEquals(Boolean.FALSE,
+                         mBeanServer.invoke(objectName, "isEnabled", new Object[] {"viaJmx.tag"},
+                                            new String[] {String.class.getName()}));
+            assertNotNull(mBeanServer.getAttribute(objectName, "Rules"));
+
+            mBeanServer.invoke(objectName, "resetAll", new Object[0], new String[0]);
+            assertTrue(ProfilingSwitch.isEnabled("viaJmx.tag"));
+        } finally {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+}
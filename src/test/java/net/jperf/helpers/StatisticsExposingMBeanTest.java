@@ -19,12 +19,19 @@ package net.jperf.helpers;
 import net.jperf.TimingTestCase;
 import net.jperf.GroupedTimingStatistics;
 import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanInfo;
 import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 import javax.management.Notification;
 import java.util.Arrays;
+import java.util.TreeMap;
 
 /**
  * Tests the StatisticsExposingMBean.
@@ -109,6 +116,162 @@ public class StatisticsExposingMBeanTest extends TimingTestCase {
         //TODO - more tests - update current statistics, check for unsupported ops.
     }
 
+    public void testAttributeLookup() throws Exception {
+        GroupedTimingStatistics groupedTimingStats = new GroupedTimingStatistics();
+        groupedTimingStats.setStartTime(System.currentTimeMillis());
+        groupedTimingStats.setStopTime(System.currentTimeMillis() + 1000L);
+        groupedTimingStats.addStopWatches(this.testStopWatches);
+
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                                                    Arrays.asList("tag"),
+                                                                    null /* no notifications */);
+        //before any statistics are set, values are 0
+        assertEquals(0, mBean.getAttribute("tagCount"));
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+
+        //tags that aren't exposed can still be read by name
+        assertEquals(groupedTimingStats.getStatisticsByTag().get("tag2").getCount(), mBean.getAttribute("tag2Count"));
+        try {
+            mBean.getAttribute("tagNoStat");
+            fail("Should have thrown an AttributeNotFoundException");
+        } catch (AttributeNotFoundException anfe) { /* expected */ }
+
+        //all the values in a getAttributes call come from the same statistics, bad names are left out
+        AttributeList attributes = mBean.getAttributes(new String[]{"tagMax", "tagNoStat", "tagMin"});
+        assertEquals(2, attributes.size());
+        assertEquals(groupedTimingStats.getStatisticsByTag().get("tag").getMax(),
+                     ((Attribute) attributes.get(0)).getValue());
+        assertEquals(groupedTimingStats.getStatisticsByTag().get("tag").getMin(),
+                     ((Attribute) attributes.get(1)).getValue());
+
+        mBean.exposeTag("tag2");
+        assertEquals(mBean.getStatsValueRetrievers().size() * 2, mBean.getMBeanInfo().getAttributes().length);
+        assertTrue(mBean.exposedAttributes.containsKey("tag2Mean"));
+        assertTrue(mBean.removeTag("tag"));
+        assertFalse(mBean.exposedAttributes.containsKey("tagMean"));
+        assertEquals(groupedTimingStats.getStatisticsByTag().get("tag").getMean(), mBean.getAttribute("tagMean"));
+    }
+
+    public void testWindow() throws Exception {
+        GroupedTimingStatistics groupedTimingStats = new GroupedTimingStatistics();
+        groupedTimingStats.setStartTime(System.currentTimeMillis());
+        groupedTimingStats.setStopTime(System.currentTimeMillis() + 1000L);
+        groupedTimingStats.addStopWatches(this.testStopWatches);
+
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                                                    Arrays.asList("tag"),
+                                                                    null /* no notifications */);
+        assertEquals(0L, mBean.getWindowSequenceNumber());
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+
+        CompositeData window = mBean.getWindow(null, -1L);
+        assertEquals(1L, window.get("SequenceNumber"));
+        assertEquals(groupedTimingStats.getStartTime(), window.get("StartTime"));
+        assertEquals(groupedTimingStats.getStopTime(), window.get("StopTime"));
+        TabularData statistics = (TabularData) window.get("Statistics");
+        assertEquals(3, statistics.size());
+        CompositeData row = statistics.get(new Object[]{"tag2"});
+        assertEquals(groupedTimingStats.getStatisticsByTag().get("tag2").getMean(), row.get("Mean"));
+        assertEquals(groupedTimingStats.getStatisticsByTag().get("tag2").getCount(), row.get("Count"));
+        assertEquals(1L, row.get("LastChangedWindow"));
+
+        //the prefix filter
+        assertEquals(1, ((TabularData) mBean.getWindow("tag3", -1L).get("Statistics")).size());
+
+        //only tag changes in the next window, and tag3 disappears
+        GroupedTimingStatistics nextStats = new GroupedTimingStatistics();
+        nextStats.setStartTime(groupedTimingStats.getStartTime());
+        nextStats.setStopTime(groupedTimingStats.getStopTime());
+        nextStats.setStatisticsByTag(new TreeMap<String, TimingStatistics>(groupedTimingStats.getStatisticsByTag()));
+        nextStats.getStatisticsByTag().remove("tag3");
+        nextStats.getStatisticsByTag().put("tag", new TimingStatistics().addSampleTime(100L));
+        mBean.updateCurrentTimingStatistics(nextStats);
+
+        window = (CompositeData) mBean.invoke("getWindow", new Object[]{null, 1L}, null);
+        assertEquals(2L, window.get("SequenceNumber"));
+        statistics = (TabularData) window.get("Statistics");
+        assertEquals(2, statistics.size());
+        assertEquals(100.0, statistics.get(new Object[]{"tag"}).get("Mean"));
+        assertEquals(0, statistics.get(new Object[]{"tag3"}).get("Count"));
+        assertEquals(Boolean.TRUE, statistics.get(new Object[]{"tag3"}).get("Removed"));
+        assertEquals(Boolean.FALSE, statistics.get(new Object[]{"tag"}).get("Removed"));
+        assertNull(statistics.get(new Object[]{"tag2"}));
+        assertEquals(1L,
+                     ((TabularData) mBean.getWindow(null, -1L).get("Statistics"))
+                             .get(new Object[]{"tag2"}).get("LastChangedWindow"));
+
+        //a poller that has seen the current window gets no rows
+        assertTrue(((TabularData) mBean.getWindow("", 2L).get("Statistics")).isEmpty());
+
+        //a poller that skipped the window in which tag3 disappeared still learns it was removed
+        mBean.setRemovedTagWindows(2);
+        mBean.updateCurrentTimingStatistics(nextStats);
+        statistics = (TabularData) mBean.getWindow(null, 1L).get("Statistics");
+        assertEquals(2L, statistics.get(new Object[]{"tag3"}).get("LastChangedWindow"));
+        assertEquals(Boolean.TRUE, statistics.get(new Object[]{"tag3"}).get("Removed"));
+
+        //until the removed tag ages out
+        mBean.updateCurrentTimingStatistics(nextStats);
+        assertEquals(4L, mBean.getWindowSequenceNumber());
+        assertNull(((TabularData) mBean.getWindow(null, -1L).get("Statistics")).get(new Object[]{"tag3"}));
+
+        //and a tag that comes back is changed
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        statistics = (TabularData) mBean.getWindow(null, 4L).get("Statistics");
+        assertEquals(5L, statistics.get(new Object[]{"tag3"}).get("LastChangedWindow"));
+        assertEquals(Boolean.FALSE, statistics.get(new Object[]{"tag3"}).get("Removed"));
+    }
+
+    public void testTagPatterns() throws Exception {
+        GroupedTimingStatistics groupedTimingStats = new GroupedTimingStatistics();
+        groupedTimingStats.setStartTime(System.currentTimeMillis());
+        groupedTimingStats.setStopTime(System.currentTimeMillis() + 1000L);
+        groupedTimingStats.addStopWatch(new StopWatch(0L, 10L, "orders.create", null));
+        groupedTimingStats.addStopWatch(new StopWatch(0L, 20L, "orders.cancel", null));
+        groupedTimingStats.addStopWatch(new StopWatch(0L, 30L, "payments.charge.visa", null));
+        groupedTimingStats.addStopWatch(new StopWatch(0L, 40L, "payments.refund", null));
+        groupedTimingStats.addStopWatch(new StopWatch(0L, 50L, "other", null));
+
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                                                    Arrays.asList("other", "orders.*"),
+                                                                    null /* no notifications */);
+        int numStats = mBean.getStatsValueRetrievers().size();
+        assertEquals(numStats, mBean.getMBeanInfo().getAttributes().length);
+
+        //matching tags are exposed when they appear
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertEquals(numStats * 3, mBean.getMBeanInfo().getAttributes().length);
+        assertTrue(mBean.exposedAttributes.containsKey("orders.cancelMean"));
+        assertEquals(10.0, mBean.getAttribute("orders.createMean"));
+
+        //patterns with a * in the middle, added at runtime
+        mBean.exposeTag("payments.*.visa");
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertEquals(numStats * 4, mBean.getMBeanInfo().getAttributes().length);
+        assertTrue(mBean.exposedAttributes.containsKey("payments.charge.visaMax"));
+        assertFalse(mBean.exposedAttributes.containsKey("payments.refundMax"));
+
+        //the MBeanInfo isn't changed when no new tags appear
+        MBeanInfo mBeanInfo = mBean.getMBeanInfo();
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertSame(mBeanInfo, mBean.getMBeanInfo());
+
+        //removing a pattern leaves the tags it exposed
+        assertTrue(mBean.removeTag("orders.*"));
+        assertFalse(mBean.removeTag("orders.*"));
+        assertTrue(mBean.exposedAttributes.containsKey("orders.cancelMean"));
+
+        //the limit on the number of exposed tags
+        mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                            Arrays.asList("other", "*"),
+                                            null /* no notifications */);
+        mBean.setMaxExposedTags(3);
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertEquals(numStats * 3, mBean.getMBeanInfo().getAttributes().length);
+        mBean.exposeTag("payments.refund");
+        assertEquals(numStats * 4, mBean.getMBeanInfo().getAttributes().length);
+    }
+
     protected static class DummyNotificationListener implements NotificationListener {
         public Notification lastReceivedNotification;
         
@@ -33,6 +33,10 @@ public class StopWatchParserTest extends TestCase {
         stopWatch = new StopWatch(789, 101112, "tag2", null);
         assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
 
+        stopWatch = new StopWatch(789, 101112, "tag3", "sampled").setWeight(50);
+        assertTrue(stopWatch.toString().endsWith(" weight[50]"));
+        assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+
         assertNull(parser.parseStopWatch("not a stop watch string"));
 
         assertNull(parser.match("not a stop watch string"));
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the TagCardinalityGuard.
+ */
+public class TagCardinalityGuardTest extends TestCase {
+
+    public void testMaxTagsPerWindow() throws Exception {
+        TagCardinalityGuard guard = new TagCardinalityGuard(2, 10);
+        assertEquals("a.1", guard.getTag("a.1"));
+        assertEquals("a.2", guard.getTag("a.2"));
+        assertEquals("a.__other__", guard.getTag("a.3"));
+        assertEquals("__other__", guard.getTag("b"));
+        //tags already in the window stay exact
+        assertEquals("a.1", guard.getTag("a.1"));
+        assertEquals(2L, guard.getNumFoldedStopWatches());
+
+        //the next window has room again
+        guard.windowClosed();
+        assertEquals("a.3", guard.getTag("a.3"));
+        assertEquals("b", guard.getTag("b"));
+        assertEquals("a.__other__", guard.getTag("a.1"));
+        assertEquals(3L, guard.getNumFoldedStopWatches());
+    }
+
+    public void testRuntimeValueInTheMiddleOfTheTag() throws Exception {
+        TagCardinalityGuard guard = new TagCardinalityGuard(10, 100);
+        for (int window = 0; window < 3; window++) {
+            Set<String> tagsInWindow = new HashSet<String>();
+            for (int i = 0; i < 100000; i++) {
+                tagsInWindow.add(guard.getTag("order." + i + ".load"));
+            }
+            //10 exact tags, one per-prefix overflow tag and the global overflow tag
+            assertEquals(tagsInWindow.toString(), 12, tagsInWindow.size());
+            assertTrue(tagsInWindow.contains(TagCardinalityGuard.OTHER_TAG));
+            guard.windowClosed();
+        }
+    }
+
+    public void testMaxOtherTagsPerWindow() throws Exception {
+        TagCardinalityGuard guard = new TagCardinalityGuard(1, 10, 2);
+        assertEquals("a.1", guard.getTag("a.1"));
+        assertEquals("a.__other__", guard.getTag("a.2"));
+        assertEquals("b.__other__", guard.getTag("b.1"));
+        assertEquals("__other__", guard.getTag("c.1"));
+        //overflow tags already used in the window are still used
+        assertEquals("a.__other__", guard.getTag("a.3"));
+
+        guard.windowClosed();
+        assertEquals("c.1", guard.getTag("c.1"));
+        assertEquals("c.__other__", guard.getTag("c.2"));
+    }
+
+    public void testHeavyTagsReplaceLightTags() throws Exception {
+        TagCardinalityGuard guard = new TagCardinalityGuard(2, 2);
+        guard.getTag("light.1");
+        guard.getTag("light.2");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("__other__", guard.getTag("heavy"));
+        }
+        //the long tail is folded without taking the heavy tag's place in the sketch
+        for (int i = 0; i < 5; i++) {
+            guard.getTag("tail." + i);
+        }
+        assertEquals(2, guard.getNumTrackedTags());
+
+        //heavy replaces one light tag, and the other is forgotten because its count halves to 0
+        guard.windowClosed();
+        assertEquals("heavy", guard.getTag("heavy"));
+        assertEquals(1, guard.getNumTrackedTags());
+
+        //tags that aren't logged for a while are forgotten
+        guard.windowClosed();
+        guard.windowClosed();
+        guard.windowClosed();
+        assertEquals(0, guard.getNumTrackedTags());
+        assertEquals("tail.1", guard.getTag("tail.1"));
+    }
+
+    public void testGroupingStatisticsIterator() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        for (int i = 0; i < 1000; i++) {
+            stopWatches.add(new StopWatch(1000L + i, 10L, "get." + i, null));
+            stopWatches.add(new StopWatch(1000L + i, 20L, "put", null));
+        }
+        TagCardinalityGuard guard = new TagCardinalityGuard(10, 100);
+        GroupingStatisticsIterator iter =
+                new GroupingStatisticsIterator(stopWatches.iterator(), 30000L, true, guard);
+
+        GroupedTimingStatistics statistics = iter.next();
+        assertFalse(iter.hasNext());
+        //10 exact tags, the get.__other__ tag and the get rollup
+        assertEquals(12, statistics.getStatisticsByTag().size());
+        assertEquals(1000, statistics.getStatisticsByTag().get("put").getCount());
+        assertEquals(991, statistics.getStatisticsByTag().get("get.__other__").getCount());
+        assertEquals(1000, statistics.getStatisticsByTag().get("get").getCount());
+        assertEquals(991L, guard.getNumFoldedStopWatches());
+    }
+
+    public void testFoldedStopWatchesKeepTheirWeight() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        for (int i = 0; i < 10; i++) {
+            stopWatches.add(new StopWatch(1000L + i, 10L, "get." + i, null).setWeight(100));
+        }
+        GroupingStatisticsIterator iter = new GroupingStatisticsIterator(stopWatches.iterator(), 30000L, false,
+                                                                         new TagCardinalityGuard(2, 100));
+
+        GroupedTimingStatistics statistics = iter.next();
+        assertEquals(100, statistics.getStatisticsByTag().get("get.0").getCount());
+        assertEquals(800, statistics.getStatisticsByTag().get("get.__other__").getCount());
+    }
+}
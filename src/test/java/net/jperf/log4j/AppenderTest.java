@@ -18,6 +18,7 @@ package net.jperf.log4j;
 
 import junit.framework.TestCase;
 import net.jperf.StopWatch;
+import net.jperf.helpers.BinaryStopWatchLogIterator;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -26,6 +27,9 @@ import org.apache.log4j.xml.DOMConfigurator;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
@@ -214,6 +218,35 @@ public class AppenderTest extends TestCase {/*
         }
     }
 
+    public void testBinaryStopWatchAppender() throws Exception {
+        BinaryStopWatchAppender appender = new BinaryStopWatchAppender();
+        appender.setFile("./target/binaryAppenderTest.bin");
+        appender.setAppend(false);
+        appender.activateOptions();
+
+        Logger logger = Logger.getLogger("net.jperf.BinaryAppenderTest");
+        logger.setAdditivity(false);
+        logger.addAppender(appender);
+
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        for (int i = 0; i < 20; i++) {
+            StopWatch stopWatch = new StopWatch(System.currentTimeMillis(), i, "binaryTest", (i % 2 == 0) ? null : "m");
+            logger.info(stopWatch.toString());
+            logger.info("not a stop watch message");
+            expected.add(stopWatch);
+        }
+
+        //close the appender, which flushes the file
+        appender.close();
+
+        List<StopWatch> read = new ArrayList<StopWatch>();
+        for (Iterator<StopWatch> iter = BinaryStopWatchLogIterator.open(new File("./target/binaryAppenderTest.bin"));
+             iter.hasNext();) {
+            read.add(iter.next());
+        }
+        assertEquals(expected, read);
+    }
+
     protected static class TestLoggingThread extends Thread {
         protected static final AtomicInteger index = new AtomicInteger();
 
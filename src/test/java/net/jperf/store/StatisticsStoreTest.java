@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.store;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Tests the StatisticsStore and RetentionTier classes.
+ */
+public class StatisticsStoreTest extends TestCase {
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+    /**
+     * A fixed day boundary, so bucket and segment boundaries are deterministic.
+     */
+    private static final long BASE_TIME = 20000L * DAY;
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        directory = new File("./target/statisticsStoreTest");
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testQueryTiers() throws Exception {
+        StatisticsStore store = new StatisticsStore(directory, RetentionTier.parseList("10s:1d,1m:30d"));
+        //4 minutes of 10 second windows, with one "a.x" sample and i "a.y" samples of i ms in each window
+        for (int i = 0; i < 24; i++) {
+            store.append(window(BASE_TIME + i * 10000L, 10000L, i));
+        }
+
+        RetentionTier fine = store.getTiers().get(0);
+        RetentionTier coarse = store.getTiers().get(1);
+
+        List<GroupedTimingStatistics> fineResults = store.query(fine, "a.x", false, BASE_TIME, BASE_TIME + 4 * 60000L);
+        assertEquals(24, fineResults.size());
+        assertEquals(BASE_TIME + 10000L, fineResults.get(1).getStartTime());
+        assertEquals(BASE_TIME + 20000L, fineResults.get(1).getStopTime());
+        assertEquals(1, fineResults.get(1).getStatisticsByTag().size());
+
+        List<GroupedTimingStatistics> coarseResults =
+                store.query(coarse, "a.", true, BASE_TIME, BASE_TIME + 4 * 60000L);
+        assertEquals(4, coarseResults.size());
+        GroupedTimingStatistics firstMinute = coarseResults.get(0);
+        assertEquals(BASE_TIME, firstMinute.getStartTime());
+        assertEquals(BASE_TIME + 60000L, firstMinute.getStopTime());
+        assertEquals(6, firstMinute.getStatisticsByTag().get("a.x").getCount());
+        //a.y has 0 + 1 + 2 + 3 + 4 + 5 samples in the first minute, each of i ms
+        TimingStatistics y = firstMinute.getStatisticsByTag().get("a.y");
+        assertEquals(15, y.getCount());
+        assertEquals(1L, y.getMin());
+        assertEquals(5L, y.getMax());
+        assertEquals((1 + 2 * 2 + 3 * 3 + 4 * 4 + 5 * 5) / 15.0, y.getMean(), 0.000001);
+
+        //range restriction and exact tag matching
+        List<GroupedTimingStatistics> middle = store.query(coarse, "a", false, BASE_TIME + 60000L, BASE_TIME + 120000L);
+        assertTrue(middle.isEmpty());
+        middle = store.query(coarse, "a.y", false, BASE_TIME + 60000L, BASE_TIME + 120000L);
+        assertEquals(1, middle.size());
+        assertEquals(BASE_TIME + 60000L, middle.get(0).getStartTime());
+
+        store.close();
+    }
+
+    public void testReopenStore() throws Exception {
+        List<RetentionTier> tiers = RetentionTier.parseList("1m:1d");
+        StatisticsStore store = new StatisticsStore(directory, tiers);
+        store.append(window(BASE_TIME, 30000L, 2));
+        List<GroupedTimingStatistics> beforeClose = store.query(tiers.get(0), "", true, BASE_TIME, BASE_TIME + DAY);
+        store.close();
+
+        //the in-progress bucket is continued by the reopened store, and both records are merged when read
+        store = new StatisticsStore(directory, tiers);
+        assertEquals(beforeClose, store.query(tiers.get(0), "", true, BASE_TIME, BASE_TIME + DAY));
+        store.append(window(BASE_TIME + 30000L, 30000L, 3));
+        store.flush();
+        store.close();
+
+        store = new StatisticsStore(directory, tiers);
+        List<GroupedTimingStatistics> results = store.query(tiers.get(0), "a.y", false, BASE_TIME, BASE_TIME + DAY);
+        assertEquals(1, results.size());
+        assertEquals(5, results.get(0).getStatisticsByTag().get("a.y").getCount());
+        store.close();
+    }
+
+    public void testTornRecord() throws Exception {
+        List<RetentionTier> tiers = RetentionTier.parseList("1m:1d");
+        StatisticsStore store = new StatisticsStore(directory, tiers);
+        store.append(window(BASE_TIME, 60000L, 2));
+        store.close();
+
+        //a crash in the middle of a record, with a length prefix that is too long and a negative one
+        File segment = new File(new File(directory, tiers.get(0).getName()), tierSegment(BASE_TIME));
+        long completeLength = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(completeLength);
+        file.writeInt(1000);
+        file.writeLong(BASE_TIME + 60000L);
+        file.writeInt(-5);
+        file.close();
+
+        store = new StatisticsStore(directory, tiers);
+        assertEquals(1, store.query(tiers.get(0), "a.y", false, BASE_TIME, BASE_TIME + DAY).size());
+        //the reopened segment is truncated to its complete records before the next bucket is appended
+        store.append(window(BASE_TIME + 60000L, 60000L, 3));
+        store.append(window(BASE_TIME + 120000L, 60000L, 4));
+        store.flush();
+        List<GroupedTimingStatistics> results = store.query(tiers.get(0), "a.y", false, BASE_TIME, BASE_TIME + DAY);
+        assertEquals(3, results.size());
+        assertEquals(3, results.get(1).getStatisticsByTag().get("a.y").getCount());
+        assertEquals(4, results.get(2).getStatisticsByTag().get("a.y").getCount());
+        store.close();
+
+        file = new RandomAccessFile(segment, "rw");
+        file.seek(segment.length());
+        file.writeInt(-5);
+        file.writeLong(0L);
+        file.writeLong(0L);
+        file.writeShort(0);
+        file.close();
+        store = new StatisticsStore(directory, tiers);
+        assertEquals(3, store.query(tiers.get(0), "a.", true, BASE_TIME, BASE_TIME + DAY).size());
+        store.close();
+    }
+
+    public void testRetention() throws Exception {
+        List<RetentionTier> tiers = RetentionTier.parseList("1h:2d");
+        StatisticsStore store = new StatisticsStore(directory, tiers);
+        File tierDirectory = new File(directory, tiers.get(0).getName());
+
+        store.append(window(BASE_TIME, 60000L, 1));
+        store.append(window(BASE_TIME + DAY, 60000L, 1));
+        store.append(window(BASE_TIME + 2 * DAY, 60000L, 1));
+        store.flush();
+        //the day 2 bucket is still in progress, so only 2 segments have been written
+        assertEquals(2, tierDirectory.list().length);
+
+        //starting the segment for day 3 expires day 0, since it is entirely more than 2 days old
+        store.append(window(BASE_TIME + 3 * DAY, 60000L, 1));
+        store.append(window(BASE_TIME + 3 * DAY + 2 * 60 * 60000L, 60000L, 1));
+        store.flush();
+        assertEquals(3, tierDirectory.list().length);
+        assertTrue(store.query(tiers.get(0), "a.x", false, BASE_TIME, BASE_TIME + DAY).isEmpty());
+        assertEquals(1, store.query(tiers.get(0), "a.x", false, BASE_TIME + DAY, BASE_TIME + 2 * DAY).size());
+        store.close();
+    }
+
+    public void testSelectTier() throws Exception {
+        StatisticsStore store = new StatisticsStore(directory) {
+            protected long currentTimeMillis() {
+                return BASE_TIME;
+            }
+        };
+        List<RetentionTier> tiers = store.getTiers();
+        assertEquals(3, tiers.size());
+        assertEquals(tiers.get(0), store.selectTier(BASE_TIME - 60000L));
+        assertEquals(tiers.get(1), store.selectTier(BASE_TIME - 2 * DAY));
+        assertEquals(tiers.get(2), store.selectTier(BASE_TIME - 100 * DAY));
+        assertEquals(tiers.get(2), store.selectTier(BASE_TIME - 1000 * DAY));
+        store.close();
+    }
+
+    public void testParseTiers() throws Exception {
+        assertEquals(new RetentionTier(10000L, DAY), RetentionTier.parse("10s:1d"));
+        assertEquals(new RetentionTier(500L, 60L * 60000L), RetentionTier.parse(" 500ms : 1h "));
+        assertEquals(new RetentionTier(60000L, 30000L), RetentionTier.parse("1m:30000"));
+
+        try {
+            RetentionTier.parseList("1m:1d,10s:1h");
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected, tiers out of order
+        }
+        try {
+            RetentionTier.parse("1x:1d");
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    // --- helper methods ---
+
+    private String tierSegment(long time) {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd");
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dayFormat.format(time) + StatisticsStore.SEGMENT_SUFFIX;
+    }
+
+    private GroupedTimingStatistics window(long startTime, long length, int ySamples) {
+        GroupedTimingStatistics retVal =
+                new GroupedTimingStatistics(new TreeMap<String, TimingStatistics>(), startTime, startTime + length,
+                                            false);
+        retVal.addStopWatch(new StopWatch(startTime, 100L, "a.x", null));
+        for (int i = 0; i < ySamples; i++) {
+            retVal.addStopWatch(new StopWatch(startTime, ySamples, "a.y", null));
+        }
+        return retVal;
+    }
+}